@@ -17,6 +17,7 @@ package com.emc.ecs.nfsclient.network;
 import com.emc.ecs.nfsclient.rpc.Xdr;
 
 import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ChannelStateEvent;
 import org.jboss.netty.channel.ExceptionEvent;
@@ -95,7 +96,7 @@ public class ClientIOHandler extends SimpleChannelHandler {
      * org.jboss.netty.channel.ChannelStateEvent)
      */
     public void channelDisconnected(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
-        closeConnection("Channel disconnected");
+        closeConnection("Channel disconnected", ctx.getChannel());
     }
 
     /*
@@ -107,13 +108,13 @@ public class ClientIOHandler extends SimpleChannelHandler {
      * org.jboss.netty.channel.ChannelStateEvent)
      */
     public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
-        closeConnection("Channel closed");
+        closeConnection("Channel closed", ctx.getChannel());
     }
 
     /**
-     * Convenience method to standardize connection closing.We never try to
-     * reconnect the tcp connections. the new connection will be launched when
-     * new request is received. Reasons:
+     * Convenience method to standardize connection closing. Idle tcp
+     * connections are never reconnected, the new connection will be launched
+     * when new request is received. Reasons:
      * <ol>
      * <li>Portmap service will disconnect a tcp connection once it has been
      * idle for a few seconds.</li>
@@ -121,13 +122,17 @@ public class ClientIOHandler extends SimpleChannelHandler {
      * change after nfs server restart.</li>
      * <li>Even Nfs server may be listening to a temporary port.</li>
      * </ol>
+     * A connection with calls in progress is reopened a few times, so that
+     * those calls can be sent again with their original xids.
      * 
      * @param messageStart
      *            A string used to start the log message.
+     * @param channel
+     *            The channel being closed.
      */
-    private void closeConnection(String messageStart) {
+    private void closeConnection(String messageStart, Channel channel) {
         LOG.warn(messageStart + ": {}", getRemoteAddress());
-        _connection.close();
+        _connection.close(channel);
     }
 
     /*
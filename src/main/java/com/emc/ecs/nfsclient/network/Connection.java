@@ -16,6 +16,7 @@ package com.emc.ecs.nfsclient.network;
 
 import com.emc.ecs.nfsclient.rpc.RpcException;
 import com.emc.ecs.nfsclient.rpc.RpcStatus;
+import com.emc.ecs.nfsclient.rpc.RpcTimeoutException;
 import com.emc.ecs.nfsclient.rpc.Xdr;
 
 import org.jboss.netty.bootstrap.ClientBootstrap;
@@ -27,12 +28,17 @@ import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.Channels;
 import org.jboss.netty.channel.socket.nio.NioSocketChannelConfig;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
 /**
  * Each Connection instance manages a tcp connection. The class is used to send
@@ -108,14 +114,125 @@ public class Connection {
     private final boolean _usePrivilegedPort;
 
     /**
-     * Store the ChannelFuture instances while they are in progress. The map is final, but the content will change.
+     * A call waiting for its response.
      */
-    private final ConcurrentHashMap<Integer, ChannelFuture> _futureMap = new ConcurrentHashMap<Integer, ChannelFuture>();
+    private static class PendingCall {
+
+        /**
+         * The request, kept so that it can be sent again with the same xid
+         * after a reconnect.
+         */
+        private final Xdr _request;
+
+        /**
+         * The channel on which the request was last written.
+         */
+        private volatile Channel _channel;
+
+        /**
+         * The future for the response.
+         */
+        private final CompletableFuture<Xdr> _future = new CompletableFuture<Xdr>();
+
+        /**
+         * <code>true</code> once the request has been sent again after a
+         * reconnect, so that the time to its response is no round-trip
+         * sample.
+         */
+        private volatile boolean _resent = false;
+
+        /**
+         * The timer entry that expires the call, set just after the call is
+         * registered.
+         */
+        private volatile Timeout _timeout;
+
+        /**
+         * @param request
+         *            The request.
+         */
+        private PendingCall(Xdr request) {
+            _request = request;
+        }
+
+        /**
+         * Remove the call from the timer, if it has been scheduled.
+         */
+        private void cancelTimeout() {
+            Timeout timeout = _timeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+
+    }
+
+    /**
+     * Store the calls while they are in progress, by xid. The map is final, but the content will change.
+     */
+    private final ConcurrentHashMap<Integer, PendingCall> _pendingCalls = new ConcurrentHashMap<Integer, PendingCall>();
 
     /**
-     * Store the Xdr response instances while they are in progress. The map is final, but the content will change.
+     * Limits the calls and request bytes in flight on this connection.
      */
-    private final ConcurrentHashMap<Integer, Xdr> _responseMap = new ConcurrentHashMap<Integer, Xdr>();
+    private final CreditWindow _window;
+
+    /**
+     * The byte budget shared with the other connections of the same lane, or
+     * <code>null</code> if there is none.
+     */
+    private final CreditWindow _laneWindow;
+
+    /**
+     * The number of times a dropped connection is reopened before its pending
+     * calls are failed.
+     */
+    private static final int MAXIMUM_RECONNECT_ATTEMPTS = 3;
+
+    /**
+     * The wait between reconnect attempts in milliseconds.
+     */
+    private static final long RECONNECT_WAIT = 1000;
+
+    /**
+     * The last channel whose closing has been handled, so that the several
+     * events for one closing are handled once.
+     */
+    private Channel _closedChannel;
+
+    /**
+     * <code>true</code> once the connection has been closed for good,
+     * <code>false</code> otherwise.
+     */
+    private volatile boolean _closed = false;
+
+    /**
+     * <code>true</code> while a reconnect is in progress, <code>false</code>
+     * otherwise.
+     */
+    private boolean _reconnecting = false;
+
+    /**
+     * The {@link System#nanoTime()} of the last request sent or response
+     * received.
+     */
+    private volatile long _lastActivity = System.nanoTime();
+
+    /**
+     * <code>false</code> once a ping has failed, until the connection is
+     * reopened.
+     */
+    private volatile boolean _healthy = true;
+
+    /**
+     * Round-trip time estimate for metadata calls on this connection.
+     */
+    private final RttEstimator _metadataRtt = new RttEstimator();
+
+    /**
+     * Round-trip time estimate for data transfer calls on this connection.
+     */
+    private final RttEstimator _dataRtt = new RttEstimator();
 
     /**
      * Simple enums for communicating connection states.
@@ -143,9 +260,26 @@ public class Connection {
      *            </ul>
      */
     public Connection(String remoteHost, int port, boolean usePrivilegedPort) {
+        this(remoteHost, port, usePrivilegedPort, null);
+    }
+
+    /**
+     * @param remoteHost A unique name for the host to which the connection is being made.
+     * @param port The remote host port being used for the connection.
+     * @param usePrivilegedPort
+     *            If <code>true</code>, use a privileged port (below 1024) for
+     *            RPC communication.
+     * @param laneWindow
+     *            The byte budget shared with the other connections of the same
+     *            lane, or <code>null</code> if there is none.
+     */
+    Connection(String remoteHost, int port, boolean usePrivilegedPort, CreditWindow laneWindow) {
         _remoteHost = remoteHost;
+        _laneWindow = laneWindow;
         _port = port;
         _usePrivilegedPort = usePrivilegedPort;
+        _window = new CreditWindow(NetMgr.getInstance().getMaximumRequestsPerConnection(),
+                NetMgr.getInstance().getMaximumBytesPerConnection());
         _clientBootstrap = new ClientBootstrap(NetMgr.getInstance().getFactory());
         // Configure the client.
         _clientBootstrap.setOption(REMOTE_ADDRESS_OPTION, new InetSocketAddress(_remoteHost, _port));
@@ -186,6 +320,29 @@ public class Connection {
         return (InetSocketAddress) _clientBootstrap.getOption(REMOTE_ADDRESS_OPTION);
     }
 
+    /**
+     * @return The number of calls waiting for a response on this connection.
+     */
+    public int getPendingRequestCount() {
+        return _pendingCalls.size();
+    }
+
+    /**
+     * @return The time since the last request was sent or response received,
+     *         in nanoseconds.
+     */
+    public long getIdleNanos() {
+        return System.nanoTime() - _lastActivity;
+    }
+
+    /**
+     * @return <code>false</code> if the last ping failed and the connection
+     *         has not been reopened since, <code>true</code> otherwise.
+     */
+    public boolean isHealthy() {
+        return _healthy;
+    }
+
     /**
      * Convenience getter method.
      * 
@@ -202,10 +359,10 @@ public class Connection {
      * yet: (1). sendAndWait will wait until the connection is established or
      * timeout or network error occurs. (2). Once the connection is established,
      * sendAndWait can send data. b. If the tcp connection is established: (1).
-     * the request is put in the internal queue of netty. Netty will send it
-     * asap. If there are already lots of pending requests in the queue,
-     * sendAndWait return error. (2). sendAndWait will wait until it gets a
-     * response from NFS server or timeout. (3). If the tcp connection is
+     * sendAndWait waits until the connection window and the client byte
+     * budget have room for the request, or timeout. (2). the request is put
+     * in the internal queue of netty. Netty will send it asap. (3). sendAndWait will wait until it gets a
+     * response from NFS server or timeout. (4). If the tcp connection is
      * broken, the function return error with network error. c. If the tcp
      * connection is broken suddenly: (1) the old sendAndWait will get the
      * network error or timeout (2) The new sendAndWait will follow (a).
@@ -218,6 +375,154 @@ public class Connection {
      * @throws RpcException
      */
     public Xdr sendAndWait(int timeout, Xdr xdrRequest) throws RpcException {
+        return getResponse(sendAsync(xdrRequest, timeout, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Send a RPC request and wait for the response, using a timeout derived
+     * from the round-trip times measured on this connection for the same class
+     * of call. The timeout doubles with each attempt, and never exceeds
+     * <code>maximumTimeout</code>, which is also used until the first
+     * measurement is available.
+     * 
+     * @param maximumTimeout
+     *            The maximum timeout in seconds.
+     * @param xdrRequest
+     *            The generic RPC data and protocol-specific data.
+     * @param isDataTransfer
+     *            <code>true</code> for calls that move file data, whose
+     *            round-trip times are tracked separately from metadata calls.
+     * @param attempt
+     *            The number of earlier attempts of the call.
+     * @return The Xdr data for the response.
+     * @throws RpcException
+     */
+    public Xdr sendAndWait(int maximumTimeout, Xdr xdrRequest, boolean isDataTransfer, int attempt)
+            throws RpcException {
+        return getResponse(sendAsync(maximumTimeout, xdrRequest, isDataTransfer, attempt));
+    }
+
+    /**
+     * Send a RPC request without waiting for the response, using a timeout
+     * derived from the round-trip times as in
+     * {@link #sendAndWait(int, Xdr, boolean, int)}. Cancelling the returned
+     * future abandons the call.
+     * 
+     * @param maximumTimeout
+     *            The maximum timeout in seconds.
+     * @param xdrRequest
+     *            The generic RPC data and protocol-specific data.
+     * @param isDataTransfer
+     *            <code>true</code> for calls that move file data.
+     * @param attempt
+     *            The number of earlier attempts of the call.
+     * @return The future for the Xdr data of the response.
+     * @throws RpcException
+     *             If the request could not be sent.
+     */
+    public CompletableFuture<Xdr> sendAsync(int maximumTimeout, Xdr xdrRequest, boolean isDataTransfer, int attempt)
+            throws RpcException {
+        long timeout = getRttEstimator(isDataTransfer).getTimeout(attempt,
+                TimeUnit.SECONDS.toNanos(maximumTimeout));
+        // a reply to a retried call may answer an earlier transmission, so
+        // only first attempts give round-trip samples (Karn's rule)
+        return sendAsync(xdrRequest, timeout, TimeUnit.NANOSECONDS, isDataTransfer, attempt == 0);
+    }
+
+    /**
+     * Send a RPC request whose duration is not a network round trip, such as a
+     * COMMIT that flushes a lot of data, without waiting for the response. It
+     * always gets the whole timeout, and its duration is not used as a
+     * round-trip sample.
+     * 
+     * @param timeout
+     *            The timeout in seconds.
+     * @param xdrRequest
+     *            The generic RPC data and protocol-specific data.
+     * @param isDataTransfer
+     *            <code>true</code> for calls that move file data.
+     * @return The future for the Xdr data of the response.
+     * @throws RpcException
+     *             If the request could not be sent.
+     */
+    public CompletableFuture<Xdr> sendLongRunningAsync(int timeout, Xdr xdrRequest, boolean isDataTransfer)
+            throws RpcException {
+        return sendAsync(xdrRequest, TimeUnit.SECONDS.toNanos(timeout), TimeUnit.NANOSECONDS, isDataTransfer, false);
+    }
+
+    /**
+     * Send a metadata RPC request without waiting for the response. See
+     * {@link #sendAsync(Xdr, long, TimeUnit, boolean)}.
+     * 
+     * @param xdrRequest
+     *            The generic RPC data and protocol-specific data.
+     * @param timeout
+     *            The time allowed for the call.
+     * @param unit
+     *            The unit of the timeout.
+     * @return The future for the Xdr data of the response.
+     * @throws RpcException
+     *             If the request could not be sent.
+     */
+    public CompletableFuture<Xdr> sendAsync(Xdr xdrRequest, long timeout, TimeUnit unit) throws RpcException {
+        return sendAsync(xdrRequest, timeout, unit, false);
+    }
+
+    /**
+     * Send a RPC request without waiting for the response. The call behaves
+     * like {@link #sendAndWait(int, Xdr)}, except that the caller only blocks
+     * while the connection is being established or the credit windows are
+     * full. The returned future completes when the response arrives, or
+     * exceptionally with an {@link RpcException} when the deadline passes or
+     * the connection fails. The deadline covers the whole call, including any
+     * wait for credit, and is enforced by the shared timer of {@link NetMgr},
+     * so no thread is parked per call.
+     * <p>
+     * Dependent actions run on a Netty I/O thread unless an asynchronous
+     * variant is used, so they must not block.
+     * </p>
+     * 
+     * @param xdrRequest
+     *            The generic RPC data and protocol-specific data.
+     * @param timeout
+     *            The time allowed for the call.
+     * @param unit
+     *            The unit of the timeout.
+     * @param isDataTransfer
+     *            <code>true</code> for calls that move file data, whose
+     *            round-trip times are tracked separately from metadata calls.
+     * @return The future for the Xdr data of the response.
+     * @throws RpcException
+     *             If the request could not be sent.
+     */
+    public CompletableFuture<Xdr> sendAsync(Xdr xdrRequest, long timeout, TimeUnit unit, boolean isDataTransfer)
+            throws RpcException {
+        return sendAsync(xdrRequest, timeout, unit, isDataTransfer, true);
+    }
+
+    /**
+     * Send a RPC request without waiting for the response, as in
+     * {@link #sendAsync(Xdr, long, TimeUnit, boolean)}.
+     * 
+     * @param xdrRequest
+     *            The generic RPC data and protocol-specific data.
+     * @param timeout
+     *            The time allowed for the call.
+     * @param unit
+     *            The unit of the timeout.
+     * @param isDataTransfer
+     *            <code>true</code> for calls that move file data.
+     * @param sampleRtt
+     *            <code>true</code> if the time to the response is a round-trip
+     *            sample for the class of call, <code>false</code> otherwise.
+     * @return The future for the Xdr data of the response.
+     * @throws RpcException
+     *             If the request could not be sent.
+     */
+    private CompletableFuture<Xdr> sendAsync(Xdr xdrRequest, long timeout, TimeUnit unit, boolean isDataTransfer,
+            final boolean sampleRtt) throws RpcException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
         // no lock is required here.
         // The status may be changed after the checking,
         // or there exists a small window that the status is not consistent to
@@ -237,51 +542,248 @@ public class Connection {
             }
         }
 
-        // check whether the internal queue of netty has enough spaces to hold
-        // the request
-        // False means that the too many pending requests are in the queue or
-        // the connection is closed.
-        if (_channel.isWritable() == false) {
-            String msg;
-            if (_channel.isConnected()) {
-                msg = String.format("too many pending requests for the connection: %s", getRemoteAddress());
-            } else {
-                msg = String.format("the connection is broken: %s", getRemoteAddress());
-            }
-
-            // too many pending request are in the queue, return error
+        if (_channel.isConnected() == false) {
+            String msg = String.format("the connection is broken: %s", getRemoteAddress());
             throw new RpcException(RpcStatus.NETWORK_ERROR, msg);
         }
 
-        // put the request into a map for timeout management
-        ChannelFuture timeoutFuture = Channels.future(_channel);
-        Integer xid = Integer.valueOf(xdrRequest.getXid());
-        _futureMap.put(xid, timeoutFuture);
+        // wait for room in the connection window, the lane budget and the
+        // client byte budget, rather than failing when many requests are
+        // pending
+        final long requestSize = xdrRequest.getOffset() + xdrRequest.getPayloadsSize();
+        final CreditWindow clientWindow = NetMgr.getInstance().getClientWindow();
+        acquireCredit(_window, requestSize, deadline, "connection window");
+        try {
+            if (_laneWindow != null) {
+                acquireCredit(_laneWindow, requestSize, deadline, "lane byte budget");
+            }
+            try {
+                acquireCredit(clientWindow, requestSize, deadline, "client byte budget");
+            } catch (RpcException e) {
+                if (_laneWindow != null) {
+                    _laneWindow.release(requestSize);
+                }
+                throw e;
+            }
+        } catch (RpcException e) {
+            _window.release(requestSize);
+            throw e;
+        }
 
-        // put the request into the queue of the netty, netty will send data
-        // asynchronously
-        RecordMarkingUtil.putRecordMarkingAndSend(_channel, xdrRequest);
+        final RttEstimator rttEstimator = getRttEstimator(isDataTransfer);
+        final long sendTime = System.nanoTime();
+        final PendingCall call = send(xdrRequest, deadline);
+        call._future.whenComplete(new BiConsumer<Xdr, Throwable>() {
+            /* (non-Javadoc)
+             * @see java.util.function.BiConsumer#accept(java.lang.Object, java.lang.Object)
+             */
+            public void accept(Xdr response, Throwable failure) {
+                clientWindow.release(requestSize);
+                if (_laneWindow != null) {
+                    _laneWindow.release(requestSize);
+                }
+                _window.release(requestSize);
+                if ((failure == null) && sampleRtt && !call._resent) {
+                    rttEstimator.update(System.nanoTime() - sendTime);
+                }
+            }
+        });
+        return call._future;
+    }
 
-        timeoutFuture.awaitUninterruptibly(timeout, TimeUnit.SECONDS);
+    /**
+     * @param isDataTransfer
+     *            <code>true</code> for calls that move file data.
+     * @return The round-trip time estimate for the class of call.
+     */
+    private RttEstimator getRttEstimator(boolean isDataTransfer) {
+        return isDataTransfer ? _dataRtt : _metadataRtt;
+    }
 
-        // remove the response from timeout maps
-        Xdr response = _responseMap.remove(xid);
-        _futureMap.remove(xid);
+    /**
+     * Wait for the response to a call started by
+     * {@link #sendAsync(Xdr, long, TimeUnit, boolean)}.
+     * 
+     * @param future
+     *            The future for the call.
+     * @return The Xdr data for the response.
+     * @throws RpcException
+     *             If the call failed or timed out.
+     */
+    public static Xdr getResponse(CompletableFuture<Xdr> future) throws RpcException {
+        try {
+            // join() waits uninterruptibly, as the timer ends the wait
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RpcException) {
+                throw (RpcException) e.getCause();
+            }
+            throw new RpcException(RpcStatus.NETWORK_ERROR, "rpc call failed", e);
+        }
+    }
+
+    /**
+     * Send a request once credit has been taken for it, registering it in the
+     * pending table and on the timer.
+     * 
+     * @param xdrRequest
+     *            The generic RPC data and protocol-specific data.
+     * @param deadline
+     *            The deadline, as a {@link System#nanoTime()} value.
+     * @return The pending call, with the future for the Xdr data of the
+     *         response.
+     */
+    private PendingCall send(Xdr xdrRequest, long deadline) {
+        // put the request into the pending table for timeout management
+        final Integer xid = Integer.valueOf(xdrRequest.getXid());
+        final PendingCall call = new PendingCall(xdrRequest);
+        _pendingCalls.put(xid, call);
+        call._timeout = NetMgr.getInstance().getTimer().newTimeout(new TimerTask() {
+            /* (non-Javadoc)
+             * @see org.jboss.netty.util.TimerTask#run(org.jboss.netty.util.Timeout)
+             */
+            public void run(Timeout timeout) {
+                String msg = String.format("rpc request timeout on the connection: %s", getRemoteAddress());
+                LOG.warn(msg);
+                failCall(xid, call, new RpcTimeoutException(msg));
+            }
+        }, Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
 
-        if (timeoutFuture.isSuccess() == false) {
+        // an abandoned call leaves the pending table at once
+        call._future.whenComplete(new BiConsumer<Xdr, Throwable>() {
+            /* (non-Javadoc)
+             * @see java.util.function.BiConsumer#accept(java.lang.Object, java.lang.Object)
+             */
+            public void accept(Xdr response, Throwable failure) {
+                if (call._future.isCancelled() && _pendingCalls.remove(xid, call)) {
+                    call.cancelTimeout();
+                }
+            }
+        });
 
-            LOG.warn("cause:", timeoutFuture.getCause());
+        _lastActivity = System.nanoTime();
+        write(xid, call);
+        return call;
+    }
 
-            if (timeoutFuture.isDone()) {
-                String msg = String.format("tcp IO error on the connection: %s", getRemoteAddress());
-                throw new RpcException(RpcStatus.NETWORK_ERROR, msg);
-            } else {
-                String msg = String.format("rpc request timeout on the connection: %s", getRemoteAddress());
-                throw new RpcException(RpcStatus.NETWORK_ERROR, msg);
+    /**
+     * Send a NULL procedure request to check that the server still answers on
+     * this connection, with a timeout derived from the metadata round-trip
+     * times. If no answer comes, the connection is marked unhealthy and its
+     * channel is closed, so that it is reopened, or replaced, before
+     * application calls need it.
+     * 
+     * @param pingRequest
+     *            The NULL procedure request.
+     * @param maximumTimeout
+     *            The maximum timeout in seconds.
+     * @return The future for the channel close after a failed ping, or
+     *         <code>null</code> if the ping succeeded or could not be sent.
+     */
+    CompletableFuture<ChannelFuture> ping(Xdr pingRequest, int maximumTimeout) {
+        final CompletableFuture<ChannelFuture> result = new CompletableFuture<ChannelFuture>();
+        long timeout = _metadataRtt.getTimeout(0, TimeUnit.SECONDS.toNanos(maximumTimeout));
+        try {
+            sendAsync(pingRequest, timeout, TimeUnit.NANOSECONDS).whenComplete(new BiConsumer<Xdr, Throwable>() {
+                /* (non-Javadoc)
+                 * @see java.util.function.BiConsumer#accept(java.lang.Object, java.lang.Object)
+                 */
+                public void accept(Xdr response, Throwable failure) {
+                    if (failure == null) {
+                        result.complete(null);
+                    } else {
+                        LOG.warn("ping failed, reopening the connection to {}", getRemoteAddress());
+                        _healthy = false;
+                        result.complete(_channel.close());
+                    }
+                }
+            });
+        } catch (RpcException e) {
+            LOG.warn("ping could not be sent to {}: {}", getRemoteAddress(), e.getMessage());
+            result.complete(null);
+        }
+        return result;
+    }
+
+    /**
+     * Write a pending call on the current channel. If the write fails, the
+     * channel is closed, and the call is left for the reconnect to send again.
+     * 
+     * @param xid
+     *            The call xid.
+     * @param call
+     *            The pending call.
+     */
+    private void write(final Integer xid, final PendingCall call) {
+        Channel channel = _channel;
+        call._channel = channel;
+
+        // put the request into the queue of the netty, netty will send data
+        // asynchronously
+        ChannelFuture writeFuture = RecordMarkingUtil.putRecordMarkingAndSend(channel, call._request);
+        writeFuture.addListener(new ChannelFutureListener() {
+            /* (non-Javadoc)
+             * @see org.jboss.netty.channel.ChannelFutureListener#operationComplete(org.jboss.netty.channel.ChannelFuture)
+             */
+            public void operationComplete(ChannelFuture future) {
+                if (future.isSuccess() == false) {
+                    LOG.warn("cause:", future.getCause());
+                    if (_closed) {
+                        String msg = String.format("tcp IO error on the connection: %s", getRemoteAddress());
+                        failCall(xid, call, new RpcException(RpcStatus.NETWORK_ERROR, msg));
+                    } else {
+                        future.getChannel().close();
+                    }
+                }
             }
+        });
+    }
+
+    /**
+     * Fail a call, if it is still pending.
+     * 
+     * @param xid
+     *            The call xid.
+     * @param call
+     *            The pending call.
+     * @param failure
+     *            The exception to fail it with.
+     */
+    private void failCall(Integer xid, PendingCall call, RpcException failure) {
+        if (_pendingCalls.remove(xid, call)) {
+            call.cancelTimeout();
+            call._future.completeExceptionally(failure);
         }
+    }
 
-        return response;
+    /**
+     * Take a credit from a window, waiting at most until the call deadline.
+     * 
+     * @param window
+     *            The window.
+     * @param requestSize
+     *            The request size in bytes.
+     * @param deadline
+     *            The deadline, as a {@link System#nanoTime()} value.
+     * @param windowName
+     *            The window name, for error messages.
+     * @throws RpcException
+     *             If the timeout expires or the thread is interrupted first.
+     */
+    private void acquireCredit(CreditWindow window, long requestSize, long deadline, String windowName)
+            throws RpcException {
+        boolean acquired;
+        try {
+            acquired = window.acquire(requestSize, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            String msg = String.format("interrupted while waiting for the %s: %s", windowName, getRemoteAddress());
+            throw new RpcException(RpcStatus.LOCAL_WAIT_TIMEOUT, msg, e);
+        }
+        if (!acquired) {
+            String msg = String.format("rpc request timeout waiting for the %s: %s", windowName, getRemoteAddress());
+            throw new RpcException(RpcStatus.LOCAL_WAIT_TIMEOUT, msg);
+        }
     }
 
     /**
@@ -320,6 +822,8 @@ public class Connection {
             public void operationComplete(ChannelFuture future) {
                 if (_channelFuture.isSuccess()) {
                     _state = State.CONNECTED;
+                    _healthy = true;
+                    _lastActivity = System.nanoTime();
                     oldChannelFuture.setSuccess();
                 } else {
                     _state = State.DISCONNECTED;
@@ -335,11 +839,111 @@ public class Connection {
      * This is called when the application is shutdown or the channel is closed.
      */
     protected void shutdown() {
+        _closed = true;
         if (_channel != null) {
             _channel.close();
         }
     }
 
+    /**
+     * This is called when a channel of this connection has been closed or
+     * disconnected. If calls are waiting for responses, the connection is
+     * reopened in the background and their requests are sent again with their
+     * original xids, so that the server can answer retransmitted
+     * non-idempotent calls from its duplicate request cache. Callers only see
+     * an error if the connection cannot be reopened before their deadlines.
+     * Otherwise the connection is closed for good, and the next call opens a
+     * new one.
+     * 
+     * @param channel
+     *            The channel that was closed.
+     */
+    protected void close(Channel channel) {
+        synchronized (this) {
+            if (_closed || _reconnecting || (channel == _closedChannel) || (channel != _channel)) {
+                return;
+            }
+            _closedChannel = channel;
+            if (_pendingCalls.isEmpty() == false) {
+                _reconnecting = true;
+                // new calls wait for the reconnect instead of failing
+                _state = State.CONNECTING;
+                _channelFuture = Channels.future(null, true);
+                LOG.warn("reconnecting to {} to resend {} pending calls", getRemoteAddress(), _pendingCalls.size());
+                NetMgr.getInstance().getExecutor().execute(new Runnable() {
+                    /* (non-Javadoc)
+                     * @see java.lang.Runnable#run()
+                     */
+                    public void run() {
+                        reconnect();
+                    }
+                });
+                return;
+            }
+        }
+        close();
+    }
+
+    /**
+     * Reopen the connection and send all pending calls again, or close the
+     * connection for good if that fails.
+     */
+    private void reconnect() {
+        for (int attempt = 0; (attempt < MAXIMUM_RECONNECT_ATTEMPTS) && (_closed == false); ++attempt) {
+            if (attempt > 0) {
+                try {
+                    Thread.sleep(RECONNECT_WAIT);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            try {
+                ChannelFuture channelFuture;
+                synchronized (this) {
+                    connect();
+                    channelFuture = _channelFuture;
+                }
+                if (channelFuture.awaitUninterruptibly().isSuccess()) {
+                    resendPendingCalls();
+                    Channel channel;
+                    synchronized (this) {
+                        _reconnecting = false;
+                        channel = _channel;
+                    }
+                    // handle a close that was ignored while reconnecting
+                    if (channel.isConnected() == false) {
+                        close(channel);
+                    }
+                    return;
+                }
+            } catch (RpcException e) {
+                LOG.warn("reconnect failed: {}", e.getMessage());
+            }
+        }
+        close();
+        synchronized (this) {
+            _reconnecting = false;
+        }
+    }
+
+    /**
+     * Send every pending call that was written on an earlier channel again,
+     * with its original xid.
+     */
+    private void resendPendingCalls() {
+        int count = 0;
+        for (Integer xid : _pendingCalls.keySet()) {
+            PendingCall call = _pendingCalls.get(xid);
+            if ((call != null) && (call._channel != _channel)) {
+                call._resent = true;
+                write(xid, call);
+                ++count;
+            }
+        }
+        LOG.info("reconnected to {}, resent {} pending calls", getRemoteAddress(), count);
+    }
+
     /**
      * This is called when the connection should be closed.
      */
@@ -349,24 +953,25 @@ public class Connection {
         shutdown();
 
         // remove the connection from map
-        NetMgr.getInstance().dropConnection(InetSocketAddress.createUnresolved(_remoteHost, _port));
+        NetMgr.getInstance().dropConnection(InetSocketAddress.createUnresolved(_remoteHost, _port), this);
 
         // notify all the pending requests in the timeout map
         notifyAllPendingSenders("Channel closed, connection closing.");
     }
 
     /**
-     * Update the response map with the response and notify the thread waiting for the
-     * response. Do nothing if the future has been removed.
+     * Complete the pending call with the response and remove it from the
+     * timer. Do nothing if the call has already timed out or failed.
      * 
      * @param xid
      * @param response
      */
     protected void notifySender(Integer xid, Xdr response) {
-        ChannelFuture future = _futureMap.get(xid);
-        if (future != null) {
-            _responseMap.put(xid, response);
-            future.setSuccess();
+        _lastActivity = System.nanoTime();
+        PendingCall call = _pendingCalls.remove(xid);
+        if (call != null) {
+            call.cancelTimeout();
+            call._future.complete(response);
         }
     }
 
@@ -374,8 +979,12 @@ public class Connection {
      * Notify all the senders of all pending requests
      */
     protected void notifyAllPendingSenders(String message) {
-        for (ChannelFuture future : _futureMap.values()) {
-            future.setFailure(new Error(message));
+        for (Integer xid : _pendingCalls.keySet()) {
+            PendingCall call = _pendingCalls.get(xid);
+            if (call != null) {
+                String msg = String.format("tcp IO error on the connection: %s, %s", getRemoteAddress(), message);
+                failCall(xid, call, new RpcException(RpcStatus.NETWORK_ERROR, msg));
+            }
         }
     }
 
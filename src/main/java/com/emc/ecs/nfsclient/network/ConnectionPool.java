@@ -0,0 +1,251 @@
+/**
+ * Copyright 2016-2018 Dell Inc. or its subsidiaries. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.nfsclient.network;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.emc.ecs.nfsclient.rpc.RpcException;
+
+/**
+ * A fixed number of connections to one server endpoint, in two lanes. Data
+ * transfer calls (READ, WRITE and COMMIT) use the bulk lane, and all other
+ * calls use the metadata lane, so that small calls never wait in a socket
+ * buffer behind megabytes of file data. The bytes in flight on the bulk lane
+ * are also bounded, so that bulk transfers cannot take all of the client byte
+ * budget. Connections are created as they are needed, and each call goes to
+ * the connection of its lane with the fewest calls in progress, so that
+ * parallel callers spread over several TCP connections. Connections whose last
+ * ping failed are avoided while others are available. With no metadata
+ * connections, both kinds of call share the bulk lane.
+ *
+ * @author seibed
+ */
+class ConnectionPool {
+
+    /**
+     * The remote server address.
+     */
+    private final String _remoteHost;
+
+    /**
+     * The remote server port.
+     */
+    private final int _port;
+
+    /**
+     * <ul>
+     * <li>If <code>true</code>, use a privileged local port (below 1024) for
+     * RPC communication.</li>
+     * <li>If <code>false</code>, use any non-privileged local port for RPC
+     * communication.</li>
+     * </ul>
+     */
+    private final boolean _usePrivilegedPort;
+
+    /**
+     * The connections for data transfer calls.
+     */
+    private final Lane _bulkLane;
+
+    /**
+     * The connections for all other calls, or <code>null</code> if they share
+     * the bulk lane.
+     */
+    private final Lane _metadataLane;
+
+    /**
+     * @param remoteHost
+     *            The remote server address.
+     * @param port
+     *            The remote server port.
+     * @param usePrivilegedPort
+     *            Whether to use a privileged local port.
+     * @param size
+     *            The number of bulk connections.
+     * @param metadataSize
+     *            The number of metadata connections, or 0 to send all calls
+     *            over the bulk connections.
+     * @param maximumBulkBytes
+     *            The maximum number of request bytes in flight on the bulk
+     *            connections.
+     */
+    ConnectionPool(String remoteHost, int port, boolean usePrivilegedPort, int size, int metadataSize,
+            long maximumBulkBytes) {
+        _remoteHost = remoteHost;
+        _port = port;
+        _usePrivilegedPort = usePrivilegedPort;
+        _bulkLane = new Lane(size, (metadataSize > 0) ? new CreditWindow(Integer.MAX_VALUE, maximumBulkBytes) : null);
+        _metadataLane = (metadataSize > 0) ? new Lane(metadataSize, null) : null;
+    }
+
+    /**
+     * @param isDataTransfer
+     *            <code>true</code> for calls that move file data.
+     * @return The connection to use for the next call, creating one if a slot
+     *         of its lane is empty.
+     * @throws RpcException
+     */
+    synchronized Connection getConnection(boolean isDataTransfer) throws RpcException {
+        Lane lane = (isDataTransfer || (_metadataLane == null)) ? _bulkLane : _metadataLane;
+        int start = lane._nextIndex;
+        lane._nextIndex = (lane._nextIndex + 1) % lane._connections.length;
+
+        Connection leastBusy = null;
+        for (int i = 0; i < lane._connections.length; ++i) {
+            int index = (start + i) % lane._connections.length;
+            Connection connection = lane._connections[index];
+            if (connection == null) {
+                return open(lane, index);
+            }
+            if ((leastBusy == null) || (connection.isHealthy() && !leastBusy.isHealthy())
+                    || ((connection.isHealthy() == leastBusy.isHealthy())
+                            && (connection.getPendingRequestCount() < leastBusy.getPendingRequestCount()))) {
+                leastBusy = connection;
+            }
+        }
+        return leastBusy;
+    }
+
+    /**
+     * Open a connection in the first empty slot of each lane, if there is one.
+     *
+     * @throws RpcException
+     */
+    synchronized void refill() throws RpcException {
+        for (Lane lane : getLanes()) {
+            for (int i = 0; i < lane._connections.length; ++i) {
+                if (lane._connections[i] == null) {
+                    open(lane, i);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The connections that have been created and not dropped.
+     */
+    synchronized List<Connection> getConnections() {
+        List<Connection> connections = new ArrayList<Connection>();
+        for (Lane lane : getLanes()) {
+            for (Connection connection : lane._connections) {
+                if (connection != null) {
+                    connections.add(connection);
+                }
+            }
+        }
+        return connections;
+    }
+
+    /**
+     * @return The number of request bytes in flight on the bulk connections.
+     */
+    long getBulkBytesInFlight() {
+        CreditWindow window = _bulkLane._window;
+        return (window == null) ? 0 : window.getBytesInFlight();
+    }
+
+    /**
+     * Remove a dropped connection, so that its slot is refilled by the next
+     * call.
+     *
+     * @param connection
+     *            The connection.
+     */
+    synchronized void remove(Connection connection) {
+        for (Lane lane : getLanes()) {
+            for (int i = 0; i < lane._connections.length; ++i) {
+                if (lane._connections[i] == connection) {
+                    lane._connections[i] = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Called when the application is being shut down.
+     */
+    synchronized void shutdown() {
+        for (Connection connection : getConnections()) {
+            connection.shutdown();
+        }
+    }
+
+    /**
+     * Create and connect a connection in an empty slot.
+     *
+     * @param lane
+     *            The lane.
+     * @param index
+     *            The slot.
+     * @return The connection.
+     * @throws RpcException
+     */
+    private Connection open(Lane lane, int index) throws RpcException {
+        Connection connection = new Connection(_remoteHost, _port, _usePrivilegedPort, lane._window);
+        lane._connections[index] = connection;
+        connection.connect();
+        return connection;
+    }
+
+    /**
+     * @return The lanes in use.
+     */
+    private List<Lane> getLanes() {
+        return (_metadataLane == null) ? Arrays.asList(_bulkLane) : Arrays.asList(_bulkLane, _metadataLane);
+    }
+
+    /**
+     * The connections of one lane.
+     *
+     * @author seibed
+     */
+    private static class Lane {
+
+        /**
+         * The connections, with <code>null</code> for those not yet created or
+         * dropped.
+         */
+        private final Connection[] _connections;
+
+        /**
+         * The byte budget shared by the connections of the lane, or
+         * <code>null</code> if it has none.
+         */
+        private final CreditWindow _window;
+
+        /**
+         * Used to rotate the starting point of the search, so that ties are
+         * spread evenly.
+         */
+        private int _nextIndex = 0;
+
+        /**
+         * @param size
+         *            The number of connections.
+         * @param window
+         *            The byte budget shared by the connections, or
+         *            <code>null</code> for none.
+         */
+        private Lane(int size, CreditWindow window) {
+            _connections = new Connection[size];
+            _window = window;
+        }
+
+    }
+
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright 2016-2018 Dell Inc. or its subsidiaries. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.nfsclient.network;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of requests and request bytes in flight. Callers take a
+ * credit before sending and give it back once the call is finished, waiting
+ * while the window is full instead of failing. A single request larger than
+ * the byte limit is let through when nothing else is in flight, so that it
+ * cannot wait forever.
+ *
+ * @author seibed
+ */
+class CreditWindow {
+
+    /**
+     * The maximum number of requests in flight.
+     */
+    private int _maximumRequests;
+
+    /**
+     * The maximum number of request bytes in flight.
+     */
+    private long _maximumBytes;
+
+    /**
+     * The number of requests in flight.
+     */
+    private int _requestsInFlight = 0;
+
+    /**
+     * The number of request bytes in flight.
+     */
+    private long _bytesInFlight = 0;
+
+    /**
+     * @param maximumRequests
+     *            The maximum number of requests in flight.
+     * @param maximumBytes
+     *            The maximum number of request bytes in flight.
+     */
+    CreditWindow(int maximumRequests, long maximumBytes) {
+        setLimits(maximumRequests, maximumBytes);
+    }
+
+    /**
+     * Change the limits. Credits already taken are kept, and waiting callers
+     * are woken up to check the new limits.
+     *
+     * @param maximumRequests
+     *            The maximum number of requests in flight.
+     * @param maximumBytes
+     *            The maximum number of request bytes in flight.
+     */
+    synchronized void setLimits(int maximumRequests, long maximumBytes) {
+        if (maximumRequests < 1) {
+            throw new IllegalArgumentException("Cannot have a request limit < 1: " + maximumRequests);
+        }
+        if (maximumBytes < 1) {
+            throw new IllegalArgumentException("Cannot have a byte limit < 1: " + maximumBytes);
+        }
+        _maximumRequests = maximumRequests;
+        _maximumBytes = maximumBytes;
+        notifyAll();
+    }
+
+    /**
+     * Take a credit for one request, waiting until the window has room for it.
+     *
+     * @param bytes
+     *            The request size in bytes.
+     * @param timeout
+     *            The maximum time to wait.
+     * @param unit
+     *            The unit of the timeout.
+     * @return <code>true</code> if the credit was taken, <code>false</code>
+     *         if the timeout expired first.
+     * @throws InterruptedException
+     */
+    synchronized boolean acquire(long bytes, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!hasRoom(bytes)) {
+            long nanosLeft = deadline - System.nanoTime();
+            if (nanosLeft <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, nanosLeft);
+        }
+        ++_requestsInFlight;
+        _bytesInFlight += bytes;
+        return true;
+    }
+
+    /**
+     * Give back the credit for one request.
+     *
+     * @param bytes
+     *            The request size in bytes, as passed to
+     *            {@link #acquire(long, long, TimeUnit)}.
+     */
+    synchronized void release(long bytes) {
+        --_requestsInFlight;
+        _bytesInFlight -= bytes;
+        notifyAll();
+    }
+
+    /**
+     * @return The number of requests in flight.
+     */
+    synchronized int getRequestsInFlight() {
+        return _requestsInFlight;
+    }
+
+    /**
+     * @return The number of request bytes in flight.
+     */
+    synchronized long getBytesInFlight() {
+        return _bytesInFlight;
+    }
+
+    /**
+     * @param bytes
+     *            The request size in bytes.
+     * @return <code>true</code> if a request of this size can be sent now,
+     *         <code>false</code> otherwise.
+     */
+    private boolean hasRoom(long bytes) {
+        if (_requestsInFlight == 0) {
+            return true;
+        }
+        return (_requestsInFlight < _maximumRequests) && (_bytesInFlight + bytes <= _maximumBytes);
+    }
+
+}
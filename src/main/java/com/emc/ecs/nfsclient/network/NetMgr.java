@@ -18,14 +18,31 @@ import com.emc.ecs.nfsclient.rpc.RpcException;
 import com.emc.ecs.nfsclient.rpc.Xdr;
 
 import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 /**
  * Singleton class to manage all Connection instances
@@ -34,6 +51,11 @@ import java.util.concurrent.ThreadFactory;
  */
 public class NetMgr {
 
+    /**
+     * The usual logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(NetMgr.class);
+
     /**
      * The single instance.
      */
@@ -53,21 +75,144 @@ public class NetMgr {
         super();
     }
 
+    /**
+     * The default number of connections to each server endpoint.
+     */
+    public static final int DEFAULT_CONNECTIONS_PER_SERVER = 1;
+
+    /**
+     * The default number of connections to each server endpoint reserved for
+     * metadata calls. The metadata lane is opt-in, so by default all calls
+     * share the same connections, as before lanes were added.
+     */
+    public static final int DEFAULT_METADATA_CONNECTIONS_PER_SERVER = 0;
+
+    /**
+     * The default maximum number of data transfer request bytes in flight to
+     * each server endpoint.
+     */
+    public static final long DEFAULT_MAXIMUM_BULK_BYTES_PER_SERVER = 32L * 1024 * 1024;
+
+    /**
+     * The tick of the timeout timer in milliseconds, which is the precision of
+     * call deadlines.
+     */
+    private static final long TIMER_TICK_MILLIS = 100;
+
+    /**
+     * The default time in seconds after which an idle connection is pinged.
+     */
+    public static final int DEFAULT_KEEP_ALIVE_INTERVAL = 30;
+
+    /**
+     * The default maximum number of idle connections pinged in each
+     * keepalive round.
+     */
+    public static final int DEFAULT_KEEP_ALIVE_BUDGET = 32;
+
+    /**
+     * The maximum timeout for pings in seconds.
+     */
+    private static final int PING_TIMEOUT = 5;
+
+    /**
+     * The default maximum number of calls in flight on each connection.
+     */
+    public static final int DEFAULT_MAXIMUM_REQUESTS_PER_CONNECTION = 128;
+
+    /**
+     * The default maximum number of request bytes in flight on each
+     * connection.
+     */
+    public static final long DEFAULT_MAXIMUM_BYTES_PER_CONNECTION = 64L * 1024 * 1024;
+
+    /**
+     * The default maximum number of request bytes in flight over all
+     * connections.
+     */
+    public static final long DEFAULT_MAXIMUM_BYTES_IN_FLIGHT = 256L * 1024 * 1024;
+
     /**
      * connection tracking map
      */
-    private ConcurrentHashMap<InetSocketAddress, Connection> _connectionMap = new ConcurrentHashMap<InetSocketAddress, Connection>();
+    private ConcurrentHashMap<InetSocketAddress, ConnectionPool> _connectionMap = new ConcurrentHashMap<InetSocketAddress, ConnectionPool>();
 
     /**
      * privileged connection tracking map
      */
-    private ConcurrentHashMap<InetSocketAddress, Connection> _privilegedConnectionMap = new ConcurrentHashMap<InetSocketAddress, Connection>();
+    private ConcurrentHashMap<InetSocketAddress, ConnectionPool> _privilegedConnectionMap = new ConcurrentHashMap<InetSocketAddress, ConnectionPool>();
+
+    /**
+     * The number of connections to open to each server endpoint.
+     */
+    private volatile int _connectionsPerServer = DEFAULT_CONNECTIONS_PER_SERVER;
+
+    /**
+     * The number of connections to each server endpoint reserved for metadata
+     * calls, or 0 if all calls share the same connections.
+     */
+    private volatile int _metadataConnectionsPerServer = DEFAULT_METADATA_CONNECTIONS_PER_SERVER;
+
+    /**
+     * The maximum number of data transfer request bytes in flight to each
+     * server endpoint.
+     */
+    private volatile long _maximumBulkBytesPerServer = DEFAULT_MAXIMUM_BULK_BYTES_PER_SERVER;
+
+    /**
+     * The maximum number of calls in flight on each new connection.
+     */
+    private volatile int _maximumRequestsPerConnection = DEFAULT_MAXIMUM_REQUESTS_PER_CONNECTION;
+
+    /**
+     * The maximum number of request bytes in flight on each new connection.
+     */
+    private volatile long _maximumBytesPerConnection = DEFAULT_MAXIMUM_BYTES_PER_CONNECTION;
+
+    /**
+     * The byte budget shared by all connections.
+     */
+    private final CreditWindow _clientWindow = new CreditWindow(Integer.MAX_VALUE, DEFAULT_MAXIMUM_BYTES_IN_FLIGHT);
 
     /**
      * Netty helper instance.
      */
     private ChannelFactory _factory = new NioClientSocketChannelFactory(newThreadPool(), newThreadPool());
 
+    /**
+     * Hashed wheel timer that expires the pending calls of all connections.
+     */
+    private final Timer _timer = new HashedWheelTimer(getThreadFactory(), TIMER_TICK_MILLIS, TimeUnit.MILLISECONDS);
+
+    /**
+     * The time in seconds after which an idle connection is pinged, or 0 if
+     * keepalive is disabled.
+     */
+    private volatile int _keepAliveInterval = DEFAULT_KEEP_ALIVE_INTERVAL;
+
+    /**
+     * The maximum number of idle connections pinged in each keepalive round.
+     */
+    private volatile int _keepAliveBudget = DEFAULT_KEEP_ALIVE_BUDGET;
+
+    /**
+     * The factories for ping requests, by server address and port. Only
+     * connections to endpoints with a factory are pinged, so portmap and mount
+     * connections are still left to drop when idle, and each server is pinged
+     * with its own credentials.
+     */
+    private final ConcurrentHashMap<InetSocketAddress, PingRequestFactory> _pingRequestFactories = new ConcurrentHashMap<InetSocketAddress, PingRequestFactory>();
+
+    /**
+     * Set once the keepalive rounds have been scheduled.
+     */
+    private final AtomicBoolean _keepAliveStarted = new AtomicBoolean(false);
+
+    /**
+     * Shared pool of daemon threads, used to run blocking RPC calls in parallel.
+     */
+    private final ExecutorService _executor = newThreadPool();
+
     /**
      * @return a thread pool instance using the proper factory to create daemon threads
      */
@@ -115,17 +260,163 @@ public class NetMgr {
      * @throws RpcException
      */
     public Xdr sendAndWait(String serverIP, int port, boolean usePrivilegedPort, Xdr xdrRequest, int timeout) throws RpcException {
+        return getConnectionPool(serverIP, port, usePrivilegedPort).getConnection(false).sendAndWait(timeout,
+                xdrRequest);
+    }
+
+    /**
+     * Send the request and wait for the response, creating a new connection as
+     * necessary, with a timeout that adapts to the round-trip times measured
+     * on the connection. See
+     * {@link Connection#sendAndWait(int, Xdr, boolean, int)} for details.
+     * 
+     * @param serverIP
+     *            The endpoint of the server being called.
+     * @param port
+     *            The remote host port being called for this operation.
+     * @param usePrivilegedPort
+     *            If <code>true</code>, use a privileged local port (below
+     *            1024) for RPC communication.
+     * @param xdrRequest
+     *            The Xdr data for the request.
+     * @param maximumTimeout
+     *            The maximum timeout in seconds.
+     * @param isDataTransfer
+     *            <code>true</code> for calls that move file data.
+     * @param attempt
+     *            The number of earlier attempts of the call.
+     * @return The Xdr data for the response.
+     * @throws RpcException
+     */
+    public Xdr sendAndWait(String serverIP, int port, boolean usePrivilegedPort, Xdr xdrRequest, int maximumTimeout,
+            boolean isDataTransfer, int attempt) throws RpcException {
+        return getConnectionPool(serverIP, port, usePrivilegedPort).getConnection(isDataTransfer)
+                .sendAndWait(maximumTimeout, xdrRequest, isDataTransfer, attempt);
+    }
+
+    /**
+     * Send a request whose duration is not a network round trip and wait for
+     * the response, creating a new connection as necessary. See
+     * {@link Connection#sendLongRunningAsync(int, Xdr, boolean)} for details.
+     * 
+     * @param serverIP
+     *            The endpoint of the server being called.
+     * @param port
+     *            The remote host port being called for this operation.
+     * @param usePrivilegedPort
+     *            If <code>true</code>, use a privileged local port (below
+     *            1024) for RPC communication.
+     * @param xdrRequest
+     *            The Xdr data for the request.
+     * @param timeout
+     *            The timeout in seconds.
+     * @param isDataTransfer
+     *            <code>true</code> for calls that move file data.
+     * @return The Xdr data for the response.
+     * @throws RpcException
+     */
+    public Xdr sendLongRunningAndWait(String serverIP, int port, boolean usePrivilegedPort, Xdr xdrRequest,
+            int timeout, boolean isDataTransfer) throws RpcException {
+        return Connection.getResponse(getConnectionPool(serverIP, port, usePrivilegedPort)
+                .getConnection(isDataTransfer).sendLongRunningAsync(timeout, xdrRequest, isDataTransfer));
+    }
+
+    /**
+     * Send the request without waiting for the response, creating a new
+     * connection as necessary, with a timeout that adapts to the round-trip
+     * times measured on the connection. See
+     * {@link Connection#sendAsync(int, Xdr, boolean, int)} for details.
+     * 
+     * @param serverIP
+     *            The endpoint of the server being called.
+     * @param port
+     *            The remote host port being called for this operation.
+     * @param usePrivilegedPort
+     *            If <code>true</code>, use a privileged local port (below
+     *            1024) for RPC communication.
+     * @param xdrRequest
+     *            The Xdr data for the request.
+     * @param maximumTimeout
+     *            The maximum timeout in seconds.
+     * @param isDataTransfer
+     *            <code>true</code> for calls that move file data.
+     * @param attempt
+     *            The number of earlier attempts of the call.
+     * @return The future for the Xdr data of the response.
+     * @throws RpcException
+     *             If the request could not be sent.
+     */
+    public CompletableFuture<Xdr> sendAsync(String serverIP, int port, boolean usePrivilegedPort, Xdr xdrRequest,
+            int maximumTimeout, boolean isDataTransfer, int attempt) throws RpcException {
+        return getConnectionPool(serverIP, port, usePrivilegedPort).getConnection(isDataTransfer)
+                .sendAsync(maximumTimeout, xdrRequest, isDataTransfer, attempt);
+    }
+
+    /**
+     * Send the request without waiting for the response, creating a new
+     * connection as necessary. See
+     * {@link Connection#sendAsync(Xdr, long, TimeUnit)} for details.
+     * 
+     * @param serverIP
+     *            The endpoint of the server being called.
+     * @param port
+     *            The remote host port being called for this operation.
+     * @param usePrivilegedPort
+     *            If <code>true</code>, use a privileged local port (below
+     *            1024) for RPC communication.
+     * @param xdrRequest
+     *            The Xdr data for the request.
+     * @param timeout
+     *            The time allowed for the call.
+     * @param unit
+     *            The unit of the timeout.
+     * @return The future for the Xdr data of the response.
+     * @throws RpcException
+     *             If the request could not be sent.
+     */
+    public CompletableFuture<Xdr> sendAsync(String serverIP, int port, boolean usePrivilegedPort, Xdr xdrRequest,
+            long timeout, TimeUnit unit) throws RpcException {
+        return getConnectionPool(serverIP, port, usePrivilegedPort).getConnection(false).sendAsync(xdrRequest,
+                timeout, unit);
+    }
+
+    /**
+     * Wait for the response to a call started by one of the
+     * <code>sendAsync</code> methods.
+     * 
+     * @param future
+     *            The future for the call.
+     * @return The Xdr data for the response.
+     * @throws RpcException
+     *             If the call failed or timed out.
+     */
+    public static Xdr getResponse(CompletableFuture<Xdr> future) throws RpcException {
+        return Connection.getResponse(future);
+    }
+
+    /**
+     * @param serverIP
+     *            The endpoint of the server being called.
+     * @param port
+     *            The remote host port being called.
+     * @param usePrivilegedPort
+     *            Whether to use a privileged local port.
+     * @return The connection pool for the endpoint, created as necessary.
+     */
+    private ConnectionPool getConnectionPool(String serverIP, int port, boolean usePrivilegedPort) {
         InetSocketAddress key = InetSocketAddress.createUnresolved(serverIP, port);
 
-        Map<InetSocketAddress, Connection> connectionMap = usePrivilegedPort ? _privilegedConnectionMap : _connectionMap;
-        Connection connection = connectionMap.get(key);
-        if (connection == null) {
-            connection = new Connection(serverIP, port, usePrivilegedPort);
-            connectionMap.put(key, connection);
-            connection.connect();
+        ConcurrentHashMap<InetSocketAddress, ConnectionPool> connectionMap = usePrivilegedPort ? _privilegedConnectionMap : _connectionMap;
+        ConnectionPool connectionPool = connectionMap.get(key);
+        if (connectionPool == null) {
+            ConnectionPool newConnectionPool = new ConnectionPool(serverIP, port, usePrivilegedPort,
+                    _connectionsPerServer, _metadataConnectionsPerServer, _maximumBulkBytesPerServer);
+            connectionPool = connectionMap.putIfAbsent(key, newConnectionPool);
+            if (connectionPool == null) {
+                connectionPool = newConnectionPool;
+            }
         }
-
-        return connection.sendAndWait(timeout, xdrRequest);
+        return connectionPool;
     }
 
     /**
@@ -139,19 +430,332 @@ public class NetMgr {
         _privilegedConnectionMap.remove(key);
     }
 
+    /**
+     * Remove a single dropped connection from its pool, leaving any other
+     * connections to the same server in place.
+     * 
+     * @param key
+     *            The key
+     * @param connection
+     *            The dropped connection
+     */
+    void dropConnection(InetSocketAddress key, Connection connection) {
+        ConnectionPool connectionPool = _connectionMap.get(key);
+        if (connectionPool != null) {
+            connectionPool.remove(connection);
+        }
+        connectionPool = _privilegedConnectionMap.get(key);
+        if (connectionPool != null) {
+            connectionPool.remove(connection);
+        }
+    }
+
+    /**
+     * Set the number of data transfer connections to open to each server
+     * endpoint. Calls are spread over them, which lets parallel transfers use
+     * several TCP connections. Metadata calls have their own connections, set
+     * by {@link #setLanes(int, long)}. This only affects endpoints that have
+     * not been used yet.
+     * 
+     * @param connectionsPerServer
+     *            The number of connections, at least 1.
+     */
+    public void setConnectionsPerServer(int connectionsPerServer) {
+        if (connectionsPerServer < 1) {
+            throw new IllegalArgumentException("Cannot have fewer than 1 connection per server: " + connectionsPerServer);
+        }
+        _connectionsPerServer = connectionsPerServer;
+    }
+
+    /**
+     * @return The number of connections opened to each server endpoint.
+     */
+    public int getConnectionsPerServer() {
+        return _connectionsPerServer;
+    }
+
+    /**
+     * Set the lanes of each server endpoint. Data transfer calls (READ, WRITE
+     * and COMMIT) go over the connections set by
+     * {@link #setConnectionsPerServer(int)}, and all other calls over separate
+     * metadata connections, so that small calls do not queue behind file data.
+     * The data transfer bytes in flight to each endpoint are bounded, which
+     * keeps bulk transfers from using all of the client byte budget. The lanes
+     * are disabled by default. This only affects endpoints that have not been
+     * used yet.
+     * 
+     * @param metadataConnectionsPerServer
+     *            The number of metadata connections, or 0 to send all calls
+     *            over the same connections.
+     * @param maximumBulkBytesPerServer
+     *            The maximum number of data transfer request bytes in flight
+     *            to each endpoint, at least 1.
+     */
+    public void setLanes(int metadataConnectionsPerServer, long maximumBulkBytesPerServer) {
+        if (metadataConnectionsPerServer < 0) {
+            throw new IllegalArgumentException(
+                    "Cannot have fewer than 0 metadata connections per server: " + metadataConnectionsPerServer);
+        }
+        if (maximumBulkBytesPerServer < 1) {
+            throw new IllegalArgumentException("Cannot have a bulk byte limit < 1: " + maximumBulkBytesPerServer);
+        }
+        _metadataConnectionsPerServer = metadataConnectionsPerServer;
+        _maximumBulkBytesPerServer = maximumBulkBytesPerServer;
+    }
+
+    /**
+     * @return The number of connections to each server endpoint reserved for
+     *         metadata calls.
+     */
+    public int getMetadataConnectionsPerServer() {
+        return _metadataConnectionsPerServer;
+    }
+
+    /**
+     * @return The maximum number of data transfer request bytes in flight to
+     *         each server endpoint.
+     */
+    public long getMaximumBulkBytesPerServer() {
+        return _maximumBulkBytesPerServer;
+    }
+
+    /**
+     * Set the window of each connection. Callers wait while a connection has
+     * this many calls or request bytes in flight, rather than queuing without
+     * limit. This only affects connections that have not been opened yet.
+     * 
+     * @param maximumRequests
+     *            The maximum number of calls in flight, at least 1.
+     * @param maximumBytes
+     *            The maximum number of request bytes in flight, at least 1.
+     */
+    public void setConnectionWindow(int maximumRequests, long maximumBytes) {
+        if (maximumRequests < 1) {
+            throw new IllegalArgumentException("Cannot have a request limit < 1: " + maximumRequests);
+        }
+        if (maximumBytes < 1) {
+            throw new IllegalArgumentException("Cannot have a byte limit < 1: " + maximumBytes);
+        }
+        _maximumRequestsPerConnection = maximumRequests;
+        _maximumBytesPerConnection = maximumBytes;
+    }
+
+    /**
+     * @return The maximum number of calls in flight on each new connection.
+     */
+    public int getMaximumRequestsPerConnection() {
+        return _maximumRequestsPerConnection;
+    }
+
+    /**
+     * @return The maximum number of request bytes in flight on each new
+     *         connection.
+     */
+    public long getMaximumBytesPerConnection() {
+        return _maximumBytesPerConnection;
+    }
+
+    /**
+     * Set the byte budget shared by all connections, which bounds the memory
+     * held by requests waiting to be sent or answered. This takes effect
+     * immediately.
+     * 
+     * @param maximumBytes
+     *            The maximum number of request bytes in flight, at least 1.
+     */
+    public void setMaximumBytesInFlight(long maximumBytes) {
+        _clientWindow.setLimits(Integer.MAX_VALUE, maximumBytes);
+    }
+
+    /**
+     * @return The number of request bytes in flight over all connections.
+     */
+    public long getBytesInFlight() {
+        return _clientWindow.getBytesInFlight();
+    }
+
+    /**
+     * @return The byte budget shared by all connections.
+     */
+    CreditWindow getClientWindow() {
+        return _clientWindow;
+    }
+
+    /**
+     * Register the NULL procedure requests to use for pinging idle connections
+     * to a server endpoint. Connections to the endpoint that have been idle for
+     * the keepalive interval are then pinged, which keeps them warm and finds
+     * half-open connections before application calls hit them.
+     * 
+     * @param serverIP
+     *            The server address, as used for the connections.
+     * @param port
+     *            The server port.
+     * @param pingRequestFactory
+     *            The factory for NULL procedure requests.
+     */
+    public void setPingRequestFactory(String serverIP, int port, PingRequestFactory pingRequestFactory) {
+        _pingRequestFactories.put(InetSocketAddress.createUnresolved(serverIP, port), pingRequestFactory);
+        if (_keepAliveStarted.compareAndSet(false, true)) {
+            scheduleKeepAlive();
+        }
+    }
+
+    /**
+     * Set the keepalive behaviour, which takes effect from the next round.
+     * 
+     * @param interval
+     *            The time in seconds after which an idle connection is pinged,
+     *            or 0 to disable keepalive.
+     * @param budget
+     *            The maximum number of idle connections pinged in each round,
+     *            which bounds the traffic spent keeping connections warm.
+     */
+    public void setKeepAlive(int interval, int budget) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("Cannot have a keepalive interval < 0: " + interval);
+        }
+        if (budget < 0) {
+            throw new IllegalArgumentException("Cannot have a keepalive budget < 0: " + budget);
+        }
+        _keepAliveInterval = interval;
+        _keepAliveBudget = budget;
+    }
+
+    /**
+     * Schedule the next keepalive round on the timer. Rounds run on the shared
+     * executor, so that slow connections do not hold up the timer.
+     */
+    private void scheduleKeepAlive() {
+        int interval = (_keepAliveInterval > 0) ? _keepAliveInterval : DEFAULT_KEEP_ALIVE_INTERVAL;
+        try {
+            _timer.newTimeout(new TimerTask() {
+                /* (non-Javadoc)
+                 * @see org.jboss.netty.util.TimerTask#run(org.jboss.netty.util.Timeout)
+                 */
+                public void run(Timeout timeout) {
+                    try {
+                        _executor.execute(new Runnable() {
+                            /* (non-Javadoc)
+                             * @see java.lang.Runnable#run()
+                             */
+                            public void run() {
+                                try {
+                                    keepAlive();
+                                } finally {
+                                    scheduleKeepAlive();
+                                }
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        // shutting down
+                    }
+                }
+            }, interval, TimeUnit.SECONDS);
+        } catch (IllegalStateException e) {
+            // the timer has been stopped
+        }
+    }
+
+    /**
+     * Ping the connections that have been idle for the keepalive interval, up
+     * to the budget. A connection whose ping fails is closed, and its slot is
+     * refilled straight away.
+     */
+    private void keepAlive() {
+        int interval = _keepAliveInterval;
+        int budget = _keepAliveBudget;
+        if (interval == 0) {
+            return;
+        }
+        long idleNanos = TimeUnit.SECONDS.toNanos(interval);
+        List<ConnectionPool> connectionPools = new ArrayList<ConnectionPool>();
+        List<PingRequestFactory> factories = new ArrayList<PingRequestFactory>();
+        for (ConcurrentHashMap<InetSocketAddress, ConnectionPool> connectionMap : Arrays.asList(_connectionMap,
+                _privilegedConnectionMap)) {
+            for (Map.Entry<InetSocketAddress, ConnectionPool> entry : connectionMap.entrySet()) {
+                PingRequestFactory factory = _pingRequestFactories.get(entry.getKey());
+                if (factory != null) {
+                    connectionPools.add(entry.getValue());
+                    factories.add(factory);
+                }
+            }
+        }
+
+        for (int i = 0; (i < connectionPools.size()) && (budget > 0); ++i) {
+            final ConnectionPool connectionPool = connectionPools.get(i);
+            for (Connection connection : connectionPool.getConnections()) {
+                if ((budget == 0) || (connection.getConnectionState() != Connection.State.CONNECTED)
+                        || (connection.getPendingRequestCount() > 0) || (connection.getIdleNanos() < idleNanos)) {
+                    continue;
+                }
+                --budget;
+                try {
+                    connection.ping(factories.get(i).newPingRequest(), PING_TIMEOUT)
+                            .thenAccept(new Consumer<ChannelFuture>() {
+                                /* (non-Javadoc)
+                                 * @see java.util.function.Consumer#accept(java.lang.Object)
+                                 */
+                                public void accept(ChannelFuture closeFuture) {
+                                    if (closeFuture != null) {
+                                        closeFuture.addListener(new ChannelFutureListener() {
+                                            /* (non-Javadoc)
+                                             * @see org.jboss.netty.channel.ChannelFutureListener#operationComplete(org.jboss.netty.channel.ChannelFuture)
+                                             */
+                                            public void operationComplete(ChannelFuture future) {
+                                                refill(connectionPool);
+                                            }
+                                        });
+                                    }
+                                }
+                            });
+                } catch (IOException e) {
+                    LOG.warn("could not build a ping request: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Open a connection in any empty slot of a pool, off the I/O thread.
+     * 
+     * @param connectionPool
+     *            The pool.
+     */
+    private void refill(final ConnectionPool connectionPool) {
+        try {
+            _executor.execute(new Runnable() {
+                /* (non-Javadoc)
+                 * @see java.lang.Runnable#run()
+                 */
+                public void run() {
+                    try {
+                        connectionPool.refill();
+                    } catch (RpcException e) {
+                        LOG.warn("could not reopen a connection: {}", e.getMessage());
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // shutting down
+        }
+    }
+
     /**
      * Called when the application is being shut down.
      */
     public void shutdown() {
-        for (Connection connection : _connectionMap.values()) {
-            connection.shutdown();
+        for (ConnectionPool connectionPool : _connectionMap.values()) {
+            connectionPool.shutdown();
         }
 
-        for (Connection connection : _privilegedConnectionMap.values()) {
-            connection.shutdown();
+        for (ConnectionPool connectionPool : _privilegedConnectionMap.values()) {
+            connectionPool.shutdown();
         }
 
         _factory.releaseExternalResources();
+        _timer.stop();
+        _executor.shutdown();
     }
 
     /**
@@ -162,4 +766,23 @@ public class NetMgr {
     public ChannelFactory getFactory() {
         return _factory;
     }
+
+    /**
+     * Getter method for the timer that expires pending calls.
+     * 
+     * @return The timer.
+     */
+    Timer getTimer() {
+        return _timer;
+    }
+
+    /**
+     * Getter method for the shared executor, used by callers that issue several
+     * blocking RPC calls at once.
+     * 
+     * @return The executor.
+     */
+    public ExecutorService getExecutor() {
+        return _executor;
+    }
 }
@@ -0,0 +1,35 @@
+/**
+ * Copyright 2016-2018 Dell Inc. or its subsidiaries. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.nfsclient.network;
+
+import java.io.IOException;
+
+import com.emc.ecs.nfsclient.rpc.Xdr;
+
+/**
+ * Builds the NULL procedure requests used by {@link NetMgr} to check idle
+ * connections and keep them warm.
+ *
+ * @author seibed
+ */
+public interface PingRequestFactory {
+
+    /**
+     * @return A marshalled NULL procedure request with a new xid.
+     * @throws IOException
+     */
+    Xdr newPingRequest() throws IOException;
+
+}
@@ -17,15 +17,14 @@ package com.emc.ecs.nfsclient.network;
 import com.emc.ecs.nfsclient.rpc.Xdr;
 
 import org.apache.commons.lang3.NotImplementedException;
-import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -61,59 +60,104 @@ public class RecordMarkingUtil {
      */
     private static final int MTU_SIZE = 1024 * 1024;
 
+    /**
+     * The default maximum fragment size in bytes.
+     */
+    public static final int DEFAULT_MAXIMUM_FRAGMENT_SIZE = MTU_SIZE;
+
     /**
      * The usual logger.
      */
     private static final Logger LOG = LoggerFactory.getLogger(RecordMarkingUtil.class);
 
+    /**
+     * The maximum fragment size in bytes. Records larger than this are split
+     * into several fragments.
+     */
+    private static volatile int _maximumFragmentSize = DEFAULT_MAXIMUM_FRAGMENT_SIZE;
+
+    /**
+     * Set the maximum fragment size. Servers that do not support multiple
+     * fragments per record need this to be at least as large as the largest
+     * request, e.g., larger than <code>wtmax</code> plus the RPC header when
+     * sending large WRITE requests.
+     * 
+     * @param maximumFragmentSize
+     *            The maximum fragment size in bytes.
+     */
+    public static void setMaximumFragmentSize(int maximumFragmentSize) {
+        if ((maximumFragmentSize <= 0) || (maximumFragmentSize > SIZE_MASK)) {
+            throw new IllegalArgumentException("Invalid maximum fragment size: " + maximumFragmentSize);
+        }
+        _maximumFragmentSize = maximumFragmentSize;
+    }
+
+    /**
+     * @return The maximum fragment size in bytes.
+     */
+    public static int getMaximumFragmentSize() {
+        return _maximumFragmentSize;
+    }
+
     /**
      * Insert record marking into rpcRequest and then send to tcp stream.
      * 
      * @param channel The Channel to use for sending.
      * @param rpcRequest The request to send.
+     * @return The future for the channel write.
      */
-    static void putRecordMarkingAndSend(Channel channel, Xdr rpcRequest) {
-        // XDR header buffer
-        List<ByteBuffer> buffers = new LinkedList<>();
-        buffers.add(ByteBuffer.wrap(rpcRequest.getBuffer(), 0, rpcRequest.getOffset()));
-
-        // payload buffer
-        if (rpcRequest.getPayloads() != null) {
-            buffers.addAll(rpcRequest.getPayloads());
-        }
+    static ChannelFuture putRecordMarkingAndSend(Channel channel, Xdr rpcRequest) {
+        return channel.write(ChannelBuffers.wrappedBuffer(makeRecord(rpcRequest, _maximumFragmentSize)));
+    }
 
-        List<ByteBuffer> outBuffers = new ArrayList<>();
+    /**
+     * Build the record for a request, as record marks followed by slices of the
+     * XDR header and payload buffers. Buffers that cross a fragment boundary
+     * are sliced, not copied, so payload buffers of any size can be sent.
+     * 
+     * @param rpcRequest The request to send.
+     * @param maximumFragmentSize The maximum fragment size in bytes.
+     * @return The buffers to send, in order.
+     */
+    static ByteBuffer[] makeRecord(Xdr rpcRequest, int maximumFragmentSize) {
+        List<ByteBuffer> payloads = rpcRequest.getPayloads();
+        int bufferCount = 1 + ((payloads == null) ? 0 : payloads.size());
+        ByteBuffer[] buffers = new ByteBuffer[bufferCount];
+        buffers[0] = ByteBuffer.wrap(rpcRequest.getBuffer(), 0, rpcRequest.getOffset());
+        long bytesLeft = buffers[0].remaining();
+        for (int i = 1; i < bufferCount; ++i) {
+            buffers[i] = payloads.get(i - 1);
+            bytesLeft += buffers[i].remaining();
+        }
 
-        int bytesToWrite = 0;
-        int remainingBuffers = buffers.size();
-        boolean isLast = false;
+        int fragmentCount = (int) Math.max(1, (bytesLeft + maximumFragmentSize - 1) / maximumFragmentSize);
+        List<ByteBuffer> outBuffers = new ArrayList<ByteBuffer>(2 * fragmentCount + bufferCount);
+        if (bytesLeft == 0) {
+            outBuffers.add(makeRecordMark(0, true));
+        }
 
+        int fragmentBytesLeft = 0;
         for (ByteBuffer buffer : buffers) {
-
-            if (bytesToWrite + buffer.remaining() > MTU_SIZE) {
-                if (outBuffers.isEmpty()) {
-                    LOG.error("too big single byte buffer {}", buffer.remaining());
-                    throw new IllegalArgumentException(
-                            String.format("too big single byte buffer %d", buffer.remaining()));
-                } else {
-
-                    sendBuffers(channel, bytesToWrite, outBuffers, isLast);
-
-                    bytesToWrite = 0;
-                    outBuffers.clear();
+            ByteBuffer rest = buffer.duplicate();
+            while (rest.hasRemaining()) {
+                if (fragmentBytesLeft == 0) {
+                    fragmentBytesLeft = (int) Math.min(maximumFragmentSize, bytesLeft);
+                    bytesLeft -= fragmentBytesLeft;
+                    outBuffers.add(makeRecordMark(fragmentBytesLeft, bytesLeft == 0));
                 }
+                int bytesToAdd = Math.min(fragmentBytesLeft, rest.remaining());
+                ByteBuffer slice = rest.slice();
+                slice.limit(bytesToAdd);
+                outBuffers.add(slice);
+                rest.position(rest.position() + bytesToAdd);
+                fragmentBytesLeft -= bytesToAdd;
             }
-
-            outBuffers.add(buffer);
-            bytesToWrite += buffer.remaining();
-            remainingBuffers -= 1;
-            isLast = (remainingBuffers == 0);
         }
 
-        // send out remaining buffers
-        if (!outBuffers.isEmpty()) {
-            sendBuffers(channel, bytesToWrite, outBuffers, true);
+        if (LOG.isTraceEnabled() && (fragmentCount > 1)) {
+            LOG.trace("sending record in {} fragments", fragmentCount);
         }
+        return outBuffers.toArray(new ByteBuffer[outBuffers.size()]);
     }
 
     /**
@@ -138,8 +182,12 @@ public class RecordMarkingUtil {
             lastFragment = isLastFragment(fragSize);
             fragSize = maskFragmentSize(fragSize);
 
+            // drop the XDR padding, as fragments need not be 4-byte aligned
+            int toReturnOff = toReturn.getOffset();
             toReturn.putBytes(input.getBuffer(), input.getOffset(), (int) fragSize);
-            inputOff += fragSize;
+            toReturn.setOffset(toReturnOff + (int) fragSize);
+            // skip the fragment data, which follows the record mark
+            inputOff = input.getOffset() + (int) fragSize;
             input.setOffset(inputOff);
         }
 
@@ -154,25 +202,15 @@ public class RecordMarkingUtil {
     }
 
     /**
-     * @param channel
-     * @param bytesToWrite
-     * @param outBuffers
-     * @param isLast
+     * @param fragmentSize The number of bytes in the fragment.
+     * @param isLast <code>true</code> for the last fragment of the record.
+     * @return The record mark for the fragment.
      */
-    private static void sendBuffers(Channel channel, int bytesToWrite, List<ByteBuffer> outBuffers, boolean isLast) {
-        ByteBuffer recSizeBuf = ByteBuffer.allocate(4);
-
-        if (isLast) {
-            recSizeBuf.putInt(LAST_FRAG | bytesToWrite);
-        } else {
-            recSizeBuf.putInt(bytesToWrite);
-        }
-        recSizeBuf.rewind();
-        outBuffers.add(0, recSizeBuf);
-
-        ByteBuffer[] outArray = outBuffers.toArray(new ByteBuffer[outBuffers.size()]);
-        ChannelBuffer channelBuffer = ChannelBuffers.wrappedBuffer(outArray);
-        channel.write(channelBuffer);
+    private static ByteBuffer makeRecordMark(int fragmentSize, boolean isLast) {
+        ByteBuffer recordMark = ByteBuffer.allocate(4);
+        recordMark.putInt(isLast ? (LAST_FRAG | fragmentSize) : fragmentSize);
+        recordMark.rewind();
+        return recordMark;
     }
 
     /**
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2016-2018 Dell Inc. or its subsidiaries. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.nfsclient.network;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Smoothed round-trip time estimate for one class of calls, maintained as
+ * described by Jacobson and Karels (and RFC 6298): the smoothed RTT moves by
+ * 1/8 of each error, the mean deviation by 1/4, and the timeout is the
+ * smoothed RTT plus four deviations. Each retry doubles the timeout.
+ *
+ * @author seibed
+ */
+class RttEstimator {
+
+    /**
+     * The smallest timeout ever returned, so that a quiet fast server does not
+     * make ordinary latency spikes time out.
+     */
+    static final long MINIMUM_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * The smoothed round-trip time in nanoseconds, or -1 before the first
+     * sample.
+     */
+    private long _smoothedRtt = -1;
+
+    /**
+     * The smoothed mean deviation of the round-trip time in nanoseconds.
+     */
+    private long _rttVariation = 0;
+
+    /**
+     * Add a round-trip time sample.
+     *
+     * @param rttNanos
+     *            The time from sending a call to receiving its response, in
+     *            nanoseconds.
+     */
+    synchronized void update(long rttNanos) {
+        if (_smoothedRtt < 0) {
+            _smoothedRtt = rttNanos;
+            _rttVariation = rttNanos / 2;
+        } else {
+            long error = rttNanos - _smoothedRtt;
+            _smoothedRtt += error / 8;
+            _rttVariation += (Math.abs(error) - _rttVariation) / 4;
+        }
+    }
+
+    /**
+     * @param attempt
+     *            The number of earlier attempts of the call.
+     * @param maximumNanos
+     *            The largest timeout allowed, in nanoseconds. This is also
+     *            returned before any samples have been taken.
+     * @return The timeout for the next attempt, in nanoseconds.
+     */
+    synchronized long getTimeout(int attempt, long maximumNanos) {
+        if (_smoothedRtt < 0) {
+            return maximumNanos;
+        }
+        long timeout = Math.max(MINIMUM_TIMEOUT_NANOS, _smoothedRtt + 4 * _rttVariation);
+        for (int i = 0; (i < attempt) && (timeout < maximumNanos); ++i) {
+            timeout *= 2;
+        }
+        return Math.min(timeout, maximumNanos);
+    }
+
+    /**
+     * @return The smoothed round-trip time in nanoseconds, or -1 before the
+     *         first sample.
+     */
+    synchronized long getSmoothedRtt() {
+        return _smoothedRtt;
+    }
+
+}
@@ -15,6 +15,7 @@
 package com.emc.ecs.nfsclient.nfs;
 
 import com.emc.ecs.nfsclient.nfs.io.NfsFile;
+import com.emc.ecs.nfsclient.nfs.io.NfsFileHandleCache;
 import com.emc.ecs.nfsclient.rpc.Credential;
 import com.emc.ecs.nfsclient.rpc.Xdr;
 
@@ -244,6 +245,14 @@ public interface Nfs<F extends NfsFile<?, ?>> {
      */
     byte[] getRootFileHandle();
 
+    /**
+     * @return The persistent cache of file handles by path, or
+     *         <code>null</code> if there is none, the default.
+     */
+    default NfsFileHandleCache getFileHandleCache() {
+        return null;
+    }
+
     /**
      * @return The port being used for the NFS server
      */
@@ -264,6 +273,20 @@ public interface Nfs<F extends NfsFile<?, ?>> {
      */
     F newFile(String path) throws IOException;
 
+    /**
+     * Convenience method to create a lazy nfs file from this client and the
+     * path. No calls are made until an operation needs them. The default
+     * creates an ordinary file with {@link #newFile(String)}.
+     * 
+     * @param path
+     *            The file's path from the mount point.
+     * @return the nfs file object
+     * @throws IOException
+     */
+    default F newLazyFile(String path) throws IOException {
+        return newFile(path);
+    }
+
     // RFC 1813 implementation
 
     /**
@@ -1510,7 +1533,8 @@ public interface Nfs<F extends NfsFile<?, ?>> {
      * general information about the NFS version 3 protocol server
      * implementation, as specified by RFC 1813
      * (https://tools.ietf.org/html/rfc1813), using the root handle for the
-     * exported filesystem.
+     * exported filesystem. The data does not change, so implementations may
+     * fetch it once and return it from then on.
      * 
      * @return the data
      * @throws IOException
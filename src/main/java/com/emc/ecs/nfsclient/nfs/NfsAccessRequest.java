@@ -115,6 +115,15 @@ public class NfsAccessRequest extends NfsRequestBase {
         xdr.putUnsignedInt(_accessToCheck);
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.emc.ecs.nfsclient.rpc.RpcRequest#isIdempotent()
+     */
+    public boolean isIdempotent() {
+        return true;
+    }
+
     /*
      * (non-Javadoc)
      * 
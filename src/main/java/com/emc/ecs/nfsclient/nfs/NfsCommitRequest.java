@@ -89,6 +89,24 @@ public class NfsCommitRequest extends NfsRequestBase {
         xdr.putUnsignedInt(_dataSizeToCommit);
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.emc.ecs.nfsclient.rpc.RpcRequest#isDataTransfer()
+     */
+    public boolean isDataTransfer() {
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.emc.ecs.nfsclient.rpc.RpcRequest#isLongRunning()
+     */
+    public boolean isLongRunning() {
+        return true;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -54,6 +54,15 @@ public class NfsFsInfoRequest extends NfsRequestBase {
         super(Nfs.RPC_PROGRAM, nfsVersion, Nfs.NFSPROC3_FSINFO, credential, fileHandle);
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.emc.ecs.nfsclient.rpc.RpcRequest#isIdempotent()
+     */
+    public boolean isIdempotent() {
+        return true;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -51,6 +51,15 @@ public class NfsFsStatRequest extends NfsRequestBase {
         super(Nfs.RPC_PROGRAM, nfsVersion, Nfs.NFSPROC3_FSSTAT, credential, fileHandle);
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.emc.ecs.nfsclient.rpc.RpcRequest#isIdempotent()
+     */
+    public boolean isIdempotent() {
+        return true;
+    }
+
     /*
      * (non-Javadoc)
      * 
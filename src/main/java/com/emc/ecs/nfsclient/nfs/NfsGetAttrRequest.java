@@ -57,6 +57,15 @@ public class NfsGetAttrRequest extends NfsRequestBase {
         super(Nfs.RPC_PROGRAM, nfsVersion, Nfs.NFSPROC3_GETATTR, credential, fileHandle);
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.emc.ecs.nfsclient.rpc.RpcRequest#isIdempotent()
+     */
+    public boolean isIdempotent() {
+        return true;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -103,6 +103,33 @@ public class NfsReadRequest extends NfsRequestBase {
         xdr.putUnsignedInt(_size);
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.emc.ecs.nfsclient.rpc.RpcRequest#isDataTransfer()
+     */
+    public boolean isDataTransfer() {
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.emc.ecs.nfsclient.rpc.RpcRequest#getDataSize()
+     */
+    public long getDataSize() {
+        return _size;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.emc.ecs.nfsclient.rpc.RpcRequest#isIdempotent()
+     */
+    public boolean isIdempotent() {
+        return true;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -108,6 +108,15 @@ public class NfsReaddirRequest extends NfsRequestBase {
         xdr.putUnsignedInt(_count);
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.emc.ecs.nfsclient.rpc.RpcRequest#isIdempotent()
+     */
+    public boolean isIdempotent() {
+        return true;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -128,6 +128,15 @@ public class NfsReaddirplusRequest extends NfsRequestBase {
         xdr.putUnsignedInt(_maxcount);
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.emc.ecs.nfsclient.rpc.RpcRequest#isIdempotent()
+     */
+    public boolean isIdempotent() {
+        return true;
+    }
+
     /*
      * (non-Javadoc)
      * 
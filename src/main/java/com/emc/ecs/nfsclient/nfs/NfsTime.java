@@ -155,6 +155,20 @@ public class NfsTime implements NfsRequest, NfsResponse {
         nanoseconds = xdr.getUnsignedInt();
     }
 
+    /**
+     * @return the seconds part of the time, since the epoch.
+     */
+    public long getSeconds() {
+        return seconds;
+    }
+
+    /**
+     * @return the nanoseconds part of the time, within its second.
+     */
+    public long getNanoseconds() {
+        return nanoseconds;
+    }
+
     /**
      * @return time in milliseconds, same as java.util.Calendar.
      */
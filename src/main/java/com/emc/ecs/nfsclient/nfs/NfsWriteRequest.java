@@ -154,6 +154,24 @@ public class NfsWriteRequest extends NfsRequestBase {
         }
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.emc.ecs.nfsclient.rpc.RpcRequest#isDataTransfer()
+     */
+    public boolean isDataTransfer() {
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.emc.ecs.nfsclient.rpc.RpcRequest#getDataSize()
+     */
+    public long getDataSize() {
+        return _size;
+    }
+
     /*
      * (non-Javadoc)
      * 
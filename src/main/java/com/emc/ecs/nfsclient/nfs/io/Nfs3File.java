@@ -56,6 +56,24 @@ public class Nfs3File extends NfsFileBase<Nfs3, Nfs3File> {
         super(nfs, path, linkTracker);
     }
 
+    /**
+     * The constructor for lazy files, which make no calls until an operation
+     * needs them. See {@link NfsFileBase#NfsFileBase(com.emc.ecs.nfsclient.nfs.Nfs, String, boolean)}.
+     * 
+     * @param nfs
+     *            The supporting NFS client.
+     * @param path
+     *            The full path of the file, starting with the mount point.
+     * @param lazy
+     *            <code>true</code> for a lazy file, <code>false</code> for
+     *            the usual eager resolution.
+     * @throws IOException
+     *             only for eager resolution.
+     */
+    public Nfs3File(Nfs3 nfs, String path, boolean lazy) throws IOException {
+        super(nfs, path, lazy);
+    }
+
     /**
      * The most efficient constructor if the parent file already exists.
      * 
@@ -69,6 +87,16 @@ public class Nfs3File extends NfsFileBase<Nfs3, Nfs3File> {
         super(parent, child);
     }
 
+    /**
+     * The constructor for the lazy parent of a lazy file.
+     * 
+     * @param childFile
+     *            The file whose parent this is.
+     */
+    protected Nfs3File(Nfs3File childFile) {
+        super(childFile);
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -87,4 +115,13 @@ public class Nfs3File extends NfsFileBase<Nfs3, Nfs3File> {
         return new Nfs3File(getNfs(), path, linkTracker);
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.emc.ecs.nfsclient.nfs.io.NfsFileBase#newParentFile()
+     */
+    protected Nfs3File newParentFile() {
+        return new Nfs3File(this);
+    }
+
 }
@@ -0,0 +1,426 @@
+/**
+ * Copyright 2016-2018 Dell Inc. or its subsidiaries. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.nfsclient.nfs.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.emc.ecs.nfsclient.nfs.NfsGetAttributes;
+import com.emc.ecs.nfsclient.nfs.NfsTime;
+
+/**
+ * A persistent cache of NFS file blocks, kept in local files so that it
+ * survives restarts of the client. Each block is stored in its own file, named
+ * by the (fsid, fileid, block number) triple, and is read back through a
+ * <code>MappedByteBuffer</code>. Every block file carries the mtime, ctime and
+ * size of the NFS file at the time it was fetched, with the times to the
+ * nanosecond as the server reports them, and is only returned when those still
+ * match the attributes the caller obtained when opening the file.
+ * The total size on disk is capped, and the least recently used blocks are
+ * evicted first.
+ *
+ * <p>
+ * Instances are thread-safe. Only one instance should use a given directory at
+ * a time.
+ * </p>
+ *
+ * @author seibed
+ */
+public class NfsBlockCache {
+
+    /**
+     * The usual logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(NfsBlockCache.class);
+
+    /**
+     * The default block size, in bytes.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    /**
+     * Suffix used for block files.
+     */
+    private static final String BLOCK_FILE_SUFFIX = ".blk";
+
+    /**
+     * Suffix used for block files that are still being written.
+     */
+    private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+
+    /**
+     * Marker at the start of every block file. Block files from versions
+     * that validated times in milliseconds have a different marker, so they
+     * are dropped rather than trusted.
+     */
+    private static final int MAGIC = 0x4e465343;
+
+    /**
+     * Size of the block file header: magic, mtime and ctime as seconds and
+     * nanoseconds, file size and data length.
+     */
+    static final int HEADER_SIZE = 4 + (8 + 4) + (8 + 4) + 8 + 4;
+
+    /**
+     * The directory holding the block files.
+     */
+    private final File _directory;
+
+    /**
+     * The block size, in bytes.
+     */
+    private final int _blockSize;
+
+    /**
+     * The maximum number of bytes to keep on disk.
+     */
+    private final long _maximumSize;
+
+    /**
+     * Block file names mapped to their sizes on disk, in access order.
+     */
+    private final LinkedHashMap<String, Long> _entries = new LinkedHashMap<String, Long>(64, 0.75f, true);
+
+    /**
+     * The number of bytes currently on disk.
+     */
+    private long _currentSize = 0;
+
+    /**
+     * Creates a cache using the default block size, reloading any blocks left
+     * in the directory by earlier instances.
+     *
+     * @param directory
+     *            The directory holding the block files. It is created if it
+     *            does not exist.
+     * @param maximumSize
+     *            The maximum number of bytes to keep on disk.
+     * @throws IOException
+     */
+    public NfsBlockCache(File directory, long maximumSize) throws IOException {
+        this(directory, DEFAULT_BLOCK_SIZE, maximumSize);
+    }
+
+    /**
+     * Creates a cache, reloading any blocks left in the directory by earlier
+     * instances. Blocks are reloaded in the order of their last use, so the LRU
+     * ordering survives restarts.
+     *
+     * @param directory
+     *            The directory holding the block files. It is created if it
+     *            does not exist.
+     * @param blockSize
+     *            The block size, in bytes. This must not change between
+     *            instances sharing a directory.
+     * @param maximumSize
+     *            The maximum number of bytes to keep on disk.
+     * @throws IOException
+     */
+    public NfsBlockCache(File directory, int blockSize, long maximumSize) throws IOException {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Cannot have a block size <= 0: " + blockSize);
+        }
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("Cannot have a maximum size < 0: " + maximumSize);
+        }
+        _directory = directory;
+        _blockSize = blockSize;
+        _maximumSize = maximumSize;
+        Files.createDirectories(_directory.toPath());
+        loadEntries();
+    }
+
+    /**
+     * @return The block size, in bytes.
+     */
+    public int getBlockSize() {
+        return _blockSize;
+    }
+
+    /**
+     * @return The maximum number of bytes to keep on disk.
+     */
+    public long getMaximumSize() {
+        return _maximumSize;
+    }
+
+    /**
+     * @return The number of bytes currently on disk.
+     */
+    public synchronized long getCurrentSize() {
+        return _currentSize;
+    }
+
+    /**
+     * @return The number of blocks currently on disk.
+     */
+    public synchronized int getBlockCount() {
+        return _entries.size();
+    }
+
+    /**
+     * Looks up a block. Blocks whose validators do not match the attributes
+     * are removed.
+     *
+     * @param attributes
+     *            The attributes of the NFS file, obtained when it was opened.
+     * @param blockNumber
+     *            The block number, i.e., the file offset divided by the block
+     *            size.
+     * @return A read-only buffer holding the block data, or <code>null</code>
+     *         if the block is not cached or is out of date.
+     */
+    public ByteBuffer getBlock(NfsGetAttributes attributes, long blockNumber) {
+        String name = makeBlockFileName(attributes.getFsid(), attributes.getFileid(), blockNumber);
+        synchronized (this) {
+            if (_entries.get(name) == null) {
+                return null;
+            }
+        }
+
+        File blockFile = new File(_directory, name);
+        try (FileChannel channel = FileChannel.open(blockFile.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if ((mapped.remaining() >= HEADER_SIZE) && (mapped.getInt() == MAGIC)
+                    && matches(mapped, attributes.getMtime()) && matches(mapped, attributes.getCtime())
+                    && (mapped.getLong() == attributes.getSize())) {
+                int dataLength = mapped.getInt();
+                if (dataLength == mapped.remaining()) {
+                    blockFile.setLastModified(System.currentTimeMillis());
+                    return mapped.slice().asReadOnlyBuffer();
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to read cached block {}: {}", name, e.getMessage());
+        }
+
+        remove(name);
+        return null;
+    }
+
+    /**
+     * Stores a block, evicting the least recently used blocks if the cache
+     * grows beyond its maximum size. Failures are logged and otherwise ignored,
+     * as the cache is only an optimization.
+     *
+     * @param attributes
+     *            The attributes of the NFS file, obtained when it was opened.
+     * @param blockNumber
+     *            The block number, i.e., the file offset divided by the block
+     *            size.
+     * @param bytes
+     *            The array holding the block data.
+     * @param position
+     *            The position of the block data in the array.
+     * @param length
+     *            The number of bytes in the block, which is less than the block
+     *            size only for the last block of a file.
+     */
+    public void putBlock(NfsGetAttributes attributes, long blockNumber, byte[] bytes, int position, int length) {
+        if ((length < 0) || (length > _blockSize)) {
+            throw new IllegalArgumentException("Invalid block length: " + length);
+        }
+        long fileSize = HEADER_SIZE + length;
+        if (fileSize > _maximumSize) {
+            return;
+        }
+
+        String name = makeBlockFileName(attributes.getFsid(), attributes.getFileid(), blockNumber);
+        Path temporaryPath = new File(_directory, name + "." + Thread.currentThread().getId() + TEMPORARY_FILE_SUFFIX).toPath();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        putTime(header, attributes.getMtime());
+        putTime(header, attributes.getCtime());
+        header.putLong(attributes.getSize());
+        header.putInt(length);
+        header.flip();
+        ByteBuffer[] buffers = new ByteBuffer[] { header, ByteBuffer.wrap(bytes, position, length) };
+
+        try {
+            try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                while (buffers[1].hasRemaining()) {
+                    channel.write(buffers);
+                }
+            }
+            Files.move(temporaryPath, new File(_directory, name).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn("Unable to cache block {}: {}", name, e.getMessage());
+            new File(temporaryPath.toString()).delete();
+            return;
+        }
+
+        synchronized (this) {
+            Long oldSize = _entries.put(name, fileSize);
+            _currentSize += fileSize - ((oldSize == null) ? 0 : oldSize);
+            evictAsNeeded();
+        }
+    }
+
+    /**
+     * Removes all cached blocks of a file.
+     *
+     * @param fsid
+     *            The file system id.
+     * @param fileid
+     *            The file id.
+     */
+    public void invalidate(long fsid, long fileid) {
+        String prefix = makeFilePrefix(fsid, fileid);
+        List<String> names = new ArrayList<String>();
+        synchronized (this) {
+            for (String name : _entries.keySet()) {
+                if (name.startsWith(prefix)) {
+                    names.add(name);
+                }
+            }
+        }
+        for (String name : names) {
+            remove(name);
+        }
+    }
+
+    /**
+     * Removes all cached blocks.
+     */
+    public void clear() {
+        List<String> names;
+        synchronized (this) {
+            names = new ArrayList<String>(_entries.keySet());
+        }
+        for (String name : names) {
+            remove(name);
+        }
+    }
+
+    /**
+     * Block file names are fixed-width hexadecimal, so that all blocks of a
+     * file share a prefix.
+     *
+     * @param fsid
+     * @param fileid
+     * @param blockNumber
+     * @return the block file name
+     */
+    static String makeBlockFileName(long fsid, long fileid, long blockNumber) {
+        return String.format("%s%016x%s", makeFilePrefix(fsid, fileid), blockNumber, BLOCK_FILE_SUFFIX);
+    }
+
+    /**
+     * @param fsid
+     * @param fileid
+     * @return the prefix shared by the names of all blocks of the file
+     */
+    private static String makeFilePrefix(long fsid, long fileid) {
+        return String.format("%016x-%016x-", fsid, fileid);
+    }
+
+    /**
+     * @param header
+     *            The block file header being written.
+     * @param time
+     *            The time to store, as seconds and nanoseconds.
+     */
+    private static void putTime(ByteBuffer header, NfsTime time) {
+        header.putLong(time.getSeconds());
+        header.putInt((int) time.getNanoseconds());
+    }
+
+    /**
+     * @param header
+     *            The block file header being read.
+     * @param time
+     *            The current time from the attributes.
+     * @return <code>true</code> if the stored time is the same to the
+     *         nanosecond
+     */
+    private static boolean matches(ByteBuffer header, NfsTime time) {
+        return (header.getLong() == time.getSeconds()) && (header.getInt() == (int) time.getNanoseconds());
+    }
+
+    /**
+     * Rebuilds the index from the block files on disk, oldest first, and
+     * deletes any leftover temporary files.
+     */
+    private synchronized void loadEntries() {
+        File[] files = _directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File file1, File file2) {
+                return Long.compare(file1.lastModified(), file2.lastModified());
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TEMPORARY_FILE_SUFFIX)) {
+                file.delete();
+            } else if (name.endsWith(BLOCK_FILE_SUFFIX)) {
+                long fileSize = file.length();
+                _entries.put(name, fileSize);
+                _currentSize += fileSize;
+            }
+        }
+        evictAsNeeded();
+    }
+
+    /**
+     * Deletes least recently used blocks until the cache fits its maximum size.
+     * Must be called while holding the lock.
+     */
+    private void evictAsNeeded() {
+        Iterator<Map.Entry<String, Long>> iterator = _entries.entrySet().iterator();
+        while ((_currentSize > _maximumSize) && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            iterator.remove();
+            _currentSize -= entry.getValue();
+            new File(_directory, entry.getKey()).delete();
+        }
+    }
+
+    /**
+     * @param name
+     *            The block file to remove from the index and the disk.
+     */
+    private void remove(String name) {
+        synchronized (this) {
+            Long size = _entries.remove(name);
+            if (size != null) {
+                _currentSize -= size;
+            }
+        }
+        new File(_directory, name).delete();
+    }
+
+}
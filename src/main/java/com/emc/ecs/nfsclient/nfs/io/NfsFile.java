@@ -16,8 +16,14 @@ package com.emc.ecs.nfsclient.nfs.io;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.function.IntFunction;
 
+import com.emc.ecs.nfsclient.network.NetMgr;
 import com.emc.ecs.nfsclient.nfs.*;
 
 /**
@@ -489,6 +495,89 @@ public interface NfsFile<N extends Nfs<?>, F extends NfsFile<N, F>> extends Comp
      */
     F newChildFile(String childName) throws IOException;
 
+    /**
+     * Reads several ranges of the file at once. Ranges that are close together
+     * are coalesced into READ calls of at most <code>rtmax</code> bytes, the
+     * calls are sent in parallel, up to
+     * {@link NfsFileBase#VECTORED_READ_MAXIMUM_CALLS} at a time, and the
+     * future of each range is completed
+     * with a slice of the buffer holding its merged READ. This method returns
+     * as soon as the calls have been started.
+     * 
+     * @param ranges
+     *            The ranges to read, in any order. They may overlap.
+     * @param allocator
+     *            Called with a size in bytes to create each buffer that receives
+     *            the data of a merged READ.
+     * @throws IOException
+     */
+    default void readVectored(List<NfsFileRange> ranges, final IntFunction<ByteBuffer> allocator)
+            throws IOException {
+        final int maximumReadSize = (int) Math.min(getNfs().getNfsFsInfo().rtmax, Integer.MAX_VALUE);
+        // Resolve the handle once, before the calls run in parallel.
+        getFileHandle();
+
+        // A fixed number of workers each take the next merged range until none
+        // are left.
+        final Queue<List<NfsFileRange>> mergedRanges = new ConcurrentLinkedQueue<List<NfsFileRange>>(
+                NfsFileBase.mergeRanges(ranges, maximumReadSize, NfsFileBase.VECTORED_READ_MAXIMUM_GAP));
+        ExecutorService executor = NetMgr.getInstance().getExecutor();
+        for (int i = Math.min(mergedRanges.size(), NfsFileBase.VECTORED_READ_MAXIMUM_CALLS); i > 0; --i) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    List<NfsFileRange> mergedRange;
+                    while ((mergedRange = mergedRanges.poll()) != null) {
+                        NfsFileBase.readMergedRange(NfsFile.this, mergedRange, allocator, maximumReadSize);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Reads the whole file with as few calls as possible. There is no
+     * permission check beforehand, as READ fails with
+     * <code>NFS3ERR_ACCES</code> anyway, and no GETATTR, as the size comes from
+     * the attributes returned by READ. A file no larger than
+     * <code>rtmax</code> bytes is read with a single READ call, plus a LOOKUP
+     * if the handle is not known yet.
+     * 
+     * @return The contents of the file.
+     * @throws IOException
+     *             if the file cannot be read, or is too large for an array.
+     */
+    default byte[] readAllBytes() throws IOException {
+        // the first READ goes straight into the array, with no copy of a reply
+        int maximumReadSize = (int) Math.min(getNfs().getNfsFsInfo().rtmax, Integer.MAX_VALUE - 8);
+        byte[] bytes = new byte[maximumReadSize];
+        NfsReadResponse response = read(0, maximumReadSize, bytes, 0);
+        int bytesRead = response.getBytesRead();
+        boolean eof = response.isEof() || (bytesRead == 0);
+        if (!eof) {
+            // larger than one READ, so size the array from the READ attributes
+            long size = (response.getAttributes() == null) ? 0 : response.getAttributes().getSize();
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new IOException("File is too large to read into an array: " + getAbsolutePath());
+            }
+            if (size > bytes.length) {
+                bytes = Arrays.copyOf(bytes, (int) size);
+            }
+        }
+        while (!eof) {
+            if (bytesRead == bytes.length) {
+                // the file grew since the attributes were returned
+                if (bytes.length >= Integer.MAX_VALUE - 8) {
+                    throw new IOException("File is too large to read into an array: " + getAbsolutePath());
+                }
+                bytes = Arrays.copyOf(bytes, (int) Math.min(2L * bytes.length, Integer.MAX_VALUE - 8));
+            }
+            response = read(bytesRead, Math.min(maximumReadSize, bytes.length - bytesRead), bytes, bytesRead);
+            bytesRead += response.getBytesRead();
+            eof = response.isEof() || (response.getBytesRead() == 0);
+        }
+        return (bytesRead == bytes.length) ? bytes : Arrays.copyOf(bytes, bytesRead);
+    }
+
     /**
      * Renames the file denoted by this abstract pathname.
      * 
@@ -14,11 +14,15 @@
  */
 package com.emc.ecs.nfsclient.nfs.io;
 
+import java.io.EOFException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.function.IntFunction;
 
 import org.apache.commons.lang3.StringUtils;
 
@@ -32,6 +36,17 @@ import com.emc.ecs.nfsclient.nfs.*;
  */
 public abstract class NfsFileBase<N extends Nfs<F>, F extends NfsFile<N, F>> implements NfsFile<N, F> {
 
+    /**
+     * The largest gap between two ranges, in bytes, that a vectored read will
+     * fill in to avoid sending a separate READ call.
+     */
+    public static final int VECTORED_READ_MAXIMUM_GAP = 16 * 1024;
+
+    /**
+     * The largest number of READ calls a vectored read keeps in flight.
+     */
+    public static final int VECTORED_READ_MAXIMUM_CALLS = 16;
+
     /**
      * The full network path to the file.
      */
@@ -52,6 +67,24 @@ public abstract class NfsFileBase<N extends Nfs<F>, F extends NfsFile<N, F>> imp
      */
     private byte[] _fileHandle;
 
+    /**
+     * Set when the file handle was taken from the persistent cache without a
+     * LOOKUP, so that it is dropped if the cache drops it.
+     */
+    private boolean _isFileHandleCached = false;
+
+    /**
+     * The attributes returned by the LOOKUP that set the file handle, used to
+     * tell symbolic links apart without a GETATTR call.
+     */
+    private NfsGetAttributes _lookupAttributes;
+
+    /**
+     * Set once links in the parent file have been followed. Lazy files
+     * postpone this until an operation needs the parent handle.
+     */
+    private boolean _isParentFileResolved = true;
+
     /**
      * The short name of the file, starting from the parent path.
      */
@@ -100,6 +133,32 @@ public abstract class NfsFileBase<N extends Nfs<F>, F extends NfsFile<N, F>> imp
         setParentFileAndName(parent, makeName(path), linkTracker);
     }
 
+    /**
+     * The constructor for lazy files, which are built from the path alone.
+     * No ancestor files are created and no calls are made until an operation
+     * needs them: the parent file is created on first use, and links in it
+     * are followed only when its handle is needed. The names "." and ".." are
+     * resolved within the path string, so ".." after a symbolic link goes to
+     * the parent of the link rather than the parent of its target.
+     * 
+     * @param nfs
+     *            The supporting NFS client.
+     * @param path
+     *            The full path of the file, starting with the mount point.
+     * @param lazy
+     *            <code>true</code> for a lazy file, <code>false</code> for
+     *            the usual eager resolution.
+     * @throws IOException
+     *             only for eager resolution.
+     */
+    public NfsFileBase(N nfs, String path, boolean lazy) throws IOException {
+        // the root file is built without calls, and then repointed
+        this(nfs, lazy ? separator : path, null);
+        if (lazy) {
+            setPathFields(normalizePath(path));
+        }
+    }
+
     /**
      * The most efficient constructor if the parent file already exists.
      * 
@@ -114,6 +173,62 @@ public abstract class NfsFileBase<N extends Nfs<F>, F extends NfsFile<N, F>> imp
         setParentFileAndName(parentFile, childName, null);
     }
 
+    /**
+     * The constructor for the parent of a lazy file, which is itself a lazy
+     * file built from the parent path, so it makes no calls.
+     * 
+     * @param childFile
+     *            The file whose parent this is.
+     */
+    protected NfsFileBase(F childFile) {
+        _nfs = childFile.getNfs();
+        setPathFields(normalizePath(childFile.getParent()));
+    }
+
+    /**
+     * Groups ranges for vectored reads. Ranges are sorted by offset, and each
+     * range joins the previous group if it starts no more than
+     * <code>maximumGap</code> bytes after the end of the group and the group
+     * would not grow beyond <code>maximumMergedSize</code> bytes.
+     * 
+     * @param ranges
+     *            The ranges, in any order.
+     * @param maximumMergedSize
+     *            The largest size of a group, in bytes, unless a single range is
+     *            larger.
+     * @param maximumGap
+     *            The largest gap to fill in, in bytes.
+     * @return The groups, in offset order.
+     */
+    static List<List<NfsFileRange>> mergeRanges(List<NfsFileRange> ranges, int maximumMergedSize, int maximumGap) {
+        List<NfsFileRange> sortedRanges = new ArrayList<NfsFileRange>(ranges);
+        Collections.sort(sortedRanges, new Comparator<NfsFileRange>() {
+            public int compare(NfsFileRange range1, NfsFileRange range2) {
+                return Long.compare(range1.getOffset(), range2.getOffset());
+            }
+        });
+
+        List<List<NfsFileRange>> mergedRanges = new ArrayList<List<NfsFileRange>>();
+        List<NfsFileRange> mergedRange = null;
+        long mergedStart = 0;
+        long mergedEnd = 0;
+        for (NfsFileRange range : sortedRanges) {
+            long newEnd = Math.max(mergedEnd, range.getEnd());
+            if ((mergedRange != null) && (range.getOffset() <= mergedEnd + maximumGap)
+                    && (newEnd - mergedStart <= maximumMergedSize)) {
+                mergedRange.add(range);
+                mergedEnd = newEnd;
+            } else {
+                mergedRange = new ArrayList<NfsFileRange>();
+                mergedRange.add(range);
+                mergedRanges.add(mergedRange);
+                mergedStart = range.getOffset();
+                mergedEnd = range.getEnd();
+            }
+        }
+        return mergedRanges;
+    }
+
     /**
      * @param path
      * @return Everything up to and including the first separator character
@@ -141,6 +256,26 @@ public abstract class NfsFileBase<N extends Nfs<F>, F extends NfsFile<N, F>> imp
         return path.substring(nameStartIndex, endOfNameIndex);
     }
 
+    /**
+     * Resolves "." and ".." and drops empty names, without making any calls.
+     * 
+     * @param path
+     * @return the path, starting with a separator
+     */
+    public static String normalizePath(String path) {
+        List<String> names = new ArrayList<String>();
+        for (String name : StringUtils.split(path, separatorChar)) {
+            if ("..".equals(name)) {
+                if (!names.isEmpty()) {
+                    names.remove(names.size() - 1);
+                }
+            } else if (!".".equals(name)) {
+                names.add(name);
+            }
+        }
+        return separator + StringUtils.join(names, separatorChar);
+    }
+
     /**
      * @param parent
      * @param child
@@ -281,15 +416,9 @@ public abstract class NfsFileBase<N extends Nfs<F>, F extends NfsFile<N, F>> imp
      * @see com.emc.ecs.nfsclient.util.NfsFile#exists()
      */
     public boolean exists() throws IOException {
-        boolean exists = false;
-        try {
-            // force lookup again
-            setFileHandle(null);
-            exists = (getFileHandle() != null);
-        } catch (FileNotFoundException e) {
-            // do nothing
-        }
-        return exists;
+        // force lookup again
+        setFileHandle(false);
+        return _isRootFile || (_fileHandle != null);
     }
 
     /*
@@ -312,7 +441,7 @@ public abstract class NfsFileBase<N extends Nfs<F>, F extends NfsFile<N, F>> imp
     public F followLinks(LinkTracker<N, F> linkTracker) throws IOException {
         if (_backingFile == null) {
             F backingFile = (F) this;
-            NfsGetAttributes attributes = safeGetAttributes(backingFile);
+            NfsGetAttributes attributes = safeGetLookupAttributes();
             while (NfsType.NFS_LNK == attributes.getType()) {
                 if (linkTracker == null) {
                     linkTracker = new LinkTracker<N, F>();
@@ -334,6 +463,22 @@ public abstract class NfsFileBase<N extends Nfs<F>, F extends NfsFile<N, F>> imp
         return _backingFile;
     }
 
+    /**
+     * @return The attributes returned by the LOOKUP for this file if there
+     *         were any, otherwise the current attributes, or empty attributes
+     *         if they cannot be read.
+     */
+    @SuppressWarnings("unchecked")
+    private NfsGetAttributes safeGetLookupAttributes() {
+        try {
+            getFileHandle();
+        } catch (IOException e) {
+            // do nothing, this is expected
+        }
+        NfsGetAttributes attributes = _lookupAttributes;
+        return (attributes != null) ? attributes : safeGetAttributes((F) this);
+    }
+
     /**
      * @param file
      *            The file for which the attributes are wanted.
@@ -415,7 +560,7 @@ public abstract class NfsFileBase<N extends Nfs<F>, F extends NfsFile<N, F>> imp
      * @see com.emc.ecs.nfsclient.util.NfsFile#getAttributes()
      */
     public NfsGetAttributes getAttributes() throws IOException {
-        return getNfs().wrapped_getAttr(getNfs().makeGetAttrRequest(getFileHandle())).getAttributes();
+        return getattr().getAttributes();
     }
 
     /*
@@ -436,8 +581,8 @@ public abstract class NfsFileBase<N extends Nfs<F>, F extends NfsFile<N, F>> imp
         if (_isRootFile) {
             return getNfs().getRootFileHandle();
         }
-        if (_fileHandle == null) {
-            setFileHandle();
+        if ((_fileHandle == null) || _isFileHandleCached) {
+            setFileHandle(true);
         }
         return (_fileHandle == null) ? null : _fileHandle.clone();
     }
@@ -493,6 +638,9 @@ public abstract class NfsFileBase<N extends Nfs<F>, F extends NfsFile<N, F>> imp
      * @see com.emc.ecs.nfsclient.util.NfsFile#getParentFile()
      */
     public F getParentFile() {
+        if ((_parentFile == null) && !_isRootFile) {
+            _parentFile = newParentFile();
+        }
         return _parentFile;
     }
 
@@ -692,10 +840,42 @@ public abstract class NfsFileBase<N extends Nfs<F>, F extends NfsFile<N, F>> imp
      * @see com.emc.ecs.nfsclient.util.NfsFile#mkdirs()
      */
     public void mkdirs() throws IOException {
-        if ((!getParent().equals(separator)) && (!getParentFile().exists())) {
+        // optimistic, the ancestors are only checked if this fails
+        try {
+            mkdirIfMissing();
+        } catch (FileNotFoundException e) {
+            if (getParent().equals(separator)) {
+                throw e;
+            }
             getParentFile().mkdirs();
+            mkdirIfMissing();
+        }
+    }
+
+    /**
+     * Creates the directory, treating an existing directory as success, so
+     * that concurrent calls creating the same directory all succeed. The
+     * handle is taken from the MKDIR response, or from a LOOKUP if the
+     * directory already exists, so that children can be created without
+     * further LOOKUP calls.
+     * 
+     * @throws IOException
+     *             if the parent directory does not exist, or the name exists
+     *             and is not a directory.
+     */
+    private void mkdirIfMissing() throws IOException {
+        try {
+            mkdir();
+        } catch (NfsException e) {
+            if (!NfsStatus.NFS3ERR_EXIST.equals(e.getStatus())) {
+                throw e;
+            }
+            setFileHandle(false);
+            NfsGetAttributes attributes = safeGetLookupAttributes();
+            if ((attributes.getType() != NfsType.NFS_DIR) && !followLinks().isDirectory()) {
+                throw e;
+            }
         }
-        mkdir();
     }
 
     /*
@@ -754,6 +934,13 @@ public abstract class NfsFileBase<N extends Nfs<F>, F extends NfsFile<N, F>> imp
      * @see com.emc.ecs.nfsclient.nfs.NfsFile#readlink()
      */
     public NfsGetAttrResponse getattr() throws IOException {
+        try {
+            return getNfs().wrapped_getAttr(makeGetAttrRequest());
+        } catch (NfsException e) {
+            if (!refreshCachedFileHandle(e)) {
+                throw e;
+            }
+        }
         return getNfs().wrapped_getAttr(makeGetAttrRequest());
     }
 
@@ -801,7 +988,7 @@ public abstract class NfsFileBase<N extends Nfs<F>, F extends NfsFile<N, F>> imp
      * @see com.emc.ecs.nfsclient.nfs.NfsFile#makeLookupRequest()
      */
     public NfsLookupRequest makeLookupRequest() throws IOException {
-        return getNfs().makeLookupRequest(getParentFile().getFileHandle(), getName());
+        return getNfs().makeLookupRequest(getParentFileHandle(), getName());
     }
 
     /*
@@ -846,6 +1033,13 @@ public abstract class NfsFileBase<N extends Nfs<F>, F extends NfsFile<N, F>> imp
      * @see com.emc.ecs.nfsclient.nfs.NfsFile#read(long, int, byte[], int)
      */
     public NfsReadResponse read(long offset, int size, byte[] bytes, int position) throws IOException {
+        try {
+            return getNfs().wrapped_getRead(makeReadRequest(offset, size), bytes, position);
+        } catch (NfsException e) {
+            if (!refreshCachedFileHandle(e)) {
+                throw e;
+            }
+        }
         return getNfs().wrapped_getRead(makeReadRequest(offset, size), bytes, position);
     }
 
@@ -864,6 +1058,13 @@ public abstract class NfsFileBase<N extends Nfs<F>, F extends NfsFile<N, F>> imp
      * @see com.emc.ecs.nfsclient.nfs.NfsFile#write(long, java.util.List, int)
      */
     public NfsWriteResponse write(long offset, List<ByteBuffer> payload, int syncType) throws IOException {
+        try {
+            return getNfs().wrapped_sendWrite(makeWriteRequest(offset, payload, syncType));
+        } catch (NfsException e) {
+            if (!refreshCachedFileHandle(e)) {
+                throw e;
+            }
+        }
         return getNfs().wrapped_sendWrite(makeWriteRequest(offset, payload, syncType));
     }
 
@@ -875,6 +1076,13 @@ public abstract class NfsFileBase<N extends Nfs<F>, F extends NfsFile<N, F>> imp
      */
     public NfsWriteResponse write(long offset, List<ByteBuffer> payload, int syncType, Long verifier)
             throws IOException {
+        try {
+            return getNfs().wrapped_sendWrite(makeWriteRequest(offset, payload, syncType), verifier);
+        } catch (NfsException e) {
+            if (!refreshCachedFileHandle(e)) {
+                throw e;
+            }
+        }
         return getNfs().wrapped_sendWrite(makeWriteRequest(offset, payload, syncType), verifier);
     }
 
@@ -897,7 +1105,7 @@ public abstract class NfsFileBase<N extends Nfs<F>, F extends NfsFile<N, F>> imp
     public NfsCreateResponse create(NfsCreateMode createMode, NfsSetAttributes attributes, byte[] verifier)
             throws IOException {
         NfsCreateResponse response = getNfs().wrapped_sendCreate(getNfs().makeCreateRequest(createMode,
-                getParentFile().getFileHandle(), getName(), attributes, verifier));
+                getParentFileHandle(), getName(), attributes, verifier));
         setFileHandle(response.getFileHandle());
         return response;
     }
@@ -911,7 +1119,7 @@ public abstract class NfsFileBase<N extends Nfs<F>, F extends NfsFile<N, F>> imp
      */
     public NfsCreateRequest makeCreateRequest(NfsCreateMode createMode, NfsSetAttributes attributes, byte[] verifier)
             throws IOException {
-        return getNfs().makeCreateRequest(createMode, getParentFile().getFileHandle(), getName(), attributes, verifier);
+        return getNfs().makeCreateRequest(createMode, getParentFileHandle(), getName(), attributes, verifier);
     }
 
     /*
@@ -934,7 +1142,7 @@ public abstract class NfsFileBase<N extends Nfs<F>, F extends NfsFile<N, F>> imp
      * nfs.NfsSetAttributes)
      */
     public NfsMkdirRequest makeMkdirRequest(NfsSetAttributes attributes) throws IOException {
-        return getNfs().makeMkdirRequest(getParentFile().getFileHandle(), getName(), attributes);
+        return getNfs().makeMkdirRequest(getParentFileHandle(), getName(), attributes);
     }
 
     /*
@@ -958,7 +1166,7 @@ public abstract class NfsFileBase<N extends Nfs<F>, F extends NfsFile<N, F>> imp
      */
     public NfsSymlinkRequest makeSymlinkRequest(String symbolicLinkData, NfsSetAttributes attributes)
             throws IOException {
-        return getNfs().makeSymlinkRequest(symbolicLinkData, getParentFile().getFileHandle(), getName(), attributes);
+        return getNfs().makeSymlinkRequest(symbolicLinkData, getParentFileHandle(), getName(), attributes);
     }
 
     /*
@@ -981,7 +1189,7 @@ public abstract class NfsFileBase<N extends Nfs<F>, F extends NfsFile<N, F>> imp
      * nfs.NfsType, com.emc.ecs.nfsclient.nfs.NfsSetAttributes, long[])
      */
     public NfsMknodRequest makeMknodRequest(NfsType type, NfsSetAttributes attributes, long[] rdev) throws IOException {
-        return getNfs().makeMknodRequest(getParentFile().getFileHandle(), getName(), type, attributes, rdev);
+        return getNfs().makeMknodRequest(getParentFileHandle(), getName(), type, attributes, rdev);
     }
 
     /*
@@ -1001,7 +1209,7 @@ public abstract class NfsFileBase<N extends Nfs<F>, F extends NfsFile<N, F>> imp
      * @see com.emc.ecs.nfsclient.nfs.NfsFile#makeRemoveRequest()
      */
     public NfsRemoveRequest makeRemoveRequest() throws IOException {
-        return getNfs().makeRemoveRequest(getParentFile().getFileHandle(), getName());
+        return getNfs().makeRemoveRequest(getParentFileHandle(), getName());
     }
 
     /*
@@ -1021,7 +1229,7 @@ public abstract class NfsFileBase<N extends Nfs<F>, F extends NfsFile<N, F>> imp
      * @see com.emc.ecs.nfsclient.nfs.NfsFile#makeRmdirRequest()
      */
     public NfsRmdirRequest makeRmdirRequest() throws IOException {
-        return getNfs().makeRmdirRequest(getParentFile().getFileHandle(), getName());
+        return getNfs().makeRmdirRequest(getParentFileHandle(), getName());
     }
 
     /*
@@ -1033,7 +1241,14 @@ public abstract class NfsFileBase<N extends Nfs<F>, F extends NfsFile<N, F>> imp
     public NfsRenameResponse rename(F toFile) throws IOException {
         NfsRenameResponse response = getNfs().wrapped_sendRename(makeRenameRequest(toFile));
         if (response.stateIsOk()) {
+            NfsFileHandleCache fileHandleCache = getNfs().getFileHandleCache();
+            if (fileHandleCache != null) {
+                fileHandleCache.invalidateTree(getAbsolutePath());
+            }
             setPathFields(toFile);
+            if (_fileHandle != null) {
+                setFileHandle(_fileHandle);
+            }
         }
         return response;
     }
@@ -1046,7 +1261,7 @@ public abstract class NfsFileBase<N extends Nfs<F>, F extends NfsFile<N, F>> imp
      * .nfs.NfsFile)
      */
     public NfsRenameRequest makeRenameRequest(F toFile) throws IOException {
-        return getNfs().makeRenameRequest(getParentFile().getFileHandle(), getName(),
+        return getNfs().makeRenameRequest(getParentFileHandle(), getName(),
                 toFile.getParentFile().getFileHandle(), toFile.getName());
     }
 
@@ -1070,7 +1285,7 @@ public abstract class NfsFileBase<N extends Nfs<F>, F extends NfsFile<N, F>> imp
      * nfs.NfsFile)
      */
     public NfsLinkRequest makeLinkRequest(F source) throws IOException {
-        return getNfs().makeLinkRequest(source.getFileHandle(), getParentFile().getFileHandle(), getName());
+        return getNfs().makeLinkRequest(source.getFileHandle(), getParentFileHandle(), getName());
     }
 
     /*
@@ -1235,9 +1450,21 @@ public abstract class NfsFileBase<N extends Nfs<F>, F extends NfsFile<N, F>> imp
 
     /**
      * @param fileHandle
+     *            The file handle, or <code>null</code> if the file does not
+     *            exist. The persistent cache is updated to match.
      */
     protected final void setFileHandle(byte[] fileHandle) {
         _fileHandle = fileHandle;
+        _isFileHandleCached = false;
+        _lookupAttributes = null;
+        NfsFileHandleCache fileHandleCache = getNfs().getFileHandleCache();
+        if ((fileHandleCache != null) && !_isRootFile) {
+            if (fileHandle == null) {
+                fileHandleCache.invalidate(getAbsolutePath());
+            } else {
+                fileHandleCache.put(getAbsolutePath(), fileHandle);
+            }
+        }
     }
 
     /**
@@ -1266,6 +1493,14 @@ public abstract class NfsFileBase<N extends Nfs<F>, F extends NfsFile<N, F>> imp
      */
     protected abstract F newFile(String path, LinkTracker<N, F> linkTracker) throws IOException;
 
+    /**
+     * This creates the lazy parent of a lazy file, using
+     * {@link #NfsFileBase(NfsFile)}.
+     * 
+     * @return A new lazy file for the parent path.
+     */
+    protected abstract F newParentFile();
+
     /**
      * This method handles special cases, such as symbolic links in the parent
      * directory, empty filenames, or the special names "." and "..". The
@@ -1312,6 +1547,57 @@ public abstract class NfsFileBase<N extends Nfs<F>, F extends NfsFile<N, F>> imp
         setPathFields();
     }
 
+    /**
+     * Sets the path fields of a lazy file from its normalized path.
+     * 
+     * @param path
+     *            The normalized path.
+     */
+    private void setPathFields(String path) {
+        _isRootFile = separator.equals(path);
+        _isParentFileResolved = _isRootFile;
+        _parentFile = null;
+        if (_isRootFile) {
+            _parent = separator;
+            _name = "";
+            _path = separator;
+        } else {
+            _parent = makeParentPath(path);
+            if (!_parent.endsWith(separator)) {
+                _parent = _parent + separator;
+            }
+            _name = makeName(path);
+            _path = _parent + _name;
+        }
+        String absolutePathBase = getNfs().getServer() + ":" + getNfs().getExportedPath();
+        if (!absolutePathBase.endsWith(separator)) {
+            absolutePathBase = absolutePathBase + separator;
+        }
+        _absolutePath = absolutePathBase + _path.substring(1);
+    }
+
+    /**
+     * Follows links in the parent file of a lazy file, which may change the
+     * path fields.
+     * 
+     * @throws IOException
+     */
+    private void resolveParentFile() throws IOException {
+        if (!_isParentFileResolved) {
+            setParentFileAndName(getParentFile(), _name, null);
+            _isParentFileResolved = true;
+        }
+    }
+
+    /**
+     * @return The handle of the parent file, after following links in it.
+     * @throws IOException
+     */
+    private byte[] getParentFileHandle() throws IOException {
+        resolveParentFile();
+        return getParentFile().getFileHandle();
+    }
+
     /**
      * 
      */
@@ -1351,12 +1637,69 @@ public abstract class NfsFileBase<N extends Nfs<F>, F extends NfsFile<N, F>> imp
      */
     protected final void setPathFields(F toFile) {
         _parentFile = toFile.getParentFile();
+        _isParentFileResolved = false;
         _parent = toFile.getParent();
         _path = toFile.getPath();
         _absolutePath = toFile.getAbsolutePath();
         _name = toFile.getName();
     }
 
+    /**
+     * Reads one group of ranges with as few READ calls as possible, and
+     * completes the range futures with slices of a single buffer.
+     * 
+     * @param file
+     *            The file being read.
+     * @param mergedRange
+     *            The ranges, in offset order.
+     * @param allocator
+     *            The buffer allocator.
+     * @param maximumReadSize
+     *            The largest number of bytes to request in a single READ call.
+     */
+    static void readMergedRange(NfsFile<?, ?> file, List<NfsFileRange> mergedRange,
+            IntFunction<ByteBuffer> allocator, int maximumReadSize) {
+        try {
+            long start = mergedRange.get(0).getOffset();
+            long end = start;
+            for (NfsFileRange range : mergedRange) {
+                end = Math.max(end, range.getEnd());
+            }
+            int length = (int) (end - start);
+
+            ByteBuffer buffer = allocator.apply(length);
+            byte[] bytes = buffer.hasArray() ? buffer.array() : new byte[length];
+            int position = buffer.hasArray() ? buffer.arrayOffset() + buffer.position() : 0;
+            int bytesRead = 0;
+            boolean eof = false;
+            while ((!eof) && (bytesRead < length)) {
+                NfsReadResponse response = file.read(start + bytesRead,
+                        Math.min(maximumReadSize, length - bytesRead), bytes, position + bytesRead);
+                bytesRead += response.getBytesRead();
+                eof = response.isEof() || (response.getBytesRead() == 0);
+            }
+            if (!buffer.hasArray()) {
+                buffer.duplicate().put(bytes, 0, bytesRead);
+            }
+
+            for (NfsFileRange range : mergedRange) {
+                if (range.getEnd() > start + bytesRead) {
+                    range.getData().completeExceptionally(new EOFException(
+                            "Range " + range + " is beyond the end of the file: " + file.getAbsolutePath()));
+                } else {
+                    ByteBuffer slice = buffer.duplicate();
+                    slice.position(buffer.position() + (int) (range.getOffset() - start));
+                    slice.limit(slice.position() + range.getLength());
+                    range.getData().complete(slice.slice());
+                }
+            }
+        } catch (Throwable t) {
+            for (NfsFileRange range : mergedRange) {
+                range.getData().completeExceptionally(t);
+            }
+        }
+    }
+
     /**
      * @param accessToCheck
      * @return <code>true</code> if the access is allowed, <code>false</code> if
@@ -1367,21 +1710,71 @@ public abstract class NfsFileBase<N extends Nfs<F>, F extends NfsFile<N, F>> imp
         return (accessToCheck & getAccess(accessToCheck)) != 0;
     }
 
+    /**
+     * Look the file up again if a call failed because the server rejected a
+     * file handle taken from the persistent cache without a LOOKUP.
+     * 
+     * @param e
+     *            The exception the call failed with.
+     * @return <code>true</code> if a new file handle was found, so that the
+     *         call can be made once more, <code>false</code> otherwise.
+     */
+    private boolean refreshCachedFileHandle(NfsException e) {
+        if (!_isFileHandleCached || (!NfsStatus.NFS3ERR_STALE.equals(e.getStatus())
+                && !NfsStatus.NFS3ERR_BADHANDLE.equals(e.getStatus()))) {
+            return false;
+        }
+        setFileHandle(false);
+        return _fileHandle != null;
+    }
+
     /**
      * Set the file handle from the _path value
+     * 
+     * @param useCache
+     *            <code>true</code> to take the handle from the persistent
+     *            cache if it is there, <code>false</code> to force a LOOKUP.
      */
-    private void setFileHandle() {
+    private void setFileHandle(boolean useCache) {
         byte[] fileHandle = null;
         if (_isRootFile) {
             fileHandle = getNfs().getRootFileHandle();
         } else {
-            try {
-                if (getParentFile().getFileHandle() != null) {
-                    fileHandle = getNfs().wrapped_getLookup(makeLookupRequest()).getFileHandle();
+            NfsFileHandleCache fileHandleCache = getNfs().getFileHandleCache();
+            if (useCache && (fileHandleCache != null)) {
+                // validated lazily, the cache drops it if the server rejects it
+                fileHandle = fileHandleCache.get(getAbsolutePath());
+                if (fileHandle != null) {
+                    _fileHandle = fileHandle;
+                    _isFileHandleCached = true;
+                    return;
+                }
+            }
+            // a parent handle taken from the persistent cache may be rejected,
+            // and is then dropped from the cache, so look it up once more
+            int attempts = (fileHandleCache == null) ? 1 : 2;
+            NfsGetAttributes lookupAttributes = null;
+            for (int i = 0; i < attempts; ++i) {
+                try {
+                    if (getParentFileHandle() != null) {
+                        NfsLookupResponse response = getNfs().wrapped_getLookup(makeLookupRequest());
+                        fileHandle = response.getFileHandle();
+                        lookupAttributes = response.getAttributes();
+                    }
+                    break;
+                } catch (NfsException e) {
+                    if (!NfsStatus.NFS3ERR_STALE.equals(e.getStatus())
+                            && !NfsStatus.NFS3ERR_BADHANDLE.equals(e.getStatus())) {
+                        break;
+                    }
+                } catch (IOException e) {
+                    // do nothing, this will be a common exception
+                    break;
                 }
-            } catch (IOException e) {
-                // do nothing, this will be a common exception
             }
+            setFileHandle(fileHandle);
+            _lookupAttributes = lookupAttributes;
+            return;
         }
         setFileHandle(fileHandle);
     }
@@ -0,0 +1,366 @@
+/**
+ * Copyright 2016-2018 Dell Inc. or its subsidiaries. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.nfsclient.nfs.io;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A persistent cache of NFS file handles, kept in a local file so that a new
+ * process can skip the MOUNT call and the LOOKUP calls for paths it has
+ * already resolved. NFSv3 file handles survive server restarts, so entries
+ * are not checked when they are loaded. Instead, a handle that the server
+ * rejects with <code>NFS3ERR_STALE</code> or <code>NFS3ERR_BADHANDLE</code>
+ * is removed, and the path is resolved again on the next use.
+ * 
+ * <p>
+ * Entries are keyed by absolute path, i.e., server, exported path and path
+ * from the mount point, and the root handle of an export is keyed by the
+ * server and exported path alone. The number of entries is capped, and the
+ * least recently used entries are dropped first. Changes are written back by
+ * {@link #save()}, which is also called by {@link #close()}, or when the JVM
+ * shuts down if the cache was not closed.
+ * </p>
+ * 
+ * <p>
+ * Instances are thread-safe. Only one instance should use a given file at a
+ * time.
+ * </p>
+ * 
+ * @author seibed
+ */
+public class NfsFileHandleCache implements Closeable {
+
+    /**
+     * The usual logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(NfsFileHandleCache.class);
+
+    /**
+     * The default maximum number of entries.
+     */
+    public static final int DEFAULT_MAXIMUM_ENTRIES = 100000;
+
+    /**
+     * Suffix used for the file while it is being written.
+     */
+    private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+
+    /**
+     * The file holding the entries.
+     */
+    private final File _file;
+
+    /**
+     * The maximum number of entries.
+     */
+    private final int _maximumEntries;
+
+    /**
+     * Absolute paths mapped to file handles, in access order.
+     */
+    private final LinkedHashMap<String, byte[]> _entries = new LinkedHashMap<String, byte[]>(64, 0.75f, true);
+
+    /**
+     * File handles mapped to the absolute paths using them, used to drop
+     * entries when the server rejects a handle.
+     */
+    private final Map<ByteBuffer, List<String>> _pathsByHandle = new HashMap<ByteBuffer, List<String>>();
+
+    /**
+     * Set when there are changes that have not been saved.
+     */
+    private boolean _dirty = false;
+
+    /**
+     * Saves the entries when the JVM shuts down, until the cache is closed.
+     */
+    private final Thread _shutdownHook = new Thread("NfsFileHandleCache shutdown") {
+        /* (non-Javadoc)
+         * @see java.lang.Thread#run()
+         */
+        public void run() {
+            save();
+        }
+    };
+
+    /**
+     * Creates a cache using the default maximum number of entries.
+     * 
+     * @param file
+     *            The file holding the entries. It is created by the first
+     *            save if it does not exist.
+     * @throws IOException
+     */
+    public NfsFileHandleCache(File file) throws IOException {
+        this(file, DEFAULT_MAXIMUM_ENTRIES);
+    }
+
+    /**
+     * Creates a cache, loading any entries saved by earlier instances. Entries
+     * are loaded in the order of their last use, so the LRU ordering survives
+     * restarts.
+     * 
+     * @param file
+     *            The file holding the entries. It is created by the first
+     *            save if it does not exist.
+     * @param maximumEntries
+     *            The maximum number of entries.
+     * @throws IOException
+     *             if the file exists but cannot be read.
+     */
+    public NfsFileHandleCache(File file, int maximumEntries) throws IOException {
+        if (maximumEntries <= 0) {
+            throw new IllegalArgumentException("Cannot have a maximum number of entries <= 0: " + maximumEntries);
+        }
+        _file = file;
+        _maximumEntries = maximumEntries;
+        loadEntries();
+        Runtime.getRuntime().addShutdownHook(_shutdownHook);
+    }
+
+    /**
+     * @return The maximum number of entries.
+     */
+    public int getMaximumEntries() {
+        return _maximumEntries;
+    }
+
+    /**
+     * @return The number of entries.
+     */
+    public synchronized int size() {
+        return _entries.size();
+    }
+
+    /**
+     * @param absolutePath
+     *            The absolute path of the file, or the server and exported
+     *            path for the root handle of an export.
+     * @return A copy of the cached handle, or <code>null</code> if there is
+     *         none.
+     */
+    public synchronized byte[] get(String absolutePath) {
+        byte[] fileHandle = _entries.get(absolutePath);
+        return (fileHandle == null) ? null : fileHandle.clone();
+    }
+
+    /**
+     * Stores a handle, dropping the least recently used entries if the cache
+     * grows beyond its maximum size.
+     * 
+     * @param absolutePath
+     *            The absolute path of the file, or the server and exported
+     *            path for the root handle of an export.
+     * @param fileHandle
+     *            The handle.
+     */
+    public synchronized void put(String absolutePath, byte[] fileHandle) {
+        byte[] oldFileHandle = _entries.get(absolutePath);
+        if ((oldFileHandle != null) && ByteBuffer.wrap(oldFileHandle).equals(ByteBuffer.wrap(fileHandle))) {
+            return;
+        }
+        remove(absolutePath);
+        fileHandle = fileHandle.clone();
+        _entries.put(absolutePath, fileHandle);
+        ByteBuffer key = ByteBuffer.wrap(fileHandle);
+        List<String> paths = _pathsByHandle.get(key);
+        if (paths == null) {
+            paths = new ArrayList<String>(1);
+            _pathsByHandle.put(key, paths);
+        }
+        paths.add(absolutePath);
+        _dirty = true;
+
+        Iterator<Map.Entry<String, byte[]>> iterator = _entries.entrySet().iterator();
+        while (_entries.size() > _maximumEntries) {
+            Map.Entry<String, byte[]> eldest = iterator.next();
+            iterator.remove();
+            removeFromHandleIndex(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    /**
+     * Removes the entry for a path.
+     * 
+     * @param absolutePath
+     *            The absolute path of the file, or the server and exported
+     *            path for the root handle of an export.
+     */
+    public synchronized void invalidate(String absolutePath) {
+        remove(absolutePath);
+    }
+
+    /**
+     * Removes the entry for a path and the entries for all paths below it,
+     * called when a directory is renamed.
+     * 
+     * @param absolutePath
+     *            The absolute path of the file or directory.
+     */
+    public synchronized void invalidateTree(String absolutePath) {
+        String prefix = absolutePath.endsWith("/") ? absolutePath : (absolutePath + "/");
+        for (String path : new ArrayList<String>(_entries.keySet())) {
+            if (path.equals(absolutePath) || path.startsWith(prefix)) {
+                remove(path);
+            }
+        }
+    }
+
+    /**
+     * Removes all entries using a handle, called when the server rejects it.
+     * 
+     * @param fileHandle
+     *            The rejected handle.
+     */
+    public synchronized void invalidate(byte[] fileHandle) {
+        List<String> paths = _pathsByHandle.get(ByteBuffer.wrap(fileHandle));
+        if (paths != null) {
+            for (String absolutePath : new ArrayList<String>(paths)) {
+                LOG.debug("dropping rejected file handle of {}", absolutePath);
+                remove(absolutePath);
+            }
+        }
+    }
+
+    /**
+     * Writes the entries to the file if there are unsaved changes. Failures
+     * are logged and otherwise ignored, as the cache is only an optimization.
+     */
+    public void save() {
+        List<Map.Entry<String, byte[]>> entries;
+        synchronized (this) {
+            if (!_dirty) {
+                return;
+            }
+            entries = new ArrayList<Map.Entry<String, byte[]>>(_entries.entrySet());
+            _dirty = false;
+        }
+
+        Path temporaryPath = new File(_file.getPath() + "." + Thread.currentThread().getId() + TEMPORARY_FILE_SUFFIX).toPath();
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temporaryPath, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, byte[]> entry : entries) {
+                    writer.write(Base64.getEncoder().encodeToString(entry.getValue()));
+                    writer.write(' ');
+                    writer.write(entry.getKey());
+                    writer.newLine();
+                }
+            }
+            Files.move(temporaryPath, _file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn("Unable to save file handles to {}: {}", _file, e.getMessage());
+            new File(temporaryPath.toString()).delete();
+            synchronized (this) {
+                _dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Saves the entries and stops saving them at shutdown. The cache can still
+     * be used, but later changes are only written by explicit calls to
+     * {@link #save()}.
+     */
+    public void close() {
+        try {
+            Runtime.getRuntime().removeShutdownHook(_shutdownHook);
+        } catch (IllegalStateException e) {
+            // already shutting down, and the hook saves the entries
+            return;
+        }
+        save();
+    }
+
+    /**
+     * Loads the entries from the file, least recently used first. Lines that
+     * cannot be parsed are skipped.
+     * 
+     * @throws IOException
+     */
+    private synchronized void loadEntries() throws IOException {
+        if (!_file.isFile()) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(_file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int index = line.indexOf(' ');
+                if (index <= 0) {
+                    continue;
+                }
+                try {
+                    put(line.substring(index + 1), Base64.getDecoder().decode(line.substring(0, index)));
+                } catch (IllegalArgumentException e) {
+                    LOG.warn("Skipping bad line in {}: {}", _file, line);
+                }
+            }
+        }
+        _dirty = false;
+    }
+
+    /**
+     * Must be called while holding the lock.
+     * 
+     * @param absolutePath
+     *            The path of the entry to remove.
+     */
+    private void remove(String absolutePath) {
+        byte[] fileHandle = _entries.remove(absolutePath);
+        if (fileHandle != null) {
+            removeFromHandleIndex(absolutePath, fileHandle);
+            _dirty = true;
+        }
+    }
+
+    /**
+     * Must be called while holding the lock.
+     * 
+     * @param absolutePath
+     *            The path of a removed entry.
+     * @param fileHandle
+     *            Its handle.
+     */
+    private void removeFromHandleIndex(String absolutePath, byte[] fileHandle) {
+        ByteBuffer key = ByteBuffer.wrap(fileHandle);
+        List<String> paths = _pathsByHandle.get(key);
+        if (paths != null) {
+            paths.remove(absolutePath);
+            if (paths.isEmpty()) {
+                _pathsByHandle.remove(key);
+            }
+        }
+    }
+
+}
@@ -14,10 +14,12 @@
  */
 package com.emc.ecs.nfsclient.nfs.io;
 
+import com.emc.ecs.nfsclient.nfs.NfsGetAttributes;
 import com.emc.ecs.nfsclient.nfs.NfsReadResponse;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * The NFS equivalent of <code>java.io.FileInputStream</code>.
@@ -70,6 +72,22 @@ public class NfsFileInputStream extends InputStream {
      */
     private boolean _closed = false;
 
+    /**
+     * The persistent block cache, or <code>null</code> if reads are not cached.
+     */
+    private final NfsBlockCache _cache;
+
+    /**
+     * The file attributes obtained when the stream was opened, used to validate
+     * cached blocks. Only set when a cache is used.
+     */
+    private final NfsGetAttributes _attributes;
+
+    /**
+     * The largest number of bytes to request in a single READ call.
+     */
+    private final int _maximumReadSize;
+
     /**
      * Creates a <code>NfsFileInputStream</code> by opening a connection to an
      * actual NFS file, using the specified <code>offset</code> and
@@ -109,11 +127,55 @@ public class NfsFileInputStream extends InputStream {
 
         _file = nfsFile;
         _offset = offset;
+        _cache = null;
+        _attributes = null;
         maximumBufferSize = Math.min(maximumBufferSize,
-                (int) Math.min(_file.fsinfo().getFsInfo().rtmax, Integer.MAX_VALUE));
+                (int) Math.min(_file.getNfs().getNfsFsInfo().rtmax, Integer.MAX_VALUE));
+        _maximumReadSize = maximumBufferSize;
         _bytes = makeBytes(maximumBufferSize);
     }
 
+    /**
+     * Creates a <code>NfsFileInputStream</code> that reads whole blocks through
+     * a persistent block cache, starting at the specified <code>offset</code>.
+     * The file attributes are fetched once, here, and cached blocks are only
+     * used if they were fetched while the file had the same mtime, ctime and
+     * size. Blocks that are not cached are read from the server and stored.
+     *
+     * @param nfsFile
+     *            The NFS file instance to be read.
+     * @param offset
+     *            The offset at which reading should start, in bytes.
+     * @param cache
+     *            The block cache to use.
+     * @throws IOException
+     *             If the file does not exist, is a directory rather than a
+     *             regular file, or for some other reason cannot be opened for
+     *             reading.
+     */
+    public NfsFileInputStream(NfsFile<?, ?> nfsFile, long offset, NfsBlockCache cache) throws IOException {
+        // Validate the offset.
+        if (offset < 0) {
+            throw new IllegalArgumentException("Cannot start reading before offset 0: " + offset);
+        }
+
+        // Validate the file.
+        if (!nfsFile.canRead()) {
+            throw new IllegalArgumentException("The file must be readable by the client: " + nfsFile.getAbsolutePath());
+        }
+
+        _file = nfsFile;
+        _offset = offset;
+        _cache = cache;
+        _attributes = _file.getAttributes();
+        _maximumReadSize = Math.min(_cache.getBlockSize(),
+                (int) Math.min(_file.getNfs().getNfsFsInfo().rtmax, Integer.MAX_VALUE));
+        _bytes = new byte[_cache.getBlockSize()];
+        if (_offset >= _attributes.getSize()) {
+            _isEof = true;
+        }
+    }
+
     /**
      * Creates a <code>NfsFileInputStream</code> by opening a connection to an
      * actual NFS file, starting to read at offset 0 and using the specified
@@ -156,7 +218,7 @@ public class NfsFileInputStream extends InputStream {
      *             reading.
      */
     public NfsFileInputStream(NfsFile<?, ?> nfsFile) throws IOException {
-        this(nfsFile, (int) Math.min(nfsFile.fsinfo().getFsInfo().rtpref, Integer.MAX_VALUE));
+        this(nfsFile, (int) Math.min(nfsFile.getNfs().getNfsFsInfo().rtpref, Integer.MAX_VALUE));
     }
 
     /**
@@ -179,7 +241,8 @@ public class NfsFileInputStream extends InputStream {
      */
     public int available() throws IOException {
         checkForClosed();
-        return (int) Math.min(_file.length() - _offset + bytesLeftInBuffer(), Integer.MAX_VALUE);
+        long length = (_attributes == null) ? _file.length() : _attributes.getSize();
+        return (int) Math.min(length - _offset + bytesLeftInBuffer(), Integer.MAX_VALUE);
     }
 
     /*
@@ -335,6 +398,10 @@ public class NfsFileInputStream extends InputStream {
         }
 
         while ((!_isEof) && (bytesLeftInBuffer() <= 0)) {
+            if (_cache != null) {
+                loadBlock();
+                continue;
+            }
             _currentBufferPosition = 0;
             NfsReadResponse response = _file.read(_offset, _bytes.length, _bytes, _currentBufferPosition);
             _bytesInBuffer = response.getBytesRead();
@@ -343,4 +410,41 @@ public class NfsFileInputStream extends InputStream {
         }
     }
 
+    /**
+     * Loads the block containing the current offset, from the cache if
+     * possible and from the server otherwise, and positions the buffer at the
+     * current offset.
+     * 
+     * @throws IOException
+     */
+    private void loadBlock() throws IOException {
+        long blockNumber = _offset / _bytes.length;
+        long blockOffset = blockNumber * _bytes.length;
+        int positionInBlock = (int) (_offset - blockOffset);
+        int blockLength = (int) Math.min(_attributes.getSize() - blockOffset, _bytes.length);
+
+        boolean eof = false;
+        ByteBuffer cachedBlock = _cache.getBlock(_attributes, blockNumber);
+        if ((cachedBlock != null) && (cachedBlock.remaining() == blockLength)) {
+            cachedBlock.get(_bytes, 0, blockLength);
+        } else {
+            int bytesRead = 0;
+            while ((!eof) && (bytesRead < blockLength)) {
+                NfsReadResponse response = _file.read(blockOffset + bytesRead,
+                        Math.min(_maximumReadSize, blockLength - bytesRead), _bytes, bytesRead);
+                bytesRead += response.getBytesRead();
+                eof = response.isEof() || (response.getBytesRead() == 0);
+            }
+            if (bytesRead == blockLength) {
+                _cache.putBlock(_attributes, blockNumber, _bytes, 0, blockLength);
+            }
+            blockLength = bytesRead;
+        }
+
+        _bytesInBuffer = blockLength;
+        _currentBufferPosition = Math.min(positionInBlock, blockLength);
+        _offset = blockOffset + blockLength;
+        _isEof = eof || (_offset >= _attributes.getSize());
+    }
+
 }
@@ -19,11 +19,23 @@ import com.emc.ecs.nfsclient.nfs.NfsSetAttributes;
 import com.emc.ecs.nfsclient.nfs.NfsWriteRequest;
 import com.emc.ecs.nfsclient.nfs.NfsWriteResponse;
 
+import com.emc.ecs.nfsclient.network.NetMgr;
+
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,6 +52,17 @@ public class NfsFileOutputStream extends OutputStream {
      */
     private static final Logger LOG = LoggerFactory.getLogger(NfsFileOutputStream.class);
 
+    /**
+     * The number of buffers of written but uncommitted data to keep, with
+     * <code>syncType = UNSTABLE</code>, before sending a COMMIT to release them.
+     */
+    public static final int MAXIMUM_UNCOMMITTED_BUFFERS = 16;
+
+    /**
+     * The size of the local file regions mapped by <code>uploadFrom</code>.
+     */
+    public static final long MAPPED_REGION_SIZE = 64L * 1024 * 1024;
+
     private NfsFile<?, ?> _nfsFile;
 
     /**
@@ -69,7 +92,7 @@ public class NfsFileOutputStream extends OutputStream {
     /**
      * The data currently being buffered.
      */
-    private final byte[] _buffer;
+    private byte[] _buffer;
 
     /**
      * The next position for writing in the buffer.
@@ -81,6 +104,47 @@ public class NfsFileOutputStream extends OutputStream {
      */
     private boolean _closed = false;
 
+    /**
+     * The largest number of WRITE calls to keep in flight in write-behind
+     * mode, or 0 if each buffer is written synchronously.
+     */
+    private final int _maximumWritesInFlight;
+
+    /**
+     * Buffers that are free for reuse in write-behind mode.
+     */
+    private final BlockingQueue<byte[]> _freeBuffers = new LinkedBlockingQueue<byte[]>();
+
+    /**
+     * The number of buffers created so far.
+     */
+    private int _buffersCreated = 1;
+
+    /**
+     * The largest number of buffers to create: one being filled, one for each
+     * WRITE call in flight, and with <code>syncType = UNSTABLE</code> up to
+     * {@link #MAXIMUM_UNCOMMITTED_BUFFERS} more holding data that has been
+     * written but not yet committed.
+     */
+    private final int _maximumBuffers;
+
+    /**
+     * Tracker for data written with <code>syncType = UNSTABLE</code> that has
+     * not been committed, or <code>null</code> for other sync types.
+     */
+    private final UncommittedWrites _uncommittedWrites;
+
+    /**
+     * The pending results of WRITE calls started in write-behind mode.
+     */
+    private final List<Future<Void>> _writesInFlight = new ArrayList<Future<Void>>();
+
+    /**
+     * The first failure of a WRITE call in write-behind mode, reported to the
+     * caller by the next write or flush.
+     */
+    private volatile IOException _writeFailure;
+
     /**
      * Creates a file output stream to write to the file represented by the
      * specified <code>NfsFile</code> object, starting at
@@ -153,11 +217,59 @@ public class NfsFileOutputStream extends OutputStream {
      *             opened for any other reason
      */
     public NfsFileOutputStream(NfsFile<?, ?> nfsFile, long offset, int syncType) throws IOException {
+        this(nfsFile, offset, syncType, 0);
+    }
+
+    /**
+     * Creates a file output stream to write to the file represented by the
+     * specified <code>NfsFile</code> object, starting at <code>offset</code>
+     * and using <code>syncType</code> behavior, with up to
+     * <code>maximumWritesInFlight</code> WRITE calls in flight at once.
+     * <p>
+     * In this write-behind mode, each full buffer is handed to a background
+     * WRITE call and the caller continues with a fresh buffer from a pool.
+     * Once all buffers are in flight, writing blocks until one is returned.
+     * WRITE failures are reported by the next call to <code>write</code> or
+     * <code>flush</code>, and <code>flush</code> waits for all WRITE calls and
+     * then sends a single COMMIT. This is most effective with
+     * <code>syncType = UNSTABLE</code>.
+     * </p>
+     * <p>
+     * If the file does not exist, it will first be created.
+     *
+     * @param nfsFile
+     *            The file to be opened for writing.
+     * @param offset
+     *            Where to start writing to the file.
+     * @param syncType
+     *            One of the values below.
+     *            <ul>
+     *            <li>UNSTABLE = 0 - Best effort, no promises.</li>
+     *            <li>DATA_SYNC = 1 - Commit all data to stable storage, plus
+     *            enough metadata for retrieval, before returning.</li>
+     *            <li>FILE_SYNC = 2 - Commit all data and metadata to stable
+     *            storage before returning.</li>
+     *            </ul>
+     * @param maximumWritesInFlight
+     *            The largest number of WRITE calls to keep in flight, or 0 to
+     *            write each buffer synchronously.
+     * @throws IOException
+     *             If the file exists but is a directory rather than a regular
+     *             file, does not exist but cannot be created, or cannot be
+     *             opened for any other reason
+     */
+    public NfsFileOutputStream(NfsFile<?, ?> nfsFile, long offset, int syncType, int maximumWritesInFlight)
+            throws IOException {
         // Validate the offset.
         if (offset < 0) {
             throw new IllegalArgumentException("Cannot start writing before offset 0: " + offset);
         }
 
+        // Validate the number of writes in flight.
+        if (maximumWritesInFlight < 0) {
+            throw new IllegalArgumentException("Cannot have a negative number of writes in flight: " + maximumWritesInFlight);
+        }
+
         // Validate the syncType value.
         switch (syncType) {
         case NfsWriteRequest.DATA_SYNC:
@@ -184,7 +296,15 @@ public class NfsFileOutputStream extends OutputStream {
         _offset = offset;
         _currentOffset = offset;
         _syncType = syncType;
-        _buffer = new byte[(int) Math.min(_nfsFile.fsinfo().getFsInfo().wtpref, Integer.MAX_VALUE)];
+        _maximumWritesInFlight = maximumWritesInFlight;
+        if (syncType == NfsWriteRequest.UNSTABLE) {
+            _uncommittedWrites = new UncommittedWrites(_nfsFile);
+            _maximumBuffers = _maximumWritesInFlight + 1 + MAXIMUM_UNCOMMITTED_BUFFERS;
+        } else {
+            _uncommittedWrites = null;
+            _maximumBuffers = _maximumWritesInFlight + 1;
+        }
+        _buffer = new byte[(int) Math.min(_nfsFile.getNfs().getNfsFsInfo().wtpref, Integer.MAX_VALUE)];
     }
 
     /*
@@ -196,11 +316,10 @@ public class NfsFileOutputStream extends OutputStream {
         if (!_closed) {
             try {
                 flush();
-            } catch (Throwable t) {
-                LOG.debug(t.getMessage(), t);
+            } finally {
+                _closed = true;
+                super.close();
             }
-            _closed = true;
-            super.close();
         }
     }
 
@@ -212,8 +331,13 @@ public class NfsFileOutputStream extends OutputStream {
     public void flush() throws IOException {
         checkForClosed();
         writeBufferToFile();
-        if (_currentOffset > _offset) { // something to commit
-            _nfsFile.commit(_offset, (int) (_currentOffset - _offset));
+        waitForWrites();
+        if (_uncommittedWrites != null) {
+            commitUncommittedWrites();
+        } else if (_currentOffset > _offset) { // something to commit
+            // A count of 0 commits everything from the offset to the end of the file.
+            long bytesToCommit = _currentOffset - _offset;
+            _nfsFile.commit(_offset, (bytesToCommit > Integer.MAX_VALUE) ? 0 : (int) bytesToCommit);
             _offset = _currentOffset;
         }
         super.flush();
@@ -251,6 +375,7 @@ public class NfsFileOutputStream extends OutputStream {
         } else if (len == 0) {
             return;
         }
+        checkForWriteFailure();
         if (len > bytesLeftInBuffer()) {
             int bytesToWrite = bytesLeftInBuffer();
             write(b, off, bytesToWrite);
@@ -264,6 +389,84 @@ public class NfsFileOutputStream extends OutputStream {
         }
     }
 
+    /**
+     * Writes the bytes of <code>src</code> from its position to its limit, and
+     * advances its position to its limit. Whole buffer-sized chunks are sent
+     * as WRITE payloads directly from <code>src</code>, without being copied;
+     * only the bytes needed to fill a partly used buffer first, and any bytes
+     * left over at the end, are copied into the stream buffer.
+     * <p>
+     * The contents of <code>src</code> must not change until the next call to
+     * <code>flush</code> or <code>close</code> returns, as the stream may still
+     * be sending them, or may need to send them again if the server loses
+     * uncommitted data.
+     * </p>
+     * 
+     * @param src
+     *            The data to write.
+     * @throws IOException
+     */
+    public void write(ByteBuffer src) throws IOException {
+        checkForClosed();
+        checkForWriteFailure();
+
+        while (src.hasRemaining()) {
+            if ((_bufferOffset == 0) && (src.remaining() >= _buffer.length)) {
+                ByteBuffer chunk = src.slice();
+                chunk.limit(_buffer.length);
+                src.position(src.position() + _buffer.length);
+                writeData(chunk, null);
+                commitUnpooledDataAsNeeded();
+            } else {
+                // Fill a partly used buffer first, to keep the data in order.
+                // A short synchronous WRITE can leave the buffer partly used
+                // again, so this repeats until the data is used up.
+                int bytesToCopy = Math.min(bytesLeftInBuffer(), src.remaining());
+                src.get(_buffer, _bufferOffset, bytesToCopy);
+                _bufferOffset += bytesToCopy;
+                if (bytesLeftInBuffer() == 0) {
+                    writeBufferToFile();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the contents of a local file channel, from its position to its
+     * size, and advances its position to its size. The local file is mapped
+     * into memory one region at a time, and the mapped regions are passed to
+     * {@link #write(ByteBuffer)}, so that no data is copied in user space.
+     * 
+     * @param channel
+     *            The local file channel to read.
+     * @return The number of bytes written.
+     * @throws IOException
+     */
+    public long uploadFrom(FileChannel channel) throws IOException {
+        long start = channel.position();
+        long size = channel.size();
+        for (long position = start; position < size; position += MAPPED_REGION_SIZE) {
+            write(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAPPED_REGION_SIZE, size - position)));
+            channel.position(Math.min(position + MAPPED_REGION_SIZE, size));
+        }
+        return size - start;
+    }
+
+    /**
+     * Writes the contents of a local file, as specified for
+     * {@link #uploadFrom(FileChannel)}.
+     * 
+     * @param path
+     *            The local file to read.
+     * @return The number of bytes written.
+     * @throws IOException
+     */
+    public long uploadFrom(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return uploadFrom(channel);
+        }
+    }
+
     /**
      * @return The number of bytes that can be written to the buffer before
      *         overflow occurs.
@@ -290,7 +493,14 @@ public class NfsFileOutputStream extends OutputStream {
      * @throws IOException
      */
     private void writeBufferToFile() throws IOException {
-        if (_bufferOffset > 0) {
+        if ((_bufferOffset > 0) && ((_maximumWritesInFlight > 0) || (_uncommittedWrites != null))) {
+            // Hand the buffer over, as it may be kept until its data is committed.
+            byte[] buffer = _buffer;
+            ByteBuffer data = ByteBuffer.wrap(buffer, 0, _bufferOffset);
+            _bufferOffset = 0;
+            writeData(data, buffer);
+            _buffer = takeFreeBuffer();
+        } else if (_bufferOffset > 0) {
             List<ByteBuffer> payload = new ArrayList<ByteBuffer>(1);
             payload.add(ByteBuffer.wrap(_buffer, 0, _bufferOffset));
             NfsWriteResponse response = _nfsFile.write(_currentOffset, payload, _syncType);
@@ -305,4 +515,187 @@ public class NfsFileOutputStream extends OutputStream {
         }
     }
 
+    /**
+     * Write data at the current offset, in the background in write-behind mode
+     * and synchronously otherwise, and advance the offset.
+     * 
+     * @param data
+     *            The data, from position to limit.
+     * @param pooledBuffer
+     *            The pooled buffer backing the data, or <code>null</code> if the
+     *            data belongs to the caller.
+     * @throws IOException
+     */
+    private void writeData(ByteBuffer data, byte[] pooledBuffer) throws IOException {
+        long offset = _currentOffset;
+        _currentOffset += data.remaining();
+        if (_maximumWritesInFlight > 0) {
+            startWrite(offset, data, pooledBuffer);
+        } else {
+            UncommittedWrites.writeFully(_nfsFile, offset, data, _syncType, _uncommittedWrites);
+            if (_uncommittedWrites != null) {
+                _uncommittedWrites.add(offset, data, pooledBuffer);
+            }
+        }
+    }
+
+    /**
+     * Hand data to a background WRITE call, first waiting until fewer than the
+     * maximum number of WRITE calls are in flight.
+     * 
+     * @param offset
+     *            The file offset of the first byte.
+     * @param data
+     *            The data, from position to limit.
+     * @param pooledBuffer
+     *            The pooled buffer backing the data, or <code>null</code> if the
+     *            data belongs to the caller.
+     * @throws IOException
+     */
+    private void startWrite(final long offset, final ByteBuffer data, final byte[] pooledBuffer) throws IOException {
+        checkForWriteFailure();
+
+        Iterator<Future<Void>> iterator = _writesInFlight.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isDone()) {
+                iterator.remove();
+            }
+        }
+        while (_writesInFlight.size() >= _maximumWritesInFlight) {
+            waitForWrite(_writesInFlight.remove(0));
+        }
+
+        _writesInFlight.add(NetMgr.getInstance().getExecutor().submit(new Callable<Void>() {
+            public Void call() throws IOException {
+                boolean keepBuffer = false;
+                try {
+                    UncommittedWrites.writeFully(_nfsFile, offset, data, _syncType, _uncommittedWrites);
+                    if (_uncommittedWrites != null) {
+                        // Keep the data until it is committed.
+                        _uncommittedWrites.add(offset, data, pooledBuffer);
+                        keepBuffer = true;
+                    }
+                } catch (IOException e) {
+                    if (_writeFailure == null) {
+                        _writeFailure = e;
+                    }
+                    throw e;
+                } finally {
+                    if ((!keepBuffer) && (pooledBuffer != null)) {
+                        _freeBuffers.add(pooledBuffer);
+                    }
+                }
+                return null;
+            }
+        }));
+    }
+
+    /**
+     * @return A buffer that is neither in flight nor holding uncommitted data,
+     *         creating one if the pool is not yet full, committing if
+     *         uncommitted data holds the remaining buffers, and otherwise
+     *         waiting for a WRITE call to finish.
+     * @throws IOException
+     */
+    private byte[] takeFreeBuffer() throws IOException {
+        byte[] buffer = _freeBuffers.poll();
+        if (buffer == null) {
+            if (_buffersCreated < _maximumBuffers) {
+                ++_buffersCreated;
+                return new byte[_buffer.length];
+            }
+            if (_uncommittedWrites != null) {
+                waitForWrites();
+                commitUncommittedWrites();
+                buffer = _freeBuffers.poll();
+                if (buffer != null) {
+                    return buffer;
+                }
+            }
+            try {
+                buffer = _freeBuffers.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a WRITE call to finish.");
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Commit data written with <code>syncType = UNSTABLE</code> from caller
+     * buffers once it exceeds the size of the buffers that may be kept, so
+     * that those buffers are not held indefinitely.
+     * 
+     * @throws IOException
+     */
+    private void commitUnpooledDataAsNeeded() throws IOException {
+        if ((_uncommittedWrites != null)
+                && (_uncommittedWrites.getUnpooledBytes() >= (long) MAXIMUM_UNCOMMITTED_BUFFERS * _buffer.length)) {
+            waitForWrites();
+            commitUncommittedWrites();
+        }
+    }
+
+    /**
+     * Commit all data written with <code>syncType = UNSTABLE</code>, writing it
+     * again if the server has lost it, and release the buffers holding it.
+     * 
+     * @throws IOException
+     */
+    private void commitUncommittedWrites() throws IOException {
+        _freeBuffers.addAll(_uncommittedWrites.commit());
+        _offset = _currentOffset;
+    }
+
+    /**
+     * Wait for all WRITE calls started in write-behind mode to finish.
+     * 
+     * @throws IOException
+     *             If any of them failed.
+     */
+    private void waitForWrites() throws IOException {
+        try {
+            for (Future<Void> write : _writesInFlight) {
+                waitForWrite(write);
+            }
+        } finally {
+            _writesInFlight.clear();
+        }
+        checkForWriteFailure();
+    }
+
+    /**
+     * Wait for one WRITE call started in write-behind mode to finish, recording
+     * any failure.
+     * 
+     * @param write
+     *            The pending result of the call.
+     * @throws InterruptedIOException
+     *             If the wait is interrupted.
+     */
+    private void waitForWrite(Future<Void> write) throws InterruptedIOException {
+        try {
+            write.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for WRITE calls to finish.");
+        } catch (ExecutionException e) {
+            // I/O failures are already recorded, anything else is recorded here.
+            if (_writeFailure == null) {
+                _writeFailure = new IOException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * @throws IOException
+     *             If a WRITE call in write-behind mode has failed.
+     */
+    private void checkForWriteFailure() throws IOException {
+        if (_writeFailure != null) {
+            throw new IOException("A WRITE call failed: " + _nfsFile.getAbsolutePath(), _writeFailure);
+        }
+    }
+
 }
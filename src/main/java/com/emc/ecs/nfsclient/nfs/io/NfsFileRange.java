@@ -0,0 +1,99 @@
+/**
+ * Copyright 2016-2018 Dell Inc. or its subsidiaries. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.nfsclient.nfs.io;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A range of bytes in a file, used for vectored reads. The data is delivered
+ * through the future once the READ call covering the range completes.
+ *
+ * @author seibed
+ */
+public class NfsFileRange {
+
+    /**
+     * The offset of the first byte in the range.
+     */
+    private final long _offset;
+
+    /**
+     * The number of bytes in the range.
+     */
+    private final int _length;
+
+    /**
+     * The future for the range data.
+     */
+    private final CompletableFuture<ByteBuffer> _data = new CompletableFuture<ByteBuffer>();
+
+    /**
+     * @param offset
+     *            The offset of the first byte in the range.
+     * @param length
+     *            The number of bytes in the range.
+     */
+    public NfsFileRange(long offset, int length) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Cannot have a range offset < 0: " + offset);
+        }
+        if (length < 0) {
+            throw new IllegalArgumentException("Cannot have a range length < 0: " + length);
+        }
+        _offset = offset;
+        _length = length;
+    }
+
+    /**
+     * @return The offset of the first byte in the range.
+     */
+    public long getOffset() {
+        return _offset;
+    }
+
+    /**
+     * @return The number of bytes in the range.
+     */
+    public int getLength() {
+        return _length;
+    }
+
+    /**
+     * @return The offset just past the last byte in the range.
+     */
+    public long getEnd() {
+        return _offset + _length;
+    }
+
+    /**
+     * @return The future for the range data. It completes with a buffer holding
+     *         exactly the bytes of the range, or exceptionally if they could not
+     *         be read.
+     */
+    public CompletableFuture<ByteBuffer> getData() {
+        return _data;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        return "[offset: " + _offset + ", length: " + _length + "]";
+    }
+
+}
@@ -0,0 +1,370 @@
+/**
+ * Copyright 2016-2018 Dell Inc. or its subsidiaries. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.nfsclient.nfs.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.emc.ecs.nfsclient.network.NetMgr;
+import com.emc.ecs.nfsclient.nfs.NfsCommitResponse;
+import com.emc.ecs.nfsclient.nfs.NfsCreateMode;
+import com.emc.ecs.nfsclient.nfs.NfsSetAttributes;
+import com.emc.ecs.nfsclient.nfs.NfsWriteRequest;
+import com.emc.ecs.nfsclient.nfs.NfsWriteResponse;
+
+/**
+ * Uploads a local file or buffer to an NFS file by writing several segments at
+ * once. The source is split into <code>wtpref</code>-sized segments, which are
+ * written with UNSTABLE WRITE calls by parallel workers, each failed segment
+ * being retried a few times. A single COMMIT finishes the upload, and if any
+ * reply carried a different write verifier, meaning that the server may have
+ * lost data, all segments are written again.
+ * <p>
+ * The workers share the connections of {@link NetMgr}, so the upload only
+ * spreads over several TCP connections if
+ * {@link NetMgr#setConnectionsPerServer(int)} has been raised before the
+ * server is first used.
+ * </p>
+ * <p>
+ * Instances are not thread-safe, and run one upload at a time.
+ * </p>
+ *
+ * @author seibed
+ */
+public class NfsParallelUploader {
+
+    /**
+     * The usual logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(NfsParallelUploader.class);
+
+    /**
+     * The default number of segments written at once.
+     */
+    public static final int DEFAULT_PARALLELISM = 8;
+
+    /**
+     * The default number of times a failed segment is written again.
+     */
+    public static final int DEFAULT_SEGMENT_RETRIES = 3;
+
+    /**
+     * Supplies segment data for the workers.
+     */
+    private interface SegmentSource {
+
+        /**
+         * @param position
+         *            The position of the segment in the source.
+         * @param length
+         *            The number of bytes in the segment.
+         * @return A buffer holding exactly the segment data.
+         * @throws IOException
+         */
+        ByteBuffer getSegment(long position, int length) throws IOException;
+
+    }
+
+    /**
+     * The file being written.
+     */
+    private final NfsFile<?, ?> _nfsFile;
+
+    /**
+     * The number of segments written at once.
+     */
+    private final int _parallelism;
+
+    /**
+     * The number of times a failed segment is written again.
+     */
+    private final int _segmentRetries;
+
+    /**
+     * The verifier of the first WRITE reply in the current pass, or
+     * <code>null</code> if there has been none.
+     */
+    private Long _verifier;
+
+    /**
+     * <code>true</code> if a reply in the current pass has carried a different
+     * verifier, <code>false</code> otherwise.
+     */
+    private boolean _verifierChanged = false;
+
+    /**
+     * Creates an uploader using the default parallelism and retries.
+     *
+     * @param nfsFile
+     *            The file to be written. If it does not exist, it will be
+     *            created by the first upload.
+     */
+    public NfsParallelUploader(NfsFile<?, ?> nfsFile) {
+        this(nfsFile, DEFAULT_PARALLELISM, DEFAULT_SEGMENT_RETRIES);
+    }
+
+    /**
+     * @param nfsFile
+     *            The file to be written. If it does not exist, it will be
+     *            created by the first upload.
+     * @param parallelism
+     *            The number of segments written at once.
+     * @param segmentRetries
+     *            The number of times a failed segment is written again.
+     */
+    public NfsParallelUploader(NfsFile<?, ?> nfsFile, int parallelism, int segmentRetries) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Cannot have a parallelism <= 0: " + parallelism);
+        }
+        if (segmentRetries < 0) {
+            throw new IllegalArgumentException("Cannot have a negative number of retries: " + segmentRetries);
+        }
+        _nfsFile = nfsFile;
+        _parallelism = parallelism;
+        _segmentRetries = segmentRetries;
+    }
+
+    /**
+     * Upload the remaining bytes of a buffer. The buffer position is not
+     * changed.
+     *
+     * @param source
+     *            The data to upload.
+     * @param offset
+     *            The file offset at which to write the first byte.
+     * @return The number of bytes uploaded.
+     * @throws IOException
+     */
+    public long upload(final ByteBuffer source, long offset) throws IOException {
+        final int start = source.position();
+        return upload(new SegmentSource() {
+
+            public ByteBuffer getSegment(long position, int length) {
+                ByteBuffer segment = source.duplicate();
+                segment.position(start + (int) position);
+                segment.limit(start + (int) position + length);
+                return segment.slice();
+            }
+
+        }, source.remaining(), offset);
+    }
+
+    /**
+     * Upload a local file.
+     *
+     * @param source
+     *            The local file to upload.
+     * @param offset
+     *            The file offset at which to write the first byte.
+     * @return The number of bytes uploaded.
+     * @throws IOException
+     */
+    public long upload(Path source, long offset) throws IOException {
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            return upload(channel, offset);
+        }
+    }
+
+    /**
+     * Upload the contents of a local file channel, from its beginning to its
+     * current size. Each segment is mapped into memory and sent from the
+     * mapping, so that no data is copied in user space. The channel position is
+     * not changed.
+     *
+     * @param source
+     *            The local file channel to upload.
+     * @param offset
+     *            The file offset at which to write the first byte.
+     * @return The number of bytes uploaded.
+     * @throws IOException
+     */
+    public long upload(final FileChannel source, long offset) throws IOException {
+        return upload(new SegmentSource() {
+
+            public ByteBuffer getSegment(long position, int length) throws IOException {
+                return source.map(FileChannel.MapMode.READ_ONLY, position, length);
+            }
+
+        }, source.size(), offset);
+    }
+
+    /**
+     * Write all segments in parallel, then commit, repeating everything if the
+     * verifier changes.
+     *
+     * @param source
+     *            The segment data.
+     * @param length
+     *            The total number of bytes.
+     * @param offset
+     *            The file offset at which to write the first byte.
+     * @return The number of bytes uploaded.
+     * @throws IOException
+     */
+    private long upload(SegmentSource source, long length, long offset) throws IOException {
+        if (!_nfsFile.exists()) {
+            NfsSetAttributes attributes = new NfsSetAttributes();
+            attributes.setMode(NfsFile.ownerReadModeBit | NfsFile.ownerWriteModeBit);
+            _nfsFile.create(NfsCreateMode.GUARDED, attributes, null);
+        }
+        if (length == 0) {
+            return 0;
+        }
+        int segmentSize = (int) Math.min(_nfsFile.getNfs().getNfsFsInfo().wtpref, Integer.MAX_VALUE);
+
+        for (int pass = 0; true; ++pass) {
+            _verifier = null;
+            _verifierChanged = false;
+            writeSegments(source, length, offset, segmentSize);
+            if (!_verifierChanged) {
+                // A count of 0 commits everything from the offset to the end of the file.
+                NfsCommitResponse response = _nfsFile.commit(offset, (length > Integer.MAX_VALUE) ? 0 : (int) length);
+                checkVerifier(response.getVerf());
+                if (!_verifierChanged) {
+                    return length;
+                }
+            }
+            if (pass == UncommittedWrites.MAXIMUM_REPLAYS) {
+                throw new IOException("The write verifier keeps changing, giving up on: " + _nfsFile.getAbsolutePath());
+            }
+            LOG.warn("Write verifier changed for {}, uploading again.", _nfsFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Write all segments, using parallel workers that each take the next
+     * unwritten segment until none are left.
+     *
+     * @param source
+     *            The segment data.
+     * @param length
+     *            The total number of bytes.
+     * @param offset
+     *            The file offset at which to write the first byte.
+     * @param segmentSize
+     *            The segment size in bytes.
+     * @throws IOException
+     *             If a segment could not be written.
+     */
+    private void writeSegments(final SegmentSource source, final long length, final long offset,
+            final int segmentSize) throws IOException {
+        final long segmentCount = (length + segmentSize - 1) / segmentSize;
+        final AtomicLong nextSegment = new AtomicLong(0);
+        ExecutorService executor = NetMgr.getInstance().getExecutor();
+        List<Future<Void>> workers = new ArrayList<Future<Void>>(_parallelism);
+        for (int i = 0; i < Math.min(_parallelism, segmentCount); ++i) {
+            workers.add(executor.submit(new Callable<Void>() {
+                public Void call() throws IOException {
+                    for (long segment = nextSegment.getAndIncrement(); segment < segmentCount; segment = nextSegment
+                            .getAndIncrement()) {
+                        long position = segment * segmentSize;
+                        int segmentLength = (int) Math.min(segmentSize, length - position);
+                        writeSegment(source.getSegment(position, segmentLength), offset + position);
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        IOException failure = null;
+        for (Future<Void> worker : workers) {
+            try {
+                worker.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                nextSegment.set(segmentCount);
+                failure = new InterruptedIOException("Interrupted while waiting for segments to be written.");
+            } catch (ExecutionException e) {
+                // Stop the other workers from starting new segments.
+                nextSegment.set(segmentCount);
+                if (failure == null) {
+                    failure = (e.getCause() instanceof IOException) ? (IOException) e.getCause()
+                            : new IOException(e.getCause());
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Write one segment, repeating the WRITE call after short writes and
+     * retrying the segment after failures.
+     *
+     * @param segment
+     *            The segment data.
+     * @param fileOffset
+     *            The file offset of the first byte.
+     * @throws IOException
+     *             If the segment could not be written.
+     */
+    private void writeSegment(ByteBuffer segment, long fileOffset) throws IOException {
+        for (int attempt = 0; true; ++attempt) {
+            ByteBuffer data = segment.duplicate();
+            try {
+                while (data.hasRemaining()) {
+                    List<ByteBuffer> payload = new ArrayList<ByteBuffer>(1);
+                    payload.add(data.slice());
+                    NfsWriteResponse response = _nfsFile.write(fileOffset + data.position() - segment.position(),
+                            payload, NfsWriteRequest.UNSTABLE);
+                    if (response.getCount() <= 0) {
+                        throw new IOException("The WRITE call made no progress at offset "
+                                + (fileOffset + data.position() - segment.position()) + ": "
+                                + _nfsFile.getAbsolutePath());
+                    }
+                    checkVerifier(response.getVerf());
+                    data.position(data.position() + response.getCount());
+                }
+                return;
+            } catch (IOException e) {
+                if (attempt == _segmentRetries) {
+                    throw e;
+                }
+                LOG.warn("Retrying segment at offset {} of {}: {}", fileOffset, _nfsFile.getAbsolutePath(),
+                        e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Compare a verifier from a reply with the ones seen before in this pass.
+     *
+     * @param verifier
+     *            The verifier.
+     */
+    private synchronized void checkVerifier(long verifier) {
+        if (_verifier == null) {
+            _verifier = verifier;
+        } else if (_verifier.longValue() != verifier) {
+            _verifierChanged = true;
+        }
+    }
+
+}
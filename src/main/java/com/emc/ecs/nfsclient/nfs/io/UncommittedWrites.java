@@ -0,0 +1,279 @@
+/**
+ * Copyright 2016-2018 Dell Inc. or its subsidiaries. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.nfsclient.nfs.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.emc.ecs.nfsclient.nfs.NfsCommitResponse;
+import com.emc.ecs.nfsclient.nfs.NfsWriteRequest;
+import com.emc.ecs.nfsclient.nfs.NfsWriteResponse;
+
+/**
+ * Keeps the data of UNSTABLE writes to one file until a COMMIT confirms it.
+ * The server returns a write verifier with every WRITE and COMMIT reply, and a
+ * change of verifier means that the server may have lost uncommitted data, as
+ * specified by RFC 1813 (https://tools.ietf.org/html/rfc1813). When that
+ * happens, all the kept ranges are written again before the next COMMIT.
+ *
+ * @author seibed
+ */
+class UncommittedWrites {
+
+    /**
+     * The usual logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(UncommittedWrites.class);
+
+    /**
+     * The number of times all ranges are written again before giving up on a
+     * COMMIT.
+     */
+    static final int MAXIMUM_REPLAYS = 3;
+
+    /**
+     * A range of written data that has not been committed.
+     */
+    private static class Range {
+
+        /**
+         * The file offset of the first byte.
+         */
+        private final long _offset;
+
+        /**
+         * The data, from position to limit.
+         */
+        private final ByteBuffer _data;
+
+        /**
+         * The pooled buffer backing the data, or <code>null</code> if the data
+         * belongs to the caller.
+         */
+        private final byte[] _pooledBuffer;
+
+        /**
+         * @param offset
+         * @param data
+         * @param pooledBuffer
+         */
+        private Range(long offset, ByteBuffer data, byte[] pooledBuffer) {
+            _offset = offset;
+            _data = data;
+            _pooledBuffer = pooledBuffer;
+        }
+
+    }
+
+    /**
+     * The file being written.
+     */
+    private final NfsFile<?, ?> _nfsFile;
+
+    /**
+     * The ranges written since the last successful COMMIT.
+     */
+    private final List<Range> _ranges = new ArrayList<Range>();
+
+    /**
+     * The verifier of the first WRITE reply since the last successful COMMIT,
+     * or <code>null</code> if there has been none.
+     */
+    private Long _verifier;
+
+    /**
+     * The number of bytes kept in ranges that are not backed by pooled buffers.
+     */
+    private long _unpooledBytes = 0;
+
+    /**
+     * <code>true</code> if a reply has carried a different verifier, so that
+     * all ranges must be written again, <code>false</code> otherwise.
+     */
+    private boolean _verifierChanged = false;
+
+    /**
+     * @param nfsFile
+     *            The file being written.
+     */
+    UncommittedWrites(NfsFile<?, ?> nfsFile) {
+        _nfsFile = nfsFile;
+    }
+
+    /**
+     * Compare a verifier from a WRITE reply with the ones seen before.
+     *
+     * @param verifier
+     *            The verifier.
+     */
+    synchronized void checkVerifier(long verifier) {
+        if (_verifier == null) {
+            _verifier = verifier;
+        } else if (_verifier.longValue() != verifier) {
+            LOG.warn("Write verifier changed for {}, uncommitted data will be written again.",
+                    _nfsFile.getAbsolutePath());
+            _verifierChanged = true;
+        }
+    }
+
+    /**
+     * Keep a range that has been written. The data must not be changed until
+     * the range is committed.
+     *
+     * @param offset
+     *            The file offset of the first byte.
+     * @param data
+     *            The data, from position to limit.
+     * @param pooledBuffer
+     *            The pooled buffer backing the data, which is returned by
+     *            {@link #commit()}, or <code>null</code> if the data belongs to
+     *            the caller.
+     */
+    synchronized void add(long offset, ByteBuffer data, byte[] pooledBuffer) {
+        _ranges.add(new Range(offset, data.duplicate(), pooledBuffer));
+        if (pooledBuffer == null) {
+            _unpooledBytes += data.remaining();
+        }
+    }
+
+    /**
+     * @return The number of bytes kept in ranges that are not backed by pooled
+     *         buffers.
+     */
+    synchronized long getUnpooledBytes() {
+        return _unpooledBytes;
+    }
+
+    /**
+     * @return <code>true</code> if no ranges are kept, <code>false</code>
+     *         otherwise.
+     */
+    synchronized boolean isEmpty() {
+        return _ranges.isEmpty();
+    }
+
+    /**
+     * Commit all kept ranges, writing them again if the verifier changes. This
+     * must not be called while writes to the file are in flight.
+     *
+     * @return The pooled buffers of the committed ranges, which are free for
+     *         reuse.
+     * @throws IOException
+     *             If a call fails, or the verifier keeps changing.
+     */
+    synchronized List<byte[]> commit() throws IOException {
+        List<byte[]> buffers = new ArrayList<byte[]>(_ranges.size());
+        if (_ranges.isEmpty()) {
+            return buffers;
+        }
+
+        int replays = 0;
+        while (true) {
+            if (_verifierChanged) {
+                if (replays == MAXIMUM_REPLAYS) {
+                    throw new IOException(
+                            "The write verifier keeps changing, giving up on: " + _nfsFile.getAbsolutePath());
+                }
+                ++replays;
+                replay();
+                if (_verifierChanged) {
+                    continue;
+                }
+            }
+
+            long start = Long.MAX_VALUE;
+            long end = 0;
+            for (Range range : _ranges) {
+                start = Math.min(start, range._offset);
+                end = Math.max(end, range._offset + range._data.remaining());
+            }
+            // A count of 0 commits everything from the offset to the end of the file.
+            long bytesToCommit = end - start;
+            NfsCommitResponse response = _nfsFile.commit(start,
+                    (bytesToCommit > Integer.MAX_VALUE) ? 0 : (int) bytesToCommit);
+            checkVerifier(response.getVerf());
+            if (!_verifierChanged) {
+                break;
+            }
+        }
+
+        for (Range range : _ranges) {
+            if (range._pooledBuffer != null) {
+                buffers.add(range._pooledBuffer);
+            }
+        }
+        _ranges.clear();
+        _unpooledBytes = 0;
+        _verifier = null;
+        return buffers;
+    }
+
+    /**
+     * Write all kept ranges again, resetting the verifier.
+     *
+     * @throws IOException
+     */
+    private void replay() throws IOException {
+        _verifier = null;
+        _verifierChanged = false;
+        for (Range range : _ranges) {
+            writeFully(_nfsFile, range._offset, range._data, NfsWriteRequest.UNSTABLE, this);
+        }
+    }
+
+    /**
+     * Write all bytes of a buffer, repeating the WRITE call after short
+     * writes.
+     *
+     * @param nfsFile
+     *            The file being written.
+     * @param offset
+     *            The file offset of the first byte.
+     * @param data
+     *            The data, from position to limit. The buffer position is not
+     *            changed.
+     * @param syncType
+     *            The WRITE stability level.
+     * @param uncommittedWrites
+     *            If not <code>null</code>, the tracker used to check the
+     *            verifier of each reply.
+     * @throws IOException
+     */
+    static void writeFully(NfsFile<?, ?> nfsFile, long offset, ByteBuffer data, int syncType,
+            UncommittedWrites uncommittedWrites) throws IOException {
+        ByteBuffer remainingData = data.duplicate();
+        int bytesWritten = 0;
+        while (remainingData.hasRemaining()) {
+            List<ByteBuffer> payload = new ArrayList<ByteBuffer>(1);
+            payload.add(remainingData.slice());
+            NfsWriteResponse response = nfsFile.write(offset + bytesWritten, payload, syncType);
+            if (response.getCount() <= 0) {
+                throw new IOException("The WRITE call made no progress at offset " + (offset + bytesWritten) + ": "
+                        + nfsFile.getAbsolutePath());
+            }
+            if (uncommittedWrites != null) {
+                uncommittedWrites.checkVerifier(response.getVerf());
+            }
+            bytesWritten += response.getCount();
+            remainingData.position(remainingData.position() + response.getCount());
+        }
+    }
+
+}
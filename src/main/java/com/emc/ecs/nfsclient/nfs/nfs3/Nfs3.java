@@ -20,6 +20,7 @@ import com.emc.ecs.nfsclient.mount.MountResponse;
 import com.emc.ecs.nfsclient.mount.MountStatus;
 import com.emc.ecs.nfsclient.mount.UnmountRequest;
 import com.emc.ecs.nfsclient.network.NetMgr;
+import com.emc.ecs.nfsclient.network.PingRequestFactory;
 import com.emc.ecs.nfsclient.nfs.Nfs;
 import com.emc.ecs.nfsclient.nfs.NfsCreateMode;
 import com.emc.ecs.nfsclient.nfs.NfsCreateRequest;
@@ -56,15 +57,20 @@ import com.emc.ecs.nfsclient.nfs.NfsTime;
 import com.emc.ecs.nfsclient.nfs.NfsType;
 import com.emc.ecs.nfsclient.nfs.NfsWriteRequest;
 import com.emc.ecs.nfsclient.nfs.io.Nfs3File;
+import com.emc.ecs.nfsclient.nfs.io.NfsFileHandleCache;
 import com.emc.ecs.nfsclient.portmap.Portmapper;
+import com.emc.ecs.nfsclient.rpc.CircuitBreaker;
 import com.emc.ecs.nfsclient.rpc.Credential;
+import com.emc.ecs.nfsclient.rpc.ExpiringCache;
 import com.emc.ecs.nfsclient.rpc.CredentialUnix;
 import com.emc.ecs.nfsclient.rpc.RejectStatus;
 import com.emc.ecs.nfsclient.rpc.RpcException;
 import com.emc.ecs.nfsclient.rpc.RpcResponseHandler;
 import com.emc.ecs.nfsclient.rpc.RpcStatus;
+import com.emc.ecs.nfsclient.rpc.RpcThrottle;
 import com.emc.ecs.nfsclient.rpc.RpcRequest;
 import com.emc.ecs.nfsclient.rpc.RpcWrapper;
+import com.emc.ecs.nfsclient.rpc.SingleFlight;
 import com.emc.ecs.nfsclient.rpc.Xdr;
 
 import org.apache.commons.lang3.NotImplementedException;
@@ -77,7 +83,11 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -130,6 +140,12 @@ public class Nfs3 implements Nfs<Nfs3File> {
      */
     private byte[] _rootFileHandle = null;
 
+    /**
+     * The FSINFO data of the exported filesystem, which does not change, or
+     * <code>null</code> until it is first needed.
+     */
+    private volatile NfsFsInfo _fsInfo = null;
+
     /**
      * Maximum NFS call retries, used in the wrapped method calls.
      */
@@ -161,7 +177,23 @@ public class Nfs3 implements Nfs<Nfs3File> {
     private final RpcWrapper<NfsRequestBase, NfsResponseBase> _rpcWrapper;
 
     /**
-     * Timeout for MOUNT calls in seconds.
+     * Coalesces concurrent identical GETATTR calls.
+     */
+    private final SingleFlight<Object, Nfs3GetAttrResponse> _getAttrCalls = new SingleFlight<Object, Nfs3GetAttrResponse>();
+
+    /**
+     * Coalesces concurrent identical LOOKUP calls.
+     */
+    private final SingleFlight<Object, Nfs3LookupResponse> _lookupCalls = new SingleFlight<Object, Nfs3LookupResponse>();
+
+    /**
+     * Coalesces concurrent identical ACCESS calls.
+     */
+    private final SingleFlight<Object, Nfs3AccessResponse> _accessCalls = new SingleFlight<Object, Nfs3AccessResponse>();
+
+    /**
+     * Maximum timeout for MOUNT calls in seconds, the actual timeout adapts to
+     * measured round-trip times.
      */
     private final static int MOUNT_RPC_TIMEOUT = 10;   // seconds
 
@@ -175,6 +207,55 @@ public class Nfs3 implements Nfs<Nfs3File> {
      */
     private final static int MOUNT_MAX_REQUEST_SIZE = 8 * 1024;
 
+    /**
+     * The default time root file handles are cached, in seconds.
+     */
+    public static final long DEFAULT_ROOT_HANDLE_CACHE_TTL = 300;
+
+    /**
+     * The root file handles from MOUNT calls, by server and exported path,
+     * shared by all instances so that instances for the same export do not
+     * each mount it again.
+     */
+    private static final ExpiringCache<String, byte[]> _rootHandleCache = new ExpiringCache<String, byte[]>(
+            DEFAULT_ROOT_HANDLE_CACHE_TTL, TimeUnit.SECONDS);
+
+    /**
+     * Change the time root file handles are cached. Concurrent instances for
+     * the same export always share one MOUNT call.
+     * 
+     * @param ttl
+     *            The time in seconds, or 0 to disable caching.
+     */
+    public static void setRootHandleCacheTtl(long ttl) {
+        _rootHandleCache.setTtl(ttl, TimeUnit.SECONDS);
+    }
+
+    /**
+     * The persistent file handle cache given to new instances.
+     */
+    private static volatile NfsFileHandleCache _defaultFileHandleCache = null;
+
+    /**
+     * The persistent file handle cache used by this instance, or
+     * <code>null</code>.
+     */
+    private final NfsFileHandleCache _fileHandleCache;
+
+    /**
+     * Set the persistent file handle cache for instances created afterwards.
+     * Instances take the root handle from it instead of mounting the export,
+     * and files take their handles from it instead of looking up their paths.
+     * Handles that the server rejects as stale or bad are dropped, so that
+     * they are resolved again on the next use.
+     * 
+     * @param fileHandleCache
+     *            The cache, or <code>null</code> to stop using one.
+     */
+    public static void setFileHandleCache(NfsFileHandleCache fileHandleCache) {
+        _defaultFileHandleCache = fileHandleCache;
+    }
+
     /**
      * Convenience constructor
      * 
@@ -248,19 +329,27 @@ public class Nfs3 implements Nfs<Nfs3File> {
         _server = server;
         _exportedPath = exportedPath;
         _maximumRetries = maximumRetries;
+        _fileHandleCache = _defaultFileHandleCache;
 
         if (credential != null) {
             _credential = credential;
         }
         _rpcWrapper = new RpcWrapper<NfsRequestBase, NfsResponseBase>(_server, _port, _retryWait, _maximumRetries, MAXIMUM_NFS_REQUEST_SIZE, NFS_TIMEOUT);
 
+        if ((rootFileHandle == null) && (_fileHandleCache != null)) {
+            // validated by the first call, which mounts again if it is bad
+            rootFileHandle = _fileHandleCache.get(getRootHandleKey());
+        }
         if (rootFileHandle == null) {
-            prepareRootFhAndNfsPort();
+            prepareRootFhAndNfsPort(false);
         } else {
             _rootFileHandle = rootFileHandle.clone();
             _port = getNfsPortFromServer();
             _rpcWrapper.setPort(_port);
         }
+
+        // let idle NFS connections be pinged
+        _rpcWrapper.setPingRequestFactory(new NullRequestFactory(_credential));
     }
 
     /**
@@ -296,24 +385,148 @@ public class Nfs3 implements Nfs<Nfs3File> {
     }
 
     /**
-     * Query the port and root file handle for NFS server.
+     * Query the port and root file handle for NFS server. The NFS port is
+     * queried while the export is mounted, and both results are shared with
+     * other instances through the caches.
+     * 
+     * @param refresh
+     *            <code>true</code> to drop the cached results first, for
+     *            example when the root file handle has gone bad.
      * @throws IOException
      */
-    private void prepareRootFhAndNfsPort() throws IOException {
+    private void prepareRootFhAndNfsPort(boolean refresh) throws IOException {
 
         if (!_prepareLock.tryLock()) {
             return;
         }
 
         try {
-            _port = getNfsPortFromServer();
+            String rootHandleKey = getRootHandleKey();
+            if (refresh) {
+                Portmapper.invalidatePort(RPC_PROGRAM, VERSION, _server);
+                Portmapper.invalidatePort(MOUNTPROG, VERSION, _server);
+                _rootHandleCache.invalidate(rootHandleKey);
+            }
+            CompletableFuture<Integer> nfsPort = Portmapper.queryPortFromPortMapAsync(RPC_PROGRAM, VERSION,
+                    _server);
+            byte[] rootFileHandle = _rootHandleCache.get(rootHandleKey, new SingleFlight.Call<byte[]>() {
+                /* (non-Javadoc)
+                 * @see com.emc.ecs.nfsclient.rpc.SingleFlight.Call#call()
+                 */
+                public byte[] call() throws IOException {
+                    return lookupRootHandle();
+                }
+            });
+            _port = Portmapper.getPort(nfsPort);
             _rpcWrapper.setPort(_port);
-            _rootFileHandle = lookupRootHandle();
+            _rootFileHandle = rootFileHandle.clone();
+            if (_fileHandleCache != null) {
+                _fileHandleCache.put(rootHandleKey, rootFileHandle);
+            }
         } finally {
             _prepareLock.unlock();
         }
     }
 
+    /**
+     * @return The key of the root file handle in the caches.
+     */
+    private String getRootHandleKey() {
+        return _server + ":" + _exportedPath;
+    }
+
+    /**
+     * Make a wrapped call, dropping the file handle of the request from the
+     * persistent cache if the server rejects it, or mounting again if it is
+     * the root file handle. Calls that change server state are never shared
+     * with calls that started before them.
+     * 
+     * @param request
+     *            The request.
+     * @param responseHandler
+     *            A response handler.
+     * @throws IOException
+     */
+    private void callRpcWrapped(NfsRequestBase request, RpcResponseHandler<? extends NfsResponseBase> responseHandler)
+            throws IOException {
+        try {
+            _rpcWrapper.callRpcWrapped(request, responseHandler);
+        } catch (NfsException e) {
+            invalidateFileHandle(request, e);
+            throw e;
+        } finally {
+            startNewFlights(request);
+        }
+    }
+
+    /**
+     * Make a wrapped call to a specified IP address, dropping the file handle
+     * of the request from the persistent cache if the server rejects it, or
+     * mounting again if it is the root file handle. Calls that change server
+     * state are never shared with calls that started before them.
+     * 
+     * @param request
+     *            The request.
+     * @param responseHandler
+     *            A response handler.
+     * @param ip
+     *            The IP address to use for communication.
+     * @throws IOException
+     */
+    private void callRpcWrapped(NfsRequestBase request, RpcResponseHandler<? extends NfsResponseBase> responseHandler,
+            String ip) throws IOException {
+        try {
+            _rpcWrapper.callRpcWrapped(request, responseHandler, ip);
+        } catch (NfsException e) {
+            invalidateFileHandle(request, e);
+            throw e;
+        } finally {
+            startNewFlights(request);
+        }
+    }
+
+    /**
+     * After a call that may have changed server state, make later GETATTR,
+     * LOOKUP and ACCESS calls go to the server instead of joining calls that
+     * may have been sent before the change, so that the caller reads its own
+     * writes.
+     * 
+     * @param request
+     *            The request that was made.
+     */
+    private void startNewFlights(NfsRequestBase request) {
+        if (!request.isIdempotent()) {
+            _getAttrCalls.startNewFlights();
+            _lookupCalls.startNewFlights();
+            _accessCalls.startNewFlights();
+        }
+    }
+
+    /**
+     * Forget a file handle that the server has rejected. If it is the root
+     * file handle, mount again so that the next call uses the new one.
+     * 
+     * @param request
+     *            The failed request.
+     * @param e
+     *            The exception it failed with.
+     */
+    private void invalidateFileHandle(NfsRequestBase request, NfsException e) {
+        if (!e.getStatus().equals(NfsStatus.NFS3ERR_STALE) && !e.getStatus().equals(NfsStatus.NFS3ERR_BADHANDLE)) {
+            return;
+        }
+        if (_fileHandleCache != null) {
+            _fileHandleCache.invalidate(request.getFileHandle());
+        }
+        if (Arrays.equals(request.getFileHandle(), _rootFileHandle)) {
+            try {
+                prepareRootFhAndNfsPort(true);
+            } catch (IOException mountException) {
+                e.addSuppressed(mountException);
+            }
+        }
+    }
+
     /**
      * @return the root handle
      * @throws IOException
@@ -333,7 +546,7 @@ public class Nfs3 implements Nfs<Nfs3File> {
                 if (usePrivilegedPort) {
                     LOG.debug("Mounting with privileged port - attempt with unprivileged failed with an authentication error.");
                 }
-                response.unmarshalling(NetMgr.getInstance().sendAndWait(_server, portOfMountService, usePrivilegedPort, mountXdr, MOUNT_RPC_TIMEOUT));
+                response.unmarshalling(NetMgr.getInstance().sendAndWait(_server, portOfMountService, usePrivilegedPort, mountXdr, MOUNT_RPC_TIMEOUT, false, i));
                 int status = response.getMountStatus();
                 if (status != MountStatus.MNT3_OK.getValue()) {
                     String msg = String.format(
@@ -341,6 +554,7 @@ public class Nfs3 implements Nfs<Nfs3File> {
                             _exportedPath, VERSION, status);
                     throw new MountException(MountStatus.fromValue(status), msg);
                 }
+                break;
             } catch (RpcException e) {
                 usePrivilegedPort = handleRpcException(e, i);
             }
@@ -354,7 +568,8 @@ public class Nfs3 implements Nfs<Nfs3File> {
                 unmountRequest.marshalling(unmountXdr);
                 // RFC defines the response of a unmount request as void
                 // If we mounted with a privileged port, use one to unmount.
-                NetMgr.getInstance().sendAndWait(_server, portOfMountService, usePrivilegedPort, unmountXdr, MOUNT_RPC_TIMEOUT);
+                NetMgr.getInstance().sendAndWait(_server, portOfMountService, usePrivilegedPort, unmountXdr, MOUNT_RPC_TIMEOUT, false, i);
+                break;
             } catch (RpcException e) {
                 if (i+1 < MOUNT_MAX_RETRIES) {
                     LOG.warn(String.format(
@@ -390,7 +605,8 @@ public class Nfs3 implements Nfs<Nfs3File> {
     private boolean handleRpcException(RpcException e, int attemptNumber)
             throws IOException {
         boolean tryPrivilegedPort = e.getStatus().equals(RejectStatus.AUTH_ERROR);
-        boolean networkError = e.getStatus().equals(RpcStatus.NETWORK_ERROR);
+        boolean networkError = e.getStatus().equals(RpcStatus.NETWORK_ERROR)
+                || e.getStatus().equals(RpcStatus.LOCAL_WAIT_TIMEOUT);
         boolean retry = (tryPrivilegedPort || networkError) &&
                         ((attemptNumber + 1) < MOUNT_MAX_RETRIES);
         if (!retry) {
@@ -449,6 +665,32 @@ public class Nfs3 implements Nfs<Nfs3File> {
         return new Nfs3File(this, path);
     }
 
+    /* (non-Javadoc)
+     * @see com.emc.ecs.nfsclient.nfs.Nfs#newLazyFile(java.lang.String)
+     */
+    public Nfs3File newLazyFile(String path) throws IOException {
+        return new Nfs3File(this, path, true);
+    }
+
+    /**
+     * Resolve many paths to file handles at once. Shared directories are
+     * resolved only once, sibling LOOKUP calls are sent in parallel, and
+     * directories with many wanted children are listed with READDIRPLUS
+     * instead. The handles are added to the persistent file handle cache, if
+     * there is one, so that files for these paths need no further LOOKUP
+     * calls. Paths that go through symbolic links to directories are not
+     * resolved.
+     * 
+     * @param paths
+     *            The paths from the mount point.
+     * @return The file handles of the paths that exist, by path.
+     * @throws IOException
+     *             if a call fails for a reason other than a missing file.
+     */
+    public Map<String, byte[]> resolveAll(Collection<String> paths) throws IOException {
+        return new PathResolver(this).resolveAll(paths);
+    }
+
     /* (non-Javadoc)
      * @see com.emc.ecs.nfsclient.nfs.Nfs#getPort()
      */
@@ -463,6 +705,13 @@ public class Nfs3 implements Nfs<Nfs3File> {
         return _rootFileHandle.clone();
     }
 
+    /* (non-Javadoc)
+     * @see com.emc.ecs.nfsclient.nfs.Nfs#getFileHandleCache()
+     */
+    public NfsFileHandleCache getFileHandleCache() {
+        return _fileHandleCache;
+    }
+
     /* (non-Javadoc)
      * @see com.emc.ecs.nfsclient.nfs.Nfs#getServer()
      */
@@ -470,12 +719,107 @@ public class Nfs3 implements Nfs<Nfs3File> {
         return _server;
     }
 
+    /**
+     * Enable hedging of idempotent calls across the server addresses. See
+     * {@link RpcWrapper#setHedgeRatio(double)}.
+     * 
+     * @param hedgeRatio
+     *            The fraction of idempotent calls that may be duplicated,
+     *            from 0 (hedging disabled, the default) to 1.
+     */
+    public void setHedgeRatio(double hedgeRatio) {
+        _rpcWrapper.setHedgeRatio(hedgeRatio);
+    }
+
+    /**
+     * Configure or disable the adaptive limit on calls in flight to the
+     * server. The limit is disabled by default. See
+     * {@link RpcWrapper#setConcurrencyLimits(int, int)}.
+     * 
+     * @param initialLimit
+     *            The starting limit, or 0 to disable the limit.
+     * @param maximumLimit
+     *            The highest the limit can grow to.
+     */
+    public void setConcurrencyLimits(int initialLimit, int maximumLimit) {
+        _rpcWrapper.setConcurrencyLimits(initialLimit, maximumLimit);
+    }
+
+    /**
+     * Set the limits and fair share of this instance on the shared
+     * connections. Several instances can share one throttle to be limited
+     * together, as one tenant.
+     * 
+     * @param throttle
+     *            The throttle. Each instance starts with its own, which has no
+     *            limits and a weight of 1.
+     */
+    public void setThrottle(RpcThrottle throttle) {
+        _rpcWrapper.setThrottle(throttle);
+    }
+
+    /**
+     * @return The limits and fair share of this instance, with its current
+     *         usage.
+     */
+    public RpcThrottle getThrottle() {
+        return _rpcWrapper.getThrottle();
+    }
+
+    /**
+     * @return The circuit breakers of the server addresses called so far, for
+     *         monitoring.
+     */
+    public Map<String, CircuitBreaker> getCircuitBreakers() {
+        return _rpcWrapper.getCircuitBreakers();
+    }
+
     /* (non-Javadoc)
      * @see com.emc.ecs.nfsclient.nfs.Nfs#nullCall()
      */
     public Xdr nullCall() throws IOException {
+        return _rpcWrapper.callRpc(_rpcWrapper.chooseIP(_server.getBytes(RpcRequest.CHARSET)),
+                makeNullRequest(_credential), false);
+    }
+
+    /**
+     * Builds NULL procedure requests for pinging idle connections. It holds
+     * only the credential, so that the registration with {@link NetMgr},
+     * which is shared by all instances using the port, does not keep an
+     * instance alive.
+     */
+    private static final class NullRequestFactory implements PingRequestFactory {
+
+        /**
+         * The credential of the requests.
+         */
+        private final Credential _credential;
+
+        /**
+         * @param credential
+         *            The credential of the requests.
+         */
+        private NullRequestFactory(Credential credential) {
+            _credential = credential;
+        }
+
+        /* (non-Javadoc)
+         * @see com.emc.ecs.nfsclient.network.PingRequestFactory#newPingRequest()
+         */
+        public Xdr newPingRequest() {
+            return makeNullRequest(_credential);
+        }
+
+    }
+
+    /**
+     * @param credential
+     *            The credential of the request.
+     * @return A marshalled NULL procedure request with a new xid.
+     */
+    private static Xdr makeNullRequest(Credential credential) {
         Xdr xdr = new Xdr(MAXIMUM_NFS_REQUEST_SIZE);
-        new RpcRequest(RPC_PROGRAM, VERSION, NFSPROC3_NULL, _credential) {
+        new RpcRequest(RPC_PROGRAM, VERSION, NFSPROC3_NULL, credential) {
 
             /* (non-Javadoc)
              * @see com.emc.ecs.nfsclient.rpc.RpcRequest#getErrorMessage()
@@ -485,7 +829,7 @@ public class Nfs3 implements Nfs<Nfs3File> {
             }
 
         }.marshalling(xdr);
-        return _rpcWrapper.callRpc(_rpcWrapper.chooseIP(_server.getBytes(RpcRequest.CHARSET)), xdr, false);
+        return xdr;
     }
 
     /*
@@ -516,7 +860,27 @@ public class Nfs3 implements Nfs<Nfs3File> {
      * com.emc.ecs.nfsclient.nfs.Nfs#wrapped_getAttr(com.emc.ecs.nfsclient.nfs.
      * NfsGetAttrRequest)
      */
-    public Nfs3GetAttrResponse wrapped_getAttr(NfsGetAttrRequest request) throws IOException {
+    public Nfs3GetAttrResponse wrapped_getAttr(final NfsGetAttrRequest request) throws IOException {
+        return _getAttrCalls.execute(request.getCallKey(MAXIMUM_NFS_REQUEST_SIZE),
+                new SingleFlight.Call<Nfs3GetAttrResponse>() {
+                    /* (non-Javadoc)
+                     * @see com.emc.ecs.nfsclient.rpc.SingleFlight.Call#call()
+                     */
+                    public Nfs3GetAttrResponse call() throws IOException {
+                        return callGetAttr(request);
+                    }
+                });
+    }
+
+    /**
+     * Make a wrapped GETATTR call without coalescing.
+     * 
+     * @param request
+     *            The request.
+     * @return The response.
+     * @throws IOException
+     */
+    private Nfs3GetAttrResponse callGetAttr(NfsGetAttrRequest request) throws IOException {
         NfsResponseHandler<Nfs3GetAttrResponse> responseHandler = new NfsResponseHandler<Nfs3GetAttrResponse>() {
 
             /* (non-Javadoc)
@@ -527,7 +891,7 @@ public class Nfs3 implements Nfs<Nfs3File> {
             }
 
         };
-        _rpcWrapper.callRpcWrapped(request, responseHandler);
+        callRpcWrapped(request, responseHandler);
         return responseHandler.getResponse();
     }
 
@@ -568,7 +932,7 @@ public class Nfs3 implements Nfs<Nfs3File> {
             }
 
         };
-        _rpcWrapper.callRpcWrapped(request, responseHandler);
+        callRpcWrapped(request, responseHandler);
         return responseHandler.getResponse();
     }
 
@@ -591,7 +955,27 @@ public class Nfs3 implements Nfs<Nfs3File> {
     /* (non-Javadoc)
      * @see com.emc.ecs.nfsclient.nfs.Nfs#wrapped_getLookup(com.emc.ecs.nfsclient.nfs.NfsLookupRequest)
      */
-    public Nfs3LookupResponse wrapped_getLookup(NfsLookupRequest request) throws IOException {
+    public Nfs3LookupResponse wrapped_getLookup(final NfsLookupRequest request) throws IOException {
+        return _lookupCalls.execute(request.getCallKey(MAXIMUM_NFS_REQUEST_SIZE),
+                new SingleFlight.Call<Nfs3LookupResponse>() {
+                    /* (non-Javadoc)
+                     * @see com.emc.ecs.nfsclient.rpc.SingleFlight.Call#call()
+                     */
+                    public Nfs3LookupResponse call() throws IOException {
+                        return callLookup(request);
+                    }
+                });
+    }
+
+    /**
+     * Make a wrapped LOOKUP call without coalescing.
+     * 
+     * @param request
+     *            The request.
+     * @return The response.
+     * @throws IOException
+     */
+    private Nfs3LookupResponse callLookup(NfsLookupRequest request) throws IOException {
         RpcResponseHandler<Nfs3LookupResponse> responseHandler = new NfsResponseHandler<Nfs3LookupResponse>() {
 
             /* (non-Javadoc)
@@ -601,20 +985,8 @@ public class Nfs3 implements Nfs<Nfs3File> {
                 return new Nfs3LookupResponse();
             }
 
-            /* (non-Javadoc)
-             * @see com.emc.ecs.nfsclient.nfs.NfsResponseHandler#checkResponse(com.emc.ecs.nfsclient.rpc.RpcRequest)
-             */
-            public void checkResponse(RpcRequest request) throws IOException {
-                // If the root file handle is bad, we should mount again.
-                if ((getResponse().getState() == NfsStatus.NFS3ERR_BADHANDLE.getValue())
-                 && (((NfsLookupRequest)request).getFileHandle() == _rootFileHandle)) {
-                    prepareRootFhAndNfsPort();
-                }
-                super.checkResponse(request);
-            }
-
         };
-        _rpcWrapper.callRpcWrapped(request, responseHandler);
+        callRpcWrapped(request, responseHandler);
         return responseHandler.getResponse();
     }
 
@@ -637,7 +1009,27 @@ public class Nfs3 implements Nfs<Nfs3File> {
     /* (non-Javadoc)
      * @see com.emc.ecs.nfsclient.nfs.Nfs#wrapped_getAccess(com.emc.ecs.nfsclient.nfs.NfsAccessRequest)
      */
-    public Nfs3AccessResponse wrapped_getAccess(NfsAccessRequest request) throws IOException {
+    public Nfs3AccessResponse wrapped_getAccess(final NfsAccessRequest request) throws IOException {
+        return _accessCalls.execute(request.getCallKey(MAXIMUM_NFS_REQUEST_SIZE),
+                new SingleFlight.Call<Nfs3AccessResponse>() {
+                    /* (non-Javadoc)
+                     * @see com.emc.ecs.nfsclient.rpc.SingleFlight.Call#call()
+                     */
+                    public Nfs3AccessResponse call() throws IOException {
+                        return callAccess(request);
+                    }
+                });
+    }
+
+    /**
+     * Make a wrapped ACCESS call without coalescing.
+     * 
+     * @param request
+     *            The request.
+     * @return The response.
+     * @throws IOException
+     */
+    private Nfs3AccessResponse callAccess(NfsAccessRequest request) throws IOException {
         NfsResponseHandler<Nfs3AccessResponse> responseHandler = new NfsResponseHandler<Nfs3AccessResponse>() {
 
             /* (non-Javadoc)
@@ -648,7 +1040,7 @@ public class Nfs3 implements Nfs<Nfs3File> {
             }
 
         };
-        _rpcWrapper.callRpcWrapped(request, responseHandler);
+        callRpcWrapped(request, responseHandler);
         return responseHandler.getResponse();
     }
 
@@ -682,7 +1074,7 @@ public class Nfs3 implements Nfs<Nfs3File> {
             }
         };
 
-        _rpcWrapper.callRpcWrapped(request, responseHandler);
+        callRpcWrapped(request, responseHandler);
         return responseHandler.getResponse();
     }
 
@@ -716,7 +1108,7 @@ public class Nfs3 implements Nfs<Nfs3File> {
             }
         };
 
-        _rpcWrapper.callRpcWrapped(request, responseHandler);
+        callRpcWrapped(request, responseHandler);
         return responseHandler.getResponse();
     }
 
@@ -753,7 +1145,7 @@ public class Nfs3 implements Nfs<Nfs3File> {
             }
 
         };
-        _rpcWrapper.callRpcWrapped(request, responseHandler, ip);
+        callRpcWrapped(request, responseHandler, ip);
         return responseHandler.getResponse();
     }
 
@@ -781,7 +1173,7 @@ public class Nfs3 implements Nfs<Nfs3File> {
             }
 
         };
-        _rpcWrapper.callRpcWrapped(request, responseHandler, ip);
+        callRpcWrapped(request, responseHandler, ip);
         return responseHandler.getResponse();
     }
 
@@ -816,7 +1208,7 @@ public class Nfs3 implements Nfs<Nfs3File> {
             }
 
         };
-        _rpcWrapper.callRpcWrapped(request, responseHandler);
+        callRpcWrapped(request, responseHandler);
         return responseHandler.getResponse();
     }
 
@@ -851,7 +1243,7 @@ public class Nfs3 implements Nfs<Nfs3File> {
             }
 
         };
-        _rpcWrapper.callRpcWrapped(request, responseHandler);
+        callRpcWrapped(request, responseHandler);
         return responseHandler.getResponse();
     }
 
@@ -886,7 +1278,7 @@ public class Nfs3 implements Nfs<Nfs3File> {
             }
 
         };
-        _rpcWrapper.callRpcWrapped(request, responseHandler);
+        callRpcWrapped(request, responseHandler);
         return responseHandler.getResponse();
     }
 
@@ -921,7 +1313,7 @@ public class Nfs3 implements Nfs<Nfs3File> {
             }
 
         };
-        _rpcWrapper.callRpcWrapped(request, responseHandler);
+        callRpcWrapped(request, responseHandler);
         return responseHandler.getResponse();
     }
 
@@ -955,7 +1347,7 @@ public class Nfs3 implements Nfs<Nfs3File> {
             }
 
         };
-        _rpcWrapper.callRpcWrapped(request, responseHandler);
+        callRpcWrapped(request, responseHandler);
         return responseHandler.getResponse();
     }
 
@@ -989,7 +1381,7 @@ public class Nfs3 implements Nfs<Nfs3File> {
             }
 
         };
-        _rpcWrapper.callRpcWrapped(request, responseHandler);
+        callRpcWrapped(request, responseHandler);
         return responseHandler.getResponse();
     }
 
@@ -1024,7 +1416,7 @@ public class Nfs3 implements Nfs<Nfs3File> {
             }
 
         };
-        _rpcWrapper.callRpcWrapped(request, responseHandler);
+        callRpcWrapped(request, responseHandler);
         return responseHandler.getResponse();
     }
 
@@ -1067,7 +1459,7 @@ public class Nfs3 implements Nfs<Nfs3File> {
             }
 
         };
-        _rpcWrapper.callRpcWrapped(request, responseHandler);
+        callRpcWrapped(request, responseHandler);
         return responseHandler.getResponse();
     }
 
@@ -1101,7 +1493,7 @@ public class Nfs3 implements Nfs<Nfs3File> {
             }
 
         };
-        _rpcWrapper.callRpcWrapped(request, responseHandler);
+        callRpcWrapped(request, responseHandler);
         return responseHandler.getResponse();
     }
 
@@ -1120,7 +1512,7 @@ public class Nfs3 implements Nfs<Nfs3File> {
             }
 
         };
-        _rpcWrapper.callRpcWrapped(request, responseHandler);
+        callRpcWrapped(request, responseHandler);
         return responseHandler.getResponse();
     }
 
@@ -1155,7 +1547,7 @@ public class Nfs3 implements Nfs<Nfs3File> {
             }
 
         };
-        _rpcWrapper.callRpcWrapped(request, responseHandler);
+        callRpcWrapped(request, responseHandler);
         return responseHandler.getResponse();
     }
 
@@ -1174,7 +1566,7 @@ public class Nfs3 implements Nfs<Nfs3File> {
             }
 
         };
-        _rpcWrapper.callRpcWrapped(request, responseHandler);
+        callRpcWrapped(request, responseHandler);
         return responseHandler.getResponse();
     }
 
@@ -1222,7 +1614,7 @@ public class Nfs3 implements Nfs<Nfs3File> {
             }
 
         };
-        _rpcWrapper.callRpcWrapped(request, responseHandler);
+        callRpcWrapped(request, responseHandler);
         return responseHandler.getResponse();
     }
 
@@ -1230,7 +1622,12 @@ public class Nfs3 implements Nfs<Nfs3File> {
      * @see com.emc.ecs.nfsclient.nfs.Nfs#getNfsFsInfo()
      */
     public NfsFsInfo getNfsFsInfo() throws IOException {
-        return wrapped_getFsInfo(makeFsInfoRequest()).getFsInfo();
+        NfsFsInfo fsInfo = _fsInfo;
+        if (fsInfo == null) {
+            fsInfo = wrapped_getFsInfo(makeFsInfoRequest()).getFsInfo();
+            _fsInfo = fsInfo;
+        }
+        return fsInfo;
     }
 
     /* (non-Javadoc)
@@ -1270,7 +1667,7 @@ public class Nfs3 implements Nfs<Nfs3File> {
             }
 
         };
-        _rpcWrapper.callRpcWrapped(request, responseHandler);
+        callRpcWrapped(request, responseHandler);
         return responseHandler.getResponse();
     }
 
@@ -1304,7 +1701,7 @@ public class Nfs3 implements Nfs<Nfs3File> {
             }
 
         };
-        _rpcWrapper.callRpcWrapped(request, responseHandler);
+        callRpcWrapped(request, responseHandler);
         return responseHandler.getResponse();
     }
 
@@ -1338,7 +1735,7 @@ public class Nfs3 implements Nfs<Nfs3File> {
             }
 
         };
-        _rpcWrapper.callRpcWrapped(request, responseHandler, _server);
+        callRpcWrapped(request, responseHandler, _server);
         return responseHandler.getResponse();
     }
 
@@ -1400,7 +1797,7 @@ public class Nfs3 implements Nfs<Nfs3File> {
           }
 
       };
-      _rpcWrapper.callRpcWrapped(request, responseHandler);
+      callRpcWrapped(request, responseHandler);
       return responseHandler.getResponse().getBytesRead();
   }
 
@@ -1428,7 +1825,7 @@ public class Nfs3 implements Nfs<Nfs3File> {
           }
 
       };
-      _rpcWrapper.callRpcWrapped(request, responseHandler, _server);
+      callRpcWrapped(request, responseHandler, _server);
   }
 
 }
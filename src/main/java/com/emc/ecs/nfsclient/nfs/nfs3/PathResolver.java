@@ -0,0 +1,457 @@
+/**
+ * Copyright 2016-2018 Dell Inc. or its subsidiaries. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.nfsclient.nfs.nfs3;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.emc.ecs.nfsclient.network.NetMgr;
+import com.emc.ecs.nfsclient.nfs.Nfs;
+import com.emc.ecs.nfsclient.nfs.NfsDirectoryPlusEntry;
+import com.emc.ecs.nfsclient.nfs.NfsException;
+import com.emc.ecs.nfsclient.nfs.NfsReaddirplusResponse;
+import com.emc.ecs.nfsclient.nfs.NfsStatus;
+import com.emc.ecs.nfsclient.nfs.io.NfsFile;
+import com.emc.ecs.nfsclient.nfs.io.NfsFileBase;
+import com.emc.ecs.nfsclient.nfs.io.NfsFileHandleCache;
+
+/**
+ * Resolves many paths to file handles at once. The paths are merged into a
+ * prefix tree, so that each shared directory is resolved only once, and the
+ * calls for the children of a directory are queued as soon as its handle is
+ * known, so a slow directory does not hold up the rest of the tree. Up to
+ * {@link #MAXIMUM_CONCURRENT_CALLS} calls run in parallel. Directories with
+ * many wanted children are listed with READDIRPLUS instead of sending a LOOKUP
+ * per child.
+ * 
+ * <p>
+ * LOOKUP does not follow symbolic links, so paths that go through a link to a
+ * directory are not resolved.
+ * </p>
+ * 
+ * @author seibed
+ */
+class PathResolver {
+
+    /**
+     * Directories with at least this many wanted children are listed with
+     * READDIRPLUS.
+     */
+    static final int READDIRPLUS_MINIMUM_CHILDREN = 64;
+
+    /**
+     * The maximum number of calls in flight.
+     */
+    static final int MAXIMUM_CONCURRENT_CALLS = 32;
+
+    /**
+     * The maximum number of bytes of directory information per READDIRPLUS
+     * call.
+     */
+    private static final int READDIRPLUS_DIRCOUNT = 8 * 1024;
+
+    /**
+     * The maximum number of bytes per READDIRPLUS reply.
+     */
+    private static final int READDIRPLUS_MAXCOUNT = 64 * 1024;
+
+    /**
+     * A node of the prefix tree.
+     */
+    static final class Node {
+
+        /**
+         * The normalized path.
+         */
+        private final String _path;
+
+        /**
+         * The children by name, in the order they were added.
+         */
+        private final Map<String, Node> _children = new LinkedHashMap<String, Node>();
+
+        /**
+         * The file handle, or <code>null</code> until it is resolved.
+         */
+        private volatile byte[] _fileHandle;
+
+        /**
+         * @param path
+         *            The normalized path.
+         */
+        private Node(String path) {
+            _path = path;
+        }
+
+        /**
+         * @param name
+         *            The child name.
+         * @return The child, which is added if it is not there.
+         */
+        private Node getChild(String name) {
+            Node child = _children.get(name);
+            if (child == null) {
+                child = new Node(NfsFileBase.makeChildPath(_path, name));
+                _children.put(name, child);
+            }
+            return child;
+        }
+
+        /**
+         * @return The normalized path.
+         */
+        String getPath() {
+            return _path;
+        }
+
+        /**
+         * @return The children by name, in the order they were added.
+         */
+        Map<String, Node> getChildren() {
+            return _children;
+        }
+
+    }
+
+    /**
+     * The client.
+     */
+    private final Nfs<?> _nfs;
+
+    /**
+     * The first failure that is not just a missing file, thrown once the
+     * calls in flight complete. No more calls are started after a failure.
+     */
+    private final AtomicReference<IOException> _failure = new AtomicReference<IOException>();
+
+    /**
+     * The calls waiting for a worker.
+     */
+    private final Queue<Runnable> _tasks = new ConcurrentLinkedQueue<Runnable>();
+
+    /**
+     * The number of calls queued or running.
+     */
+    private final AtomicInteger _pendingTaskCount = new AtomicInteger();
+
+    /**
+     * The number of workers running calls.
+     */
+    private final AtomicInteger _workerCount = new AtomicInteger();
+
+    /**
+     * Released when the last pending call completes.
+     */
+    private final CountDownLatch _done = new CountDownLatch(1);
+
+    /**
+     * @param nfs
+     *            The client.
+     */
+    PathResolver(Nfs<?> nfs) {
+        _nfs = nfs;
+    }
+
+    /**
+     * @param paths
+     *            The paths from the mount point.
+     * @return The file handles of the paths that exist, by path.
+     * @throws IOException
+     *             if a call fails for a reason other than a missing file.
+     */
+    Map<String, byte[]> resolveAll(Collection<String> paths) throws IOException {
+        Map<String, Node> nodes = new HashMap<String, Node>();
+        Node root = buildTree(paths, nodes);
+        root._fileHandle = _nfs.getRootFileHandle();
+        resolveTree(root);
+
+        NfsFileHandleCache fileHandleCache = _nfs.getFileHandleCache();
+        String absolutePathBase = _nfs.getServer() + ":" + _nfs.getExportedPath();
+        if (!absolutePathBase.endsWith(NfsFile.separator)) {
+            absolutePathBase = absolutePathBase + NfsFile.separator;
+        }
+        Map<String, byte[]> fileHandles = new HashMap<String, byte[]>();
+        for (Map.Entry<String, Node> entry : nodes.entrySet()) {
+            Node node = entry.getValue();
+            if (node._fileHandle != null) {
+                fileHandles.put(entry.getKey(), node._fileHandle);
+                if ((fileHandleCache != null) && (node != root)) {
+                    fileHandleCache.put(absolutePathBase + node._path.substring(1), node._fileHandle);
+                }
+            }
+        }
+        return fileHandles;
+    }
+
+    /**
+     * Merge paths into a prefix tree.
+     * 
+     * @param paths
+     *            The paths from the mount point.
+     * @param nodes
+     *            Filled with the node of each path, by path as given.
+     * @return The root of the tree.
+     */
+    static Node buildTree(Collection<String> paths, Map<String, Node> nodes) {
+        Node root = new Node(NfsFile.separator);
+        for (String path : paths) {
+            Node node = root;
+            for (String name : NfsFileBase.normalizePath(path).substring(1).split(NfsFile.separator)) {
+                if (!name.isEmpty()) {
+                    node = node.getChild(name);
+                }
+            }
+            nodes.put(path, node);
+        }
+        return root;
+    }
+
+    /**
+     * Resolve the tree below a directory, and wait for all calls to complete.
+     * 
+     * @param root
+     *            The directory, which is resolved.
+     * @throws IOException
+     */
+    private void resolveTree(Node root) throws IOException {
+        if (!root._children.isEmpty()) {
+            _pendingTaskCount.incrementAndGet();
+            queueChildren(root);
+            completeTask();
+            try {
+                _done.await();
+            } catch (InterruptedException e) {
+                _failure.compareAndSet(null, new IOException("interrupted while resolving paths", e));
+                Thread.currentThread().interrupt();
+            }
+        }
+        IOException failure = _failure.get();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Queue the calls resolving the children of a directory whose handle has
+     * just been found.
+     * 
+     * @param directory
+     *            The resolved directory.
+     */
+    private void queueChildren(final Node directory) {
+        if (directory._children.size() >= READDIRPLUS_MINIMUM_CHILDREN) {
+            queue(new Runnable() {
+                /* (non-Javadoc)
+                 * @see java.lang.Runnable#run()
+                 */
+                public void run() {
+                    list(directory);
+                }
+            });
+        } else {
+            for (final Node child : directory._children.values()) {
+                queue(new Runnable() {
+                    /* (non-Javadoc)
+                     * @see java.lang.Runnable#run()
+                     */
+                    public void run() {
+                        lookup(directory, child);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Queue a call, and start a worker for it if there are fewer than
+     * {@link #MAXIMUM_CONCURRENT_CALLS}.
+     * 
+     * @param task
+     *            The call.
+     */
+    private void queue(Runnable task) {
+        _pendingTaskCount.incrementAndGet();
+        _tasks.add(task);
+        if (reserveWorker()) {
+            try {
+                NetMgr.getInstance().getExecutor().execute(new Runnable() {
+                    /* (non-Javadoc)
+                     * @see java.lang.Runnable#run()
+                     */
+                    public void run() {
+                        runTasks();
+                    }
+                });
+            } catch (RuntimeException e) {
+                _workerCount.decrementAndGet();
+                _failure.compareAndSet(null, new IOException("path resolution failed", e));
+                drainTasks();
+            }
+        }
+    }
+
+    /**
+     * @return <code>true</code> if a worker slot was taken.
+     */
+    private boolean reserveWorker() {
+        while (true) {
+            int workerCount = _workerCount.get();
+            if (workerCount >= MAXIMUM_CONCURRENT_CALLS) {
+                return false;
+            }
+            if (_workerCount.compareAndSet(workerCount, workerCount + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Run queued calls until there are none. A call queued just as the worker
+     * gives up its slot is picked up again, so none is left behind.
+     */
+    private void runTasks() {
+        do {
+            Runnable task;
+            while ((task = _tasks.poll()) != null) {
+                try {
+                    if (_failure.get() == null) {
+                        task.run();
+                    }
+                } catch (RuntimeException e) {
+                    _failure.compareAndSet(null, new IOException("path resolution failed", e));
+                } finally {
+                    completeTask();
+                }
+            }
+            _workerCount.decrementAndGet();
+        } while (!_tasks.isEmpty() && reserveWorker());
+    }
+
+    /**
+     * Drop the queued calls, after a worker could not be started.
+     */
+    private void drainTasks() {
+        while (_tasks.poll() != null) {
+            completeTask();
+        }
+    }
+
+    /**
+     * Count a call as complete, releasing the caller after the last one.
+     */
+    private void completeTask() {
+        if (_pendingTaskCount.decrementAndGet() == 0) {
+            _done.countDown();
+        }
+    }
+
+    /**
+     * Record the handle of a child, and queue the calls for its own children.
+     * 
+     * @param child
+     *            The child.
+     * @param fileHandle
+     *            Its handle.
+     */
+    private void resolved(Node child, byte[] fileHandle) {
+        child._fileHandle = fileHandle;
+        if (!child._children.isEmpty()) {
+            queueChildren(child);
+        }
+    }
+
+    /**
+     * @param directory
+     *            The resolved directory.
+     * @param child
+     *            The child to resolve.
+     */
+    private void lookup(Node directory, Node child) {
+        try {
+            resolved(child, _nfs.wrapped_getLookup(
+                    _nfs.makeLookupRequest(directory._fileHandle, NfsFileBase.makeName(child._path))).getFileHandle());
+        } catch (FileNotFoundException e) {
+            // do nothing, the path does not exist
+        } catch (NfsException e) {
+            if (!e.getStatus().equals(NfsStatus.NFS3ERR_NOTDIR)) {
+                _failure.compareAndSet(null, e);
+            }
+            // otherwise the directory is really a file or a link
+        } catch (IOException e) {
+            _failure.compareAndSet(null, e);
+        }
+    }
+
+    /**
+     * Resolve the children of a directory by listing it with READDIRPLUS. The
+     * listing stops once all children are found, and children listed without
+     * a handle are looked up.
+     * 
+     * @param directory
+     *            The resolved directory.
+     */
+    private void list(Node directory) {
+        Map<String, Node> unresolved = new HashMap<String, Node>(directory._children);
+        try {
+            long cookie = 0;
+            long cookieverf = 0;
+            boolean eof = false;
+            while (!eof && !unresolved.isEmpty()) {
+                List<NfsDirectoryPlusEntry> entries = new ArrayList<NfsDirectoryPlusEntry>();
+                NfsReaddirplusResponse response = _nfs.wrapped_getReaddirplus(_nfs.makeReaddirplusRequest(
+                        directory._fileHandle, cookie, cookieverf, READDIRPLUS_DIRCOUNT, READDIRPLUS_MAXCOUNT),
+                        entries);
+                for (NfsDirectoryPlusEntry entry : entries) {
+                    Node child = unresolved.get(entry.getFileName());
+                    if (child != null) {
+                        if (entry.getFileHandle() != null) {
+                            resolved(child, entry.getFileHandle());
+                        } else {
+                            lookup(directory, child);
+                        }
+                        unresolved.remove(entry.getFileName());
+                    }
+                }
+                eof = response.isEof();
+                cookie = response.getCookie();
+                cookieverf = response.getCookieverf();
+            }
+        } catch (NfsException e) {
+            if (e.getStatus().equals(NfsStatus.NFS3ERR_NOTSUPP)) {
+                // fall back to a LOOKUP per child
+                for (Node child : unresolved.values()) {
+                    lookup(directory, child);
+                }
+            } else if (!e.getStatus().equals(NfsStatus.NFS3ERR_NOTDIR)) {
+                _failure.compareAndSet(null, e);
+            }
+            // otherwise the directory is really a file or a link
+        } catch (IOException e) {
+            _failure.compareAndSet(null, e);
+        }
+    }
+
+}
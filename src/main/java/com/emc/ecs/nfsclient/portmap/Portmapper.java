@@ -15,11 +15,17 @@
 package com.emc.ecs.nfsclient.portmap;
 
 import com.emc.ecs.nfsclient.network.NetMgr;
+import com.emc.ecs.nfsclient.rpc.ExpiringCache;
 import com.emc.ecs.nfsclient.rpc.RpcException;
 import com.emc.ecs.nfsclient.rpc.RpcStatus;
+import com.emc.ecs.nfsclient.rpc.SingleFlight;
 import com.emc.ecs.nfsclient.rpc.Xdr;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 import org.apache.commons.lang3.NotImplementedException;
 
@@ -43,7 +49,8 @@ public class Portmapper {
     private static final int PORTMAP_MAX_REQUEST_SIZE = 128;
 
     /**
-     * RPC timeout in seconds.
+     * Maximum RPC timeout in seconds, the actual timeout adapts to measured
+     * round-trip times.
      */
     private static int PORTMAP_RPC_TIMEOUT = 10;
 
@@ -63,7 +70,68 @@ public class Portmapper {
     private static boolean _usePrivilegedPort = false;
 
     /**
-     * Given program and version of a service, query its tcp port number
+     * The default time port mappings are cached, in seconds.
+     */
+    public static final long DEFAULT_PORT_CACHE_TTL = 300;
+
+    /**
+     * The port mappings, by server, program and version.
+     */
+    private static final ExpiringCache<String, Integer> _portCache = new ExpiringCache<String, Integer>(
+            DEFAULT_PORT_CACHE_TTL, TimeUnit.SECONDS);
+
+    /**
+     * Change the time port mappings are cached. Concurrent queries for the
+     * same mapping always share one call.
+     * 
+     * @param ttl
+     *            The time in seconds, or 0 to disable caching.
+     */
+    public static void setPortCacheTtl(long ttl) {
+        _portCache.setTtl(ttl, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Drop a cached port mapping, for example after the service has moved.
+     * 
+     * @param program
+     *            The program number.
+     * @param version
+     *            The program version number.
+     * @param serverIP
+     *            The server IP address.
+     */
+    public static void invalidatePort(int program, int version, String serverIP) {
+        _portCache.invalidate(getPortKey(program, version, serverIP));
+    }
+
+    /**
+     * Given program and version of a service, query its tcp port number. The
+     * result is cached, see {@link #setPortCacheTtl(long)}.
+     * 
+     * @param program
+     *            The program number, used to identify it for RPC calls.
+     * @param version
+     *            The program version number, used to identify it for RPC calls.
+     * @param serverIP
+     *            The server IP address.
+     * @return The port number for the program.
+     */
+    public static int queryPortFromPortMap(final int program, final int version, final String serverIP)
+            throws IOException {
+        return _portCache.get(getPortKey(program, version, serverIP), new SingleFlight.Call<Integer>() {
+            /* (non-Javadoc)
+             * @see com.emc.ecs.nfsclient.rpc.SingleFlight.Call#call()
+             */
+            public Integer call() throws IOException {
+                return Integer.valueOf(queryPort(program, version, serverIP));
+            }
+        }).intValue();
+    }
+
+    /**
+     * Start a port query on the shared executor, so that several queries can
+     * run at once. See {@link #queryPortFromPortMap(int, int, String)}.
      * 
      * @param program
      *            The program number, used to identify it for RPC calls.
@@ -71,9 +139,58 @@ public class Portmapper {
      *            The program version number, used to identify it for RPC calls.
      * @param serverIP
      *            The server IP address.
+     * @return The future for the port number.
+     */
+    public static CompletableFuture<Integer> queryPortFromPortMapAsync(final int program, final int version,
+            final String serverIP) {
+        return CompletableFuture.supplyAsync(new Supplier<Integer>() {
+            /* (non-Javadoc)
+             * @see java.util.function.Supplier#get()
+             */
+            public Integer get() {
+                try {
+                    return Integer.valueOf(queryPortFromPortMap(program, version, serverIP));
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }
+        }, NetMgr.getInstance().getExecutor());
+    }
+
+    /**
+     * Wait for a query started by
+     * {@link #queryPortFromPortMapAsync(int, int, String)}.
+     * 
+     * @param future
+     *            The future for the port number.
+     * @return The port number.
+     * @throws IOException
+     *             If the query failed.
+     */
+    public static int getPort(CompletableFuture<Integer> future) throws IOException {
+        try {
+            return future.join().intValue();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("port query failed", e.getCause());
+        }
+    }
+
+    /**
+     * Query the port without the cache, stopping at the first reply.
+     * 
+     * @param program
+     *            The program number.
+     * @param version
+     *            The program version number.
+     * @param serverIP
+     *            The server IP address.
      * @return The port number for the program.
+     * @throws IOException
      */
-    public static int queryPortFromPortMap(int program, int version, String serverIP) throws IOException {
+    private static int queryPort(int program, int version, String serverIP) throws IOException {
         GetPortResponse response = null;
         GetPortRequest request = new GetPortRequest(program, version);
         for (int i = 0; i < _maxRetry; ++i) {
@@ -82,10 +199,11 @@ public class Portmapper {
                 request.marshalling(portmapXdr);
 
                 Xdr reply = NetMgr.getInstance().sendAndWait(serverIP, PMAP_PORT, _usePrivilegedPort, portmapXdr,
-                        PORTMAP_RPC_TIMEOUT);
+                        PORTMAP_RPC_TIMEOUT, false, i);
 
                 response = new GetPortResponse();
                 response.unmarshalling(reply);
+                break;
             } catch (RpcException e) {
                 handleRpcException(e, i, serverIP);
             }
@@ -112,19 +230,32 @@ public class Portmapper {
      */
     private static void handleRpcException(RpcException e, int attemptNumber, String server) throws IOException {
         String messageStart;
-        if (!(e.getStatus().equals(RpcStatus.NETWORK_ERROR))) {
-            messageStart = "network";
+        if (!(e.getStatus().equals(RpcStatus.NETWORK_ERROR) || e.getStatus().equals(RpcStatus.LOCAL_WAIT_TIMEOUT))) {
+            messageStart = "rpc";
         } else {
             // check whether to retry
             if (attemptNumber + 1 < _maxRetry) {
                 return;
             }
-            messageStart = "rpc";
+            messageStart = "network";
         }
         throw new IOException(
                 String.format("%s error, server: %s, RPC error: %s", messageStart, server, e.getMessage()), e);
     }
 
+    /**
+     * @param program
+     *            The program number.
+     * @param version
+     *            The program version number.
+     * @param serverIP
+     *            The server IP address.
+     * @return The key of the port mapping in the cache.
+     */
+    private static String getPortKey(int program, int version, String serverIP) {
+        return serverIP + ":" + program + ":" + version;
+    }
+
     /**
      * Never called.
      */
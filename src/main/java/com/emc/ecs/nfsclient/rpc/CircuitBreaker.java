@@ -0,0 +1,189 @@
+/**
+ * Copyright 2016-2018 Dell Inc. or its subsidiaries. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.nfsclient.rpc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A circuit breaker for one server address. After enough consecutive network
+ * failures the circuit opens, and calls fail at once instead of waiting for
+ * timeouts. Once the open time has passed, the circuit is half open and lets a
+ * single trial call through: a reply closes the circuit, and another failure
+ * opens it again.
+ *
+ * @author seibed
+ */
+public class CircuitBreaker {
+
+    /**
+     * The usual logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    /**
+     * The default number of consecutive failures that opens the circuit.
+     */
+    static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+    /**
+     * The default time in milliseconds that an open circuit rejects calls
+     * before it lets a trial through.
+     */
+    static final long DEFAULT_OPEN_TIME = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * The circuit states.
+     * 
+     * @author seibed
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN;
+    }
+
+    /**
+     * The server address, for logging.
+     */
+    private final String _address;
+
+    /**
+     * The number of consecutive failures that opens the circuit.
+     */
+    private final int _failureThreshold;
+
+    /**
+     * The time in milliseconds that an open circuit rejects calls.
+     */
+    private final long _openTime;
+
+    /**
+     * The current state.
+     */
+    private State _state = State.CLOSED;
+
+    /**
+     * The number of consecutive failures.
+     */
+    private int _failures = 0;
+
+    /**
+     * When the circuit is open, the time at which it becomes half open. When
+     * it is half open, the time at which another trial may start if the last
+     * one has not finished. Both are from {@link System#currentTimeMillis()}.
+     */
+    private long _nextTrial = 0;
+
+    /**
+     * The number of times the circuit has opened.
+     */
+    private long _openCount = 0;
+
+    /**
+     * The number of calls rejected.
+     */
+    private long _rejectedCount = 0;
+
+    /**
+     * @param address
+     *            The server address, for logging.
+     * @param failureThreshold
+     *            The number of consecutive failures that opens the circuit.
+     * @param openTime
+     *            The time in milliseconds that an open circuit rejects calls.
+     */
+    CircuitBreaker(String address, int failureThreshold, long openTime) {
+        _address = address;
+        _failureThreshold = failureThreshold;
+        _openTime = openTime;
+    }
+
+    /**
+     * @return The current state.
+     */
+    public synchronized State getState() {
+        if ((_state == State.OPEN) && (System.currentTimeMillis() >= _nextTrial)) {
+            return State.HALF_OPEN;
+        }
+        return _state;
+    }
+
+    /**
+     * @return The number of times the circuit has opened.
+     */
+    public synchronized long getOpenCount() {
+        return _openCount;
+    }
+
+    /**
+     * @return The number of calls rejected.
+     */
+    public synchronized long getRejectedCount() {
+        return _rejectedCount;
+    }
+
+    /**
+     * Check whether a call may be made now, counting it as the trial call if
+     * the circuit is half open.
+     * 
+     * @return <code>true</code> if the call may be made, <code>false</code> if
+     *         it should fail at once.
+     */
+    synchronized boolean allowRequest() {
+        if (_state == State.CLOSED) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        if (now < _nextTrial) {
+            ++_rejectedCount;
+            return false;
+        }
+        if (_state == State.OPEN) {
+            LOG.info("circuit for {} is half open", _address);
+            _state = State.HALF_OPEN;
+        }
+        // a trial that never finishes must not hold the circuit open forever
+        _nextTrial = now + _openTime;
+        return true;
+    }
+
+    /**
+     * Record a call that got a reply, which closes the circuit.
+     */
+    synchronized void recordSuccess() {
+        if (_state != State.CLOSED) {
+            LOG.info("circuit for {} is closed", _address);
+            _state = State.CLOSED;
+        }
+        _failures = 0;
+    }
+
+    /**
+     * Record a call that failed at the network level, which opens the circuit
+     * if it was half open or the failure threshold is reached.
+     */
+    synchronized void recordFailure() {
+        ++_failures;
+        if ((_state == State.HALF_OPEN) || ((_state == State.CLOSED) && (_failures >= _failureThreshold))) {
+            LOG.warn("circuit for {} is open after {} failures, rejecting calls for {} ms", _address, _failures,
+                    _openTime);
+            _state = State.OPEN;
+            _nextTrial = System.currentTimeMillis() + _openTime;
+            ++_openCount;
+        }
+    }
+
+}
@@ -0,0 +1,280 @@
+/**
+ * Copyright 2016-2018 Dell Inc. or its subsidiaries. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.nfsclient.rpc;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An adaptive limit on the calls in flight to one server, using additive
+ * increase and multiplicative decrease. While replies come back about as fast
+ * as usual the limit grows by about one per round trip. When replies slow down
+ * the limit shrinks a little, and when the server drops calls, by timing out
+ * or answering NFS3ERR_JUKEBOX, it is halved. This keeps the load near the
+ * point where the server is busy but not yet queueing. Only calls started
+ * after the last decrease can cause another, so a burst of bad replies to the
+ * same overload shrinks the limit once.
+ *
+ * <p>
+ * Procedures differ widely in cost, so latency is judged per procedure: the
+ * smoothed latency of a procedure is compared with the lowest smoothed
+ * latency it has had recently, and a mix of cheap and expensive procedures
+ * does not look like a slowdown.
+ * </p>
+ *
+ * @author seibed
+ */
+class ConcurrencyLimiter {
+
+    /**
+     * A smoothed latency of more than this many times the baseline of its
+     * procedure shrinks the limit.
+     */
+    private static final double LATENCY_TOLERANCE = 2;
+
+    /**
+     * The number of samples of a procedure needed before its latency is
+     * judged.
+     */
+    private static final int MINIMUM_SAMPLES = 20;
+
+    /**
+     * The weight of the old value when smoothing latencies.
+     */
+    private static final int SMOOTHING = 8;
+
+    /**
+     * The factor applied to the limit when replies are slow.
+     */
+    private static final double SLOW_DECREASE = 0.9;
+
+    /**
+     * The factor applied to the limit when calls are dropped.
+     */
+    private static final double DROP_DECREASE = 0.5;
+
+    /**
+     * The number of latency samples after which the baseline of a procedure
+     * is replaced by the minimum of those samples, so that it follows lasting
+     * changes.
+     */
+    private static final int BASELINE_SAMPLES = 500;
+
+    /**
+     * The latency history of one procedure.
+     */
+    private static final class Baseline {
+
+        /**
+         * The smoothed latency in nanoseconds.
+         */
+        private double _smoothed = 0;
+
+        /**
+         * The lowest recent smoothed latency, or 0 before any samples.
+         */
+        private double _minimum = 0;
+
+        /**
+         * The lowest smoothed latency since the baseline was last replaced.
+         */
+        private double _windowMinimum = Double.MAX_VALUE;
+
+        /**
+         * The number of samples since the baseline was last replaced.
+         */
+        private int _windowSamples = 0;
+
+        /**
+         * The total number of samples, up to {@link #MINIMUM_SAMPLES}.
+         */
+        private int _samples = 0;
+
+        /**
+         * @param latency
+         *            A new latency sample in nanoseconds.
+         * @return <code>true</code> if the procedure is slower than usual.
+         */
+        private boolean update(long latency) {
+            _smoothed = (_samples == 0) ? latency : (_smoothed + (latency - _smoothed) / SMOOTHING);
+            if (_samples < MINIMUM_SAMPLES) {
+                ++_samples;
+                // the first samples only settle the smoothed value
+                return false;
+            }
+            if ((_minimum == 0) || (_smoothed < _minimum)) {
+                _minimum = _smoothed;
+            }
+            _windowMinimum = Math.min(_windowMinimum, _smoothed);
+            if (++_windowSamples >= BASELINE_SAMPLES) {
+                _minimum = _windowMinimum;
+                _windowMinimum = Double.MAX_VALUE;
+                _windowSamples = 0;
+            }
+            return _smoothed > LATENCY_TOLERANCE * _minimum;
+        }
+
+    }
+
+    /**
+     * The largest limit.
+     */
+    private final int _maximumLimit;
+
+    /**
+     * The current limit, which is fractional so that it can grow slowly.
+     */
+    private double _limit;
+
+    /**
+     * The number of calls in flight.
+     */
+    private int _inFlight = 0;
+
+    /**
+     * The latency history of each procedure, by procedure number.
+     */
+    private final Map<Integer, Baseline> _baselines = new HashMap<Integer, Baseline>();
+
+    /**
+     * The time of the last decrease, from {@link System#nanoTime()}.
+     */
+    private long _lastDecrease = System.nanoTime();
+
+    /**
+     * @param initialLimit
+     *            The starting limit.
+     * @param maximumLimit
+     *            The largest limit.
+     */
+    ConcurrencyLimiter(int initialLimit, int maximumLimit) {
+        _limit = initialLimit;
+        _maximumLimit = maximumLimit;
+    }
+
+    /**
+     * Take a place for one call, waiting while the limit is reached.
+     *
+     * @param timeout
+     *            The maximum time to wait.
+     * @param unit
+     *            The unit of the timeout.
+     * @return <code>true</code> if the place was taken, <code>false</code> if
+     *         the timeout expired first.
+     * @throws InterruptedException
+     */
+    synchronized boolean acquire(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (_inFlight >= (int) _limit) {
+            long nanosLeft = deadline - System.nanoTime();
+            if (nanosLeft <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, nanosLeft);
+        }
+        ++_inFlight;
+        return true;
+    }
+
+    /**
+     * Give back the place of a call that got a normal reply.
+     *
+     * @param startNanos
+     *            The time the call started, from {@link System#nanoTime()}.
+     * @param procedure
+     *            The procedure number of the call.
+     * @param measureLatency
+     *            <code>true</code> if the latency of the call reflects server
+     *            load, <code>false</code> for calls such as data transfers
+     *            whose latency depends mostly on their size.
+     */
+    synchronized void onSuccess(long startNanos, int procedure, boolean measureLatency) {
+        release();
+        if (measureLatency) {
+            Baseline baseline = _baselines.get(procedure);
+            if (baseline == null) {
+                baseline = new Baseline();
+                _baselines.put(procedure, baseline);
+            }
+            if (baseline.update(System.nanoTime() - startNanos)) {
+                decrease(startNanos, SLOW_DECREASE);
+                return;
+            }
+        }
+        // only grow when the limit is actually in use
+        if (2 * (_inFlight + 1) >= _limit) {
+            _limit = Math.min(_maximumLimit, _limit + 1 / _limit);
+        }
+    }
+
+    /**
+     * Give back the place of a call that the server dropped.
+     *
+     * @param startNanos
+     *            The time the call started, from {@link System#nanoTime()}.
+     */
+    synchronized void onDropped(long startNanos) {
+        release();
+        decrease(startNanos, DROP_DECREASE);
+    }
+
+    /**
+     * Give back the place of a call that says nothing about the server load,
+     * such as one that was never sent.
+     */
+    synchronized void onIgnored() {
+        release();
+    }
+
+    /**
+     * @return The current limit.
+     */
+    synchronized int getLimit() {
+        return (int) _limit;
+    }
+
+    /**
+     * @return The number of calls in flight.
+     */
+    synchronized int getInFlight() {
+        return _inFlight;
+    }
+
+    /**
+     * Give back a place and wake up the waiting callers.
+     */
+    private void release() {
+        --_inFlight;
+        notifyAll();
+    }
+
+    /**
+     * Shrink the limit, unless the call started before the last decrease.
+     *
+     * @param startNanos
+     *            The time the call started.
+     * @param factor
+     *            The factor to apply.
+     */
+    private void decrease(long startNanos, double factor) {
+        if (startNanos - _lastDecrease < 0) {
+            return;
+        }
+        _limit = Math.max(1, _limit * factor);
+        _lastDecrease = System.nanoTime();
+    }
+
+}
@@ -0,0 +1,374 @@
+/**
+ * Copyright 2016-2018 Dell Inc. or its subsidiaries. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.nfsclient.rpc;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.emc.ecs.nfsclient.network.NetMgr;
+
+/**
+ * The IP addresses of a server name, used to route calls. All addresses are
+ * resolved at once and refreshed periodically in the background. Each call
+ * key goes to the address with the highest rendezvous hash score for it, so
+ * that an address joining or leaving the set only moves the keys that it wins
+ * or loses. Addresses that fail, or answer much more slowly than the others,
+ * are ejected for a while, but never more than half of them at once.
+ *
+ * @author seibed
+ */
+class EndpointSet {
+
+    /**
+     * The usual logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(EndpointSet.class);
+
+    /**
+     * The default time between DNS refreshes in milliseconds.
+     */
+    static final long DEFAULT_REFRESH_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * How long an ejected address is left out, in milliseconds.
+     */
+    static final long EJECTION_TIME = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * An address is slow when its smoothed latency is this many times that of
+     * the fastest address.
+     */
+    private static final int SLOW_FACTOR = 4;
+
+    /**
+     * Latencies below this, in nanoseconds, are never considered slow.
+     */
+    private static final long MINIMUM_SLOW_LATENCY = TimeUnit.MILLISECONDS.toNanos(50);
+
+    /**
+     * The server name.
+     */
+    private final String _server;
+
+    /**
+     * The time between DNS refreshes in milliseconds, or 0 for no refreshes.
+     */
+    private final long _refreshInterval;
+
+    /**
+     * The current addresses, sorted. The array is replaced, never changed.
+     */
+    private volatile String[] _addresses;
+
+    /**
+     * The time of the next DNS refresh, from {@link System#currentTimeMillis()}.
+     */
+    private volatile long _nextRefresh;
+
+    /**
+     * Set while a DNS refresh is running.
+     */
+    private final AtomicBoolean _refreshing = new AtomicBoolean(false);
+
+    /**
+     * The ejected addresses, with the time at which each returns.
+     */
+    private final Map<String, Long> _ejectedUntil = new HashMap<String, Long>();
+
+    /**
+     * The smoothed latency of each address in nanoseconds.
+     */
+    private final Map<String, Long> _latencies = new HashMap<String, Long>();
+
+    /**
+     * Resolve all addresses of a server name.
+     *
+     * @param server
+     *            The server name.
+     * @param refreshInterval
+     *            The time between DNS refreshes in milliseconds, or 0 for no
+     *            refreshes.
+     * @throws UnknownHostException
+     *             If the name cannot be resolved.
+     */
+    EndpointSet(String server, long refreshInterval) throws UnknownHostException {
+        this(server, resolve(server), refreshInterval);
+    }
+
+    /**
+     * @param server
+     *            The server name.
+     * @param addresses
+     *            The initial addresses.
+     * @param refreshInterval
+     *            The time between DNS refreshes in milliseconds, or 0 for no
+     *            refreshes.
+     */
+    EndpointSet(String server, String[] addresses, long refreshInterval) {
+        _server = server;
+        _refreshInterval = refreshInterval;
+        setAddresses(addresses);
+    }
+
+    /**
+     * @return The current addresses, sorted.
+     */
+    String[] getAddresses() {
+        return _addresses.clone();
+    }
+
+    /**
+     * @return The number of addresses.
+     */
+    int size() {
+        return _addresses.length;
+    }
+
+    /**
+     * Choose the address for a call.
+     *
+     * @param key
+     *            The routing key of the call.
+     * @return The address that wins the key among those not ejected.
+     */
+    String choose(byte[] key) {
+        refreshIfDue();
+        String best = chooseAlternate(key, null);
+        if (best == null) {
+            // everything is ejected, so ejection tells us nothing
+            long keyHash = Arrays.hashCode(key);
+            long bestScore = 0;
+            for (String address : _addresses) {
+                long score = score(keyHash, address);
+                if ((best == null) || (score > bestScore)) {
+                    best = address;
+                    bestScore = score;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Choose a second address for a call, used to send a duplicate.
+     *
+     * @param key
+     *            The routing key of the call.
+     * @param exclude
+     *            The address already used, or <code>null</code>.
+     * @return The best address for the key among those not ejected, other
+     *         than <code>exclude</code>, or <code>null</code> if there is
+     *         none.
+     */
+    String chooseAlternate(byte[] key, String exclude) {
+        String[] addresses = _addresses;
+        long now = System.currentTimeMillis();
+        long keyHash = Arrays.hashCode(key);
+        String best = null;
+        long bestScore = 0;
+        for (String address : addresses) {
+            if (address.equals(exclude) || isEjected(address, now)) {
+                continue;
+            }
+            long score = score(keyHash, address);
+            if ((best == null) || (score > bestScore)) {
+                best = address;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Record a call that got a response.
+     *
+     * @param address
+     *            The address used.
+     * @param latencyNanos
+     *            The call latency in nanoseconds.
+     */
+    synchronized void reportSuccess(String address, long latencyNanos) {
+        Long oldLatency = _latencies.get(address);
+        long latency = (oldLatency == null) ? latencyNanos : oldLatency + (latencyNanos - oldLatency) / 8;
+        _latencies.put(address, latency);
+
+        long fastest = Long.MAX_VALUE;
+        for (Long otherLatency : _latencies.values()) {
+            fastest = Math.min(fastest, otherLatency);
+        }
+        if ((latency > MINIMUM_SLOW_LATENCY) && (latency > SLOW_FACTOR * fastest)) {
+            eject(address, "slow");
+        }
+    }
+
+    /**
+     * Record a call that failed at the network level.
+     *
+     * @param address
+     *            The address used.
+     */
+    synchronized void reportFailure(String address) {
+        eject(address, "failing");
+    }
+
+    /**
+     * Eject an address, unless it is not in the set or half of the set is
+     * already ejected.
+     *
+     * @param address
+     *            The address.
+     * @param reason
+     *            The reason, for logging.
+     */
+    private void eject(String address, String reason) {
+        String[] addresses = _addresses;
+        if (Arrays.binarySearch(addresses, address) < 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (isEjected(address, now)) {
+            return;
+        }
+        int ejectedCount = 0;
+        for (String otherAddress : addresses) {
+            if (isEjected(otherAddress, now)) {
+                ++ejectedCount;
+            }
+        }
+        if (2 * (ejectedCount + 1) > addresses.length) {
+            return;
+        }
+        LOG.warn("ejecting {} address {} of {} for {} ms", reason, address, _server, EJECTION_TIME);
+        _ejectedUntil.put(address, now + EJECTION_TIME);
+        // start afresh when it returns
+        _latencies.remove(address);
+    }
+
+    /**
+     * @param address
+     *            The address.
+     * @param now
+     *            The current time.
+     * @return <code>true</code> if the address is ejected, <code>false</code>
+     *         otherwise.
+     */
+    private boolean isEjected(String address, long now) {
+        synchronized (this) {
+            Long until = _ejectedUntil.get(address);
+            if (until == null) {
+                return false;
+            }
+            if (until <= now) {
+                _ejectedUntil.remove(address);
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Start a DNS refresh in the background if one is due.
+     */
+    private void refreshIfDue() {
+        if ((_refreshInterval <= 0) || (System.currentTimeMillis() < _nextRefresh)
+                || !_refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            NetMgr.getInstance().getExecutor().execute(new Runnable() {
+                /* (non-Javadoc)
+                 * @see java.lang.Runnable#run()
+                 */
+                public void run() {
+                    try {
+                        setAddresses(resolve(_server));
+                    } catch (UnknownHostException e) {
+                        LOG.warn("cannot refresh the addresses of {}, keeping the old ones: {}", _server,
+                                e.getMessage());
+                        _nextRefresh = System.currentTimeMillis() + _refreshInterval;
+                    } finally {
+                        _refreshing.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            _refreshing.set(false);
+        }
+    }
+
+    /**
+     * Replace the addresses, dropping the state of addresses that are gone.
+     *
+     * @param addresses
+     *            The new addresses.
+     */
+    private synchronized void setAddresses(String[] addresses) {
+        String[] sortedAddresses = new TreeSet<String>(Arrays.asList(addresses)).toArray(new String[0]);
+        if ((_addresses != null) && !Arrays.equals(_addresses, sortedAddresses)) {
+            LOG.info("addresses of {} changed to {}", _server, Arrays.toString(sortedAddresses));
+        }
+        _addresses = sortedAddresses;
+        _ejectedUntil.keySet().retainAll(Arrays.asList(sortedAddresses));
+        _latencies.keySet().retainAll(Arrays.asList(sortedAddresses));
+        _nextRefresh = System.currentTimeMillis() + _refreshInterval;
+    }
+
+    /**
+     * @param server
+     *            The server name.
+     * @return All its addresses.
+     * @throws UnknownHostException
+     */
+    private static String[] resolve(String server) throws UnknownHostException {
+        InetAddress[] inetAddresses = InetAddress.getAllByName(server);
+        String[] addresses = new String[inetAddresses.length];
+        for (int i = 0; i < inetAddresses.length; ++i) {
+            addresses[i] = inetAddresses[i].getHostAddress();
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("addresses of {}: {}", server, Arrays.toString(addresses));
+        }
+        return addresses;
+    }
+
+    /**
+     * @param keyHash
+     *            The hash of the routing key.
+     * @param address
+     *            The address.
+     * @return The rendezvous score of the address for the key.
+     */
+    private static long score(long keyHash, String address) {
+        long h = (keyHash * 0x9E3779B97F4A7C15L) ^ address.hashCode();
+        // the MurmurHash3 finalizer, to spread the bits
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright 2016-2018 Dell Inc. or its subsidiaries. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.nfsclient.rpc;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the results of calls for a limited time. Concurrent loads of the same
+ * key share one call, see {@link SingleFlight}.
+ *
+ * @author seibed
+ */
+public class ExpiringCache<K, V> {
+
+    /**
+     * A cached value with its expiry time.
+     *
+     * @author seibed
+     */
+    private static class Entry<V> {
+
+        /**
+         * The value.
+         */
+        private final V _value;
+
+        /**
+         * The time the value expires, from {@link System#nanoTime()}.
+         */
+        private final long _expiry;
+
+        /**
+         * @param value
+         *            The value.
+         * @param expiry
+         *            The time the value expires, from
+         *            {@link System#nanoTime()}.
+         */
+        private Entry(V value, long expiry) {
+            _value = value;
+            _expiry = expiry;
+        }
+
+    }
+
+    /**
+     * The time values are kept in nanoseconds, or 0 if they are not kept.
+     */
+    private volatile long _ttlNanos;
+
+    /**
+     * The cached values, by key.
+     */
+    private final ConcurrentHashMap<K, Entry<V>> _entries = new ConcurrentHashMap<K, Entry<V>>();
+
+    /**
+     * The loads in progress.
+     */
+    private final SingleFlight<K, V> _loads = new SingleFlight<K, V>();
+
+    /**
+     * @param ttl
+     *            The time values are kept, or 0 to only coalesce concurrent
+     *            loads.
+     * @param unit
+     *            The unit of the time.
+     */
+    public ExpiringCache(long ttl, TimeUnit unit) {
+        setTtl(ttl, unit);
+    }
+
+    /**
+     * Change the time values are kept, which applies to values loaded from
+     * now on.
+     * 
+     * @param ttl
+     *            The time values are kept, or 0 to only coalesce concurrent
+     *            loads.
+     * @param unit
+     *            The unit of the time.
+     */
+    public void setTtl(long ttl, TimeUnit unit) {
+        if (ttl < 0) {
+            throw new IllegalArgumentException("Cannot have a time to live < 0: " + ttl);
+        }
+        _ttlNanos = unit.toNanos(ttl);
+    }
+
+    /**
+     * Get the cached value for a key, loading it if it is missing or expired.
+     * 
+     * @param key
+     *            The key.
+     * @param loader
+     *            The call that loads the value.
+     * @return The value.
+     * @throws IOException
+     *             If the value had to be loaded and the load failed.
+     */
+    public V get(final K key, final SingleFlight.Call<V> loader) throws IOException {
+        Entry<V> entry = _entries.get(key);
+        if ((entry != null) && (System.nanoTime() - entry._expiry < 0)) {
+            return entry._value;
+        }
+        return _loads.execute(key, new SingleFlight.Call<V>() {
+            /* (non-Javadoc)
+             * @see com.emc.ecs.nfsclient.rpc.SingleFlight.Call#call()
+             */
+            public V call() throws IOException {
+                V value = loader.call();
+                long ttlNanos = _ttlNanos;
+                if (ttlNanos > 0) {
+                    _entries.put(key, new Entry<V>(value, System.nanoTime() + ttlNanos));
+                }
+                return value;
+            }
+        });
+    }
+
+    /**
+     * Drop the cached value for a key, so that the next get loads it again.
+     * 
+     * @param key
+     *            The key.
+     */
+    public void invalidate(K key) {
+        _entries.remove(key);
+    }
+
+}
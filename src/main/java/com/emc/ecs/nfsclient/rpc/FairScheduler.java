@@ -0,0 +1,201 @@
+/**
+ * Copyright 2016-2018 Dell Inc. or its subsidiaries. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.nfsclient.rpc;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares the connections of all tenants by weight. The capacity is unlimited
+ * unless set with {@link #setCapacity(int)}, and calls then skip the
+ * scheduler. Otherwise at most that many calls are in flight over all
+ * {@link RpcThrottle} instances, each call taking its place after the
+ * per-server concurrency limit has let it through. While there is
+ * room, calls start at once. When there is not, the next free place goes to
+ * the waiting tenant with the fewest calls in flight per unit of weight, so
+ * that each busy tenant gets its weighted share and one tenant's bulk job
+ * cannot take all of it.
+ *
+ * @author seibed
+ */
+public class FairScheduler {
+
+    /**
+     * The capacity meaning no limit on the calls in flight, the default.
+     */
+    public static final int UNLIMITED = 0;
+
+    /**
+     * The single instance.
+     */
+    private static final FairScheduler _instance = new FairScheduler(UNLIMITED);
+
+    /**
+     * @return The instance.
+     */
+    public static FairScheduler getInstance() {
+        return _instance;
+    }
+
+    /**
+     * The maximum number of calls in flight over all tenants, or
+     * {@link #UNLIMITED}.
+     */
+    private volatile int _capacity;
+
+    /**
+     * The number of calls in flight over all tenants.
+     */
+    private int _inFlight = 0;
+
+    /**
+     * The calls in flight and waiting of each active tenant. Entries are
+     * removed when both are 0.
+     */
+    private final Map<RpcThrottle, int[]> _shares = new HashMap<RpcThrottle, int[]>();
+
+    /**
+     * @param capacity
+     *            The maximum number of calls in flight over all tenants, or
+     *            {@link #UNLIMITED}.
+     */
+    FairScheduler(int capacity) {
+        setCapacity(capacity);
+    }
+
+    /**
+     * Change the maximum number of calls in flight over all tenants, which
+     * takes effect for the calls started afterwards.
+     * 
+     * @param capacity
+     *            The maximum, at least 1, or {@link #UNLIMITED}.
+     */
+    public synchronized void setCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Cannot have a capacity < 0: " + capacity);
+        }
+        _capacity = capacity;
+        notifyAll();
+    }
+
+    /**
+     * @return The maximum number of calls in flight over all tenants, or
+     *         {@link #UNLIMITED}.
+     */
+    public int getCapacity() {
+        return _capacity;
+    }
+
+    /**
+     * @return The number of calls in flight over all tenants.
+     */
+    public synchronized int getInFlight() {
+        return _inFlight;
+    }
+
+    /**
+     * Take a place for one call of a tenant, waiting for its turn if the
+     * capacity is reached.
+     * 
+     * @param throttle
+     *            The tenant.
+     * @param timeout
+     *            The maximum time to wait.
+     * @param unit
+     *            The unit of the timeout.
+     * @return <code>true</code> if the place was taken, <code>false</code> if
+     *         the timeout expired first.
+     * @throws InterruptedException
+     */
+    synchronized boolean acquire(RpcThrottle throttle, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int[] share = _shares.get(throttle);
+        if (share == null) {
+            // calls in flight, calls waiting
+            share = new int[2];
+            _shares.put(throttle, share);
+        }
+        ++share[1];
+        try {
+            while (((_capacity != UNLIMITED) && (_inFlight >= _capacity)) || !isNext(throttle, share)) {
+                long nanosLeft = deadline - System.nanoTime();
+                if (nanosLeft <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, nanosLeft);
+            }
+            ++share[0];
+            ++_inFlight;
+            return true;
+        } finally {
+            --share[1];
+            removeIfIdle(throttle, share);
+            // another waiter may be next now
+            notifyAll();
+        }
+    }
+
+    /**
+     * Give back the place of a call.
+     * 
+     * @param throttle
+     *            The tenant.
+     */
+    synchronized void release(RpcThrottle throttle) {
+        int[] share = _shares.get(throttle);
+        if (share != null) {
+            --share[0];
+            removeIfIdle(throttle, share);
+        }
+        --_inFlight;
+        notifyAll();
+    }
+
+    /**
+     * @param throttle
+     *            A waiting tenant.
+     * @param share
+     *            Its calls in flight and waiting.
+     * @return <code>true</code> if no other waiting tenant has fewer calls in
+     *         flight per unit of weight, <code>false</code> otherwise.
+     */
+    private boolean isNext(RpcThrottle throttle, int[] share) {
+        for (Map.Entry<RpcThrottle, int[]> entry : _shares.entrySet()) {
+            int[] otherShare = entry.getValue();
+            if ((entry.getKey() == throttle) || (otherShare[1] == 0)) {
+                continue;
+            }
+            // compare calls in flight per unit of weight without dividing
+            if ((long) otherShare[0] * throttle.getWeight() < (long) share[0] * entry.getKey().getWeight()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param throttle
+     *            The tenant.
+     * @param share
+     *            Its calls in flight and waiting.
+     */
+    private void removeIfIdle(RpcThrottle throttle, int[] share) {
+        if ((share[0] == 0) && (share[1] == 0)) {
+            _shares.remove(throttle);
+        }
+    }
+
+}
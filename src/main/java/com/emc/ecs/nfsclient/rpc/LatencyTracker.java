@@ -0,0 +1,121 @@
+/**
+ * Copyright 2016-2018 Dell Inc. or its subsidiaries. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.nfsclient.rpc;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A latency histogram with logarithmic buckets, used to estimate percentiles
+ * of recent call latencies. Bucket bounds grow by a factor of the square root
+ * of 2, so estimates are within about 41% of the true value, and all counts
+ * are halved regularly so that old samples fade out.
+ *
+ * @author seibed
+ */
+class LatencyTracker {
+
+    /**
+     * The upper bound of the first bucket in nanoseconds.
+     */
+    private static final long FIRST_BUCKET_BOUND = TimeUnit.MICROSECONDS.toNanos(16);
+
+    /**
+     * The number of buckets, which reaches well beyond any RPC timeout.
+     */
+    private static final int BUCKET_COUNT = 64;
+
+    /**
+     * The number of samples needed before percentiles are estimated.
+     */
+    static final int MINIMUM_SAMPLES = 20;
+
+    /**
+     * All counts are halved when the total reaches this.
+     */
+    private static final int DECAY_SAMPLES = 1000;
+
+    /**
+     * The sample counts of the buckets.
+     */
+    private final long[] _counts = new long[BUCKET_COUNT];
+
+    /**
+     * The total of the counts.
+     */
+    private long _total = 0;
+
+    /**
+     * Add a sample.
+     *
+     * @param latencyNanos
+     *            The latency in nanoseconds.
+     */
+    synchronized void record(long latencyNanos) {
+        ++_counts[getBucket(latencyNanos)];
+        ++_total;
+        if (_total >= DECAY_SAMPLES) {
+            _total = 0;
+            for (int i = 0; i < BUCKET_COUNT; ++i) {
+                _counts[i] /= 2;
+                _total += _counts[i];
+            }
+        }
+    }
+
+    /**
+     * @param percentile
+     *            The percentile, between 0 and 1.
+     * @return The estimated latency at that percentile in nanoseconds, or -1
+     *         if there are too few samples.
+     */
+    synchronized long getPercentile(double percentile) {
+        if (_total < MINIMUM_SAMPLES) {
+            return -1;
+        }
+        long rank = (long) Math.ceil(percentile * _total);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            seen += _counts[i];
+            if (seen >= rank) {
+                return getBucketBound(i);
+            }
+        }
+        return getBucketBound(BUCKET_COUNT - 1);
+    }
+
+    /**
+     * @param latencyNanos
+     *            The latency in nanoseconds.
+     * @return The index of the bucket holding the latency.
+     */
+    private static int getBucket(long latencyNanos) {
+        int bucket = 0;
+        while ((bucket < BUCKET_COUNT - 1) && (latencyNanos > getBucketBound(bucket))) {
+            ++bucket;
+        }
+        return bucket;
+    }
+
+    /**
+     * @param bucket
+     *            The bucket index.
+     * @return The upper bound of the bucket in nanoseconds.
+     */
+    private static long getBucketBound(int bucket) {
+        long bound = FIRST_BUCKET_BOUND << (bucket / 2);
+        return ((bucket % 2) == 0) ? bound : (long) (bound * Math.sqrt(2));
+    }
+
+}
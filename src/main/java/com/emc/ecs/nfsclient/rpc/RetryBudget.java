@@ -0,0 +1,124 @@
+/**
+ * Copyright 2016-2018 Dell Inc. or its subsidiaries. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.nfsclient.rpc;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket that limits retries to a fraction of calls, shared by all
+ * calls through one wrapper. Each call deposits a fraction of a token and each
+ * retry takes a whole one, so that during an outage retries add only a little
+ * load to the calls themselves. A small steady refill lets retries through
+ * when there is little traffic.
+ *
+ * @author seibed
+ */
+class RetryBudget {
+
+    /**
+     * The default fraction of calls that may be retried.
+     */
+    static final double DEFAULT_RETRY_RATIO = 0.1;
+
+    /**
+     * The default number of retries allowed per second regardless of traffic.
+     */
+    static final double DEFAULT_MINIMUM_RETRIES_PER_SECOND = 5;
+
+    /**
+     * The default bucket size, which bounds bursts of retries.
+     */
+    static final double DEFAULT_MAXIMUM_TOKENS = 100;
+
+    /**
+     * The tokens deposited by each call.
+     */
+    private final double _retryRatio;
+
+    /**
+     * The tokens added per nanosecond regardless of traffic.
+     */
+    private final double _tokensPerNano;
+
+    /**
+     * The bucket size.
+     */
+    private final double _maximumTokens;
+
+    /**
+     * The tokens available.
+     */
+    private double _tokens;
+
+    /**
+     * The time of the last steady refill, from {@link System#nanoTime()}.
+     */
+    private long _lastRefill = System.nanoTime();
+
+    /**
+     * The number of retries refused.
+     */
+    private long _exhaustedCount = 0;
+
+    /**
+     * @param retryRatio
+     *            The fraction of calls that may be retried.
+     * @param minimumRetriesPerSecond
+     *            The number of retries allowed per second regardless of
+     *            traffic.
+     * @param maximumTokens
+     *            The bucket size, which bounds bursts of retries. The bucket
+     *            starts full.
+     */
+    RetryBudget(double retryRatio, double minimumRetriesPerSecond, double maximumTokens) {
+        _retryRatio = retryRatio;
+        _tokensPerNano = minimumRetriesPerSecond / TimeUnit.SECONDS.toNanos(1);
+        _maximumTokens = maximumTokens;
+        _tokens = maximumTokens;
+    }
+
+    /**
+     * Record a new call.
+     */
+    synchronized void deposit() {
+        _tokens = Math.min(_maximumTokens, _tokens + _retryRatio);
+    }
+
+    /**
+     * Take a token for a retry, if one is available.
+     * 
+     * @return <code>true</code> if the retry may be made, <code>false</code>
+     *         if the budget is exhausted.
+     */
+    synchronized boolean tryWithdraw() {
+        long now = System.nanoTime();
+        _tokens = Math.min(_maximumTokens, _tokens + (now - _lastRefill) * _tokensPerNano);
+        _lastRefill = now;
+        if (_tokens < 1) {
+            ++_exhaustedCount;
+            return false;
+        }
+        _tokens -= 1;
+        return true;
+    }
+
+    /**
+     * @return The number of retries refused.
+     */
+    synchronized long getExhaustedCount() {
+        return _exhaustedCount;
+    }
+
+}
@@ -15,8 +15,10 @@
 package com.emc.ecs.nfsclient.rpc;
 
 import java.io.FileNotFoundException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang3.StringUtils;
@@ -44,7 +46,7 @@ public abstract class RpcRequest {
      * with call messages or for servers detecting retransmissions; the service
      * side cannot treat this id as any type of sequence number.
      */
-    private final int _xid;
+    private int _xid;
 
     /**
      * Requests must be calls (CALL = 0). Specified by RFC 1831
@@ -157,6 +159,78 @@ public abstract class RpcRequest {
         _usePrivilegedPort = usePrivilegedPort;
     }
 
+    /**
+     * @return The procedure number.
+     */
+    public int getServiceProcedure() {
+        return _serviceProcedure;
+    }
+
+    /**
+     * @return <code>true</code> if the call only reads server state, so that
+     *         a duplicate can safely be sent to another server node,
+     *         <code>false</code> otherwise.
+     */
+    public boolean isIdempotent() {
+        return false;
+    }
+
+    /**
+     * @return <code>true</code> if the call moves file data, so that its
+     *         round-trip times are tracked separately from metadata calls,
+     *         <code>false</code> otherwise.
+     */
+    public boolean isDataTransfer() {
+        return false;
+    }
+
+    /**
+     * @return <code>true</code> if the call can take much longer than a round
+     *         trip, such as a COMMIT that flushes a lot of data, so that it
+     *         always gets the configured timeout rather than one derived from
+     *         round-trip times, <code>false</code> otherwise.
+     */
+    public boolean isLongRunning() {
+        return false;
+    }
+
+    /**
+     * Get a key for coalescing identical calls. Requests that would send the
+     * same procedure with the same arguments under the same credential have
+     * equal keys, whatever their xids and credential timestamps.
+     * 
+     * @param maximumSize
+     *            The maximum marshalled request size in bytes.
+     * @return The key.
+     */
+    public Object getCallKey(int maximumSize) {
+        Xdr xdr = new Xdr(maximumSize);
+        marshalling(xdr);
+        Xdr credentialXdr = new Xdr(maximumSize);
+        _credential.marshalling(credentialXdr);
+        // the header before the credential is six ints
+        int argumentsOffset = 24 + credentialXdr.getOffset();
+        byte[] arguments = Arrays.copyOfRange(xdr.getBuffer(), argumentsOffset, xdr.getOffset());
+        return Arrays.asList(Integer.valueOf(_serviceProgram), Integer.valueOf(_serviceVersion),
+                Integer.valueOf(_serviceProcedure), _credential, ByteBuffer.wrap(arguments));
+    }
+
+    /**
+     * @return The number of file data bytes the call reads or writes, used
+     *         for byte rate limits.
+     */
+    public long getDataSize() {
+        return 0;
+    }
+
+    /**
+     * Give the request a new xid, for retries that the server must not treat
+     * as retransmissions.
+     */
+    void renewXid() {
+        _xid = nextXid();
+    }
+
     /**
      * @return The next xid, which should be unique for all rpc requests
      */
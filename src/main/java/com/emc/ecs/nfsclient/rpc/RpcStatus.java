@@ -32,6 +32,20 @@ public class RpcStatus {
      */
     public static final RpcStatus NETWORK_ERROR = new RpcStatus(-1001);
 
+    /**
+     * The call was not sent because the circuit breaker for the server address
+     * is open. NOT specified by RFC 1831 (https://tools.ietf.org/html/rfc1831).
+     */
+    public static final RpcStatus CIRCUIT_OPEN = new RpcStatus(-1002);
+
+    /**
+     * The call was not sent because a local limit (a throttle, fair share,
+     * concurrency limit or credit window) had no room for it in time. The
+     * server was never reached, so this says nothing about its health. NOT
+     * specified by RFC 1831 (https://tools.ietf.org/html/rfc1831).
+     */
+    public static final RpcStatus LOCAL_WAIT_TIMEOUT = new RpcStatus(-1003);
+
     /**
      * @return The int status value.
      */
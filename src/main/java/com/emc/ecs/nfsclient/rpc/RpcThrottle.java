@@ -0,0 +1,338 @@
+/**
+ * Copyright 2016-2018 Dell Inc. or its subsidiaries. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.nfsclient.rpc;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits on the calls of one tenant: operations per second, data bytes per
+ * second and calls in flight. A throttle can be given to one
+ * {@link com.emc.ecs.nfsclient.nfs.nfs3.Nfs3} instance, or shared by several
+ * to limit them together under one name. Its weight sets its share of the
+ * shared connections when they are busy, see {@link FairScheduler}. The
+ * current usage is kept for monitoring.
+ *
+ * @author seibed
+ */
+public class RpcThrottle {
+
+    /**
+     * The name of the tenant, for logging and monitoring.
+     */
+    private final String _name;
+
+    /**
+     * The share of the shared connections, relative to other throttles.
+     */
+    private final int _weight;
+
+    /**
+     * The maximum operations per second, or 0 for no limit.
+     */
+    private double _maximumOpsPerSecond = 0;
+
+    /**
+     * The maximum data bytes per second, or 0 for no limit.
+     */
+    private double _maximumBytesPerSecond = 0;
+
+    /**
+     * The maximum calls in flight, or 0 for no limit.
+     */
+    private int _maximumInFlight = 0;
+
+    /**
+     * The operations that may be started now.
+     */
+    private double _opsTokens = 0;
+
+    /**
+     * The data bytes that may be sent now. This goes negative after a large
+     * call, which delays the next call.
+     */
+    private double _bytesTokens = 0;
+
+    /**
+     * The time the tokens were last refilled, from {@link System#nanoTime()}.
+     */
+    private long _lastRefill = System.nanoTime();
+
+    /**
+     * The calls in flight.
+     */
+    private int _inFlight = 0;
+
+    /**
+     * The operations started in total.
+     */
+    private long _totalOps = 0;
+
+    /**
+     * The data bytes in total.
+     */
+    private long _totalBytes = 0;
+
+    /**
+     * The start of the current measuring second, from
+     * {@link System#nanoTime()}.
+     */
+    private long _windowStart = System.nanoTime();
+
+    /**
+     * The operations started in the current measuring second.
+     */
+    private long _windowOps = 0;
+
+    /**
+     * The data bytes in the current measuring second.
+     */
+    private long _windowBytes = 0;
+
+    /**
+     * The operations started in the last full measuring second.
+     */
+    private long _opsPerSecond = 0;
+
+    /**
+     * The data bytes in the last full measuring second.
+     */
+    private long _bytesPerSecond = 0;
+
+    /**
+     * Create a throttle with no limits.
+     * 
+     * @param name
+     *            The name of the tenant, for logging and monitoring.
+     * @param weight
+     *            The share of the shared connections, relative to other
+     *            throttles, at least 1.
+     */
+    public RpcThrottle(String name, int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("Cannot have a weight < 1: " + weight);
+        }
+        _name = name;
+        _weight = weight;
+    }
+
+    /**
+     * Change the limits, which takes effect immediately. Rate limits allow
+     * bursts of up to one second's worth.
+     * 
+     * @param maximumOpsPerSecond
+     *            The maximum operations per second, or 0 for no limit.
+     * @param maximumBytesPerSecond
+     *            The maximum data bytes read or written per second, or 0 for
+     *            no limit.
+     * @param maximumInFlight
+     *            The maximum calls in flight, or 0 for no limit.
+     */
+    public synchronized void setLimits(double maximumOpsPerSecond, double maximumBytesPerSecond,
+            int maximumInFlight) {
+        if ((maximumOpsPerSecond < 0) || (maximumBytesPerSecond < 0) || (maximumInFlight < 0)) {
+            throw new IllegalArgumentException("Cannot have a limit < 0");
+        }
+        // a new limit starts with a full bucket
+        _opsTokens = (_maximumOpsPerSecond == 0) ? maximumOpsPerSecond
+                : Math.min(_opsTokens, maximumOpsPerSecond);
+        _bytesTokens = (_maximumBytesPerSecond == 0) ? maximumBytesPerSecond
+                : Math.min(_bytesTokens, maximumBytesPerSecond);
+        _maximumOpsPerSecond = maximumOpsPerSecond;
+        _maximumBytesPerSecond = maximumBytesPerSecond;
+        _maximumInFlight = maximumInFlight;
+        notifyAll();
+    }
+
+    /**
+     * @return The name of the tenant.
+     */
+    public String getName() {
+        return _name;
+    }
+
+    /**
+     * @return The share of the shared connections, relative to other
+     *         throttles.
+     */
+    public int getWeight() {
+        return _weight;
+    }
+
+    /**
+     * @return The calls in flight.
+     */
+    public synchronized int getInFlight() {
+        return _inFlight;
+    }
+
+    /**
+     * @return The operations started in the last full second.
+     */
+    public synchronized long getOpsPerSecond() {
+        updateWindow(System.nanoTime());
+        return _opsPerSecond;
+    }
+
+    /**
+     * @return The data bytes read or written in the last full second.
+     */
+    public synchronized long getBytesPerSecond() {
+        updateWindow(System.nanoTime());
+        return _bytesPerSecond;
+    }
+
+    /**
+     * @return The operations started in total.
+     */
+    public synchronized long getTotalOps() {
+        return _totalOps;
+    }
+
+    /**
+     * @return The data bytes read or written in total.
+     */
+    public synchronized long getTotalBytes() {
+        return _totalBytes;
+    }
+
+    /**
+     * Take a place for one call, waiting while a limit is reached.
+     * 
+     * @param bytes
+     *            The data bytes the call reads or writes.
+     * @param timeout
+     *            The maximum time to wait.
+     * @param unit
+     *            The unit of the timeout.
+     * @return <code>true</code> if the place was taken, <code>false</code> if
+     *         the timeout expired first.
+     * @throws InterruptedException
+     */
+    synchronized boolean acquire(long bytes, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            long now = System.nanoTime();
+            refill(now);
+            long waitNanos = getWaitNanos();
+            if (waitNanos == 0) {
+                break;
+            }
+            long nanosLeft = deadline - now;
+            if (nanosLeft <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, Math.min(waitNanos, nanosLeft));
+        }
+        ++_inFlight;
+        if (_maximumOpsPerSecond > 0) {
+            _opsTokens -= 1;
+        }
+        if (_maximumBytesPerSecond > 0) {
+            _bytesTokens -= bytes;
+        }
+        updateWindow(System.nanoTime());
+        ++_windowOps;
+        _windowBytes += bytes;
+        ++_totalOps;
+        _totalBytes += bytes;
+        return true;
+    }
+
+    /**
+     * Give back the place of a call.
+     */
+    synchronized void release() {
+        --_inFlight;
+        notifyAll();
+    }
+
+    /**
+     * @return 0 if a call may start now, otherwise how long to wait in
+     *         nanoseconds before checking again.
+     */
+    private long getWaitNanos() {
+        if ((_maximumInFlight > 0) && (_inFlight >= _maximumInFlight)) {
+            // woken up by release()
+            return Long.MAX_VALUE;
+        }
+        long waitNanos = 0;
+        if ((_maximumOpsPerSecond > 0) && (_opsTokens < 1)) {
+            waitNanos = getRefillNanos(1 - _opsTokens, _maximumOpsPerSecond);
+        }
+        if ((_maximumBytesPerSecond > 0) && (_bytesTokens <= 0)) {
+            waitNanos = Math.max(waitNanos, getRefillNanos(-_bytesTokens, _maximumBytesPerSecond));
+        }
+        return waitNanos;
+    }
+
+    /**
+     * @param tokens
+     *            The tokens needed.
+     * @param perSecond
+     *            The refill rate.
+     * @return The time in nanoseconds to refill them, at least 1.
+     */
+    private static long getRefillNanos(double tokens, double perSecond) {
+        return Math.max(1, (long) Math.ceil(tokens * TimeUnit.SECONDS.toNanos(1) / perSecond));
+    }
+
+    /**
+     * Add the tokens earned since the last refill, up to one second's worth.
+     * 
+     * @param now
+     *            The current {@link System#nanoTime()}.
+     */
+    private void refill(long now) {
+        double seconds = (now - _lastRefill) / (double) TimeUnit.SECONDS.toNanos(1);
+        _lastRefill = now;
+        _opsTokens = Math.min(_maximumOpsPerSecond, _opsTokens + seconds * _maximumOpsPerSecond);
+        _bytesTokens = Math.min(_maximumBytesPerSecond, _bytesTokens + seconds * _maximumBytesPerSecond);
+    }
+
+    /**
+     * Move on to a new measuring second if the current one is over.
+     * 
+     * @param now
+     *            The current {@link System#nanoTime()}.
+     */
+    private void updateWindow(long now) {
+        long elapsed = now - _windowStart;
+        if (elapsed < TimeUnit.SECONDS.toNanos(1)) {
+            return;
+        }
+        if (elapsed < TimeUnit.SECONDS.toNanos(2)) {
+            _opsPerSecond = _windowOps;
+            _bytesPerSecond = _windowBytes;
+            _windowStart += TimeUnit.SECONDS.toNanos(1);
+        } else {
+            // the last full second was idle
+            _opsPerSecond = 0;
+            _bytesPerSecond = 0;
+            _windowStart = now;
+        }
+        _windowOps = 0;
+        _windowBytes = 0;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        return "RpcThrottle " + _name + " weight:" + _weight;
+    }
+
+}
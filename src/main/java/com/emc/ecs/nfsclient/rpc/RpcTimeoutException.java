@@ -0,0 +1,40 @@
+/**
+ * Copyright 2016-2018 Dell Inc. or its subsidiaries. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.nfsclient.rpc;
+
+/**
+ * Represent a RPC request that was sent but got no reply in time. The status
+ * is {@link RpcStatus#NETWORK_ERROR}, so it is handled like any other network
+ * failure, but callers that judge server load can tell it apart.
+ * 
+ * @author seibed
+ */
+public class RpcTimeoutException extends RpcException {
+
+    /**
+     * The default.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Construct a new RPC timeout exception with the given error message.
+     * 
+     * @param msg
+     *            The error message.
+     */
+    public RpcTimeoutException(String msg) {
+        super(RpcStatus.NETWORK_ERROR, msg);
+    }
+}
@@ -15,16 +15,26 @@
 package com.emc.ecs.nfsclient.rpc;
 
 import java.io.IOException;
-import java.net.InetSocketAddress;
-import java.util.Arrays;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.emc.ecs.nfsclient.nfs.NfsStatus;
 import com.emc.ecs.nfsclient.network.NetMgr;
+import com.emc.ecs.nfsclient.network.PingRequestFactory;
 import com.emc.ecs.nfsclient.nfs.NfsException;
 import com.emc.ecs.nfsclient.nfs.NfsRequestBase;
 import com.emc.ecs.nfsclient.nfs.NfsResponseBase;
@@ -53,7 +63,30 @@ public class RpcWrapper<S extends NfsRequestBase, T extends NfsResponseBase> {
     private int _port;
 
     /**
-     * The wait in milliseconds.
+     * The longest wait between retries in milliseconds.
+     */
+    private static final long MAXIMUM_RETRY_WAIT = 30000;
+
+    /**
+     * The latency percentile after which a hedged call sends its duplicate.
+     */
+    private static final double HEDGE_PERCENTILE = 0.95;
+
+    /**
+     * The most hedges that can be saved up, which bounds bursts of
+     * duplicates.
+     */
+    private static final double MAXIMUM_HEDGE_TOKENS = 10;
+
+    /**
+     * The shortest wait in milliseconds before retrying a call that the
+     * server answered with NFS3ERR_JUKEBOX.
+     */
+    private static final long JUKEBOX_RETRY_WAIT = 5000;
+
+    /**
+     * The base wait between retries in milliseconds, doubled with each
+     * attempt.
      */
     private final int _retryWait;
 
@@ -68,14 +101,67 @@ public class RpcWrapper<S extends NfsRequestBase, T extends NfsResponseBase> {
     private final int _maximumRequestSize;
 
     /**
-     * The timeout in seconds.
+     * The maximum timeout in seconds. Actual timeouts adapt to the round-trip
+     * times measured on each connection.
      */
     private final int _rpcTimeout;
 
     /**
-     * Discovered IP addresses for the remote server.
+     * The fraction of idempotent calls that may be duplicated, or 0 if
+     * hedging is disabled.
+     */
+    private volatile double _hedgeRatio = 0;
+
+    /**
+     * The hedges that may be sent now. Each idempotent call adds the hedge
+     * ratio, and each hedge takes one.
+     */
+    private double _hedgeTokens = 0;
+
+    /**
+     * Recent latencies of idempotent calls, by procedure number.
+     */
+    private final ConcurrentHashMap<Integer, LatencyTracker> _latencyTrackers = new ConcurrentHashMap<Integer, LatencyTracker>();
+
+    /**
+     * The circuit breakers, by server address.
+     */
+    private final ConcurrentHashMap<String, CircuitBreaker> _circuitBreakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    /**
+     * The retry budget shared by all calls.
+     */
+    private final RetryBudget _retryBudget = new RetryBudget(RetryBudget.DEFAULT_RETRY_RATIO,
+            RetryBudget.DEFAULT_MINIMUM_RETRIES_PER_SECOND, RetryBudget.DEFAULT_MAXIMUM_TOKENS);
+
+    /**
+     * The adaptive limit on calls in flight to the server, or
+     * <code>null</code> if disabled, as it is by default.
+     */
+    private volatile ConcurrencyLimiter _concurrencyLimiter;
+
+    /**
+     * The limits and fair share of the tenant making the calls.
+     */
+    private volatile RpcThrottle _throttle;
+
+    /**
+     * Discovered IP addresses for the remote server, or <code>null</code>
+     * before the port is set.
+     */
+    private volatile EndpointSet _endpoints;
+
+    /**
+     * The factory for requests pinging idle connections, or <code>null</code>
+     * if they are not pinged.
      */
-    private String[] _ips;
+    private volatile PingRequestFactory _pingRequestFactory;
+
+    /**
+     * The server addresses whose connections on the current port have been
+     * registered for pinging.
+     */
+    private final Set<String> _pingedAddresses = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
     /**
      * @param server
@@ -84,13 +170,13 @@ public class RpcWrapper<S extends NfsRequestBase, T extends NfsResponseBase> {
      *            The port on the remote server being used for this
      *            communication.
      * @param retryWait
-     *            The wait in milliseconds.
+     *            The base wait between retries in milliseconds.
      * @param maximumRetries
      *            The maximum number of retries.
      * @param maximumRequestSize
      *            The maximum request size in bytes.
      * @param rpcTimeout
-     *            The timeout in seconds.
+     *            The maximum timeout in seconds.
      */
     public RpcWrapper(String server, int port, int retryWait, int maximumRetries,
             int maximumRequestSize, int rpcTimeout) {
@@ -100,6 +186,7 @@ public class RpcWrapper<S extends NfsRequestBase, T extends NfsResponseBase> {
         _maximumRetries = maximumRetries;
         _maximumRequestSize = maximumRequestSize;
         _rpcTimeout = rpcTimeout;
+        _throttle = new RpcThrottle(server, 1);
     }
 
     /**
@@ -111,7 +198,130 @@ public class RpcWrapper<S extends NfsRequestBase, T extends NfsResponseBase> {
      */
     public void setPort(int port) {
         _port = port;
-        _ips = probeIps();
+        _pingedAddresses.clear();
+        if (_endpoints == null) {
+            try {
+                _endpoints = new EndpointSet(_server, EndpointSet.DEFAULT_REFRESH_INTERVAL);
+            } catch (UnknownHostException e) {
+                LOG.warn("cannot resolve server {}: {}", _server, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Let idle connections to the server be pinged. Each server address is
+     * registered with the network manager when it is first called, so
+     * addresses found by later resolutions are pinged as well.
+     * 
+     * @param pingRequestFactory
+     *            The factory for NULL procedure requests.
+     */
+    public void setPingRequestFactory(PingRequestFactory pingRequestFactory) {
+        _pingRequestFactory = pingRequestFactory;
+        _pingedAddresses.clear();
+    }
+
+    /**
+     * Register the connections to a server address for pinging, if that has
+     * not been done for the current port.
+     * 
+     * @param ipAddress
+     *            The IP address being called.
+     */
+    private void registerPing(String ipAddress) {
+        PingRequestFactory pingRequestFactory = _pingRequestFactory;
+        if ((pingRequestFactory != null) && _pingedAddresses.add(ipAddress)) {
+            NetMgr.getInstance().setPingRequestFactory(ipAddress, _port, pingRequestFactory);
+        }
+    }
+
+    /**
+     * Enable hedging of idempotent calls. When such a call has not been
+     * answered within the 95th percentile of recent latencies for its
+     * procedure, a duplicate is sent to another server address, the first
+     * reply is used and the other call is abandoned. The ratio caps the
+     * duplicates as a fraction of idempotent calls.
+     * 
+     * @param hedgeRatio
+     *            The fraction of idempotent calls that may be duplicated,
+     *            from 0 (hedging disabled, the default) to 1.
+     */
+    public void setHedgeRatio(double hedgeRatio) {
+        if ((hedgeRatio < 0) || (hedgeRatio > 1)) {
+            throw new IllegalArgumentException("The hedge ratio must be between 0 and 1: " + hedgeRatio);
+        }
+        _hedgeRatio = hedgeRatio;
+    }
+
+    /**
+     * @return The circuit breakers of the server addresses called so far, for
+     *         monitoring.
+     */
+    public Map<String, CircuitBreaker> getCircuitBreakers() {
+        return Collections.unmodifiableMap(new HashMap<String, CircuitBreaker>(_circuitBreakers));
+    }
+
+    /**
+     * @return The number of retries refused because the retry budget was
+     *         exhausted.
+     */
+    public long getRetryBudgetExhaustedCount() {
+        return _retryBudget.getExhaustedCount();
+    }
+
+    /**
+     * Set the limits and fair share of the tenant making the calls. Several
+     * wrappers can share one throttle to be limited together.
+     * 
+     * @param throttle
+     *            The throttle. Each wrapper starts with its own, which has no
+     *            limits and a weight of 1.
+     */
+    public void setThrottle(RpcThrottle throttle) {
+        if (throttle == null) {
+            throw new IllegalArgumentException("The throttle cannot be null");
+        }
+        _throttle = throttle;
+    }
+
+    /**
+     * @return The limits and fair share of the tenant making the calls, with
+     *         its current usage.
+     */
+    public RpcThrottle getThrottle() {
+        return _throttle;
+    }
+
+    /**
+     * @return The current adaptive limit on calls in flight to the server, or
+     *         0 if the limit is disabled.
+     */
+    public int getConcurrencyLimit() {
+        ConcurrencyLimiter concurrencyLimiter = _concurrencyLimiter;
+        return (concurrencyLimiter == null) ? 0 : concurrencyLimiter.getLimit();
+    }
+
+    /**
+     * Configure the adaptive limit on calls in flight to the server. The
+     * limit is disabled by default. Calls already in flight are not counted
+     * against the new limit.
+     * 
+     * @param initialLimit
+     *            The starting limit, or 0 to disable the limit.
+     * @param maximumLimit
+     *            The highest the limit can grow to.
+     */
+    public void setConcurrencyLimits(int initialLimit, int maximumLimit) {
+        if (initialLimit == 0) {
+            _concurrencyLimiter = null;
+            return;
+        }
+        if ((initialLimit < 0) || (maximumLimit < initialLimit)) {
+            throw new IllegalArgumentException(String.format(
+                    "The concurrency limits must satisfy 0 < initial <= maximum: %s, %s", initialLimit,
+                    maximumLimit));
+        }
+        _concurrencyLimiter = new ConcurrencyLimiter(initialLimit, maximumLimit);
     }
 
     /**
@@ -126,12 +336,15 @@ public class RpcWrapper<S extends NfsRequestBase, T extends NfsResponseBase> {
      * @throws IOException
      */
     public void callRpcWrapped(S request, RpcResponseHandler<? extends T> responseHandler) throws IOException {
+        _retryBudget.deposit();
         for (int i = 0; i < _maximumRetries; ++i) {
             try {
-                callRpcChecked(request, responseHandler);
+                callRpcChecked(request, responseHandler, chooseIP(request.getIpKey()), i);
                 return;
             } catch (RpcException e) {
                 handleRpcException(e, i);
+            } catch (NfsException e) {
+                handleNfsException(e, request, i);
             }
         }
     }
@@ -151,12 +364,15 @@ public class RpcWrapper<S extends NfsRequestBase, T extends NfsResponseBase> {
      */
     public void callRpcWrapped(S request, RpcResponseHandler<? extends T> responseHandler, String ip)
             throws IOException {
+        _retryBudget.deposit();
         for (int i = 0; i < _maximumRetries; ++i) {
             try {
-                callRpcChecked(request, responseHandler, ip);
+                callRpcChecked(request, responseHandler, ip, i);
                 return;
             } catch (RpcException e) {
                 handleRpcException(e, i);
+            } catch (NfsException e) {
+                handleNfsException(e, request, i);
             }
         }
     }
@@ -173,7 +389,7 @@ public class RpcWrapper<S extends NfsRequestBase, T extends NfsResponseBase> {
      * @throws IOException
      */
     public void callRpcChecked(S request, RpcResponseHandler<? extends T> responseHandler) throws IOException {
-        callRpcChecked(request, responseHandler, chooseIP(request.getIpKey()));
+        callRpcChecked(request, responseHandler, chooseIP(request.getIpKey()), 0);
     }
 
     /**
@@ -202,9 +418,472 @@ public class RpcWrapper<S extends NfsRequestBase, T extends NfsResponseBase> {
      * @throws RpcException
      */
     public void callRpcNaked(S request, T response, String ipAddress) throws RpcException {
+        callRpcNaked(request, response, ipAddress, 0);
+    }
+
+    /**
+     * Make the call to a specified IP address, with a timeout adapted to the
+     * attempt number.
+     * 
+     * @param request
+     *            The request to send.
+     * @param response
+     *            A response to hold the returned data.
+     * @param ipAddress
+     *            The IP address to use for communication.
+     * @param attempt
+     *            The number of earlier attempts of the call.
+     * @throws RpcException
+     */
+    private void callRpcNaked(S request, T response, String ipAddress, int attempt) throws RpcException {
+        if (!getCircuitBreaker(ipAddress).allowRequest()) {
+            throw new RpcException(RpcStatus.CIRCUIT_OPEN, "circuit open for " + ipAddress);
+        }
+        registerPing(ipAddress);
+        RpcThrottle throttle = _throttle;
+        acquireThrottle(throttle, request);
+        try {
+            callRpcLimited(request, response, ipAddress, attempt, throttle);
+        } finally {
+            throttle.release();
+        }
+    }
+
+    /**
+     * Make the call once the tenant limits allow it, under the adaptive
+     * concurrency limit of the server. The latency seen by the limit is
+     * measured from the end of the local waits, and only calls that the
+     * server answered with NFS3ERR_JUKEBOX or left unanswered shrink it.
+     * 
+     * @param request
+     *            The request to send.
+     * @param response
+     *            A response to hold the returned data.
+     * @param ipAddress
+     *            The IP address to use for communication.
+     * @param attempt
+     *            The number of earlier attempts of the call.
+     * @param throttle
+     *            The tenant making the call.
+     * @throws RpcException
+     */
+    private void callRpcLimited(S request, T response, String ipAddress, int attempt, RpcThrottle throttle)
+            throws RpcException {
+        ConcurrencyLimiter concurrencyLimiter = _concurrencyLimiter;
+        if (concurrencyLimiter == null) {
+            callRpcScheduled(request, response, ipAddress, attempt, throttle);
+            return;
+        }
+        acquireConcurrency(concurrencyLimiter);
+        boolean released = false;
+        boolean scheduled = false;
+        try {
+            scheduled = acquireFairShare(throttle);
+            long startTime = System.nanoTime();
+            try {
+                callRpcUnlimited(request, response, ipAddress, attempt);
+            } catch (RpcTimeoutException e) {
+                concurrencyLimiter.onDropped(startTime);
+                released = true;
+                throw e;
+            }
+            if (response.getState() == NfsStatus.NFS3ERR_JUKEBOX.getValue()) {
+                concurrencyLimiter.onDropped(startTime);
+            } else {
+                concurrencyLimiter.onSuccess(startTime, request.getServiceProcedure(), !request.isDataTransfer());
+            }
+            released = true;
+        } finally {
+            if (scheduled) {
+                FairScheduler.getInstance().release(throttle);
+            }
+            if (!released) {
+                concurrencyLimiter.onIgnored();
+            }
+        }
+    }
+
+    /**
+     * Make the call in the tenant's turn on the shared connections, if their
+     * capacity is limited.
+     * 
+     * @param request
+     *            The request to send.
+     * @param response
+     *            A response to hold the returned data.
+     * @param ipAddress
+     *            The IP address to use for communication.
+     * @param attempt
+     *            The number of earlier attempts of the call.
+     * @param throttle
+     *            The tenant making the call.
+     * @throws RpcException
+     */
+    private void callRpcScheduled(S request, T response, String ipAddress, int attempt, RpcThrottle throttle)
+            throws RpcException {
+        boolean scheduled = acquireFairShare(throttle);
+        try {
+            callRpcUnlimited(request, response, ipAddress, attempt);
+        } finally {
+            if (scheduled) {
+                FairScheduler.getInstance().release(throttle);
+            }
+        }
+    }
+
+    /**
+     * Make the call and unmarshall the reply, recording its latency.
+     * 
+     * @param request
+     *            The request to send.
+     * @param response
+     *            A response to hold the returned data.
+     * @param ipAddress
+     *            The IP address to use for communication.
+     * @param attempt
+     *            The number of earlier attempts of the call.
+     * @throws RpcException
+     */
+    private void callRpcUnlimited(S request, T response, String ipAddress, int attempt) throws RpcException {
+        long startTime = System.nanoTime();
         Xdr xdr = new Xdr(_maximumRequestSize);
         request.marshalling(xdr);
-        response.unmarshalling(callRpc(ipAddress, xdr, request.isUsePrivilegedPort()));
+        EndpointSet endpoints = _endpoints;
+        Xdr reply;
+        if ((endpoints != null) && (endpoints.size() > 1) && (_hedgeRatio > 0) && request.isIdempotent()) {
+            reply = callRpcHedged(request, xdr, ipAddress, attempt, endpoints);
+        } else {
+            try {
+                if (request.isLongRunning()) {
+                    reply = NetMgr.getInstance().sendLongRunningAndWait(ipAddress, _port,
+                            request.isUsePrivilegedPort(), xdr, _rpcTimeout, request.isDataTransfer());
+                } else {
+                    reply = callRpc(ipAddress, xdr, request.isUsePrivilegedPort(), request.isDataTransfer(),
+                            attempt);
+                }
+            } catch (RpcException e) {
+                reportFailure(endpoints, ipAddress, e);
+                throw e;
+            }
+            reportSuccess(endpoints, ipAddress, request, System.nanoTime() - startTime);
+        }
+        if (request.isIdempotent()) {
+            getLatencyTracker(request).record(System.nanoTime() - startTime);
+        }
+        response.unmarshalling(reply);
+    }
+
+    /**
+     * Wait for the tenant limits.
+     * 
+     * @param throttle
+     *            The tenant.
+     * @param request
+     *            The request.
+     * @throws RpcException
+     *             If the wait took longer than the RPC timeout.
+     */
+    private void acquireThrottle(RpcThrottle throttle, S request) throws RpcException {
+        boolean acquired;
+        try {
+            acquired = throttle.acquire(request.getDataSize(), _rpcTimeout, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            String msg = String.format("interrupted while waiting for the throttle of %s", throttle.getName());
+            throw new RpcException(RpcStatus.LOCAL_WAIT_TIMEOUT, msg, e);
+        }
+        if (!acquired) {
+            String msg = String.format("rpc request timeout waiting for the throttle of %s", throttle.getName());
+            throw new RpcException(RpcStatus.LOCAL_WAIT_TIMEOUT, msg);
+        }
+    }
+
+    /**
+     * Wait for the tenant's turn on the shared connections, if their capacity
+     * is limited.
+     * 
+     * @param throttle
+     *            The tenant.
+     * @return <code>true</code> if a place was taken and must be released,
+     *         <code>false</code> if the capacity is unlimited.
+     * @throws RpcException
+     *             If the wait took longer than the RPC timeout.
+     */
+    private boolean acquireFairShare(RpcThrottle throttle) throws RpcException {
+        FairScheduler fairScheduler = FairScheduler.getInstance();
+        if (fairScheduler.getCapacity() == FairScheduler.UNLIMITED) {
+            return false;
+        }
+        boolean acquired;
+        try {
+            acquired = fairScheduler.acquire(throttle, _rpcTimeout, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            String msg = String.format("interrupted while waiting for the fair share of %s", throttle.getName());
+            throw new RpcException(RpcStatus.LOCAL_WAIT_TIMEOUT, msg, e);
+        }
+        if (!acquired) {
+            String msg = String.format("rpc request timeout waiting for the fair share of %s", throttle.getName());
+            throw new RpcException(RpcStatus.LOCAL_WAIT_TIMEOUT, msg);
+        }
+        return true;
+    }
+
+    /**
+     * Wait for a place under the adaptive concurrency limit.
+     * 
+     * @param concurrencyLimiter
+     *            The limiter.
+     * @throws RpcException
+     *             If no place was free within the RPC timeout.
+     */
+    private void acquireConcurrency(ConcurrencyLimiter concurrencyLimiter) throws RpcException {
+        boolean acquired;
+        try {
+            acquired = concurrencyLimiter.acquire(_rpcTimeout, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            String msg = String.format("interrupted while waiting to call server %s", _server);
+            throw new RpcException(RpcStatus.LOCAL_WAIT_TIMEOUT, msg, e);
+        }
+        if (!acquired) {
+            String msg = String.format("rpc request timeout waiting for the concurrency limit of server %s",
+                    _server);
+            throw new RpcException(RpcStatus.LOCAL_WAIT_TIMEOUT, msg);
+        }
+    }
+
+    /**
+     * Make an idempotent call, sending a duplicate to another address if the
+     * reply is slower than the usual 95th percentile and the hedge budget
+     * allows it. The first reply wins, and the other call is abandoned.
+     * 
+     * @param request
+     *            The request.
+     * @param xdr
+     *            The marshalled request, sent unchanged to both addresses so
+     *            that both calls have the same xid.
+     * @param ipAddress
+     *            The IP address for the first call.
+     * @param attempt
+     *            The number of earlier attempts of the call.
+     * @param endpoints
+     *            The server addresses.
+     * @return The Xdr data for the first reply.
+     * @throws RpcException
+     *             If both calls fail.
+     */
+    private Xdr callRpcHedged(S request, Xdr xdr, String ipAddress, int attempt, EndpointSet endpoints)
+            throws RpcException {
+        long hedgeDelay = getLatencyTracker(request).getPercentile(HEDGE_PERCENTILE);
+        synchronized (this) {
+            _hedgeTokens = Math.min(MAXIMUM_HEDGE_TOKENS, _hedgeTokens + _hedgeRatio);
+        }
+
+        long startTime = System.nanoTime();
+        CompletableFuture<Xdr> primary = sendAsync(ipAddress, xdr, request, attempt, endpoints);
+        CompletableFuture<Xdr> hedge = null;
+        String hedgeAddress = null;
+        if (hedgeDelay >= 0) {
+            try {
+                primary.get(hedgeDelay, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                hedgeAddress = endpoints.chooseAlternate(request.getIpKey(), ipAddress);
+                if ((hedgeAddress != null) && takeHedgeToken() && getCircuitBreaker(hedgeAddress).allowRequest()) {
+                    LOG.debug("hedging {} to {}", request, hedgeAddress);
+                    try {
+                        hedge = sendAsync(hedgeAddress, xdr, request, attempt, endpoints);
+                    } catch (RpcException e1) {
+                        // the first call is still running
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // reported below
+            }
+        }
+
+        if (hedge == null) {
+            try {
+                Xdr reply = NetMgr.getResponse(primary);
+                reportSuccess(endpoints, ipAddress, request, System.nanoTime() - startTime);
+                return reply;
+            } catch (RpcException e) {
+                reportFailure(endpoints, ipAddress, e);
+                throw e;
+            }
+        }
+
+        final CompletableFuture<Xdr> firstReply = new CompletableFuture<Xdr>();
+        final AtomicInteger failures = new AtomicInteger(0);
+        BiConsumer<Xdr, Throwable> handler = new BiConsumer<Xdr, Throwable>() {
+            /* (non-Javadoc)
+             * @see java.util.function.BiConsumer#accept(java.lang.Object, java.lang.Object)
+             */
+            public void accept(Xdr reply, Throwable failure) {
+                if (failure == null) {
+                    firstReply.complete(reply);
+                } else if (failures.incrementAndGet() == 2) {
+                    firstReply.completeExceptionally(failure);
+                }
+            }
+        };
+        primary.whenComplete(handler);
+        hedge.whenComplete(handler);
+        try {
+            Xdr reply = NetMgr.getResponse(firstReply);
+            String winner = (primary.isDone() && !primary.isCompletedExceptionally()) ? ipAddress : hedgeAddress;
+            reportSuccess(endpoints, winner, request, System.nanoTime() - startTime);
+            return reply;
+        } catch (RpcException e) {
+            reportFailure(endpoints, ipAddress, primary);
+            reportFailure(endpoints, hedgeAddress, hedge);
+            throw e;
+        } finally {
+            primary.cancel(false);
+            hedge.cancel(false);
+        }
+    }
+
+    /**
+     * Start a call without waiting for the reply.
+     * 
+     * @param ipAddress
+     *            The IP address to use for communication.
+     * @param xdr
+     *            The marshalled request.
+     * @param request
+     *            The request.
+     * @param attempt
+     *            The number of earlier attempts of the call.
+     * @param endpoints
+     *            The server addresses.
+     * @return The future for the reply.
+     * @throws RpcException
+     *             If the call could not be sent.
+     */
+    private CompletableFuture<Xdr> sendAsync(String ipAddress, Xdr xdr, S request, int attempt,
+            EndpointSet endpoints) throws RpcException {
+        registerPing(ipAddress);
+        try {
+            return NetMgr.getInstance().sendAsync(ipAddress, _port, request.isUsePrivilegedPort(), xdr,
+                    _rpcTimeout, request.isDataTransfer(), attempt);
+        } catch (RpcException e) {
+            reportFailure(endpoints, ipAddress, e);
+            throw e;
+        }
+    }
+
+    /**
+     * @return <code>true</code> if a hedge may be sent now, in which case it
+     *         is counted, <code>false</code> otherwise.
+     */
+    private synchronized boolean takeHedgeToken() {
+        if (_hedgeTokens < 1) {
+            return false;
+        }
+        _hedgeTokens -= 1;
+        return true;
+    }
+
+    /**
+     * @param request
+     *            The request.
+     * @return The latency tracker for the request procedure.
+     */
+    private LatencyTracker getLatencyTracker(S request) {
+        Integer procedure = Integer.valueOf(request.getServiceProcedure());
+        LatencyTracker tracker = _latencyTrackers.get(procedure);
+        if (tracker == null) {
+            LatencyTracker newTracker = new LatencyTracker();
+            tracker = _latencyTrackers.putIfAbsent(procedure, newTracker);
+            if (tracker == null) {
+                tracker = newTracker;
+            }
+        }
+        return tracker;
+    }
+
+    /**
+     * @param ipAddress
+     *            The server address.
+     * @return The circuit breaker for the address.
+     */
+    private CircuitBreaker getCircuitBreaker(String ipAddress) {
+        CircuitBreaker circuitBreaker = _circuitBreakers.get(ipAddress);
+        if (circuitBreaker == null) {
+            CircuitBreaker newCircuitBreaker = new CircuitBreaker(ipAddress,
+                    CircuitBreaker.DEFAULT_FAILURE_THRESHOLD, CircuitBreaker.DEFAULT_OPEN_TIME);
+            circuitBreaker = _circuitBreakers.putIfAbsent(ipAddress, newCircuitBreaker);
+            if (circuitBreaker == null) {
+                circuitBreaker = newCircuitBreaker;
+            }
+        }
+        return circuitBreaker;
+    }
+
+    /**
+     * Tell the circuit breaker and the endpoint set about a call that got a
+     * reply.
+     * 
+     * @param endpoints
+     *            The server addresses, or <code>null</code>.
+     * @param ipAddress
+     *            The address used.
+     * @param request
+     *            The request.
+     * @param latencyNanos
+     *            The call latency in nanoseconds.
+     */
+    private void reportSuccess(EndpointSet endpoints, String ipAddress, RpcRequest request, long latencyNanos) {
+        getCircuitBreaker(ipAddress).recordSuccess();
+        if ((endpoints != null) && !request.isDataTransfer()) {
+            // data calls take longer, and would make their address look slow
+            endpoints.reportSuccess(ipAddress, latencyNanos);
+        }
+    }
+
+    /**
+     * Tell the circuit breaker and the endpoint set about a call that failed,
+     * if it failed at the network level. Calls that timed out waiting for a
+     * local limit never reached the server, and are not counted against it.
+     * 
+     * @param endpoints
+     *            The server addresses, or <code>null</code>.
+     * @param ipAddress
+     *            The address used.
+     * @param e
+     *            The failure.
+     */
+    private void reportFailure(EndpointSet endpoints, String ipAddress, RpcException e) {
+        if (e.getStatus().equals(RpcStatus.NETWORK_ERROR)) {
+            getCircuitBreaker(ipAddress).recordFailure();
+            if (endpoints != null) {
+                endpoints.reportFailure(ipAddress);
+            }
+        }
+    }
+
+    /**
+     * Tell the circuit breaker and the endpoint set about a call that failed,
+     * using the call's own failure.
+     * 
+     * @param endpoints
+     *            The server addresses, or <code>null</code>.
+     * @param ipAddress
+     *            The address used.
+     * @param future
+     *            The call, which has finished.
+     */
+    private void reportFailure(EndpointSet endpoints, String ipAddress, CompletableFuture<Xdr> future) {
+        if (future.isCompletedExceptionally()) {
+            try {
+                NetMgr.getResponse(future);
+            } catch (RpcException e) {
+                reportFailure(endpoints, ipAddress, e);
+            }
+        }
     }
 
     /**
@@ -225,12 +904,39 @@ public class RpcWrapper<S extends NfsRequestBase, T extends NfsResponseBase> {
      * @throws RpcException
      */
     public Xdr callRpc(String serverIP, Xdr xdrRequest, boolean usePrivilegedPort) throws RpcException {
-        return NetMgr.getInstance().sendAndWait(serverIP, _port, usePrivilegedPort, xdrRequest, _rpcTimeout);
+        return callRpc(serverIP, xdrRequest, usePrivilegedPort, false, 0);
+    }
+
+    /**
+     * Basic RPC call functionality only, with a timeout derived from the
+     * round-trip times measured for the class of call, doubled for each
+     * earlier attempt and capped by the configured timeout.
+     * 
+     * @param serverIP
+     *            The endpoint of the server being called.
+     * @param xdrRequest
+     *            The Xdr data for the request.
+     * @param usePrivilegedPort
+     *            If <code>true</code>, use a privileged local port (below
+     *            1024) for RPC communication.
+     * @param isDataTransfer
+     *            <code>true</code> for calls that move file data.
+     * @param attempt
+     *            The number of earlier attempts of the call.
+     * @return The Xdr data for the response.
+     * @throws RpcException
+     */
+    public Xdr callRpc(String serverIP, Xdr xdrRequest, boolean usePrivilegedPort, boolean isDataTransfer,
+            int attempt) throws RpcException {
+        return NetMgr.getInstance().sendAndWait(serverIP, _port, usePrivilegedPort, xdrRequest, _rpcTimeout,
+                isDataTransfer, attempt);
     }
 
     /**
      * Select an IP address to use for communication, based on the
-     * <code>key</code> and <code>policy</code>.
+     * <code>key</code>. The address is chosen by rendezvous hashing among the
+     * server addresses that are not ejected, so a key keeps its address as
+     * long as that address is healthy.
      * 
      * @param key
      *            The key to use when selecting an IP address.
@@ -238,7 +944,8 @@ public class RpcWrapper<S extends NfsRequestBase, T extends NfsResponseBase> {
      * @throws IOException
      */
     public String chooseIP(byte[] key) throws IOException {
-        if (_ips == null || _ips.length == 0) {
+        EndpointSet endpoints = _endpoints;
+        if (endpoints == null) {
             if (_server != null) {
                 LOG.warn("ip list is not initialized, fallback to server");
                 return _server;
@@ -246,7 +953,7 @@ public class RpcWrapper<S extends NfsRequestBase, T extends NfsResponseBase> {
             throw new IOException("ip list is not initialized");
         }
 
-        return _ips[Math.abs(Arrays.hashCode(key)) % _ips.length];
+        return endpoints.choose(key);
     }
 
     /**
@@ -261,13 +968,15 @@ public class RpcWrapper<S extends NfsRequestBase, T extends NfsResponseBase> {
      *            A response handler.
      * @param ipAddress
      *            The IP address to use for communication.
+     * @param attempt
+     *            The number of earlier attempts of the call.
      * @throws IOException
      */
-    private void callRpcChecked(S request, RpcResponseHandler<? extends T> responseHandler, String ipAddress)
-            throws IOException {
+    private void callRpcChecked(S request, RpcResponseHandler<? extends T> responseHandler, String ipAddress,
+            int attempt) throws IOException {
         LOG.debug("server {}, port {}, request {}", _server, _port, request);
 
-        callRpcNaked(request, responseHandler.getNewResponse(), ipAddress);
+        callRpcNaked(request, responseHandler.getNewResponse(), ipAddress, attempt);
 
         if (LOG.isDebugEnabled()) {
             LOG.debug("server {}, port {}, response {}", _server, _port, responseHandler.getResponse());
@@ -288,14 +997,14 @@ public class RpcWrapper<S extends NfsRequestBase, T extends NfsResponseBase> {
     private void handleRpcException(RpcException e, int attemptNumber) throws IOException {
         String messageStart;
 
-        if (!(e.getStatus().equals(RpcStatus.NETWORK_ERROR))) {
+        if (!(e.getStatus().equals(RpcStatus.NETWORK_ERROR) || e.getStatus().equals(RpcStatus.LOCAL_WAIT_TIMEOUT))) {
             messageStart = "rpc";
         } else {
-            // check whether to retry
-            if (attemptNumber + 1 < _maximumRetries) {
+            // check whether to retry, unless other calls have used up the
+            // retries
+            if ((attemptNumber + 1 < _maximumRetries) && _retryBudget.tryWithdraw()) {
                 try {
-                    int waitTime = _retryWait * (attemptNumber + 1);
-                    Thread.sleep(waitTime);
+                    Thread.sleep(getRetryWait(attemptNumber));
                 } catch (InterruptedException ie) {
                     // restore the interrupt status
                     Thread.currentThread().interrupt();
@@ -312,27 +1021,50 @@ public class RpcWrapper<S extends NfsRequestBase, T extends NfsResponseBase> {
     }
 
     /**
-     * Find possible IP addresses for communicating with the server.
+     * Retry calls that the server answered with NFS3ERR_JUKEBOX after a
+     * delay and with a new xid, as RFC 1813 asks, and rethrow anything else.
      * 
-     * @return The array of addresses.
+     * @param e
+     *            The exception.
+     * @param request
+     *            The request.
+     * @param attemptNumber
+     *            The number of attempts so far.
+     * @throws NfsException
+     *             If the call should not be retried.
      */
-    private String[] probeIps() {
-        Set<String> ips = new TreeSet<String>();
-        for (int i = 0; i < 32; ++i) {
-            InetSocketAddress sa = new InetSocketAddress(_server, _port);
-            ips.add(sa.getAddress().getHostAddress());
+    private void handleNfsException(NfsException e, S request, int attemptNumber) throws NfsException {
+        if (!e.getStatus().equals(NfsStatus.NFS3ERR_JUKEBOX) || (attemptNumber + 1 >= _maximumRetries)) {
+            throw e;
         }
-
-        if (LOG.isDebugEnabled()) {
-            StringBuffer sb = new StringBuffer();
-            for (String ip : ips) {
-                sb.append(ip);
-                sb.append(" ");
-            }
-            LOG.debug(sb.toString());
+        long retryWait = Math.max(JUKEBOX_RETRY_WAIT, getRetryWait(attemptNumber));
+        LOG.warn("server {} is busy, retrying in {} ms, attemptNumber {}", _server, retryWait, attemptNumber);
+        try {
+            Thread.sleep(retryWait);
+        } catch (InterruptedException ie) {
+            // restore the interrupt status
+            Thread.currentThread().interrupt();
+            throw e;
         }
+        ((RpcRequest) request).renewXid();
+    }
 
-        return (String[]) ips.toArray(new String[0]);
+    /**
+     * Exponential backoff with jitter: the wait doubles with each attempt, up
+     * to a limit, and a random half of it is dropped so that clients that
+     * failed together do not all retry together.
+     * 
+     * @param attemptNumber
+     *            The number of attempts so far.
+     * @return The wait in milliseconds before the next attempt.
+     */
+    private long getRetryWait(int attemptNumber) {
+        long ceiling = _retryWait;
+        for (int i = 0; (i < attemptNumber) && (ceiling < MAXIMUM_RETRY_WAIT); ++i) {
+            ceiling *= 2;
+        }
+        ceiling = Math.min(ceiling, MAXIMUM_RETRY_WAIT);
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
     }
 
 }
@@ -0,0 +1,126 @@
+/**
+ * Copyright 2016-2018 Dell Inc. or its subsidiaries. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.nfsclient.rpc;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coalesces concurrent identical calls. The first caller for a key makes the
+ * call, and callers that arrive with the same key while it is in progress
+ * wait for it and share its result or exception, instead of sending the same
+ * request again. Only calls in progress are shared, nothing is cached, so this
+ * is only safe for calls that do not change server state. A call in progress
+ * may have been sent before a change that a later caller must see, so
+ * {@link #startNewFlights()} must be called after each change.
+ *
+ * @author seibed
+ */
+public class SingleFlight<K, V> {
+
+    /**
+     * A call that can be coalesced.
+     *
+     * @author seibed
+     */
+    public interface Call<V> {
+
+        /**
+         * @return The result.
+         * @throws IOException
+         */
+        V call() throws IOException;
+
+    }
+
+    /**
+     * The calls in progress, by key.
+     */
+    private final ConcurrentHashMap<K, CompletableFuture<V>> _calls = new ConcurrentHashMap<K, CompletableFuture<V>>();
+
+    /**
+     * Make the call, or wait for an identical one in progress.
+     * 
+     * @param key
+     *            The key, equal for calls that would send the same request.
+     * @param call
+     *            The call.
+     * @return The result, which may be shared with other callers.
+     * @throws IOException
+     *             The exception of the call, which may be shared with other
+     *             callers.
+     */
+    public V execute(K key, Call<V> call) throws IOException {
+        CompletableFuture<V> future = new CompletableFuture<V>();
+        CompletableFuture<V> inProgress = _calls.putIfAbsent(key, future);
+        if (inProgress != null) {
+            return join(inProgress);
+        }
+
+        try {
+            V result = call.call();
+            // later callers must make a new call
+            _calls.remove(key, future);
+            future.complete(result);
+            return result;
+        } catch (IOException | RuntimeException | Error e) {
+            _calls.remove(key, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Make callers that arrive from now on start new calls instead of joining
+     * the calls in progress. The calls in progress still complete for the
+     * callers already waiting for them.
+     */
+    public void startNewFlights() {
+        _calls.clear();
+    }
+
+    /**
+     * @return The number of calls in progress.
+     */
+    public int getCallsInProgress() {
+        return _calls.size();
+    }
+
+    /**
+     * @param future
+     *            The future of a call in progress.
+     * @return Its result.
+     * @throws IOException
+     *             Its exception.
+     */
+    private V join(CompletableFuture<V> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+}
@@ -410,6 +410,14 @@ public class Xdr {
 
     }
 
+    /**
+     * @return The number of payload bytes added so far, not counting the
+     *         terminal padding.
+     */
+    public int getPayloadsSize() {
+        return _payloadsSize;
+    }
+
     /**
      * @return The terminated list of payloads, properly padded and ready for
      *         sending.
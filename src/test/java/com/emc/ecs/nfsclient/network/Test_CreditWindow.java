@@ -0,0 +1,74 @@
+/**
+ * Copyright 2016-2018 Dell Inc. or its subsidiaries. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.nfsclient.network;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author seibed
+ */
+public class Test_CreditWindow extends Assert {
+
+    @Test
+    public void testLimits() throws Exception {
+        CreditWindow window = new CreditWindow(2, 100);
+        assertTrue(window.acquire(60, 0, TimeUnit.MILLISECONDS));
+        assertFalse(window.acquire(60, 10, TimeUnit.MILLISECONDS));
+        assertTrue(window.acquire(40, 0, TimeUnit.MILLISECONDS));
+        assertFalse(window.acquire(0, 10, TimeUnit.MILLISECONDS));
+        assertEquals(2, window.getRequestsInFlight());
+        assertEquals(100, window.getBytesInFlight());
+
+        window.release(60);
+        window.release(40);
+        assertEquals(0, window.getRequestsInFlight());
+        assertEquals(0, window.getBytesInFlight());
+
+        // an oversized request goes through alone
+        assertTrue(window.acquire(1000, 0, TimeUnit.MILLISECONDS));
+        assertFalse(window.acquire(1, 10, TimeUnit.MILLISECONDS));
+        window.release(1000);
+    }
+
+    @Test
+    public void testWaitForRelease() throws Exception {
+        final CreditWindow window = new CreditWindow(1, 100);
+        assertTrue(window.acquire(100, 0, TimeUnit.MILLISECONDS));
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    if (window.acquire(100, 10, TimeUnit.SECONDS)) {
+                        acquired.countDown();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        waiter.start();
+
+        assertFalse(acquired.await(50, TimeUnit.MILLISECONDS));
+        window.release(100);
+        assertTrue(acquired.await(10, TimeUnit.SECONDS));
+        waiter.join();
+    }
+
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2016-2018 Dell Inc. or its subsidiaries. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.nfsclient.network;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.emc.ecs.nfsclient.rpc.Xdr;
+
+/**
+ * @author seibed
+ */
+public class Test_RecordMarkingUtil extends Assert {
+
+    @Test
+    public void testSingleFragment() {
+        byte[] expected = new byte[16 + 28];
+        ByteBuffer[] record = RecordMarkingUtil.makeRecord(makeRequest(expected), 1024);
+        assertEquals(3, record.length);
+        assertEquals(0x80000000 | expected.length, record[0].getInt(0));
+        assertRoundTrip(expected, record);
+    }
+
+    @Test
+    public void testSlicedFragments() {
+        byte[] expected = new byte[16 + 28];
+        ByteBuffer[] record = RecordMarkingUtil.makeRecord(makeRequest(expected), 10);
+
+        int fragments = 0;
+        int dataBytes = 0;
+        for (int i = 0; i < record.length; i += 1) {
+            if (dataBytes == 0) {
+                int recordMark = record[i].getInt(0);
+                dataBytes = recordMark & 0x7fffffff;
+                assertTrue(dataBytes <= 10);
+                ++fragments;
+                assertEquals(fragments == 5, RecordMarkingUtil.isLastFragment(recordMark & 0xffffffffL));
+            } else {
+                dataBytes -= record[i].remaining();
+                assertTrue(dataBytes >= 0);
+            }
+        }
+        assertEquals(5, fragments);
+        assertRoundTrip(expected, record);
+    }
+
+    @Test
+    public void testPayloadLargerThanDefaultFragmentSize() {
+        Xdr xdr = new Xdr(16);
+        xdr.putInt(7);
+        List<ByteBuffer> payloads = new ArrayList<ByteBuffer>();
+        payloads.add(ByteBuffer.allocate(3 * RecordMarkingUtil.DEFAULT_MAXIMUM_FRAGMENT_SIZE));
+        xdr.putPayloads(payloads, 3 * RecordMarkingUtil.DEFAULT_MAXIMUM_FRAGMENT_SIZE);
+
+        ByteBuffer[] record = RecordMarkingUtil.makeRecord(xdr, RecordMarkingUtil.DEFAULT_MAXIMUM_FRAGMENT_SIZE);
+        long totalBytes = 0;
+        for (ByteBuffer buffer : record) {
+            assertTrue(buffer.remaining() <= RecordMarkingUtil.DEFAULT_MAXIMUM_FRAGMENT_SIZE);
+            totalBytes += buffer.remaining();
+        }
+        assertEquals(8 + 3 * RecordMarkingUtil.DEFAULT_MAXIMUM_FRAGMENT_SIZE + 4 * 4, totalBytes);
+        assertEquals(3 * RecordMarkingUtil.DEFAULT_MAXIMUM_FRAGMENT_SIZE, payloads.get(0).remaining());
+    }
+
+    /**
+     * @param expected
+     *            Filled in with the bytes the request should contain: a 16-byte
+     *            header, ending with the payload length, followed by a 28-byte
+     *            payload.
+     * @return The request.
+     */
+    private static Xdr makeRequest(byte[] expected) {
+        Xdr xdr = new Xdr(64);
+        xdr.putInt(12345);
+        xdr.putInt(2);
+        xdr.putInt(3);
+        byte[] payload = new byte[28];
+        for (int i = 0; i < payload.length; ++i) {
+            payload[i] = (byte) (i + 1);
+        }
+        List<ByteBuffer> payloads = new ArrayList<ByteBuffer>();
+        payloads.add(ByteBuffer.wrap(payload));
+        xdr.putPayloads(payloads, payload.length);
+
+        System.arraycopy(xdr.getBuffer(), 0, expected, 0, 16);
+        System.arraycopy(payload, 0, expected, 16, payload.length);
+        return xdr;
+    }
+
+    private static void assertRoundTrip(byte[] expected, ByteBuffer[] record) {
+        int size = 0;
+        for (ByteBuffer buffer : record) {
+            size += buffer.remaining();
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(size);
+        for (ByteBuffer buffer : record) {
+            bytes.put(buffer.duplicate());
+        }
+
+        Xdr xdr = RecordMarkingUtil.removeRecordMarking(bytes.array());
+        assertEquals(12345, xdr.getXid());
+        assertEquals(expected.length, xdr.getOffset());
+        for (int i = 0; i < expected.length; ++i) {
+            assertEquals(expected[i], xdr.getBuffer()[i]);
+        }
+    }
+
+}
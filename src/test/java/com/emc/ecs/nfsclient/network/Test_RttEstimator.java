@@ -0,0 +1,49 @@
+/**
+ * Copyright 2016-2018 Dell Inc. or its subsidiaries. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.nfsclient.network;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author seibed
+ */
+public class Test_RttEstimator extends Assert {
+
+    private static final long MAXIMUM = TimeUnit.SECONDS.toNanos(10);
+
+    @Test
+    public void testTimeouts() {
+        RttEstimator estimator = new RttEstimator();
+        assertEquals(MAXIMUM, estimator.getTimeout(0, MAXIMUM));
+
+        // fast replies are held at the minimum, then doubled per attempt
+        estimator.update(TimeUnit.MILLISECONDS.toNanos(1));
+        assertEquals(RttEstimator.MINIMUM_TIMEOUT_NANOS, estimator.getTimeout(0, MAXIMUM));
+        assertEquals(2 * RttEstimator.MINIMUM_TIMEOUT_NANOS, estimator.getTimeout(1, MAXIMUM));
+        assertEquals(MAXIMUM, estimator.getTimeout(10, MAXIMUM));
+
+        // slow replies raise the timeout above the minimum
+        for (int i = 0; i < 50; ++i) {
+            estimator.update(TimeUnit.MILLISECONDS.toNanos(800));
+        }
+        long timeout = estimator.getTimeout(0, MAXIMUM);
+        assertTrue(timeout > TimeUnit.MILLISECONDS.toNanos(800));
+        assertTrue(timeout < TimeUnit.MILLISECONDS.toNanos(1600));
+    }
+
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright 2016-2018 Dell Inc. or its subsidiaries. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.nfsclient.nfs.io;
+
+import java.io.IOException;
+
+import com.emc.ecs.nfsclient.nfs.Nfs;
+
+/**
+ * A file on a {@link StubNfs} server, for testing the file logic without a
+ * server.
+ * 
+ * @author seibed
+ */
+class StubFile extends NfsFileBase<Nfs<StubFile>, StubFile> {
+
+    /**
+     * @param nfs
+     *            The supporting NFS client.
+     * @param path
+     *            The full path of the file, starting with the mount point.
+     * @param linkTracker
+     *            The tracker to use.
+     * @throws IOException
+     */
+    StubFile(Nfs<StubFile> nfs, String path, LinkTracker<Nfs<StubFile>, StubFile> linkTracker) throws IOException {
+        super(nfs, path, linkTracker);
+    }
+
+    /**
+     * @param nfs
+     *            The supporting NFS client.
+     * @param path
+     *            The full path of the file, starting with the mount point.
+     * @param lazy
+     *            <code>true</code> for a lazy file.
+     * @throws IOException
+     */
+    StubFile(Nfs<StubFile> nfs, String path, boolean lazy) throws IOException {
+        super(nfs, path, lazy);
+    }
+
+    /**
+     * @param parent
+     *            The parent file.
+     * @param child
+     *            The short name of the file.
+     * @throws IOException
+     */
+    StubFile(StubFile parent, String child) throws IOException {
+        super(parent, child);
+    }
+
+    /**
+     * @param childFile
+     *            The file whose parent this is.
+     */
+    StubFile(StubFile childFile) {
+        super(childFile);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.emc.ecs.nfsclient.nfs.NfsFile#newChildFile(java.lang.String)
+     */
+    public StubFile newChildFile(String childName) throws IOException {
+        return new StubFile(this, childName);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.emc.ecs.nfsclient.nfs.NfsFileBase#newFile(java.lang.String)
+     */
+    protected StubFile newFile(String path, LinkTracker<Nfs<StubFile>, StubFile> linkTracker) throws IOException {
+        return new StubFile(getNfs(), path, linkTracker);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.emc.ecs.nfsclient.nfs.io.NfsFileBase#newParentFile()
+     */
+    protected StubFile newParentFile() {
+        return new StubFile(this);
+    }
+
+}
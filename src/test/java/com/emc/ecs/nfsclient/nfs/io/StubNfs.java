@@ -0,0 +1,742 @@
+/**
+ * Copyright 2016-2018 Dell Inc. or its subsidiaries. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.nfsclient.nfs.io;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.emc.ecs.nfsclient.nfs.Nfs;
+import com.emc.ecs.nfsclient.nfs.NfsDirectoryPlusEntry;
+import com.emc.ecs.nfsclient.nfs.NfsException;
+import com.emc.ecs.nfsclient.nfs.NfsFsInfo;
+import com.emc.ecs.nfsclient.nfs.NfsRequestBase;
+import com.emc.ecs.nfsclient.nfs.NfsResponseBase;
+import com.emc.ecs.nfsclient.nfs.NfsStatus;
+import com.emc.ecs.nfsclient.nfs.NfsType;
+import com.emc.ecs.nfsclient.nfs.nfs3.Nfs3AccessRequest;
+import com.emc.ecs.nfsclient.nfs.nfs3.Nfs3AccessResponse;
+import com.emc.ecs.nfsclient.nfs.nfs3.Nfs3GetAttrRequest;
+import com.emc.ecs.nfsclient.nfs.nfs3.Nfs3GetAttrResponse;
+import com.emc.ecs.nfsclient.nfs.nfs3.Nfs3LookupRequest;
+import com.emc.ecs.nfsclient.nfs.nfs3.Nfs3LookupResponse;
+import com.emc.ecs.nfsclient.nfs.nfs3.Nfs3ReadRequest;
+import com.emc.ecs.nfsclient.nfs.nfs3.Nfs3ReadResponse;
+import com.emc.ecs.nfsclient.nfs.nfs3.Nfs3ReaddirplusRequest;
+import com.emc.ecs.nfsclient.nfs.nfs3.Nfs3ReaddirplusResponse;
+import com.emc.ecs.nfsclient.nfs.nfs3.Nfs3ReadlinkRequest;
+import com.emc.ecs.nfsclient.nfs.nfs3.Nfs3ReadlinkResponse;
+import com.emc.ecs.nfsclient.rpc.Credential;
+import com.emc.ecs.nfsclient.rpc.CredentialUnix;
+import com.emc.ecs.nfsclient.rpc.Xdr;
+
+/**
+ * An in-memory NFS server for testing path resolution and reads without a
+ * server. Only GETATTR, LOOKUP, ACCESS, READLINK, READ and READDIRPLUS are
+ * implemented. Replies are built as the server would encode them and decoded
+ * by the usual response classes, and the wrapped calls fail as the real ones
+ * do.
+ *
+ * @author seibed
+ */
+public class StubNfs implements InvocationHandler {
+
+    /**
+     * The server name reported.
+     */
+    public static final String SERVER = "stub";
+
+    /**
+     * The exported path reported.
+     */
+    public static final String EXPORTED_PATH = "/export";
+
+    /**
+     * The preferred and maximum size of READ calls.
+     */
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * The number of entries in each READDIRPLUS reply.
+     */
+    private static final int READDIRPLUS_ENTRIES = 100;
+
+    /**
+     * A file, directory or symbolic link.
+     */
+    private static final class Node {
+
+        /**
+         * The type.
+         */
+        private final NfsType _type;
+
+        /**
+         * The file id.
+         */
+        private final long _fileId;
+
+        /**
+         * The current file handle.
+         */
+        private byte[] _fileHandle;
+
+        /**
+         * The children of a directory, by name.
+         */
+        private final Map<String, Node> _children = new LinkedHashMap<String, Node>();
+
+        /**
+         * The contents of a file.
+         */
+        private byte[] _data = new byte[0];
+
+        /**
+         * The nanoseconds of the mtime and ctime, which move on with each
+         * change.
+         */
+        private long _changeNanoseconds = 0;
+
+        /**
+         * The target of a symbolic link.
+         */
+        private String _linkData;
+
+        /**
+         * The path, for the call log.
+         */
+        private final String _path;
+
+        /**
+         * @param type
+         * @param fileId
+         * @param path
+         */
+        private Node(NfsType type, long fileId, String path) {
+            _type = type;
+            _fileId = fileId;
+            _path = path;
+        }
+
+    }
+
+    /**
+     * The credential used for requests.
+     */
+    private final Credential _credential = new CredentialUnix();
+
+    /**
+     * The file system information reported.
+     */
+    private final NfsFsInfo _fsInfo;
+
+    /**
+     * The client, as a proxy calling this handler.
+     */
+    private final Nfs<?> _nfs;
+
+    /**
+     * The root directory.
+     */
+    private final Node _root;
+
+    /**
+     * The nodes, by current file handle.
+     */
+    private final Map<ByteBuffer, Node> _nodesByFileHandle = new HashMap<ByteBuffer, Node>();
+
+    /**
+     * The failures of LOOKUP calls, by the path looked up.
+     */
+    private final Map<String, NfsStatus> _lookupFailures = new HashMap<String, NfsStatus>();
+
+    /**
+     * The time LOOKUP calls take, by the path of the directory.
+     */
+    private final Map<String, Long> _lookupDelays = new HashMap<String, Long>();
+
+    /**
+     * The calls made, as procedure name and path.
+     */
+    private final List<String> _calls = new ArrayList<String>();
+
+    /**
+     * The last file id given out.
+     */
+    private long _lastFileId = 0;
+
+    /**
+     * The persistent cache reported, or <code>null</code>.
+     */
+    private NfsFileHandleCache _fileHandleCache;
+
+    /**
+     * Creates a server with an empty root directory.
+     */
+    public StubNfs() {
+        Xdr xdr = new Xdr(64);
+        for (int i = 0; i < 7; ++i) {
+            xdr.putInt(BLOCK_SIZE);
+        }
+        xdr.putLong(Long.MAX_VALUE);
+        xdr.putInt(0);
+        xdr.putInt(1);
+        xdr.putInt(0);
+        xdr.setOffset(0);
+        _fsInfo = new NfsFsInfo(xdr);
+        _nfs = (Nfs<?>) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Nfs.class }, this);
+        _root = new Node(NfsType.NFS_DIR, ++_lastFileId, NfsFile.separator);
+        setFileHandle(_root);
+    }
+
+    /**
+     * @return The client, as a proxy calling this handler.
+     */
+    @SuppressWarnings("unchecked")
+    public <F extends NfsFile<?, F>> Nfs<F> getNfs() {
+        return (Nfs<F>) _nfs;
+    }
+
+    /**
+     * @param fileHandleCache
+     *            The persistent cache reported, or <code>null</code>.
+     */
+    public synchronized void setFileHandleCache(NfsFileHandleCache fileHandleCache) {
+        _fileHandleCache = fileHandleCache;
+    }
+
+    /**
+     * @param path
+     *            The path of a new directory, whose parent must exist.
+     */
+    public synchronized void mkdir(String path) {
+        add(path, NfsType.NFS_DIR);
+    }
+
+    /**
+     * @param path
+     *            The path of a new file, whose parent must exist.
+     * @param data
+     *            The contents.
+     */
+    public synchronized void createFile(String path, byte[] data) {
+        add(path, NfsType.NFS_REG)._data = data.clone();
+    }
+
+    /**
+     * Change the contents of a file within the same second, so that only the
+     * nanoseconds of its mtime and ctime move on.
+     * 
+     * @param path
+     *            The path of the file.
+     * @param data
+     *            The new contents.
+     */
+    public synchronized void updateFile(String path, byte[] data) {
+        Node node = find(path);
+        node._data = data.clone();
+        ++node._changeNanoseconds;
+    }
+
+    /**
+     * @param path
+     *            The path of a new symbolic link, whose parent must exist.
+     * @param linkData
+     *            The target.
+     */
+    public synchronized void symlink(String path, String linkData) {
+        add(path, NfsType.NFS_LNK)._linkData = linkData;
+    }
+
+    /**
+     * Give a file a new file handle, so that the old one is rejected with
+     * NFS3ERR_STALE.
+     * 
+     * @param path
+     *            The path of the file.
+     */
+    public synchronized void changeFileHandle(String path) {
+        Node node = find(path);
+        _nodesByFileHandle.remove(ByteBuffer.wrap(node._fileHandle));
+        setFileHandle(node);
+    }
+
+    /**
+     * @param path
+     *            The path whose LOOKUP calls fail.
+     * @param status
+     *            The status they fail with.
+     */
+    public synchronized void failLookups(String path, NfsStatus status) {
+        _lookupFailures.put(path, status);
+    }
+
+    /**
+     * @param path
+     *            The path of a directory.
+     * @param delay
+     *            The time LOOKUP calls in the directory take, in
+     *            milliseconds.
+     */
+    public synchronized void delayLookups(String path, long delay) {
+        _lookupDelays.put(path, delay);
+    }
+
+    /**
+     * @return The calls made so far, as procedure name and path.
+     */
+    public synchronized List<String> getCalls() {
+        return new ArrayList<String>(_calls);
+    }
+
+    /**
+     * Forget the calls made so far.
+     */
+    public synchronized void clearCalls() {
+        _calls.clear();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object,
+     * java.lang.reflect.Method, java.lang.Object[])
+     */
+    @SuppressWarnings("unchecked")
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if (name.equals("getServer")) {
+            return SERVER;
+        } else if (name.equals("getExportedPath")) {
+            return EXPORTED_PATH;
+        } else if (name.equals("getCredential")) {
+            return _credential;
+        } else if (name.equals("getNfsFsInfo")) {
+            return _fsInfo;
+        } else if (name.equals("getFileHandleCache")) {
+            synchronized (this) {
+                return _fileHandleCache;
+            }
+        } else if (name.equals("getRootFileHandle")) {
+            synchronized (this) {
+                return _root._fileHandle.clone();
+            }
+        } else if (name.equals("makeGetAttrRequest")) {
+            return new Nfs3GetAttrRequest((byte[]) args[0], _credential);
+        } else if (name.equals("makeLookupRequest")) {
+            return new Nfs3LookupRequest((byte[]) args[0], (String) args[1], _credential);
+        } else if (name.equals("makeReadlinkRequest")) {
+            return new Nfs3ReadlinkRequest((byte[]) args[0], _credential);
+        } else if (name.equals("makeReadRequest")) {
+            return new Nfs3ReadRequest((byte[]) args[0], (Long) args[1], (Integer) args[2], _credential);
+        } else if (name.equals("makeAccessRequest")) {
+            return new Nfs3AccessRequest((byte[]) args[0], (Long) args[1], _credential);
+        } else if (name.equals("makeReaddirplusRequest")) {
+            return new Nfs3ReaddirplusRequest((byte[]) args[0], (Long) args[1], (Long) args[2], (Integer) args[3],
+                    (Integer) args[4], _credential);
+        } else if (name.equals("wrapped_getAttr")) {
+            return check(getAttr((NfsRequestBase) args[0]));
+        } else if (name.equals("wrapped_getAccess")) {
+            return check(access((NfsRequestBase) args[0]));
+        } else if (name.equals("wrapped_getLookup")) {
+            return check(lookup((NfsRequestBase) args[0]));
+        } else if (name.equals("wrapped_getReadlink")) {
+            return check(readlink((NfsRequestBase) args[0]));
+        } else if (name.equals("wrapped_getRead")) {
+            return check(read((NfsRequestBase) args[0], (byte[]) args[1], (Integer) args[2]));
+        } else if (name.equals("wrapped_getReaddirplus")) {
+            List<NfsDirectoryPlusEntry> entries = (args.length > 1) ? (List<NfsDirectoryPlusEntry>) args[1]
+                    : new ArrayList<NfsDirectoryPlusEntry>();
+            return check(readdirplus((NfsRequestBase) args[0], entries));
+        } else if (name.equals("toString")) {
+            return SERVER + ":" + EXPORTED_PATH;
+        } else if (name.equals("hashCode")) {
+            return System.identityHashCode(proxy);
+        } else if (name.equals("equals")) {
+            return proxy == args[0];
+        }
+        throw new UnsupportedOperationException(name);
+    }
+
+    /**
+     * @param request
+     * @return The reply.
+     * @throws IOException
+     */
+    private synchronized Nfs3GetAttrResponse getAttr(NfsRequestBase request) throws IOException {
+        Node node = getNode(request, "GETATTR");
+        Xdr xdr = startReply(node);
+        if (node != null) {
+            putAttributes(xdr, node);
+        }
+        return decode(xdr, new Nfs3GetAttrResponse(), request);
+    }
+
+    /**
+     * Grants all the access asked for.
+     * 
+     * @param request
+     * @return The reply.
+     * @throws IOException
+     */
+    private synchronized Nfs3AccessResponse access(NfsRequestBase request) throws IOException {
+        long accessToCheck = getArguments(request).getUnsignedInt();
+        Node node = getNode(request, "ACCESS");
+        Xdr xdr = startReply(node);
+        xdr.putBoolean(false);
+        if (node != null) {
+            xdr.putUnsignedInt(accessToCheck);
+        }
+        return decode(xdr, new Nfs3AccessResponse(), request);
+    }
+
+    /**
+     * @param request
+     * @return The reply.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private Nfs3LookupResponse lookup(NfsRequestBase request) throws IOException, InterruptedException {
+        String name = getArguments(request).getString();
+        Long delay;
+        synchronized (this) {
+            Node directory = _nodesByFileHandle.get(ByteBuffer.wrap(request.getFileHandle()));
+            delay = (directory == null) ? null : _lookupDelays.get(directory._path);
+        }
+        if (delay != null) {
+            Thread.sleep(delay);
+        }
+
+        synchronized (this) {
+            Node directory = getNode(request, "LOOKUP", name);
+            Xdr xdr;
+            if (directory == null) {
+                xdr = startReply(NfsStatus.NFS3ERR_STALE);
+            } else if (directory._type != NfsType.NFS_DIR) {
+                xdr = startReply(NfsStatus.NFS3ERR_NOTDIR);
+            } else {
+                String path = NfsFileBase.makeChildPath(directory._path, name);
+                Node node = directory._children.get(name);
+                if (_lookupFailures.containsKey(path)) {
+                    xdr = startReply(_lookupFailures.get(path));
+                } else if (node == null) {
+                    xdr = startReply(NfsStatus.NFS3ERR_NOENT);
+                } else {
+                    xdr = startReply(NfsStatus.NFS3_OK);
+                    xdr.putByteArray(node._fileHandle);
+                    xdr.putBoolean(true);
+                    putAttributes(xdr, node);
+                }
+            }
+            xdr.putBoolean(false);
+            return decode(xdr, new Nfs3LookupResponse(), request);
+        }
+    }
+
+    /**
+     * @param request
+     * @return The reply.
+     * @throws IOException
+     */
+    private synchronized Nfs3ReadlinkResponse readlink(NfsRequestBase request) throws IOException {
+        Node node = getNode(request, "READLINK");
+        Xdr xdr = startReply((node == null) ? NfsStatus.NFS3ERR_STALE
+                : (node._type == NfsType.NFS_LNK) ? NfsStatus.NFS3_OK : NfsStatus.NFS3ERR_INVAL);
+        xdr.putBoolean(false);
+        if ((node != null) && (node._type == NfsType.NFS_LNK)) {
+            xdr.putString(node._linkData);
+        }
+        return decode(xdr, new Nfs3ReadlinkResponse(), request);
+    }
+
+    /**
+     * @param request
+     * @param bytes
+     * @param position
+     * @return The reply.
+     * @throws IOException
+     */
+    private synchronized Nfs3ReadResponse read(NfsRequestBase request, byte[] bytes, int position)
+            throws IOException {
+        Xdr arguments = getArguments(request);
+        long offset = arguments.getLong();
+        int size = arguments.getInt();
+        Node node = getNode(request, "READ");
+        int count = (node == null) ? 0 : (int) Math.max(0, Math.min(size, node._data.length - offset));
+        Xdr xdr = startReply(node, count);
+        xdr.putBoolean(false);
+        if (node != null) {
+            xdr.putInt(count);
+            xdr.putBoolean(offset + count >= node._data.length);
+            xdr.putByteArray(node._data, (int) Math.min(offset, node._data.length), count);
+        }
+        return decode(xdr, new Nfs3ReadResponse(bytes, position), request);
+    }
+
+    /**
+     * @param request
+     * @param entries
+     * @return The reply.
+     * @throws IOException
+     */
+    private synchronized Nfs3ReaddirplusResponse readdirplus(NfsRequestBase request,
+            List<NfsDirectoryPlusEntry> entries) throws IOException {
+        long cookie = getArguments(request).getLong();
+        Node node = getNode(request, "READDIRPLUS");
+        Xdr xdr;
+        if (node == null) {
+            xdr = startReply(NfsStatus.NFS3ERR_STALE);
+        } else if (node._type != NfsType.NFS_DIR) {
+            xdr = startReply(NfsStatus.NFS3ERR_NOTDIR);
+        } else {
+            xdr = startReply(NfsStatus.NFS3_OK, node._children.size() * 256);
+        }
+        xdr.putBoolean(false);
+        if ((node != null) && (node._type == NfsType.NFS_DIR)) {
+            xdr.putLong(1);
+            List<Node> children = new ArrayList<Node>(node._children.values());
+            int end = (int) Math.min(children.size(), cookie + READDIRPLUS_ENTRIES);
+            for (int i = (int) cookie; i < end; ++i) {
+                Node child = children.get(i);
+                xdr.putBoolean(true);
+                xdr.putLong(child._fileId);
+                xdr.putString(NfsFileBase.makeName(child._path));
+                xdr.putLong(i + 1);
+                xdr.putBoolean(true);
+                putAttributes(xdr, child);
+                xdr.putBoolean(true);
+                xdr.putByteArray(child._fileHandle);
+            }
+            xdr.putBoolean(false);
+            xdr.putBoolean(end == children.size());
+        }
+        return decode(xdr, new Nfs3ReaddirplusResponse(entries), request);
+    }
+
+    /**
+     * Find the node of a request, and log the call.
+     * 
+     * @param request
+     *            The request.
+     * @param procedure
+     *            The procedure name.
+     * @return The node, or <code>null</code> if the file handle is stale.
+     */
+    private Node getNode(NfsRequestBase request, String procedure) {
+        return getNode(request, procedure, null);
+    }
+
+    /**
+     * Find the node of a request, and log the call.
+     * 
+     * @param request
+     *            The request.
+     * @param procedure
+     *            The procedure name.
+     * @param name
+     *            The name looked up, or <code>null</code>.
+     * @return The node, or <code>null</code> if the file handle is stale.
+     */
+    private Node getNode(NfsRequestBase request, String procedure, String name) {
+        Node node = _nodesByFileHandle.get(ByteBuffer.wrap(request.getFileHandle()));
+        String path = (node == null) ? "(stale)" : node._path;
+        if (name != null) {
+            path = NfsFileBase.makeChildPath(path, name);
+        }
+        _calls.add(procedure + " " + path);
+        return node;
+    }
+
+    /**
+     * @param request
+     *            The request.
+     * @return The encoded request, positioned after the file handle.
+     */
+    private static Xdr getArguments(NfsRequestBase request) {
+        Xdr xdr = new Xdr(BLOCK_SIZE);
+        request.marshalling(xdr);
+        xdr.setOffset(0);
+        xdr.skip(24);
+        xdr.getInt();
+        xdr.getByteArray();
+        xdr.getInt();
+        xdr.getByteArray();
+        xdr.getByteArray();
+        return xdr;
+    }
+
+    /**
+     * @param node
+     *            The node, or <code>null</code> if the file handle is stale.
+     * @return The start of the reply.
+     */
+    private static Xdr startReply(Node node) {
+        return startReply(node, 0);
+    }
+
+    /**
+     * @param node
+     *            The node, or <code>null</code> if the file handle is stale.
+     * @param dataSize
+     *            The size of the data to follow.
+     * @return The start of the reply.
+     */
+    private static Xdr startReply(Node node, int dataSize) {
+        return startReply((node == null) ? NfsStatus.NFS3ERR_STALE : NfsStatus.NFS3_OK, dataSize);
+    }
+
+    /**
+     * @param status
+     *            The NFS status.
+     * @return The start of the reply.
+     */
+    private static Xdr startReply(NfsStatus status) {
+        return startReply(status, 0);
+    }
+
+    /**
+     * @param status
+     *            The NFS status.
+     * @param dataSize
+     *            The size of the data to follow.
+     * @return The start of the reply, an accepted RPC reply with the status.
+     */
+    private static Xdr startReply(NfsStatus status, int dataSize) {
+        Xdr xdr = new Xdr(1024 + dataSize);
+        xdr.putInt(0);
+        xdr.putInt(1);
+        xdr.putInt(0);
+        xdr.putInt(0);
+        xdr.putByteArray(new byte[0]);
+        xdr.putInt(0);
+        xdr.putInt(status.getValue());
+        return xdr;
+    }
+
+    /**
+     * @param xdr
+     *            The reply.
+     * @param node
+     *            The node whose attributes are put.
+     */
+    private static void putAttributes(Xdr xdr, Node node) {
+        xdr.putInt(node._type.getValue());
+        xdr.putInt(0755);
+        xdr.putInt(1);
+        xdr.putInt(0);
+        xdr.putInt(0);
+        xdr.putLong(node._data.length);
+        xdr.putLong(node._data.length);
+        xdr.putInt(0);
+        xdr.putInt(0);
+        xdr.putLong(1);
+        xdr.putLong(node._fileId);
+        xdr.putInt(1);
+        xdr.putInt(0);
+        for (int i = 0; i < 2; ++i) {
+            xdr.putInt(1);
+            xdr.putInt((int) node._changeNanoseconds);
+        }
+    }
+
+    /**
+     * Decode a reply, dropping a rejected file handle from the persistent
+     * cache as the client does.
+     * 
+     * @param xdr
+     *            The reply.
+     * @param response
+     *            The response to decode into.
+     * @param request
+     *            The request.
+     * @return The response.
+     * @throws IOException
+     */
+    private <T extends NfsResponseBase> T decode(Xdr xdr, T response, NfsRequestBase request) throws IOException {
+        response.unmarshalling(xdr);
+        if ((_fileHandleCache != null) && ((response.getState() == NfsStatus.NFS3ERR_STALE.getValue())
+                || (response.getState() == NfsStatus.NFS3ERR_BADHANDLE.getValue()))) {
+            _fileHandleCache.invalidate(request.getFileHandle());
+        }
+        return response;
+    }
+
+    /**
+     * @param response
+     *            A decoded response.
+     * @return The response, if its status is NFS3_OK.
+     * @throws IOException
+     *             as the wrapped calls throw them.
+     */
+    private static <T extends NfsResponseBase> T check(T response) throws IOException {
+        if (response.getState() == NfsStatus.NFS3ERR_NOENT.getValue()) {
+            throw new FileNotFoundException("no such file");
+        } else if (!response.stateIsOk()) {
+            NfsStatus status = NfsStatus.fromValue(response.getState());
+            throw new NfsException(status, "error code:" + status.toString());
+        }
+        return response;
+    }
+
+    /**
+     * @param path
+     *            The path of a new node, whose parent must exist.
+     * @param type
+     *            The type.
+     * @return The node.
+     */
+    private Node add(String path, NfsType type) {
+        path = NfsFileBase.normalizePath(path);
+        Node node = new Node(type, ++_lastFileId, path);
+        setFileHandle(node);
+        find(NfsFileBase.makeParentPath(path))._children.put(NfsFileBase.makeName(path), node);
+        return node;
+    }
+
+    /**
+     * @param path
+     *            The path, without symbolic links.
+     * @return The node.
+     */
+    private Node find(String path) {
+        Node node = _root;
+        for (String name : NfsFileBase.normalizePath(path).substring(1).split(NfsFile.separator)) {
+            if (!name.isEmpty()) {
+                node = node._children.get(name);
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Give a node a new file handle.
+     * 
+     * @param node
+     *            The node.
+     */
+    private void setFileHandle(Node node) {
+        node._fileHandle = ByteBuffer.allocate(8).putLong(++_lastFileId).array();
+        _nodesByFileHandle.put(ByteBuffer.wrap(node._fileHandle), node);
+    }
+
+}
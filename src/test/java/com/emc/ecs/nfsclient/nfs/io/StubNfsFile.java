@@ -0,0 +1,399 @@
+/**
+ * Copyright 2016-2018 Dell Inc. or its subsidiaries. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.nfsclient.nfs.io;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import com.emc.ecs.nfsclient.nfs.Nfs;
+import com.emc.ecs.nfsclient.nfs.NfsCommitResponse;
+import com.emc.ecs.nfsclient.nfs.NfsFsInfo;
+import com.emc.ecs.nfsclient.nfs.NfsWriteRequest;
+import com.emc.ecs.nfsclient.nfs.NfsWriteResponse;
+import com.emc.ecs.nfsclient.rpc.Xdr;
+
+/**
+ * An in-memory file for testing writes without a server. Only the calls used
+ * by the output streams and uploaders are implemented. UNSTABLE writes are
+ * kept apart until a COMMIT, and a change of the write verifier loses them,
+ * as a server reboot would.
+ *
+ * @author seibed
+ */
+class StubNfsFile implements InvocationHandler {
+
+    /**
+     * The path reported for the file.
+     */
+    private static final String PATH = "/stub";
+
+    /**
+     * The file system information reported for the file.
+     */
+    private final NfsFsInfo _fsInfo;
+
+    /**
+     * The file, as a proxy calling this handler.
+     */
+    private final NfsFile<?, ?> _nfsFile;
+
+    /**
+     * The file system, as a proxy reporting only its information.
+     */
+    private final Nfs<?> _nfs;
+
+    /**
+     * The contents that would survive a server reboot.
+     */
+    private byte[] _stableData = new byte[0];
+
+    /**
+     * The contents including uncommitted writes.
+     */
+    private byte[] _data = new byte[0];
+
+    /**
+     * The current write verifier.
+     */
+    private long _verifier = 1;
+
+    /**
+     * The number of the WRITE call that changes the verifier, or 0 for none.
+     */
+    private int _verifierChangingWrite = 0;
+
+    /**
+     * The number of COMMIT calls still to change the verifier.
+     */
+    private int _verifierChangingCommits = 0;
+
+    /**
+     * The failure of WRITE calls reaching the failure offset, or
+     * <code>null</code> for none.
+     */
+    private IOException _writeFailure;
+
+    /**
+     * The offset from which WRITE calls fail.
+     */
+    private long _writeFailureOffset;
+
+    /**
+     * The time each WRITE call takes, in milliseconds.
+     */
+    private long _writeDelay = 0;
+
+    /**
+     * The largest number of bytes written by one WRITE call, so that longer
+     * calls are short writes.
+     */
+    private int _maximumWriteSize = Integer.MAX_VALUE;
+
+    /**
+     * The number of WRITE calls so far.
+     */
+    private int _writes = 0;
+
+    /**
+     * The number of COMMIT calls so far.
+     */
+    private int _commits = 0;
+
+    /**
+     * The number of WRITE calls in flight.
+     */
+    private int _writesInFlight = 0;
+
+    /**
+     * The largest number of WRITE calls in flight at once.
+     */
+    private int _maximumWritesInFlight = 0;
+
+    /**
+     * @param blockSize
+     *            The preferred and maximum size of READ and WRITE calls.
+     */
+    StubNfsFile(int blockSize) {
+        Xdr xdr = new Xdr(64);
+        for (int i = 0; i < 7; ++i) {
+            xdr.putInt(blockSize);
+        }
+        xdr.putLong(Long.MAX_VALUE);
+        xdr.putInt(0);
+        xdr.putInt(1);
+        xdr.putInt(0);
+        xdr.setOffset(0);
+        _fsInfo = new NfsFsInfo(xdr);
+        _nfsFile = (NfsFile<?, ?>) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { NfsFile.class }, this);
+        _nfs = (Nfs<?>) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Nfs.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("getNfsFsInfo")) {
+                            return _fsInfo;
+                        }
+                        return invokeObjectMethod(proxy, method, args);
+                    }
+                });
+    }
+
+    /**
+     * @return The file, as a proxy calling this handler.
+     */
+    NfsFile<?, ?> getFile() {
+        return _nfsFile;
+    }
+
+    /**
+     * @return The contents that would survive a server reboot.
+     */
+    synchronized byte[] getStableData() {
+        return _stableData.clone();
+    }
+
+    /**
+     * @return The number of WRITE calls so far.
+     */
+    synchronized int getWrites() {
+        return _writes;
+    }
+
+    /**
+     * @return The number of COMMIT calls so far.
+     */
+    synchronized int getCommits() {
+        return _commits;
+    }
+
+    /**
+     * @return The largest number of WRITE calls in flight at once.
+     */
+    synchronized int getMaximumWritesInFlight() {
+        return _maximumWritesInFlight;
+    }
+
+    /**
+     * @param writeDelay
+     *            The time each WRITE call takes, in milliseconds.
+     */
+    synchronized void setWriteDelay(long writeDelay) {
+        _writeDelay = writeDelay;
+    }
+
+    /**
+     * @param maximumWriteSize
+     *            The largest number of bytes written by one WRITE call, so
+     *            that longer calls are short writes.
+     */
+    synchronized void setMaximumWriteSize(int maximumWriteSize) {
+        _maximumWriteSize = maximumWriteSize;
+    }
+
+    /**
+     * Make WRITE calls fail once they reach an offset.
+     * 
+     * @param offset
+     *            The offset.
+     * @param failure
+     *            The failure to throw.
+     */
+    synchronized void failWritesFrom(long offset, IOException failure) {
+        _writeFailureOffset = offset;
+        _writeFailure = failure;
+    }
+
+    /**
+     * @param write
+     *            The number of the WRITE call, counting from 1, that changes
+     *            the verifier before it is served.
+     */
+    synchronized void changeVerifierOnWrite(int write) {
+        _verifierChangingWrite = write;
+    }
+
+    /**
+     * @param commits
+     *            The number of the following COMMIT calls that change the
+     *            verifier instead of committing.
+     */
+    synchronized void changeVerifierOnCommits(int commits) {
+        _verifierChangingCommits = commits;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object,
+     * java.lang.reflect.Method, java.lang.Object[])
+     */
+    @SuppressWarnings("unchecked")
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if (name.equals("exists") || name.equals("canExtend") || name.equals("canModify")) {
+            return true;
+        } else if (name.equals("getAbsolutePath")) {
+            return PATH;
+        } else if (name.equals("getNfs")) {
+            return _nfs;
+        } else if (name.equals("write")) {
+            return write((Long) args[0], (List<ByteBuffer>) args[1], (Integer) args[2]);
+        } else if (name.equals("commit")) {
+            return commit();
+        }
+        return invokeObjectMethod(proxy, method, args);
+    }
+
+    /**
+     * @param proxy
+     *            The proxy called.
+     * @param method
+     *            The method called.
+     * @param args
+     *            The arguments.
+     * @return The result of the methods of <code>Object</code>.
+     */
+    private static Object invokeObjectMethod(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if (name.equals("toString")) {
+            return PATH;
+        } else if (name.equals("hashCode")) {
+            return System.identityHashCode(proxy);
+        } else if (name.equals("equals")) {
+            return proxy == args[0];
+        }
+        throw new UnsupportedOperationException(name);
+    }
+
+    /**
+     * @param offset
+     * @param payload
+     * @param syncType
+     * @return The reply.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private NfsWriteResponse write(long offset, List<ByteBuffer> payload, int syncType)
+            throws IOException, InterruptedException {
+        long writeDelay;
+        synchronized (this) {
+            ++_writesInFlight;
+            _maximumWritesInFlight = Math.max(_maximumWritesInFlight, _writesInFlight);
+            writeDelay = _writeDelay;
+        }
+        try {
+            Thread.sleep(writeDelay);
+            synchronized (this) {
+                if (++_writes == _verifierChangingWrite) {
+                    changeVerifier();
+                }
+                int count = 0;
+                for (ByteBuffer buffer : payload) {
+                    count += buffer.remaining();
+                }
+                count = Math.min(count, _maximumWriteSize);
+                if ((_writeFailure != null) && (offset + count > _writeFailureOffset)) {
+                    throw _writeFailure;
+                }
+                _data = put(_data, offset, payload, count);
+                if (syncType != NfsWriteRequest.UNSTABLE) {
+                    _stableData = put(_stableData, offset, payload, count);
+                }
+                return makeWriteResponse(count, _verifier);
+            }
+        } finally {
+            synchronized (this) {
+                --_writesInFlight;
+            }
+        }
+    }
+
+    /**
+     * @return The reply.
+     */
+    private synchronized NfsCommitResponse commit() {
+        ++_commits;
+        if (_verifierChangingCommits > 0) {
+            --_verifierChangingCommits;
+            changeVerifier();
+        } else {
+            _stableData = _data.clone();
+        }
+        final long verifier = _verifier;
+        return new NfsCommitResponse(3) {
+            public long getVerf() {
+                return verifier;
+            }
+        };
+    }
+
+    /**
+     * Change the verifier and lose the uncommitted writes, as a server reboot
+     * would.
+     */
+    private void changeVerifier() {
+        ++_verifier;
+        _data = _stableData.clone();
+    }
+
+    /**
+     * @param data
+     *            The contents.
+     * @param offset
+     *            The offset of the payload.
+     * @param payload
+     *            The bytes to put, from position to limit of each buffer.
+     * @param count
+     *            The number of bytes of the payload to put.
+     * @return The contents with the payload, extended as needed.
+     */
+    private static byte[] put(byte[] data, long offset, List<ByteBuffer> payload, int count) {
+        int position = (int) offset;
+        int end = position + count;
+        for (ByteBuffer buffer : payload) {
+            int length = Math.min(buffer.remaining(), end - position);
+            if (position + length > data.length) {
+                data = Arrays.copyOf(data, position + length);
+            }
+            buffer.duplicate().get(data, position, length);
+            position += length;
+        }
+        return data;
+    }
+
+    /**
+     * @param count
+     *            The number of bytes written.
+     * @param verifier
+     *            The write verifier.
+     * @return The reply.
+     */
+    private static NfsWriteResponse makeWriteResponse(final int count, final long verifier) {
+        return new NfsWriteResponse(3) {
+            public int getCount() {
+                return count;
+            }
+
+            public long getVerf() {
+                return verifier;
+            }
+        };
+    }
+
+}
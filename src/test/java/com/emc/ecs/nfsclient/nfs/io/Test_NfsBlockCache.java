@@ -0,0 +1,213 @@
+/**
+ * Copyright 2016-2018 Dell Inc. or its subsidiaries. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.nfsclient.nfs.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.emc.ecs.nfsclient.nfs.NfsGetAttributes;
+import com.emc.ecs.nfsclient.rpc.Xdr;
+
+/**
+ * @author seibed
+ */
+public class Test_NfsBlockCache extends Assert {
+
+    private static final int BLOCK_SIZE = 16;
+
+    private static final int BLOCK_FILE_SIZE = NfsBlockCache.HEADER_SIZE + BLOCK_SIZE;
+
+    private File _directory;
+
+    @Before
+    public void setUp() throws IOException {
+        _directory = Files.createTempDirectory("nfsblockcache").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = _directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        _directory.delete();
+    }
+
+    @Test
+    public void testPutAndGet() throws IOException {
+        NfsBlockCache cache = new NfsBlockCache(_directory, BLOCK_SIZE, 10 * BLOCK_FILE_SIZE);
+        NfsGetAttributes attributes = makeAttributes(1, 2, 1000, 100);
+        assertNull(cache.getBlock(attributes, 0));
+
+        cache.putBlock(attributes, 0, makeBytes(BLOCK_SIZE, (byte) 7), 0, BLOCK_SIZE);
+        ByteBuffer block = cache.getBlock(attributes, 0);
+        assertNotNull(block);
+        assertEquals(BLOCK_SIZE, block.remaining());
+        assertEquals(7, block.get(BLOCK_SIZE - 1));
+        assertNull(cache.getBlock(attributes, 1));
+        assertEquals(BLOCK_FILE_SIZE, cache.getCurrentSize());
+    }
+
+    @Test
+    public void testValidation() throws IOException {
+        NfsBlockCache cache = new NfsBlockCache(_directory, BLOCK_SIZE, 10 * BLOCK_FILE_SIZE);
+        cache.putBlock(makeAttributes(1, 2, 1000, 100), 0, makeBytes(BLOCK_SIZE, (byte) 1), 0, BLOCK_SIZE);
+
+        assertNull(cache.getBlock(makeAttributes(1, 2, 2000, 100), 0));
+        assertEquals(0, cache.getBlockCount());
+        assertEquals(0, cache.getCurrentSize());
+
+        cache.putBlock(makeAttributes(1, 2, 1000, 100), 0, makeBytes(BLOCK_SIZE, (byte) 1), 0, BLOCK_SIZE);
+        assertNull(cache.getBlock(makeAttributes(1, 2, 1000, 101), 0));
+        assertEquals(0, cache.getBlockCount());
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        NfsBlockCache cache = new NfsBlockCache(_directory, BLOCK_SIZE, 3 * BLOCK_FILE_SIZE);
+        NfsGetAttributes attributes = makeAttributes(1, 2, 1000, 100);
+        for (int blockNumber = 0; blockNumber < 3; ++blockNumber) {
+            cache.putBlock(attributes, blockNumber, makeBytes(BLOCK_SIZE, (byte) blockNumber), 0, BLOCK_SIZE);
+        }
+        assertNotNull(cache.getBlock(attributes, 0));
+
+        cache.putBlock(attributes, 3, makeBytes(BLOCK_SIZE, (byte) 3), 0, BLOCK_SIZE);
+        assertEquals(3, cache.getBlockCount());
+        assertNotNull(cache.getBlock(attributes, 0));
+        assertNull(cache.getBlock(attributes, 1));
+        assertNotNull(cache.getBlock(attributes, 2));
+        assertNotNull(cache.getBlock(attributes, 3));
+    }
+
+    @Test
+    public void testReload() throws IOException {
+        NfsGetAttributes attributes = makeAttributes(1, 2, 1000, 100);
+        NfsBlockCache cache = new NfsBlockCache(_directory, BLOCK_SIZE, 10 * BLOCK_FILE_SIZE);
+        cache.putBlock(attributes, 5, makeBytes(BLOCK_SIZE, (byte) 5), 0, BLOCK_SIZE);
+        cache.putBlock(makeAttributes(1, 3, 1000, 100), 5, makeBytes(BLOCK_SIZE, (byte) 6), 0, BLOCK_SIZE);
+
+        NfsBlockCache reloadedCache = new NfsBlockCache(_directory, BLOCK_SIZE, 10 * BLOCK_FILE_SIZE);
+        assertEquals(2, reloadedCache.getBlockCount());
+        assertEquals(5, reloadedCache.getBlock(attributes, 5).get(0));
+
+        reloadedCache.invalidate(1, 2);
+        assertEquals(1, reloadedCache.getBlockCount());
+        assertNull(reloadedCache.getBlock(attributes, 5));
+    }
+
+    @Test
+    public void testNanosecondValidation() throws IOException {
+        NfsBlockCache cache = new NfsBlockCache(_directory, BLOCK_SIZE, 10 * BLOCK_FILE_SIZE);
+        cache.putBlock(makeAttributes(1, 2, 1000, 5, 100), 0, makeBytes(BLOCK_SIZE, (byte) 1), 0, BLOCK_SIZE);
+        assertNotNull(cache.getBlock(makeAttributes(1, 2, 1000, 5, 100), 0));
+
+        assertNull(cache.getBlock(makeAttributes(1, 2, 1000, 6, 100), 0));
+        assertEquals(0, cache.getBlockCount());
+    }
+
+    @Test
+    public void testInputStream() throws IOException {
+        NfsBlockCache cache = new NfsBlockCache(_directory, BLOCK_SIZE, 10 * BLOCK_FILE_SIZE);
+        StubNfs stubNfs = new StubNfs();
+        byte[] data = makeBytes(2 * BLOCK_SIZE + 5, (byte) 1);
+        stubNfs.createFile("/file", data);
+        StubFile file = new StubFile(stubNfs.<StubFile> getNfs(), "/file", null);
+
+        assertArrayEquals(data, readAll(file, cache));
+        assertEquals(3, countReads(stubNfs));
+        assertEquals(3, cache.getBlockCount());
+
+        stubNfs.clearCalls();
+        assertArrayEquals(data, readAll(file, cache));
+        assertEquals(0, countReads(stubNfs));
+
+        byte[] newData = makeBytes(data.length, (byte) 2);
+        stubNfs.updateFile("/file", newData);
+        stubNfs.clearCalls();
+        assertArrayEquals(newData, readAll(file, cache));
+        assertEquals(3, countReads(stubNfs));
+    }
+
+    private static byte[] readAll(StubFile file, NfsBlockCache cache) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream inputStream = new NfsFileInputStream(file, 0, cache)) {
+            int b;
+            while ((b = inputStream.read()) != -1) {
+                bytes.write(b);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static int countReads(StubNfs stubNfs) {
+        int reads = 0;
+        for (String call : stubNfs.getCalls()) {
+            if (call.startsWith("READ ")) {
+                ++reads;
+            }
+        }
+        return reads;
+    }
+
+    private static byte[] makeBytes(int length, byte value) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            bytes[i] = value;
+        }
+        return bytes;
+    }
+
+    private static NfsGetAttributes makeAttributes(long fsid, long fileid, long mtimeSeconds, long size) {
+        return makeAttributes(fsid, fileid, mtimeSeconds, 0, size);
+    }
+
+    private static NfsGetAttributes makeAttributes(long fsid, long fileid, long mtimeSeconds, long mtimeNanoseconds,
+            long size) {
+        Xdr xdr = new Xdr(84);
+        xdr.putInt(1); // type
+        xdr.putInt(0644); // mode
+        xdr.putInt(1); // nlink
+        xdr.putInt(0); // uid
+        xdr.putInt(0); // gid
+        xdr.putLong(size);
+        xdr.putLong(size); // used
+        xdr.putInt(0); // rdev
+        xdr.putInt(0);
+        xdr.putLong(fsid);
+        xdr.putLong(fileid);
+        xdr.putUnsignedInt(mtimeSeconds); // atime
+        xdr.putUnsignedInt(0);
+        xdr.putUnsignedInt(mtimeSeconds); // mtime
+        xdr.putUnsignedInt(mtimeNanoseconds);
+        xdr.putUnsignedInt(mtimeSeconds); // ctime
+        xdr.putUnsignedInt(0);
+
+        NfsGetAttributes attributes = new NfsGetAttributes();
+        attributes.unmarshalling(new Xdr(xdr.getBuffer()));
+        return attributes;
+    }
+
+}
@@ -14,9 +14,17 @@
  */
 package com.emc.ecs.nfsclient.nfs.io;
 
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.emc.ecs.nfsclient.nfs.NfsException;
+import com.emc.ecs.nfsclient.nfs.NfsStatus;
 import com.emc.ecs.nfsclient.nfs.io.NfsFileBase;
 
 /**
@@ -57,4 +65,151 @@ public class Test_NfsFileBase extends Assert {
         assertEquals("/dummy/test", NfsFileBase.makeChildPath("/dummy", "test"));
     }
 
+    @Test
+    public void testNormalizePath() {
+        assertEquals("/", NfsFileBase.normalizePath("/"));
+        assertEquals("/", NfsFileBase.normalizePath(""));
+        assertEquals("/", NfsFileBase.normalizePath("/.."));
+        assertEquals("/junk", NfsFileBase.normalizePath("//junk//"));
+        assertEquals("/dummy/junk", NfsFileBase.normalizePath("/dummy/./junk/"));
+        assertEquals("/junk", NfsFileBase.normalizePath("/dummy/../junk"));
+    }
+
+    @Test
+    public void testMergeRanges() {
+        List<NfsFileRange> ranges = new ArrayList<NfsFileRange>();
+        ranges.add(new NfsFileRange(5000, 100));
+        ranges.add(new NfsFileRange(0, 100));
+        ranges.add(new NfsFileRange(150, 100));
+        ranges.add(new NfsFileRange(200, 20));
+        ranges.add(new NfsFileRange(900, 200));
+
+        List<List<NfsFileRange>> mergedRanges = NfsFileBase.mergeRanges(ranges, 1000, 100);
+        assertEquals(3, mergedRanges.size());
+        assertEquals(3, mergedRanges.get(0).size());
+        assertEquals(0, mergedRanges.get(0).get(0).getOffset());
+        assertEquals(200, mergedRanges.get(0).get(2).getOffset());
+        assertEquals(1, mergedRanges.get(1).size());
+        assertEquals(900, mergedRanges.get(1).get(0).getOffset());
+        assertEquals(1, mergedRanges.get(2).size());
+        assertEquals(5000, mergedRanges.get(2).get(0).getOffset());
+
+        mergedRanges = NfsFileBase.mergeRanges(ranges, 2000, 1000);
+        assertEquals(2, mergedRanges.size());
+        assertEquals(4, mergedRanges.get(0).size());
+
+        assertEquals(0, NfsFileBase.mergeRanges(new ArrayList<NfsFileRange>(), 1000, 100).size());
+    }
+
+    @Test
+    public void testRejectedCachedFileHandle() throws Exception {
+        StubNfs stubNfs = new StubNfs();
+        stubNfs.mkdir("/dir");
+        stubNfs.createFile("/dir/file", "hello".getBytes("UTF-8"));
+        File file = File.createTempFile("handles", ".txt");
+        file.delete();
+        NfsFileHandleCache fileHandleCache = new NfsFileHandleCache(file);
+        try {
+            stubNfs.setFileHandleCache(fileHandleCache);
+            StubFile resolved = new StubFile(stubNfs.<StubFile> getNfs(), "/dir/file", null);
+            assertEquals(5, resolved.getAttributes().getSize());
+
+            // a new process finds the old handle in the cache, and the server
+            // rejects it, so the file is looked up again and the call retried
+            stubNfs.changeFileHandle("/dir/file");
+            StubFile cached = new StubFile(stubNfs.<StubFile> getNfs(), "/dir/file", null);
+            stubNfs.clearCalls();
+            assertEquals(5, cached.getAttributes().getSize());
+            assertEquals(Arrays.asList("GETATTR (stale)", "LOOKUP /dir/file", "GETATTR /dir/file"),
+                    stubNfs.getCalls());
+
+            stubNfs.changeFileHandle("/dir/file");
+            cached = new StubFile(stubNfs.<StubFile> getNfs(), "/dir/file", null);
+            assertArrayEquals("hello".getBytes("UTF-8"), cached.readAllBytes());
+
+            // a handle from a LOOKUP is not retried
+            try {
+                resolved.getAttributes();
+                fail("the stale handle was accepted");
+            } catch (NfsException e) {
+                assertEquals(NfsStatus.NFS3ERR_STALE, e.getStatus());
+            }
+        } finally {
+            fileHandleCache.close();
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    @Test
+    public void testLazyFileMakesNoCallsUntilUsed() throws Exception {
+        StubNfs stubNfs = new StubNfs();
+        stubNfs.mkdir("/dir");
+        stubNfs.createFile("/dir/file", "hello".getBytes("UTF-8"));
+        stubNfs.clearCalls();
+
+        StubFile file = new StubFile(stubNfs.<StubFile> getNfs(), "/dir/sub/../file", true);
+        assertEquals("/dir/file", file.getPath());
+        assertEquals("/dir", file.getParentFile().getPath());
+        assertEquals("/", file.getParentFile().getParentFile().getPath());
+        assertNull(file.getParentFile().getParentFile().getParentFile());
+        assertTrue(stubNfs.getCalls().isEmpty());
+
+        assertEquals(5, file.length());
+        assertTrue(stubNfs.getCalls().contains("LOOKUP /dir"));
+        assertTrue(stubNfs.getCalls().contains("LOOKUP /dir/file"));
+    }
+
+    @Test
+    public void testLazyFileThroughSymbolicLink() throws Exception {
+        StubNfs stubNfs = new StubNfs();
+        stubNfs.mkdir("/dir");
+        stubNfs.createFile("/dir/file", "hello".getBytes("UTF-8"));
+        stubNfs.symlink("/link", "dir");
+        stubNfs.clearCalls();
+
+        StubFile file = new StubFile(stubNfs.<StubFile> getNfs(), "/link/file", true);
+        assertTrue(stubNfs.getCalls().isEmpty());
+        assertArrayEquals("hello".getBytes("UTF-8"), file.readAllBytes());
+        assertTrue(stubNfs.getCalls().contains("READLINK /link"));
+        assertEquals("/dir/file", file.getPath());
+    }
+
+    @Test
+    public void testReadAllBytes() throws Exception {
+        StubNfs stubNfs = new StubNfs();
+        byte[] small = "hello".getBytes("UTF-8");
+        stubNfs.createFile("/small", small);
+        byte[] large = new byte[3 * 64 * 1024 + 17];
+        for (int i = 0; i < large.length; ++i) {
+            large[i] = (byte) i;
+        }
+        stubNfs.createFile("/large", large);
+        stubNfs.createFile("/empty", new byte[0]);
+
+        // a small file takes a single READ, and no GETATTR
+        StubFile file = new StubFile(stubNfs.<StubFile> getNfs(), "/small", true);
+        stubNfs.clearCalls();
+        assertArrayEquals(small, file.readAllBytes());
+        assertEquals(Arrays.asList("LOOKUP /small", "READ /small"), getFileCalls(stubNfs, "/small"));
+
+        file = new StubFile(stubNfs.<StubFile> getNfs(), "/large", true);
+        stubNfs.clearCalls();
+        assertArrayEquals(large, file.readAllBytes());
+        assertEquals(Arrays.asList("LOOKUP /large", "READ /large", "READ /large", "READ /large", "READ /large"),
+                getFileCalls(stubNfs, "/large"));
+
+        file = new StubFile(stubNfs.<StubFile> getNfs(), "/empty", true);
+        assertEquals(0, file.readAllBytes().length);
+    }
+
+    private static List<String> getFileCalls(StubNfs stubNfs, String path) {
+        List<String> calls = new ArrayList<String>();
+        for (String call : stubNfs.getCalls()) {
+            if (call.endsWith(" " + path)) {
+                calls.add(call);
+            }
+        }
+        return calls;
+    }
+
 }
@@ -0,0 +1,75 @@
+/**
+ * Copyright 2016-2018 Dell Inc. or its subsidiaries. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.nfsclient.nfs.io;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author seibed
+ */
+public class Test_NfsFileHandleCache extends Assert {
+
+    private static final String ROOT = "server:/export";
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        File file = File.createTempFile("handles", ".txt");
+        file.delete();
+        try {
+            NfsFileHandleCache cache = new NfsFileHandleCache(file, 2);
+            cache.put(ROOT, new byte[] { 1, 2, 3 });
+            cache.put(ROOT + "/a", new byte[] { 4 });
+            cache.get(ROOT);
+            cache.put(ROOT + "/b", new byte[] { 5 });
+            // the least recently used entry is dropped
+            assertEquals(2, cache.size());
+            assertNull(cache.get(ROOT + "/a"));
+            cache.close();
+
+            NfsFileHandleCache reloaded = new NfsFileHandleCache(file, 2);
+            assertArrayEquals(new byte[] { 1, 2, 3 }, reloaded.get(ROOT));
+            assertArrayEquals(new byte[] { 5 }, reloaded.get(ROOT + "/b"));
+            reloaded.close();
+        } finally {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    @Test
+    public void testInvalidation() throws Exception {
+        NfsFileHandleCache cache = new NfsFileHandleCache(new File("does/not/exist"), 10);
+        cache.put(ROOT + "/dir", new byte[] { 1 });
+        cache.put(ROOT + "/dir/child", new byte[] { 2 });
+        cache.put(ROOT + "/dirt", new byte[] { 3 });
+        cache.put(ROOT + "/link", new byte[] { 3 });
+
+        // a rejected handle drops every path using it
+        cache.invalidate(new byte[] { 3 });
+        assertNull(cache.get(ROOT + "/dirt"));
+        assertNull(cache.get(ROOT + "/link"));
+
+        cache.put(ROOT + "/dirt", new byte[] { 3 });
+        cache.invalidateTree(ROOT + "/dir");
+        assertNull(cache.get(ROOT + "/dir"));
+        assertNull(cache.get(ROOT + "/dir/child"));
+        assertArrayEquals(new byte[] { 3 }, cache.get(ROOT + "/dirt"));
+        cache.close();
+    }
+
+}
@@ -15,11 +15,18 @@
 package com.emc.ecs.nfsclient.nfs.io;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Calendar;
 
 import org.junit.Test;
 
 import com.emc.ecs.nfsclient.NfsTestBase;
+import com.emc.ecs.nfsclient.nfs.NfsWriteRequest;
 import com.emc.ecs.nfsclient.nfs.nfs3.Nfs3;
 import com.emc.ecs.nfsclient.rpc.CredentialUnix;
 import com.emc.ecs.nfsclient.rpc.RpcRequest;
@@ -207,4 +214,236 @@ public class Test_Streams extends NfsTestBase {
 //        assertFalse(test.exists());
     }
 
+    @Test
+    public void testWriteBehind() throws Exception {
+        StubNfsFile stub = new StubNfsFile(1024);
+        NfsFileOutputStream outputStream = new NfsFileOutputStream(stub.getFile(), 0, NfsWriteRequest.UNSTABLE, 4);
+        byte[] expectedData = makeData(50 * 1024 + 17);
+        for (int offset = 0; offset < expectedData.length; offset += 333) {
+            outputStream.write(expectedData, offset, Math.min(333, expectedData.length - offset));
+        }
+        outputStream.close();
+        assertArrayEquals(expectedData, stub.getStableData());
+        assertTrue(stub.getCommits() > 0);
+    }
+
+    @Test
+    public void testWriteBehindBackpressure() throws Exception {
+        StubNfsFile stub = new StubNfsFile(1024);
+        stub.setWriteDelay(5);
+        NfsFileOutputStream outputStream = new NfsFileOutputStream(stub.getFile(), 0, NfsWriteRequest.UNSTABLE, 2);
+        byte[] expectedData = makeData(40 * 1024);
+        outputStream.write(expectedData);
+        outputStream.close();
+        assertArrayEquals(expectedData, stub.getStableData());
+        // pooled buffers must not bypass the limit on WRITE calls in flight
+        assertTrue(stub.getMaximumWritesInFlight() <= 2);
+    }
+
+    @Test
+    public void testWriteBehindFailure() throws Exception {
+        StubNfsFile stub = new StubNfsFile(1024);
+        stub.failWritesFrom(4096, new IOException("No space left"));
+        NfsFileOutputStream outputStream = new NfsFileOutputStream(stub.getFile(), 0, NfsWriteRequest.UNSTABLE, 4);
+        try {
+            outputStream.write(makeData(16 * 1024));
+            outputStream.close();
+            fail("This should throw an IOException");
+        } catch (IOException e) {
+            // Do nothing, this was expected.
+        }
+    }
+
+    @Test
+    public void testCloseFailure() throws Exception {
+        StubNfsFile stub = new StubNfsFile(1024);
+        stub.failWritesFrom(0, new IOException("No space left"));
+        NfsFileOutputStream outputStream = new NfsFileOutputStream(stub.getFile());
+        outputStream.write(makeData(100));
+        try {
+            outputStream.close();
+            fail("This should throw an IOException");
+        } catch (IOException e) {
+            // Do nothing, this was expected.
+        }
+
+        // the stream is closed anyway
+        outputStream.close();
+        try {
+            outputStream.write(1);
+            fail("This should throw an IOException");
+        } catch (IOException e) {
+            // Do nothing, this was expected.
+        }
+    }
+
+    @Test
+    public void testVerifierChangeOnWrite() throws Exception {
+        for (int maximumWritesInFlight = 0; maximumWritesInFlight <= 4; maximumWritesInFlight += 4) {
+            StubNfsFile stub = new StubNfsFile(1024);
+            stub.changeVerifierOnWrite(5);
+            NfsFileOutputStream outputStream = new NfsFileOutputStream(stub.getFile(), 0, NfsWriteRequest.UNSTABLE,
+                    maximumWritesInFlight);
+            byte[] expectedData = makeData(10 * 1024);
+            outputStream.write(expectedData);
+            outputStream.close();
+            // the writes lost with the old verifier are replayed
+            assertArrayEquals(expectedData, stub.getStableData());
+            assertTrue(stub.getWrites() > 10);
+        }
+    }
+
+    @Test
+    public void testVerifierChangeOnCommit() throws Exception {
+        StubNfsFile stub = new StubNfsFile(1024);
+        stub.changeVerifierOnCommits(UncommittedWrites.MAXIMUM_REPLAYS);
+        NfsFileOutputStream outputStream = new NfsFileOutputStream(stub.getFile(), 0, NfsWriteRequest.UNSTABLE);
+        byte[] expectedData = makeData(10 * 1024);
+        outputStream.write(expectedData);
+        outputStream.close();
+        assertArrayEquals(expectedData, stub.getStableData());
+        assertEquals(UncommittedWrites.MAXIMUM_REPLAYS + 1, stub.getCommits());
+        assertEquals(10 * (UncommittedWrites.MAXIMUM_REPLAYS + 1), stub.getWrites());
+    }
+
+    @Test
+    public void testVerifierKeepsChanging() throws Exception {
+        StubNfsFile stub = new StubNfsFile(1024);
+        stub.changeVerifierOnCommits(UncommittedWrites.MAXIMUM_REPLAYS + 1);
+        NfsFileOutputStream outputStream = new NfsFileOutputStream(stub.getFile(), 0, NfsWriteRequest.UNSTABLE);
+        outputStream.write(makeData(10 * 1024));
+        try {
+            outputStream.close();
+            fail("This should throw an IOException");
+        } catch (IOException e) {
+            // Do nothing, this was expected.
+        }
+        assertEquals(0, stub.getStableData().length);
+    }
+
+    @Test
+    public void testParallelUpload() throws Exception {
+        StubNfsFile stub = new StubNfsFile(1024);
+        stub.setWriteDelay(1);
+        byte[] expectedData = makeData(100 * 1024 + 3);
+        NfsParallelUploader uploader = new NfsParallelUploader(stub.getFile(), 4, 0);
+        assertEquals(expectedData.length, uploader.upload(ByteBuffer.wrap(expectedData), 0));
+        assertArrayEquals(expectedData, stub.getStableData());
+        assertEquals(1, stub.getCommits());
+        assertTrue(stub.getMaximumWritesInFlight() <= 4);
+    }
+
+    @Test
+    public void testParallelUploadVerifierChange() throws Exception {
+        StubNfsFile stub = new StubNfsFile(1024);
+        stub.changeVerifierOnWrite(3);
+        byte[] expectedData = makeData(20 * 1024);
+        NfsParallelUploader uploader = new NfsParallelUploader(stub.getFile());
+        assertEquals(expectedData.length, uploader.upload(ByteBuffer.wrap(expectedData), 0));
+        // the whole upload is written again
+        assertArrayEquals(expectedData, stub.getStableData());
+        assertEquals(40, stub.getWrites());
+
+        stub = new StubNfsFile(1024);
+        stub.changeVerifierOnCommits(UncommittedWrites.MAXIMUM_REPLAYS);
+        uploader = new NfsParallelUploader(stub.getFile());
+        assertEquals(expectedData.length, uploader.upload(ByteBuffer.wrap(expectedData), 0));
+        assertArrayEquals(expectedData, stub.getStableData());
+        assertEquals(UncommittedWrites.MAXIMUM_REPLAYS + 1, stub.getCommits());
+    }
+
+    @Test
+    public void testParallelUploadVerifierKeepsChanging() throws Exception {
+        StubNfsFile stub = new StubNfsFile(1024);
+        stub.changeVerifierOnCommits(UncommittedWrites.MAXIMUM_REPLAYS + 1);
+        NfsParallelUploader uploader = new NfsParallelUploader(stub.getFile());
+        try {
+            uploader.upload(ByteBuffer.wrap(makeData(20 * 1024)), 0);
+            fail("This should throw an IOException");
+        } catch (IOException e) {
+            // Do nothing, this was expected.
+        }
+        assertEquals(UncommittedWrites.MAXIMUM_REPLAYS + 1, stub.getCommits());
+    }
+
+    @Test
+    public void testWriteByteBuffer() throws Exception {
+        for (int maximumWritesInFlight = 0; maximumWritesInFlight <= 2; maximumWritesInFlight += 2) {
+            StubNfsFile stub = new StubNfsFile(1024);
+            stub.changeVerifierOnWrite(4);
+            NfsFileOutputStream outputStream = new NfsFileOutputStream(stub.getFile(), 0, NfsWriteRequest.UNSTABLE,
+                    maximumWritesInFlight);
+            byte[] expectedData = makeData(100 + 5000 + 3000 + 7);
+            outputStream.write(expectedData, 0, 100);
+            ByteBuffer heapBuffer = ByteBuffer.wrap(expectedData, 100, 5000);
+            outputStream.write(heapBuffer);
+            assertFalse(heapBuffer.hasRemaining());
+            ByteBuffer directBuffer = ByteBuffer.allocateDirect(3000);
+            directBuffer.put(expectedData, 5100, 3000);
+            directBuffer.flip();
+            outputStream.write(directBuffer);
+            assertFalse(directBuffer.hasRemaining());
+            outputStream.write(expectedData, 8100, 7);
+            outputStream.close();
+            // data sent from the caller buffers is replayed too
+            assertArrayEquals(expectedData, stub.getStableData());
+        }
+    }
+
+    @Test
+    public void testWriteByteBufferAfterShortWrite() throws Exception {
+        StubNfsFile stub = new StubNfsFile(1024);
+        stub.setMaximumWriteSize(1000);
+        NfsFileOutputStream outputStream = new NfsFileOutputStream(stub.getFile());
+        byte[] expectedData = makeData(1024 + 5000);
+        // the short WRITE of the full buffer leaves it partly used
+        outputStream.write(expectedData, 0, 1024);
+        ByteBuffer src = ByteBuffer.wrap(expectedData, 1024, 5000);
+        outputStream.write(src);
+        assertFalse(src.hasRemaining());
+        outputStream.close();
+        assertArrayEquals(expectedData, stub.getStableData());
+    }
+
+    @Test
+    public void testUploadFrom() throws Exception {
+        byte[] expectedData = makeData(50 * 1024 + 11);
+        Path localFile = Files.createTempFile("Test_Streams", null);
+        try {
+            Files.write(localFile, expectedData);
+
+            StubNfsFile stub = new StubNfsFile(1024);
+            NfsFileOutputStream outputStream = new NfsFileOutputStream(stub.getFile(), 0, NfsWriteRequest.UNSTABLE, 4);
+            assertEquals(expectedData.length, outputStream.uploadFrom(localFile));
+            outputStream.close();
+            assertArrayEquals(expectedData, stub.getStableData());
+
+            // a channel is read from its position, which is advanced
+            stub = new StubNfsFile(1024);
+            outputStream = new NfsFileOutputStream(stub.getFile());
+            try (FileChannel channel = FileChannel.open(localFile, StandardOpenOption.READ)) {
+                channel.position(1000);
+                assertEquals(expectedData.length - 1000, outputStream.uploadFrom(channel));
+                assertEquals(expectedData.length, channel.position());
+            }
+            outputStream.close();
+            assertArrayEquals(Arrays.copyOfRange(expectedData, 1000, expectedData.length), stub.getStableData());
+        } finally {
+            Files.delete(localFile);
+        }
+    }
+
+    /**
+     * @param size
+     *            The number of bytes.
+     * @return Data that differs from block to block.
+     */
+    private static byte[] makeData(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; ++i) {
+            data[i] = (byte) (i * 31 + i / 1024);
+        }
+        return data;
+    }
+
 }
@@ -0,0 +1,168 @@
+/**
+ * Copyright 2016-2018 Dell Inc. or its subsidiaries. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.nfsclient.nfs.nfs3;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.emc.ecs.nfsclient.nfs.NfsException;
+import com.emc.ecs.nfsclient.nfs.NfsStatus;
+import com.emc.ecs.nfsclient.nfs.io.StubNfs;
+
+/**
+ * @author seibed
+ */
+public class Test_PathResolver extends Assert {
+
+    @Test
+    public void testBuildTree() {
+        List<String> paths = Arrays.asList("/a/b/c", "a//b/d", "/a/./b/../b/e/", "/f", "/", "/a/b");
+        Map<String, PathResolver.Node> nodes = new HashMap<String, PathResolver.Node>();
+        PathResolver.Node root = PathResolver.buildTree(paths, nodes);
+
+        // every path has a node, at its normalized path
+        assertEquals(paths.size(), nodes.size());
+        assertEquals("/a/b/c", nodes.get("/a/b/c").getPath());
+        assertEquals("/a/b/d", nodes.get("a//b/d").getPath());
+        assertEquals("/a/b/e", nodes.get("/a/./b/../b/e/").getPath());
+        assertEquals("/f", nodes.get("/f").getPath());
+        assertSame(root, nodes.get("/"));
+
+        // shared directories appear once, in the order they were added
+        assertEquals("/", root.getPath());
+        assertEquals(Arrays.asList("a", "f"), new ArrayList<String>(root.getChildren().keySet()));
+        PathResolver.Node a = root.getChildren().get("a");
+        assertEquals(Arrays.asList("b"), new ArrayList<String>(a.getChildren().keySet()));
+        PathResolver.Node b = a.getChildren().get("b");
+        assertSame(b, nodes.get("/a/b"));
+        assertEquals(Arrays.asList("c", "d", "e"), new ArrayList<String>(b.getChildren().keySet()));
+        for (PathResolver.Node leaf : b.getChildren().values()) {
+            assertTrue(leaf.getChildren().isEmpty());
+        }
+        assertTrue(root.getChildren().get("f").getChildren().isEmpty());
+    }
+
+    @Test
+    public void testBuildTreeAboveRoot() {
+        Map<String, PathResolver.Node> nodes = new HashMap<String, PathResolver.Node>();
+        PathResolver.Node root = PathResolver.buildTree(Arrays.asList("/../x", "../../x/y"), nodes);
+        assertEquals("/x", nodes.get("/../x").getPath());
+        assertEquals("/x/y", nodes.get("../../x/y").getPath());
+        assertEquals(1, root.getChildren().size());
+    }
+
+    @Test
+    public void testLookup() throws Exception {
+        StubNfs stubNfs = new StubNfs();
+        stubNfs.mkdir("/a");
+        stubNfs.mkdir("/a/b");
+        stubNfs.createFile("/a/b/c", new byte[0]);
+        stubNfs.createFile("/a/d", new byte[0]);
+        stubNfs.clearCalls();
+
+        Map<String, byte[]> fileHandles = new PathResolver(stubNfs.getNfs())
+                .resolveAll(Arrays.asList("/a/b/c", "a/d", "/a/missing", "/a/b", "/missing/e"));
+        assertEquals(new HashSet<String>(Arrays.asList("/a/b/c", "a/d", "/a/b")), fileHandles.keySet());
+
+        // each directory is looked up once
+        List<String> calls = stubNfs.getCalls();
+        assertEquals(6, calls.size());
+        assertEquals(1, Collections.frequency(calls, "LOOKUP /a"));
+        assertEquals(1, Collections.frequency(calls, "LOOKUP /a/b"));
+        assertTrue(calls.contains("LOOKUP /a/b/c"));
+        assertTrue(calls.contains("LOOKUP /missing"));
+    }
+
+    @Test
+    public void testReaddirplus() throws Exception {
+        StubNfs stubNfs = new StubNfs();
+        stubNfs.mkdir("/big");
+        List<String> paths = new ArrayList<String>();
+        for (int i = 0; i < 2 * PathResolver.READDIRPLUS_MINIMUM_CHILDREN; ++i) {
+            stubNfs.createFile("/big/file" + i, new byte[0]);
+            paths.add("/big/file" + i);
+        }
+        stubNfs.mkdir("/big/dir");
+        stubNfs.createFile("/big/dir/file", new byte[0]);
+        paths.add("/big/dir/file");
+        paths.add("/big/missing");
+        stubNfs.clearCalls();
+
+        Map<String, byte[]> fileHandles = new PathResolver(stubNfs.getNfs()).resolveAll(paths);
+        assertEquals(paths.size() - 1, fileHandles.size());
+        assertFalse(fileHandles.containsKey("/big/missing"));
+
+        // the children of the big directory are listed, not looked up
+        List<String> calls = stubNfs.getCalls();
+        assertEquals(Arrays.asList("LOOKUP /big", "READDIRPLUS /big", "READDIRPLUS /big", "LOOKUP /big/dir/file"),
+                calls);
+    }
+
+    @Test
+    public void testNotDirectoryIgnored() throws Exception {
+        StubNfs stubNfs = new StubNfs();
+        stubNfs.createFile("/file", new byte[0]);
+
+        Map<String, byte[]> fileHandles = new PathResolver(stubNfs.getNfs())
+                .resolveAll(Arrays.asList("/file", "/file/child"));
+        assertEquals(Collections.singleton("/file"), fileHandles.keySet());
+    }
+
+    @Test
+    public void testFailureReported() throws Exception {
+        StubNfs stubNfs = new StubNfs();
+        stubNfs.mkdir("/a");
+        stubNfs.createFile("/a/b", new byte[0]);
+        stubNfs.createFile("/c", new byte[0]);
+        stubNfs.failLookups("/a/b", NfsStatus.NFS3ERR_IO);
+
+        try {
+            new PathResolver(stubNfs.getNfs()).resolveAll(Arrays.asList("/a/b", "/c"));
+            fail("the failure was not reported");
+        } catch (NfsException e) {
+            assertEquals(NfsStatus.NFS3ERR_IO, e.getStatus());
+        }
+    }
+
+    @Test
+    public void testPipelined() throws Exception {
+        StubNfs stubNfs = new StubNfs();
+        stubNfs.mkdir("/slow");
+        stubNfs.createFile("/slow/x", new byte[0]);
+        stubNfs.mkdir("/fast");
+        stubNfs.mkdir("/fast/a");
+        stubNfs.mkdir("/fast/a/b");
+        stubNfs.createFile("/fast/a/b/c", new byte[0]);
+        stubNfs.delayLookups("/slow", 500);
+        stubNfs.clearCalls();
+
+        Map<String, byte[]> fileHandles = new PathResolver(stubNfs.getNfs())
+                .resolveAll(Arrays.asList("/slow/x", "/fast/a/b/c"));
+        assertEquals(2, fileHandles.size());
+
+        // the deep path is resolved while the slow directory is still busy
+        List<String> calls = stubNfs.getCalls();
+        assertTrue(calls.toString(), calls.indexOf("LOOKUP /fast/a/b/c") < calls.indexOf("LOOKUP /slow/x"));
+    }
+
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright 2016-2018 Dell Inc. or its subsidiaries. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.nfsclient.rpc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author seibed
+ */
+public class Test_ConcurrencyLimiter extends Assert {
+
+    @Test
+    public void testAimd() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 8);
+        for (int i = 0; i < 4; ++i) {
+            assertTrue(limiter.acquire(1, TimeUnit.SECONDS));
+        }
+        assertFalse(limiter.acquire(10, TimeUnit.MILLISECONDS));
+
+        // a drop halves the limit, but only once for calls started together
+        long startTime = System.nanoTime();
+        limiter.onDropped(startTime);
+        assertEquals(2, limiter.getLimit());
+        limiter.onDropped(startTime);
+        assertEquals(2, limiter.getLimit());
+        limiter.onIgnored();
+        limiter.onIgnored();
+        assertEquals(0, limiter.getInFlight());
+
+        // busy, fast calls grow the limit up to the maximum
+        for (int i = 0; i < 1000; ++i) {
+            while (limiter.getInFlight() < limiter.getLimit()) {
+                assertTrue(limiter.acquire(1, TimeUnit.SECONDS));
+            }
+            limiter.onSuccess(System.nanoTime(), 1, false);
+        }
+        assertEquals(8, limiter.getLimit());
+    }
+
+    @Test
+    public void testMixedProcedures() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(16, 32);
+        // let calls start after the creation of the limiter
+        Thread.sleep(100);
+
+        // cheap and expensive procedures together are not a slowdown
+        for (int i = 0; i < 1000; ++i) {
+            assertTrue(limiter.acquire(1, TimeUnit.SECONDS));
+            long latency = TimeUnit.MILLISECONDS.toNanos((i % 2 == 0) ? 1 + i % 3 : 50 + i % 7);
+            limiter.onSuccess(System.nanoTime() - latency, i % 2, true);
+        }
+        assertTrue(limiter.getLimit() >= 16);
+        int limit = limiter.getLimit();
+
+        // a lasting slowdown of one procedure shrinks the limit
+        for (int i = 0; i < 20; ++i) {
+            Thread.sleep(25);
+            assertTrue(limiter.acquire(1, TimeUnit.SECONDS));
+            limiter.onSuccess(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(20), 0, true);
+        }
+        assertTrue(limiter.getLimit() < limit);
+    }
+
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright 2016-2018 Dell Inc. or its subsidiaries. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.nfsclient.rpc;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author seibed
+ */
+public class Test_EndpointSet extends Assert {
+
+    private static final String[] ADDRESSES = { "10.0.0.1", "10.0.0.2", "10.0.0.3", "10.0.0.4" };
+
+    @Test
+    public void testRendezvousStability() {
+        EndpointSet all = new EndpointSet("server", ADDRESSES, 0);
+        EndpointSet fewer = new EndpointSet("server", new String[] { "10.0.0.1", "10.0.0.2", "10.0.0.3" }, 0);
+
+        int[] counts = new int[ADDRESSES.length];
+        for (int i = 0; i < 1000; ++i) {
+            byte[] key = makeKey(i);
+            String address = all.choose(key);
+            ++counts[Integer.parseInt(address.substring(address.lastIndexOf('.') + 1)) - 1];
+            // only the keys of the removed address move
+            if (!address.equals("10.0.0.4")) {
+                assertEquals(address, fewer.choose(key));
+            }
+        }
+        for (int count : counts) {
+            assertTrue(count > 100);
+        }
+    }
+
+    @Test
+    public void testEjection() {
+        EndpointSet endpoints = new EndpointSet("server", ADDRESSES, 0);
+        byte[] key = makeKey(7);
+        String first = endpoints.choose(key);
+
+        endpoints.reportFailure(first);
+        String second = endpoints.choose(key);
+        assertNotEquals(first, second);
+
+        // no more than half of the addresses are ejected
+        endpoints.reportFailure(second);
+        String third = endpoints.choose(key);
+        endpoints.reportFailure(third);
+        assertEquals(third, endpoints.choose(key));
+    }
+
+    @Test
+    public void testSlowEjection() {
+        EndpointSet endpoints = new EndpointSet("server", ADDRESSES, 0);
+        endpoints.reportSuccess("10.0.0.1", 1000000);
+        endpoints.reportSuccess("10.0.0.2", 1000000);
+        endpoints.reportSuccess("10.0.0.3", 1000000000);
+        for (int i = 0; i < 1000; ++i) {
+            assertNotEquals("10.0.0.3", endpoints.choose(makeKey(i)));
+        }
+    }
+
+    private static byte[] makeKey(int i) {
+        return ByteBuffer.allocate(8).putInt(i).putInt(i * 31).array();
+    }
+
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright 2016-2018 Dell Inc. or its subsidiaries. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.nfsclient.rpc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author seibed
+ */
+public class Test_LatencyTracker extends Assert {
+
+    @Test
+    public void testPercentiles() {
+        LatencyTracker tracker = new LatencyTracker();
+        assertEquals(-1, tracker.getPercentile(0.95));
+
+        for (int i = 0; i < 90; ++i) {
+            tracker.record(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        for (int i = 0; i < 10; ++i) {
+            tracker.record(TimeUnit.MILLISECONDS.toNanos(100));
+        }
+        long median = tracker.getPercentile(0.5);
+        assertTrue(median >= TimeUnit.MILLISECONDS.toNanos(1));
+        assertTrue(median < TimeUnit.MILLISECONDS.toNanos(2));
+        long tail = tracker.getPercentile(0.95);
+        assertTrue(tail >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertTrue(tail < TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright 2016-2018 Dell Inc. or its subsidiaries. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.nfsclient.rpc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author seibed
+ */
+public class Test_RpcThrottle extends Assert {
+
+    @Test
+    public void testLimits() throws Exception {
+        RpcThrottle throttle = new RpcThrottle("tenant", 1);
+        throttle.setLimits(0, 0, 2);
+        assertTrue(throttle.acquire(0, 1, TimeUnit.SECONDS));
+        assertTrue(throttle.acquire(0, 1, TimeUnit.SECONDS));
+        assertFalse(throttle.acquire(0, 10, TimeUnit.MILLISECONDS));
+        throttle.release();
+        assertTrue(throttle.acquire(0, 1, TimeUnit.SECONDS));
+        throttle.release();
+        throttle.release();
+
+        // a burst of one second's worth, then the rate
+        throttle.setLimits(10, 0, 0);
+        for (int i = 0; i < 10; ++i) {
+            assertTrue(throttle.acquire(0, 1, TimeUnit.SECONDS));
+            throttle.release();
+        }
+        assertFalse(throttle.acquire(0, 10, TimeUnit.MILLISECONDS));
+        assertTrue(throttle.acquire(0, 1, TimeUnit.SECONDS));
+        throttle.release();
+        assertEquals(14, throttle.getTotalOps());
+    }
+
+    @Test
+    public void testFairShare() throws Exception {
+        FairScheduler scheduler = new FairScheduler(3);
+        RpcThrottle heavy = new RpcThrottle("heavy", 1);
+        RpcThrottle light = new RpcThrottle("light", 2);
+        for (int i = 0; i < 3; ++i) {
+            assertTrue(scheduler.acquire(heavy, 1, TimeUnit.SECONDS));
+        }
+        assertFalse(scheduler.acquire(light, 10, TimeUnit.MILLISECONDS));
+
+        // the freed place goes to the tenant with less than its share
+        scheduler.release(heavy);
+        assertTrue(scheduler.acquire(light, 1, TimeUnit.SECONDS));
+        assertEquals(3, scheduler.getInFlight());
+    }
+
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2016-2018 Dell Inc. or its subsidiaries. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.nfsclient.rpc;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author seibed
+ */
+public class Test_SingleFlight extends Assert {
+
+    @Test
+    public void testCoalescing() throws Exception {
+        final SingleFlight<String, Integer> singleFlight = new SingleFlight<String, Integer>();
+        final AtomicInteger calls = new AtomicInteger(0);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final SingleFlight.Call<Integer> call = new SingleFlight.Call<Integer>() {
+            public Integer call() throws IOException {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return Integer.valueOf(calls.incrementAndGet());
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<Integer> first = executor.submit(new Callable<Integer>() {
+                public Integer call() throws Exception {
+                    return singleFlight.execute("key", call);
+                }
+            });
+            started.await();
+            Future<Integer> second = executor.submit(new Callable<Integer>() {
+                public Integer call() throws Exception {
+                    return singleFlight.execute("key", call);
+                }
+            });
+            // give the second caller time to join the first call
+            Thread.sleep(100);
+            release.countDown();
+            assertEquals(Integer.valueOf(1), first.get());
+            assertEquals(Integer.valueOf(1), second.get());
+            assertEquals(1, calls.get());
+        } finally {
+            executor.shutdown();
+        }
+
+        // nothing is cached once the call is over
+        assertEquals(Integer.valueOf(2), singleFlight.execute("key", call));
+        assertEquals(0, singleFlight.getCallsInProgress());
+    }
+
+    @Test
+    public void testStartNewFlights() throws Exception {
+        final SingleFlight<String, Integer> singleFlight = new SingleFlight<String, Integer>();
+        final AtomicInteger calls = new AtomicInteger(0);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final SingleFlight.Call<Integer> call = new SingleFlight.Call<Integer>() {
+            public Integer call() throws IOException {
+                int callNumber = calls.incrementAndGet();
+                if (callNumber == 1) {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                return Integer.valueOf(callNumber);
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<Integer> first = executor.submit(new Callable<Integer>() {
+                public Integer call() throws Exception {
+                    return singleFlight.execute("key", call);
+                }
+            });
+            started.await();
+
+            // a change completes while the first call is in progress, so it
+            // may have been sent before the change
+            singleFlight.startNewFlights();
+
+            // a caller that must see the change makes its own call
+            assertEquals(Integer.valueOf(2), singleFlight.execute("key", call));
+
+            release.countDown();
+            assertEquals(Integer.valueOf(1), first.get());
+            assertEquals(2, calls.get());
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(0, singleFlight.getCallsInProgress());
+    }
+
+}